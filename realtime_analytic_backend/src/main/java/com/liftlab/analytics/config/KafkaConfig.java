@@ -2,7 +2,9 @@ package com.liftlab.analytics.config;
 
 import com.liftlab.analytics.model.AnalyticsEvent;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -10,8 +12,14 @@ import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,8 +36,93 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.group-id}")
     private String groupId;
     
+    // Consumer threads per listener; threads beyond the partition count of analytics-events stay idle
+    @Value("${spring.kafka.listener.concurrency:2}")
+    private int concurrency;
+    
+    @Value("${analytics.kafka.listener.max-poll-records:500}")
+    private int batchMaxPollRecords;
+    
+    @Value("${analytics.kafka.listener.idle-event-interval:5s}")
+    private Duration idleEventInterval;
+    
+    @Value("${analytics.kafka.producer.linger-ms:10}")
+    private int producerLingerMs;
+    
+    @Value("${analytics.kafka.producer.batch-size:65536}")
+    private int producerBatchSize;
+    
+    @Value("${analytics.kafka.producer.compression-type:lz4}")
+    private String producerCompressionType;
+    
+    @Value("${analytics.kafka.producer.acks:all}")
+    private String producerAcks;
+    
+    @Value("${analytics.kafka.producer.max-block-ms:1000}")
+    private long producerMaxBlockMs;
+    
     @Bean
     public ConsumerFactory<String, AnalyticsEvent> consumerFactory() {
+        return new DefaultKafkaConsumerFactory<>(consumerProperties());
+    }
+    
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, AnalyticsEvent> kafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, AnalyticsEvent> factory = 
+            new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(concurrency);
+        return factory;
+    }
+    
+    /**
+     * Batch listener factory: each poll is delivered as one list and offsets are committed manually,
+     * only after the listener has confirmed the batch is written to Redis (at-least-once).
+     * Used by the batch and parallel listener modes.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, AnalyticsEvent> batchKafkaListenerContainerFactory() {
+        Map<String, Object> props = consumerProperties();
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchMaxPollRecords);
+        
+        ConcurrentKafkaListenerContainerFactory<String, AnalyticsEvent> factory = 
+            new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setConcurrency(concurrency);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        // Idle events let the listener retry a failed batch even when no new records arrive
+        factory.getContainerProperties().setIdleEventInterval(idleEventInterval.toMillis());
+        return factory;
+    }
+    
+    /**
+     * Producer of analytics.ingestion.mode=kafka. Sends wait up to linger-ms to fill batches of up to
+     * batch-size bytes per partition, compressed as a whole, so HTTP bursts become a few large appends
+     */
+    @Bean
+    public ProducerFactory<String, AnalyticsEvent> producerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, producerLingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, producerBatchSize);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, producerCompressionType);
+        props.put(ProducerConfig.ACKS_CONFIG, producerAcks);
+        // Bounds the wait for metadata or buffer space when the brokers are unreachable or behind
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, producerMaxBlockMs);
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+    
+    @Bean
+    public KafkaTemplate<String, AnalyticsEvent> kafkaTemplate() {
+        return new KafkaTemplate<>(producerFactory());
+    }
+    
+    private Map<String, Object> consumerProperties() {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
@@ -40,17 +133,7 @@ public class KafkaConfig {
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
         props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, "com.liftlab.analytics.model.AnalyticsEvent");
-        
-        return new DefaultKafkaConsumerFactory<>(props);
-    }
-    
-    @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, AnalyticsEvent> kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, AnalyticsEvent> factory = 
-            new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(consumerFactory());
-        factory.setConcurrency(2); // 2 consumers
-        return factory;
+        return props;
     }
 }
 
@@ -1,17 +1,30 @@
 package com.liftlab.analytics.controller;
 
+import com.liftlab.analytics.exception.IngestQueueFullException;
+import com.liftlab.analytics.kafka.KafkaEventProducer;
+import com.liftlab.analytics.model.AckMode;
 import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.BatchProcessingResult;
 import com.liftlab.analytics.model.EventProcessingResult;
 import com.liftlab.analytics.service.EventProcessingService;
+import com.liftlab.analytics.service.IngestPipeline;
+import com.liftlab.analytics.validation.ValidationException;
 import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
+import java.util.Arrays;
+import java.util.stream.Collectors;
 
 
 @RestController
@@ -20,22 +33,103 @@ import javax.validation.Valid;
 @Slf4j
 public class EventController {
     
+    /**
+     * Where ingested events go (analytics.ingestion.mode)
+     */
+    public enum IngestMode {
+        // Through the IngestPipeline (single events) or EventProcessingService (batches) to storage
+        DIRECT,
+        // Validated and published to the analytics-events topic, written to storage by the Kafka consumers
+        KAFKA
+    }
+    
     private final EventProcessingService eventProcessingService;
+    private final IngestPipeline ingestPipeline;
+    private final KafkaEventProducer kafkaEventProducer;
+    
+    @Value("${analytics.ingestion.mode:direct}")
+    private IngestMode ingestMode;
+    
+    @Value("${analytics.ingestion.batch.max-size:500}")
+    private int maxBatchSize;
+    
+    @Value("${analytics.ingestion.ack.default:accepted}")
+    private String defaultAck;
     
+    /**
+     * Ingests a single event through the IngestPipeline. The ack mode picks when it responds: right after
+     * queueing (none, 202 Accepted), once the event is validated and journaled (accepted) or once it is
+     * written to storage (durable). A full pipeline queue is answered with 429 Too Many Requests when its
+     * overflow policy rejects.
+     * In kafka ingest mode the event is validated and published to Kafka instead, and accepted means the
+     * brokers have it; durable is not available there.
+     */
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
     @RateLimiter(name = "eventIngestion")
     public Mono<ResponseEntity<EventProcessingResult>> ingestEvent(
-            @RequestBody @Valid Mono<AnalyticsEvent> event) {
+            @RequestBody @Valid Mono<AnalyticsEvent> event,
+            @RequestParam(required = false) String ack) {
         
+        String ackName = ack != null ? ack : defaultAck;
+        AckMode ackMode = AckMode.fromName(ackName).orElse(null);
+        if (ackMode == null) {
+            return Mono.error(new ValidationException(String.format("Unknown ack mode: %s (available: %s)", ackName,
+                Arrays.stream(AckMode.values()).map(AckMode::getName).collect(Collectors.joining(", ")))));
+        }
+        if (ingestMode == IngestMode.KAFKA && ackMode == AckMode.DURABLE) {
+            return Mono.error(new ValidationException(
+                "ack=durable is not available when events are ingested through Kafka"));
+        }
         return event
-            .flatMap(eventProcessingService::processEvent)
-            .map(ResponseEntity::ok)
-            .onErrorResume(error -> {
+            .flatMap(received -> ingestMode == IngestMode.KAFKA
+                ? kafkaEventProducer.publish(received, ackMode)
+                : ingestPipeline.publish(received, ackMode))
+            .map(result -> ackMode == AckMode.NONE && result.isSuccess()
+                ? ResponseEntity.status(HttpStatus.ACCEPTED).body(result)
+                : ResponseEntity.ok(result))
+            .onErrorResume(error -> !(error instanceof IngestQueueFullException) && !isUnreadableBody(error), error -> {
                 log.error("Error processing event", error);
                 return Mono.just(ResponseEntity.ok(
                     EventProcessingResult.failure(error.getMessage())
                 ));
             });
     }
+    
+    /**
+     * Ingests a batch of events sent as a JSON array or as NDJSON (one event per line).
+     * The whole batch consumes a single rate limiter permit and is written to storage in one flush,
+     * or published to Kafka in kafka ingest mode.
+     */
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @RateLimiter(name = "eventIngestion")
+    public Mono<ResponseEntity<BatchProcessingResult>> ingestBatch(@RequestBody Flux<AnalyticsEvent> events) {
+        
+        // Read at most one event past the limit so oversized batches are rejected without buffering them
+        return events
+            .take(maxBatchSize + 1L)
+            .collectList()
+            .flatMap(batch -> {
+                if (batch.size() > maxBatchSize) {
+                    return Mono.error(new ValidationException(
+                        String.format("Batch size exceeds the maximum of %d events", maxBatchSize)));
+                }
+                return ingestMode == IngestMode.KAFKA
+                    ? kafkaEventProducer.publishBatch(batch)
+                    : eventProcessingService.processBatch(batch);
+            })
+            .map(ResponseEntity::ok)
+            .onErrorResume(error -> !(error instanceof ValidationException), error -> {
+                log.error("Error processing event batch", error);
+                return Mono.just(ResponseEntity.ok(
+                    BatchProcessingResult.failure(error.getMessage())
+                ));
+            });
+    }
+    
+    /**
+     * A missing or malformed body is answered with 400; events that fail validation still get a failure result
+     */
+    private static boolean isUnreadableBody(Throwable error) {
+        return error instanceof ServerWebInputException && !(error instanceof WebExchangeBindException);
+    }
 }
-
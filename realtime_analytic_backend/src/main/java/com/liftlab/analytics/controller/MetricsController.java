@@ -1,15 +1,38 @@
 package com.liftlab.analytics.controller;
 
+import com.liftlab.analytics.metrics.model.MetricWindow;
+import com.liftlab.analytics.model.ActiveSessionsPage;
 import com.liftlab.analytics.model.MetricsResponse;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesResponse;
 import com.liftlab.analytics.service.MetricsService;
+import com.liftlab.analytics.service.MetricsStreamService;
+import com.liftlab.analytics.service.TimeSeriesService;
+import com.liftlab.analytics.validation.ValidationException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/metrics")
@@ -18,10 +41,74 @@ import reactor.core.publisher.Mono;
 public class MetricsController {
     
     private final MetricsService metricsService;
+    private final MetricsStreamService metricsStreamService;
+    private final TimeSeriesService timeSeriesService;
     
+    // Storage cursors are unsigned integers (Redis SSCAN cursor, interned id in memory)
+    private static final Pattern CURSOR_PATTERN = Pattern.compile("\\d{1,20}");
+    // Series steps: a count of minutes, hours or days (5m, 1h, 1d)
+    private static final Pattern STEP_PATTERN = Pattern.compile("([1-9]\\d{0,3})([mhd])");
+    // Series are bucketed in epoch millis
+    private static final Instant MIN_SERIES_INSTANT = Instant.ofEpochMilli(Long.MIN_VALUE);
+    private static final Instant MAX_SERIES_INSTANT = Instant.ofEpochMilli(Long.MAX_VALUE);
+    
+    @Value("${analytics.metrics.sessions.page-max-size:1000}")
+    private int maxSessionsPageSize = 1000;
+    
+    /**
+     * All metrics, or only those listed in ?metrics=activeUsers,topPages (only those are calculated).
+     * ?window=1m|5m|15m|1h|24h applies one window to every metric instead of each metric's own.
+     */
     @GetMapping
-    public Mono<ResponseEntity<MetricsResponse>> getMetrics() {
-        return metricsService.getCurrentMetrics()
+    public Mono<ResponseEntity<MetricsResponse>> getMetrics(
+            @RequestParam(required = false) String metrics,
+            @RequestParam(required = false) String window) {
+        if (metrics == null && window == null) {
+            return withFallback(metricsService.getCurrentMetrics());
+        }
+        if (metrics == null) {
+            return getSelectedMetrics(metricsService.getMetricNames(), window);
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : metrics.split(",")) {
+            if (!name.isBlank()) {
+                names.add(name.trim());
+            }
+        }
+        if (names.isEmpty()) {
+            return Mono.error(new ValidationException("At least one metric must be requested"));
+        }
+        return getSelectedMetrics(names, window);
+    }
+    
+    @GetMapping("/{name}")
+    public Mono<ResponseEntity<MetricsResponse>> getMetric(
+            @PathVariable String name,
+            @RequestParam(required = false) String window) {
+        return getSelectedMetrics(Collections.singleton(name), window);
+    }
+    
+    private Mono<ResponseEntity<MetricsResponse>> getSelectedMetrics(Set<String> names, String window) {
+        Set<String> available = metricsService.getMetricNames();
+        for (String name : names) {
+            if (!available.contains(name)) {
+                return Mono.error(new ValidationException(
+                    String.format("Unknown metric: %s (available: %s)", name, String.join(", ", available))));
+            }
+        }
+        MetricWindow metricWindow = null;
+        if (window != null) {
+            metricWindow = MetricWindow.fromLabel(window).orElse(null);
+            if (metricWindow == null) {
+                return Mono.error(new ValidationException(String.format("Unknown window: %s (available: %s)", window,
+                    Arrays.stream(MetricWindow.values()).map(MetricWindow::getLabel).collect(Collectors.joining(", ")))));
+            }
+        }
+        return withFallback(metricsService.getMetrics(names, metricWindow));
+    }
+    
+    private Mono<ResponseEntity<MetricsResponse>> withFallback(Mono<MetricsResponse> response) {
+        return response
             .map(ResponseEntity::ok)
             .onErrorResume(error -> {
                 log.error("Error retrieving metrics", error);
@@ -35,5 +122,82 @@ public class MetricsController {
                 ));
             });
     }
+    
+    /**
+     * Pages through the active sessions of every user (the metrics response only carries the top users).
+     * Start without a cursor and pass each response's nextCursor back until it is null.
+     */
+    @GetMapping("/sessions")
+    public Mono<ResponseEntity<ActiveSessionsPage>> getActiveSessions(
+            @RequestParam(defaultValue = ActiveSessionsPage.START_CURSOR) String cursor,
+            @RequestParam(defaultValue = "100") int limit) {
+        if (!CURSOR_PATTERN.matcher(cursor).matches()) {
+            return Mono.error(new ValidationException("Invalid cursor: " + cursor));
+        }
+        if (limit < 1 || limit > maxSessionsPageSize) {
+            return Mono.error(new ValidationException(
+                String.format("Limit must be between 1 and %d", maxSessionsPageSize)));
+        }
+        return metricsService.getActiveSessionsPage(cursor, limit)
+            .map(ResponseEntity::ok);
+    }
+    
+    /**
+     * Time series of activeUsers or pageViews with one point per step, for charts.
+     * from and to are ISO-8601 instants or epoch millis (default: the hour up to now).
+     */
+    @GetMapping("/series")
+    public Mono<ResponseEntity<SeriesResponse>> getSeries(
+            @RequestParam String metric,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "1m") String step) {
+        SeriesMetric seriesMetric = SeriesMetric.fromName(metric).orElse(null);
+        if (seriesMetric == null) {
+            return Mono.error(new ValidationException(String.format("Unknown series metric: %s (available: %s)", metric,
+                Arrays.stream(SeriesMetric.values()).map(SeriesMetric::getName).collect(Collectors.joining(", ")))));
+        }
+        Matcher stepMatcher = STEP_PATTERN.matcher(step);
+        if (!stepMatcher.matches()) {
+            return Mono.error(new ValidationException("Invalid step: " + step + " (e.g. 1m, 5m, 1h, 1d)"));
+        }
+        long amount = Long.parseLong(stepMatcher.group(1));
+        Duration stepDuration = "m".equals(stepMatcher.group(2)) ? Duration.ofMinutes(amount)
+            : "h".equals(stepMatcher.group(2)) ? Duration.ofHours(amount)
+            : Duration.ofDays(amount);
+        
+        Instant toInstant;
+        Instant fromInstant;
+        try {
+            toInstant = to == null ? Instant.now() : parseInstant(to);
+            fromInstant = from == null ? toInstant.minus(Duration.ofHours(1)) : parseInstant(from);
+        } catch (DateTimeException | NumberFormatException e) {
+            return Mono.error(new ValidationException("from and to must be ISO-8601 instants or epoch millis"));
+        }
+        if (isOutsideSeriesRange(fromInstant) || isOutsideSeriesRange(toInstant)) {
+            return Mono.error(new ValidationException("from and to must be within the range of epoch millis"));
+        }
+        return timeSeriesService.getSeries(seriesMetric, fromInstant, toInstant, stepDuration)
+            .map(ResponseEntity::ok);
+    }
+    
+    private static boolean isOutsideSeriesRange(Instant instant) {
+        return instant.isBefore(MIN_SERIES_INSTANT) || instant.isAfter(MAX_SERIES_INSTANT);
+    }
+    
+    private static Instant parseInstant(String value) {
+        return !value.isEmpty() && value.chars().allMatch(Character::isDigit)
+            ? Instant.ofEpochMilli(Long.parseLong(value))
+            : Instant.parse(value);
+    }
+    
+    /**
+     * Server-Sent Events: a full "metrics" frame on connect, then "delta" frames with the fields
+     * that changed whenever the metrics are recalculated
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamMetrics() {
+        return metricsStreamService.stream();
+    }
 }
 
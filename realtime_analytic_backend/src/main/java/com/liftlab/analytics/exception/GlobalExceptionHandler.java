@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.bind.support.WebExchangeBindException;
 import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Mono;
 
 import java.time.Instant;
@@ -51,6 +52,21 @@ public class GlobalExceptionHandler {
         return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(error));
     }
     
+    @ExceptionHandler(IngestQueueFullException.class)
+    public Mono<ResponseEntity<ErrorResponse>> handleIngestQueueFullException(
+            IngestQueueFullException ex, ServerWebExchange exchange) {
+        log.warn("Ingest queue full: {}", ex.getMessage());
+        
+        ErrorResponse error = ErrorResponse.builder()
+            .error("Too Many Requests")
+            .message("Ingest queue is full. Please try again later.")
+            .timestamp(Instant.now())
+            .path(exchange.getRequest().getPath().value())
+            .build();
+        
+        return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(error));
+    }
+    
     @ExceptionHandler(WebExchangeBindException.class)
     public Mono<ResponseEntity<ErrorResponse>> handleBindingException(
             WebExchangeBindException ex, ServerWebExchange exchange) {
@@ -71,6 +87,21 @@ public class GlobalExceptionHandler {
         return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error));
     }
     
+    @ExceptionHandler(ServerWebInputException.class)
+    public Mono<ResponseEntity<ErrorResponse>> handleInputException(
+            ServerWebInputException ex, ServerWebExchange exchange) {
+        log.warn("Invalid request: {}", ex.getMessage());
+        
+        ErrorResponse error = ErrorResponse.builder()
+            .error("Bad Request")
+            .message(ex.getReason() != null ? ex.getReason() : "Invalid request")
+            .timestamp(Instant.now())
+            .path(exchange.getRequest().getPath().value())
+            .build();
+        
+        return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error));
+    }
+    
     @ExceptionHandler(Exception.class)
     public Mono<ResponseEntity<ErrorResponse>> handleGenericException(
             Exception ex, ServerWebExchange exchange) {
@@ -0,0 +1,12 @@
+package com.liftlab.analytics.exception;
+
+/**
+ * Exception thrown when the ingest pipeline has no free slot for an event and its overflow policy
+ * rejects it
+ */
+public class IngestQueueFullException extends RuntimeException {
+    
+    public IngestQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,178 @@
+package com.liftlab.analytics.kafka;
+
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.service.EventProcessingService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Kafka batch consumer for analytics events (at-least-once).
+ * Each poll is written to Redis as one pipelined batch. Writes run asynchronously, but offsets are
+ * acknowledged strictly in poll order and only after the batch's writes complete, so a committed
+ * offset never skips an event that is not in Redis yet. When too many events are in flight the
+ * listener container is paused until the backlog drains.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "analytics.kafka.listener.mode", havingValue = "batch", matchIfMissing = true)
+public class KafkaBatchEventConsumer {
+
+    public static final String LISTENER_ID = "analyticsBatchListener";
+
+    private final EventProcessingService eventProcessingService;
+    private final KafkaListenerEndpointRegistry registry;
+    private final int maxInFlightEvents;
+    private final int resumeInFlightEvents;
+
+    private final AtomicInteger inFlightEvents = new AtomicInteger();
+
+    // Each consumer thread owns its own partitions, so acknowledgments are ordered per thread
+    private final ThreadLocal<OrderedAcknowledgments> acknowledgments = ThreadLocal.withInitial(OrderedAcknowledgments::new);
+
+    public KafkaBatchEventConsumer(EventProcessingService eventProcessingService,
+                                   KafkaListenerEndpointRegistry registry,
+                                   @Value("${analytics.kafka.listener.max-in-flight-events:2000}") int maxInFlightEvents) {
+        this.eventProcessingService = eventProcessingService;
+        this.registry = registry;
+        this.maxInFlightEvents = maxInFlightEvents;
+        this.resumeInFlightEvents = maxInFlightEvents / 2;
+    }
+
+    @KafkaListener(id = LISTENER_ID, topics = "analytics-events", groupId = "analytics-consumer-group",
+        containerFactory = "batchKafkaListenerContainerFactory")
+    public void consume(List<ConsumerRecord<String, AnalyticsEvent>> records,
+                        Acknowledgment acknowledgment,
+                        Consumer<?, ?> consumer) {
+        OrderedAcknowledgments ordered = acknowledgments.get();
+        if (ordered.hasFailed()) {
+            // An earlier batch was not written - go back to it instead of processing past the gap
+            ordered.rewind(consumer, records);
+            return;
+        }
+
+        List<AnalyticsEvent> events = records.stream()
+            .map(ConsumerRecord::value)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        log.debug("Received batch of {} events from Kafka", events.size());
+
+        int batchSize = records.size();
+        reserve(batchSize);
+        CompletableFuture<Void> written = eventProcessingService.processBatchOrFail(events)
+            .doOnNext(result -> {
+                if (result.getRejected() > 0) {
+                    log.warn("Skipped {} invalid events from Kafka: {}", result.getRejected(), result.getMessage());
+                }
+            })
+            .doOnError(error -> log.error("Error writing event batch from Kafka, it will be redelivered", error))
+            .doFinally(signal -> release(batchSize))
+            .then()
+            .toFuture();
+
+        ordered.append(records, written, acknowledgment);
+    }
+
+    /**
+     * Idle events are published on the consumer thread, so a failed batch is retried even when
+     * no new records arrive
+     */
+    @EventListener(condition = "event.listenerId.startsWith('" + LISTENER_ID + "')")
+    public void onIdle(ListenerContainerIdleEvent event) {
+        OrderedAcknowledgments ordered = acknowledgments.get();
+        if (ordered.hasFailed()) {
+            ordered.rewind(event.getConsumer(), Collections.emptyList());
+        }
+    }
+
+    int getInFlightEvents() {
+        return inFlightEvents.get();
+    }
+
+    private void reserve(int events) {
+        if (inFlightEvents.addAndGet(events) > maxInFlightEvents) {
+            MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+            if (container != null && !container.isPauseRequested()) {
+                log.info("Pausing Kafka consumption: {} events in flight (max {})", inFlightEvents.get(), maxInFlightEvents);
+                container.pause();
+            }
+        }
+    }
+
+    private void release(int events) {
+        if (inFlightEvents.addAndGet(-events) <= resumeInFlightEvents) {
+            MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+            if (container != null && container.isPauseRequested()) {
+                log.info("Resuming Kafka consumption: {} events in flight", inFlightEvents.get());
+                container.resume();
+            }
+        }
+    }
+
+    /**
+     * Acknowledges batches in poll order: a batch is acknowledged once its own writes and all earlier
+     * acknowledgments have completed. A failed write fails every later link of the chain, so nothing
+     * past it is committed until the consumer rewinds.
+     */
+    static final class OrderedAcknowledgments {
+
+        // First offset per partition of every batch not acknowledged yet, in poll order
+        private final Deque<Map<TopicPartition, Long>> pending = new ConcurrentLinkedDeque<>();
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+        void append(List<? extends ConsumerRecord<?, ?>> records, CompletableFuture<Void> written,
+                    Acknowledgment acknowledgment) {
+            pending.addLast(firstOffsets(records));
+            tail = tail.thenCombine(written, (previous, current) -> current)
+                .thenRun(() -> {
+                    // Spring Kafka queues acknowledgments from other threads and commits them on the consumer thread
+                    acknowledgment.acknowledge();
+                    pending.pollFirst();
+                });
+        }
+
+        boolean hasFailed() {
+            return tail.isCompletedExceptionally();
+        }
+
+        /**
+         * Seeks every partition back to its first unacknowledged offset, including the partitions of
+         * records that were just polled but not processed, and resets the chain
+         */
+        void rewind(Consumer<?, ?> consumer, List<? extends ConsumerRecord<?, ?>> unprocessed) {
+            Map<TopicPartition, Long> seekTo = new HashMap<>(firstOffsets(unprocessed));
+            for (Map<TopicPartition, Long> batch : pending) {
+                batch.forEach((partition, offset) -> seekTo.merge(partition, offset, Math::min));
+            }
+            log.warn("Rewinding Kafka consumer to redeliver unacknowledged events: {}", seekTo);
+            seekTo.forEach(consumer::seek);
+            pending.clear();
+            tail = CompletableFuture.completedFuture(null);
+        }
+
+        private static Map<TopicPartition, Long> firstOffsets(List<? extends ConsumerRecord<?, ?>> records) {
+            Map<TopicPartition, Long> offsets = new HashMap<>();
+            for (ConsumerRecord<?, ?> record : records) {
+                offsets.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+            }
+            return offsets;
+        }
+    }
+}
+
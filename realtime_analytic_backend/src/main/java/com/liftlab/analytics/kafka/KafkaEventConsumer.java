@@ -1,30 +1,38 @@
 package com.liftlab.analytics.kafka;
 
+import com.liftlab.analytics.model.AckMode;
 import com.liftlab.analytics.model.AnalyticsEvent;
-import com.liftlab.analytics.service.EventProcessingService;
+import com.liftlab.analytics.service.IngestPipeline;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Service;
 
 /**
- * Kafka consumer for analytics events
+ * Kafka consumer for analytics events, one record at a time with auto-committed offsets.
+ * Records are published into the IngestPipeline; with the block overflow policy a full queue holds
+ * the listener thread, which slows down polling instead of losing events. They are published with
+ * AckMode.NONE, so this mode is at-most-once: offsets are auto-committed once polled, and events still
+ * in the pipeline, or whose write fails, are lost. The batch and parallel modes are at-least-once.
+ * Enabled with analytics.kafka.listener.mode=record; see {@link KafkaBatchEventConsumer} for the default mode.
  */
 @Service
 @Slf4j
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "analytics.kafka.listener.mode", havingValue = "record")
 public class KafkaEventConsumer {
     
-    private final EventProcessingService eventProcessingService;
+    private final IngestPipeline ingestPipeline;
     
     @KafkaListener(topics = "analytics-events", groupId = "analytics-consumer-group")
     public void consume(AnalyticsEvent event) {
         log.info("Received event from Kafka: {}", event);
-        eventProcessingService.processEvent(event)
+        ingestPipeline.publish(event, AckMode.NONE)
             .subscribe(
                 result -> {
                     if (result.isSuccess()) {
-                        log.debug("Event processed successfully from Kafka: {}", event.getUserId());
+                        log.debug("Event queued from Kafka: {}", event.getUserId());
                     } else {
                         log.warn("Event processing failed from Kafka: {}", result.getMessage());
                     }
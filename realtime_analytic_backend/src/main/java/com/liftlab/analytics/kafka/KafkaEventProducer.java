@@ -0,0 +1,131 @@
+package com.liftlab.analytics.kafka;
+
+import com.liftlab.analytics.model.AckMode;
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.BatchProcessingResult;
+import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.validation.ValidationManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Publishes HTTP-ingested events to the analytics-events topic (analytics.ingestion.mode=kafka).
+ * Events are validated first, so only well-formed events reach the topic, and keyed by user ID, so
+ * the events of a user stay in one partition and in order. The consumers then write them to storage
+ * at their own pace: the HTTP path is an append to Kafka, and bursts are absorbed by the topic.
+ * The producer batches and compresses sends (see KafkaConfig.producerFactory).
+ */
+@Service
+@Slf4j
+public class KafkaEventProducer {
+
+    public static final String TOPIC = "analytics-events";
+
+    private final KafkaTemplate<String, AnalyticsEvent> kafkaTemplate;
+    private final ValidationManager validationManager;
+
+    private final Counter published;
+    private final Counter failures;
+
+    public KafkaEventProducer(KafkaTemplate<String, AnalyticsEvent> kafkaTemplate,
+                              ValidationManager validationManager,
+                              MeterRegistry meterRegistry) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.validationManager = validationManager;
+        this.published = Counter.builder("analytics.ingest.kafka.published")
+            .description("Events published to the analytics-events topic")
+            .register(meterRegistry);
+        this.failures = Counter.builder("analytics.ingest.kafka.failures")
+            .description("Events whose send to the analytics-events topic failed")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Validates the event and publishes it
+     *
+     * @param ack NONE answers once the event is handed to the producer, ACCEPTED once the brokers
+     *            have it (per analytics.kafka.producer.acks); DURABLE is not supported in this mode
+     * @return Result of the validation and the send
+     */
+    public Mono<EventProcessingResult> publish(AnalyticsEvent event, AckMode ack) {
+        return offEventLoop(Mono.defer(() -> {
+            try {
+                validationManager.validate(event);
+            } catch (Exception e) {
+                log.debug("Rejected event: {}", e.getMessage());
+                return Mono.just(EventProcessingResult.failure(e.getMessage()));
+            }
+            CompletableFuture<EventProcessingResult> sent = send(event);
+            return ack == AckMode.NONE
+                ? Mono.just(EventProcessingResult.queued())
+                : Mono.fromFuture(sent);
+        }));
+    }
+
+    /**
+     * Validates the events and publishes the valid ones
+     *
+     * @return Batch result with one entry per event, once every send is acknowledged by the brokers
+     */
+    public Mono<BatchProcessingResult> publishBatch(List<AnalyticsEvent> events) {
+        return offEventLoop(Mono.defer(() -> {
+            List<CompletableFuture<EventProcessingResult>> results = new ArrayList<>(events.size());
+            for (AnalyticsEvent event : events) {
+                try {
+                    validationManager.validate(event);
+                    results.add(send(event));
+                } catch (Exception e) {
+                    log.debug("Rejected event in batch: {}", e.getMessage());
+                    results.add(CompletableFuture.completedFuture(EventProcessingResult.failure(e.getMessage())));
+                }
+            }
+            return Mono.fromFuture(CompletableFuture.allOf(results.toArray(new CompletableFuture[0])))
+                .then(Mono.fromCallable(() -> {
+                    List<EventProcessingResult> resolved = new ArrayList<>(results.size());
+                    results.forEach(result -> resolved.add(result.join()));
+                    return BatchProcessingResult.of(resolved);
+                }));
+        }));
+    }
+
+    /**
+     * @return Result of the send; a failed send is reported as a failed event, not as an error
+     */
+    private CompletableFuture<EventProcessingResult> send(AnalyticsEvent event) {
+        CompletableFuture<EventProcessingResult> result = new CompletableFuture<>();
+        try {
+            kafkaTemplate.send(TOPIC, event.getUserId(), event).completable().whenComplete((sent, error) -> {
+                if (error == null) {
+                    published.increment();
+                    result.complete(EventProcessingResult.success());
+                } else {
+                    result.complete(failed(error));
+                }
+            });
+        } catch (RuntimeException e) {
+            // Thrown by send itself when metadata or buffer space is not available within max-block-ms
+            result.complete(failed(e));
+        }
+        return result;
+    }
+
+    private EventProcessingResult failed(Throwable error) {
+        failures.increment();
+        log.error("Error publishing event to Kafka", error);
+        return EventProcessingResult.failure("Could not publish event: " + error.getMessage());
+    }
+
+    private static <T> Mono<T> offEventLoop(Mono<T> publishing) {
+        // send may wait up to analytics.kafka.producer.max-block-ms for metadata or buffer space
+        return Schedulers.isInNonBlockingThread() ? publishing.subscribeOn(Schedulers.boundedElastic()) : publishing;
+    }
+}
@@ -0,0 +1,290 @@
+package com.liftlab.analytics.kafka;
+
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.service.EventProcessingService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Kafka consumer that processes the records of one partition concurrently (at-least-once).
+ * Each poll is split into lanes by record key (the user ID): the records of a lane are written as one
+ * batch, lanes are written concurrently, and a lane's next batch starts only after its previous one,
+ * so the events of a user are written in partition order. Offsets are committed per partition up to
+ * the first record that is not written yet - never past a gap. After a failed write the writes queued
+ * behind it are skipped and the consumer rewinds to the first unwritten offset of each partition.
+ * Enabled with analytics.kafka.listener.mode=parallel; see {@link KafkaBatchEventConsumer} for the default mode.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "analytics.kafka.listener.mode", havingValue = "parallel")
+public class KafkaParallelEventConsumer {
+
+    public static final String LISTENER_ID = "analyticsParallelListener";
+
+    private final EventProcessingService eventProcessingService;
+    private final KafkaListenerEndpointRegistry registry;
+    private final int lanes;
+    private final int maxInFlightEvents;
+    private final int resumeInFlightEvents;
+
+    private final AtomicInteger inFlightEvents = new AtomicInteger();
+
+    // Each consumer thread owns its own partitions, so the lanes and offsets of a partition stay on one thread
+    private final ThreadLocal<ConsumerState> states;
+
+    public KafkaParallelEventConsumer(EventProcessingService eventProcessingService,
+                                      KafkaListenerEndpointRegistry registry,
+                                      @Value("${analytics.kafka.listener.parallel.lanes:8}") int lanes,
+                                      @Value("${analytics.kafka.listener.max-in-flight-events:2000}") int maxInFlightEvents) {
+        this.eventProcessingService = eventProcessingService;
+        this.registry = registry;
+        this.lanes = lanes;
+        this.maxInFlightEvents = maxInFlightEvents;
+        this.resumeInFlightEvents = maxInFlightEvents / 2;
+        this.states = ThreadLocal.withInitial(() -> new ConsumerState(lanes));
+    }
+
+    @KafkaListener(id = LISTENER_ID, topics = "analytics-events", groupId = "analytics-consumer-group",
+        containerFactory = "batchKafkaListenerContainerFactory")
+    public void consume(List<ConsumerRecord<String, AnalyticsEvent>> records, Consumer<?, ?> consumer) {
+        ConsumerState state = states.get();
+        if (state.generation.failed) {
+            // A write failed - go back to the first unwritten offsets instead of processing past them
+            state.rewind(consumer, records);
+            return;
+        }
+
+        Generation generation = state.generation;
+        List<List<ConsumerRecord<String, AnalyticsEvent>>> byLane = new ArrayList<>(lanes);
+        for (int lane = 0; lane < lanes; lane++) {
+            byLane.add(new ArrayList<>());
+        }
+        for (ConsumerRecord<String, AnalyticsEvent> record : records) {
+            OffsetTracker tracker = generation.tracker(new TopicPartition(record.topic(), record.partition()));
+            tracker.received(record.offset());
+            if (record.value() == null) {
+                tracker.completed(record.offset());
+                continue;
+            }
+            byLane.get(lane(record)).add(record);
+        }
+        log.debug("Received {} events from Kafka", records.size());
+
+        for (int lane = 0; lane < lanes; lane++) {
+            List<ConsumerRecord<String, AnalyticsEvent>> laneRecords = byLane.get(lane);
+            if (!laneRecords.isEmpty()) {
+                reserve(laneRecords.size());
+                state.append(lane, () -> write(generation, laneRecords));
+            }
+        }
+        state.commit(consumer);
+    }
+
+    /**
+     * Idle events are published on the consumer thread, so completed offsets are committed and a failed
+     * write is retried even when no new records arrive
+     */
+    @EventListener(condition = "event.listenerId.startsWith('" + LISTENER_ID + "')")
+    public void onIdle(ListenerContainerIdleEvent event) {
+        ConsumerState state = states.get();
+        if (state.generation.failed) {
+            state.rewind(event.getConsumer(), Collections.emptyList());
+        } else {
+            state.commit(event.getConsumer());
+        }
+    }
+
+    int getInFlightEvents() {
+        return inFlightEvents.get();
+    }
+
+    private int lane(ConsumerRecord<String, AnalyticsEvent> record) {
+        String key = record.key() != null ? record.key() : record.value().getUserId();
+        return key == null ? 0 : Math.floorMod(key.hashCode(), lanes);
+    }
+
+    private CompletableFuture<Void> write(Generation generation, List<ConsumerRecord<String, AnalyticsEvent>> records) {
+        if (generation.failed) {
+            // An earlier write of this generation failed; these records are redelivered after the rewind
+            release(records.size());
+            return CompletableFuture.completedFuture(null);
+        }
+        List<AnalyticsEvent> events = new ArrayList<>(records.size());
+        records.forEach(record -> events.add(record.value()));
+        return eventProcessingService.processBatchOrFail(events)
+            .doOnNext(result -> {
+                if (result.getRejected() > 0) {
+                    log.warn("Skipped {} invalid events from Kafka: {}", result.getRejected(), result.getMessage());
+                }
+                for (ConsumerRecord<String, AnalyticsEvent> record : records) {
+                    generation.tracker(new TopicPartition(record.topic(), record.partition())).completed(record.offset());
+                }
+            })
+            .doOnError(error -> {
+                log.error("Error writing event batch from Kafka, it will be redelivered", error);
+                generation.failed = true;
+            })
+            .doFinally(signal -> release(records.size()))
+            .then()
+            .toFuture();
+    }
+
+    private void reserve(int events) {
+        if (inFlightEvents.addAndGet(events) > maxInFlightEvents) {
+            MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+            if (container != null && !container.isPauseRequested()) {
+                log.info("Pausing Kafka consumption: {} events in flight (max {})", inFlightEvents.get(), maxInFlightEvents);
+                container.pause();
+            }
+        }
+    }
+
+    private void release(int events) {
+        if (inFlightEvents.addAndGet(-events) <= resumeInFlightEvents) {
+            MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+            if (container != null && container.isPauseRequested()) {
+                log.info("Resuming Kafka consumption: {} events in flight", inFlightEvents.get());
+                container.resume();
+            }
+        }
+    }
+
+    /**
+     * Lanes and offsets of one consumer thread
+     */
+    private static final class ConsumerState {
+
+        // Last write queued on each lane; the next one starts when it completes, successfully or not
+        private final CompletableFuture<?>[] tails;
+        private Generation generation = new Generation();
+
+        ConsumerState(int lanes) {
+            tails = new CompletableFuture<?>[lanes];
+            Arrays.fill(tails, CompletableFuture.completedFuture(null));
+        }
+
+        void append(int lane, Supplier<CompletableFuture<Void>> write) {
+            tails[lane] = tails[lane].handle((previous, error) -> null).thenCompose(ignored -> write.get());
+        }
+
+        /**
+         * Commits, for every partition still assigned, the offsets up to the first unwritten record
+         */
+        void commit(Consumer<?, ?> consumer) {
+            Set<TopicPartition> assigned = consumer.assignment();
+            // Partitions revoked by a rebalance: their uncommitted records are redelivered to the new owner
+            generation.trackers.keySet().retainAll(assigned);
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            generation.trackers.forEach((partition, tracker) -> {
+                long next = tracker.committable();
+                if (next >= 0) {
+                    offsets.put(partition, new OffsetAndMetadata(next));
+                }
+            });
+            if (!offsets.isEmpty()) {
+                consumer.commitAsync(offsets, (committed, error) -> {
+                    if (error != null) {
+                        // A later commit covers these offsets
+                        log.warn("Could not commit Kafka offsets {}: {}", committed, error.getMessage());
+                    }
+                });
+            }
+        }
+
+        /**
+         * Commits what is written and seeks every partition back to its first unwritten offset, including
+         * the partitions of records that were just polled but not processed, then starts a new generation.
+         * Writes still running belong to the old one: their completions no longer count, and its queued
+         * writes are skipped.
+         */
+        void rewind(Consumer<?, ?> consumer, List<? extends ConsumerRecord<?, ?>> unprocessed) {
+            commit(consumer);
+            Map<TopicPartition, Long> seekTo = new HashMap<>();
+            for (ConsumerRecord<?, ?> record : unprocessed) {
+                seekTo.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+            }
+            generation.trackers.forEach((partition, tracker) -> {
+                long first = tracker.firstPending();
+                if (first >= 0) {
+                    seekTo.merge(partition, first, Math::min);
+                }
+            });
+            log.warn("Rewinding Kafka consumer to redeliver unwritten events: {}", seekTo);
+            seekTo.forEach(consumer::seek);
+            generation = new Generation();
+        }
+    }
+
+    /**
+     * Offsets tracked between two rewinds
+     */
+    private static final class Generation {
+
+        private final Map<TopicPartition, OffsetTracker> trackers = new ConcurrentHashMap<>();
+        private volatile boolean failed;
+
+        OffsetTracker tracker(TopicPartition partition) {
+            return trackers.computeIfAbsent(partition, ignored -> new OffsetTracker());
+        }
+    }
+
+    /**
+     * Offsets of one partition received and not committed yet. Records complete in any order; the
+     * committable offset only moves over an unbroken run of completed records from the oldest one.
+     */
+    static final class OffsetTracker {
+
+        // Offset of every record received and not committed yet, with whether it is written
+        private final TreeMap<Long, Boolean> offsets = new TreeMap<>();
+
+        synchronized void received(long offset) {
+            offsets.putIfAbsent(offset, false);
+        }
+
+        synchronized void completed(long offset) {
+            offsets.computeIfPresent(offset, (ignored, done) -> true);
+        }
+
+        /**
+         * Takes the completed records up to the first pending one
+         *
+         * @return Offset to commit (the next one to consume), or -1 when no more records are complete
+         */
+        synchronized long committable() {
+            long last = -1;
+            while (!offsets.isEmpty() && offsets.firstEntry().getValue()) {
+                last = offsets.pollFirstEntry().getKey();
+            }
+            return last < 0 ? -1 : last + 1;
+        }
+
+        /**
+         * @return Oldest offset not written yet, or -1 when every received record is written
+         */
+        synchronized long firstPending() {
+            for (Map.Entry<Long, Boolean> entry : offsets.entrySet()) {
+                if (!entry.getValue()) {
+                    return entry.getKey();
+                }
+            }
+            return -1;
+        }
+    }
+}
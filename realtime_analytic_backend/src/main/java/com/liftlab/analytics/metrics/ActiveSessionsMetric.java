@@ -2,22 +2,32 @@ package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.metrics.model.MetricResult;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.MetricsResponse;
+import com.liftlab.analytics.model.UserSessionCount;
 import lombok.RequiredArgsConstructor;
-import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
- * Metric for active sessions per user (last 5 minutes)
+ * Metric for active sessions per user (last 5 minutes, or a shorter requested window - sessions are
+ * only kept for 5 minutes, so longer windows are capped)
+ * Reports only the users with the most sessions plus totals, so the response stays small however many
+ * users are active; the full list is paged through GET /api/metrics/sessions
  */
 @Component
 @Slf4j
 @RequiredArgsConstructor
 public class ActiveSessionsMetric implements IMetric {
     
+    @Value("${analytics.metrics.sessions.top-n:10}")
+    private int topN = 10;
+    
     @Override
     public String getName() {
         return "activeSessions";
@@ -25,17 +35,25 @@ public class ActiveSessionsMetric implements IMetric {
     
     @Override
     public Mono<MetricResult> calculate(MetricContext context) {
+        long windowStart = Math.max(context.windowStartOr(context.getFiveMinutesAgo()), context.getFiveMinutesAgo());
         return context.getStorageService()
-            .getActiveSessionsByUser(context.getFiveMinutesAgo())
-            .map(sessionsByUser -> {
-                log.debug("Calculated active sessions for {} users", sessionsByUser.size());
-                return (MetricResult) new ActiveSessionsMetricResult(sessionsByUser);
+            .getTopActiveSessions(topN, windowStart)
+            .map(summary -> {
+                log.debug("Calculated active sessions for {} users", summary.getTotalUsers());
+                return (MetricResult) new ActiveSessionsMetricResult(summary);
             });
     }
     
-    @Value
+    @Override
+    public void copyFields(MetricsResponse from, MetricsResponse.MetricsResponseBuilder to) {
+        to.activeSessionsByUser(from.getActiveSessionsByUser())
+            .activeSessionsUserCount(from.getActiveSessionsUserCount())
+            .activeSessionsTotal(from.getActiveSessionsTotal());
+    }
+    
+    @lombok.Value
     private static class ActiveSessionsMetricResult implements MetricResult {
-        Map<String, Integer> sessionsByUser;
+        ActiveSessionsSummary summary;
         
         @Override
         public String getMetricName() {
@@ -44,8 +62,20 @@ public class ActiveSessionsMetric implements IMetric {
         
         @Override
         public Object getValue() {
+            // Insertion order keeps the highest session counts first in the JSON
+            Map<String, Integer> sessionsByUser = new LinkedHashMap<>();
+            for (UserSessionCount user : summary.getTopUsers()) {
+                sessionsByUser.put(user.getUserId(), user.getSessionCount());
+            }
             return sessionsByUser;
         }
+        
+        @Override
+        public Map<String, Object> getDetails() {
+            return Map.of(
+                "activeSessionsUserCount", summary.getTotalUsers(),
+                "activeSessionsTotal", summary.getTotalSessions());
+        }
     }
 }
 
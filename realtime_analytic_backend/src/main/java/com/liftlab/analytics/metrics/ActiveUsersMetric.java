@@ -2,14 +2,19 @@ package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.metrics.model.MetricResult;
+import com.liftlab.analytics.model.CountAccuracy;
+import com.liftlab.analytics.model.MetricsResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
+import java.util.Map;
+
 /**
- * Metric for active users count (last 5 minutes)
+ * Metric for active users count (last 5 minutes, or the requested window)
+ * Windows longer than the storage keeps users for (exact Redis mode: 5 minutes) are capped there
  */
 @Component
 @Slf4j
@@ -23,17 +28,30 @@ public class ActiveUsersMetric implements IMetric {
     
     @Override
     public Mono<MetricResult> calculate(MetricContext context) {
+        CountAccuracy accuracy = context.getStorageService().getActiveUserCountAccuracy();
+        long oldestKept = context.getStorageService().getActiveUserCountMaxWindow()
+            .map(maxWindow -> context.getCurrentTimestamp() - maxWindow.toMillis())
+            .orElse(Long.MIN_VALUE);
+        long windowStart = Math.max(context.windowStartOr(context.getFiveMinutesAgo()), oldestKept);
         return context.getStorageService()
-            .getActiveUserCount(context.getFiveMinutesAgo())
+            .getActiveUserCount(windowStart)
             .map(count -> {
                 log.debug("Calculated active users: {}", count);
-                return (MetricResult) new ActiveUsersMetricResult(count);
+                return (MetricResult) new ActiveUsersMetricResult(count, accuracy);
             });
     }
     
+    @Override
+    public void copyFields(MetricsResponse from, MetricsResponse.MetricsResponseBuilder to) {
+        to.activeUsersCount(from.getActiveUsersCount())
+            .activeUsersMode(from.getActiveUsersMode())
+            .activeUsersErrorBound(from.getActiveUsersErrorBound());
+    }
+    
     @Value
     private static class ActiveUsersMetricResult implements MetricResult {
         int activeUsersCount;
+        CountAccuracy accuracy;
         
         @Override
         public String getMetricName() {
@@ -44,6 +62,15 @@ public class ActiveUsersMetric implements IMetric {
         public Object getValue() {
             return activeUsersCount;
         }
+        
+        @Override
+        public Map<String, Object> getDetails() {
+            // Storage decides whether users are counted exactly or estimated (e.g. HyperLogLog)
+            CountAccuracy reported = accuracy != null ? accuracy : CountAccuracy.EXACT;
+            return Map.of(
+                "activeUsersMode", reported.getMode(),
+                "activeUsersErrorBound", reported.getErrorBound());
+        }
     }
 }
 
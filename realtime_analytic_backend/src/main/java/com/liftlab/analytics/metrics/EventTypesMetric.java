@@ -0,0 +1,83 @@
+package com.liftlab.analytics.metrics;
+
+import com.liftlab.analytics.metrics.model.MetricContext;
+import com.liftlab.analytics.metrics.model.MetricResult;
+import com.liftlab.analytics.model.MetricsResponse;
+import com.liftlab.analytics.model.PageEventTypeCount;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metric for events by type (last 15 minutes, or the requested window), and optionally the most
+ * frequent page and event type pairs (analytics.metrics.event-types.by-page)
+ * Read from counters bucketed at ingestion, so the cost does not depend on the number of events
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class EventTypesMetric implements IMetric {
+    
+    @Value("${analytics.metrics.event-types.limit:20}")
+    private int limit = 20;
+    
+    @Value("${analytics.metrics.event-types.by-page:false}")
+    private boolean byPage = false;
+    
+    @Value("${analytics.metrics.event-types.by-page-limit:10}")
+    private int byPageLimit = 10;
+    
+    @Override
+    public String getName() {
+        return "eventTypes";
+    }
+    
+    @Override
+    public Mono<MetricResult> calculate(MetricContext context) {
+        long windowStart = context.windowStartOr(context.getFifteenMinutesAgo());
+        Mono<List<PageEventTypeCount>> byPageCounts = byPage
+            ? context.getStorageService().getTopPageEventTypes(byPageLimit, windowStart)
+            : Mono.just(Collections.emptyList());
+        return Mono.zip(context.getStorageService().getEventTypeCounts(limit, windowStart), byPageCounts)
+            .map(counts -> {
+                log.debug("Calculated event types: {}", counts.getT1().size());
+                return (MetricResult) new EventTypesMetricResult(counts.getT1(), byPage ? counts.getT2() : null);
+            });
+    }
+    
+    @Override
+    public void copyFields(MetricsResponse from, MetricsResponse.MetricsResponseBuilder to) {
+        to.eventTypeCounts(from.getEventTypeCounts())
+            .eventTypesByPage(from.getEventTypesByPage());
+    }
+    
+    @lombok.Value
+    private static class EventTypesMetricResult implements MetricResult {
+        Map<String, Long> eventTypeCounts;
+        // Null when page and event type pairs are not counted
+        List<PageEventTypeCount> eventTypesByPage;
+        
+        @Override
+        public String getMetricName() {
+            return "eventTypes";
+        }
+        
+        @Override
+        public Object getValue() {
+            return eventTypeCounts;
+        }
+        
+        @Override
+        public Map<String, Object> getDetails() {
+            return eventTypesByPage == null
+                ? Collections.emptyMap()
+                : Collections.singletonMap("eventTypesByPage", eventTypesByPage);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.metrics.model.MetricResult;
+import com.liftlab.analytics.model.MetricsResponse;
 import reactor.core.publisher.Mono;
 
 /**
@@ -20,6 +21,13 @@ public interface IMetric {
      * @return Metric result wrapped in Mono for reactive processing
      */
     Mono<MetricResult> calculate(MetricContext context);
+    
+    /**
+     * Copy the response fields this metric fills, used to select the requested metrics of a response
+     * @param from Response to copy the fields from
+     * @param to   Builder of the selected response
+     */
+    void copyFields(MetricsResponse from, MetricsResponse.MetricsResponseBuilder to);
 
 }
 
@@ -2,56 +2,198 @@ package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.metrics.model.MetricResult;
+import com.liftlab.analytics.metrics.model.MetricWindow;
 import com.liftlab.analytics.model.MetricsResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
 import static java.util.stream.Collectors.toList;
 
 /**
  * Collects and calculates all metrics
+ * Each metric has a latency budget (analytics.metrics.timeout-ms, or analytics.metrics.timeouts.<name>).
+ * A metric that misses it or fails reports its last calculated value and is listed in staleMetrics,
+ * so one slow query does not hold back or fail the whole response.
  */
 @Component
 @Slf4j
-public class MetricsCollector {
+public class MetricsCollector implements EnvironmentAware {
+    
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMillis(500);
     
     private final List<IMetric> metrics;
+    private final Set<String> metricNames;
+    // Last successful result of each metric and requested window, served while it is stale
+    private final Map<ResultKey, MetricResult> lastResults = new ConcurrentHashMap<>();
+    private Duration defaultTimeout = DEFAULT_TIMEOUT;
+    private Map<String, Duration> timeouts = Collections.emptyMap();
     
     public MetricsCollector(List<IMetric> metrics) {
         this.metrics = metrics;
+        Set<String> names = new LinkedHashSet<>();
+        for (IMetric metric : metrics) {
+            names.add(metric.getName());
+        }
+        this.metricNames = Collections.unmodifiableSet(names);
         log.info("Initialized MetricsCollector with {} metrics", metrics.size());
     }
     
+    @Override
+    public void setEnvironment(Environment environment) {
+        defaultTimeout = Duration.ofMillis(environment.getProperty(
+            "analytics.metrics.timeout-ms", Long.class, DEFAULT_TIMEOUT.toMillis()));
+        Map<String, Duration> overrides = new HashMap<>();
+        for (String name : metricNames) {
+            Long timeoutMs = environment.getProperty("analytics.metrics.timeouts." + name, Long.class);
+            if (timeoutMs != null) {
+                overrides.put(name, Duration.ofMillis(timeoutMs));
+            }
+        }
+        timeouts = overrides;
+    }
+    
+    /**
+     * Names of the metrics that can be requested
+     */
+    public Set<String> getMetricNames() {
+        return metricNames;
+    }
+    
     /**
      * Calculate all metrics in parallel
      */
     public reactor.core.publisher.Mono<MetricsResponse> calculateAllMetrics(MetricContext context) {
-        List<reactor.core.publisher.Mono<MetricResult>> metricMonoList = metrics.stream()
-            .map(metric -> metric.calculate(context))
+        return calculate(metrics, context);
+    }
+    
+    /**
+     * Calculate only the named metrics in parallel, so a request pays for the queries it asks for.
+     * Fields of the other metrics are left null.
+     *
+     * @param names Metric names, see getMetricNames()
+     */
+    public reactor.core.publisher.Mono<MetricsResponse> calculateMetrics(MetricContext context, Set<String> names) {
+        List<IMetric> selected = metrics.stream()
+            .filter(metric -> names.contains(metric.getName()))
+            .collect(toList());
+        if (selected.isEmpty()) {
+            return reactor.core.publisher.Mono.just(select(buildMetricsResponse(Collections.emptyMap()), names));
+        }
+        return calculate(selected, context)
+            .map(response -> select(response, names));
+    }
+    
+    /**
+     * Copy of the response with only the fields of the named metrics (and the timestamp)
+     */
+    public MetricsResponse select(MetricsResponse response, Set<String> names) {
+        MetricsResponse.MetricsResponseBuilder selected = MetricsResponse.builder();
+        for (IMetric metric : metrics) {
+            if (names.contains(metric.getName())) {
+                metric.copyFields(response, selected);
+            }
+        }
+        return selected
+            .staleMetrics(response.getStaleMetrics() == null ? null : response.getStaleMetrics().stream()
+                .filter(names::contains)
+                .collect(toList()))
+            .window(response.getWindow())
+            .timestamp(response.getTimestamp())
+            .build();
+    }
+    
+    private reactor.core.publisher.Mono<MetricsResponse> calculate(List<IMetric> toCalculate, MetricContext context) {
+        List<reactor.core.publisher.Mono<MetricResult>> metricMonoList = toCalculate.stream()
+            .map(metric -> calculateWithinBudget(metric, context))
             .collect(toList());
         
         return reactor.core.publisher.Mono.zip(metricMonoList, results -> {
             Map<String, Object> metricMap = new HashMap<>();
+            List<String> staleMetrics = new ArrayList<>();
             for (Object result : results) {
+                if (result instanceof StaleMetricResult) {
+                    StaleMetricResult stale = (StaleMetricResult) result;
+                    staleMetrics.add(stale.getMetricName());
+                    if (stale.getLastResult() == null) {
+                        // Nothing calculated yet, the field keeps its empty default
+                        continue;
+                    }
+                    result = stale.getLastResult();
+                }
                 if (result instanceof MetricResult) {
                     MetricResult mr = (MetricResult) result;
                     metricMap.put(mr.getMetricName(), mr.getValue());
+                    metricMap.putAll(mr.getDetails());
                 }
             }
-            return buildMetricsResponse(metricMap);
+            MetricsResponse response = buildMetricsResponse(metricMap);
+            response.setStaleMetrics(staleMetrics);
+            return response;
         });
     }
     
+    /**
+     * The metric's result, or its last known result flagged as stale if it misses its budget or fails
+     */
+    private reactor.core.publisher.Mono<MetricResult> calculateWithinBudget(IMetric metric, MetricContext context) {
+        Duration timeout = timeouts.getOrDefault(metric.getName(), defaultTimeout);
+        // A stale result is only served for the window it was calculated for
+        ResultKey resultKey = new ResultKey(metric.getName(), context.getWindow());
+        return reactor.core.publisher.Mono.defer(() -> metric.calculate(context))
+            .timeout(timeout)
+            .doOnNext(result -> lastResults.put(resultKey, result))
+            .onErrorResume(error -> {
+                if (error instanceof TimeoutException) {
+                    log.warn("Metric {} missed its {} ms budget, reporting its last value", metric.getName(), timeout.toMillis());
+                } else {
+                    log.warn("Metric {} failed, reporting its last value", metric.getName(), error);
+                }
+                return reactor.core.publisher.Mono.just(new StaleMetricResult(metric.getName(), lastResults.get(resultKey)));
+            });
+    }
+    
     private MetricsResponse buildMetricsResponse(Map<String, Object> metricMap) {
         return MetricsResponse.builder()
             .activeUsersCount((Integer) metricMap.getOrDefault("activeUsers", 0))
+            .activeUsersMode((String) metricMap.get("activeUsersMode"))
+            .activeUsersErrorBound((Double) metricMap.get("activeUsersErrorBound"))
             .topPages((List<com.liftlab.analytics.model.PageView>) metricMap.getOrDefault("topPages", Collections.emptyList()))
             .activeSessionsByUser((Map<String, Integer>) metricMap.getOrDefault("activeSessions", Collections.emptyMap()))
+            .activeSessionsUserCount((Integer) metricMap.get("activeSessionsUserCount"))
+            .activeSessionsTotal((Long) metricMap.get("activeSessionsTotal"))
+            .eventTypeCounts((Map<String, Long>) metricMap.getOrDefault("eventTypes", Collections.emptyMap()))
+            .eventTypesByPage((List<com.liftlab.analytics.model.PageEventTypeCount>) metricMap.get("eventTypesByPage"))
             .timestamp(Instant.now())
             .build();
     }
+    
+    @lombok.Value
+    private static class ResultKey {
+        String metricName;
+        // Null for each metric's own window
+        MetricWindow window;
+    }
+    
+    /**
+     * Stand-in for a metric that missed its budget or failed, carrying its last result if there is one
+     */
+    @lombok.Value
+    private static class StaleMetricResult implements MetricResult {
+        String metricName;
+        MetricResult lastResult;
+        
+        @Override
+        public Object getValue() {
+            return lastResult != null ? lastResult.getValue() : null;
+        }
+    }
 }
 
@@ -2,22 +2,38 @@ package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.metrics.model.MetricResult;
-import lombok.RequiredArgsConstructor;
+import com.liftlab.analytics.model.MetricsResponse;
+import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.service.TopPagesSketchService;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
 
 /**
- * Metric for top pages (last 15 minutes)
+ * Metric for top pages (last 15 minutes, or the requested window)
+ * Read from merged sketches when the sketch engine is enabled and keeps the window, otherwise from
+ * the storage's per-page counters
  */
 @Component
 @Slf4j
-@RequiredArgsConstructor
 public class TopPagesMetric implements IMetric {
     
+    // Null when top pages are always read from storage
+    private final TopPagesSketchService sketchService;
+    
+    public TopPagesMetric() {
+        this(null);
+    }
+    
+    @Autowired
+    public TopPagesMetric(TopPagesSketchService sketchService) {
+        this.sketchService = sketchService;
+    }
+    
     @Override
     public String getName() {
         return "topPages";
@@ -25,17 +41,26 @@ public class TopPagesMetric implements IMetric {
     
     @Override
     public Mono<MetricResult> calculate(MetricContext context) {
-        return context.getStorageService()
-            .getTopPages(5, context.getFifteenMinutesAgo())
+        long windowStart = context.windowStartOr(context.getFifteenMinutesAgo());
+        long now = context.getCurrentTimestamp();
+        Mono<List<PageView>> read = sketchService != null && sketchService.covers(windowStart, now)
+            ? sketchService.getTopPages(5, windowStart, now)
+            : context.getStorageService().getTopPages(5, windowStart);
+        return read
             .map(topPages -> {
                 log.debug("Calculated top pages: {}", topPages.size());
                 return (MetricResult) new TopPagesMetricResult(topPages);
             });
     }
     
+    @Override
+    public void copyFields(MetricsResponse from, MetricsResponse.MetricsResponseBuilder to) {
+        to.topPages(from.getTopPages());
+    }
+    
     @Value
     private static class TopPagesMetricResult implements MetricResult {
-        List<com.liftlab.analytics.model.PageView> topPages;
+        List<PageView> topPages;
         
         @Override
         public String getMetricName() {
@@ -13,6 +13,14 @@ public class MetricContext {
     long currentTimestamp;
     long fiveMinutesAgo;
     long fifteenMinutesAgo;
+    // Window requested by the client, or null for each metric's own window
+    MetricWindow window;
     MetricsStorageService storageService;
+    
+    /**
+     * Start of the requested window, or defaultWindowStart when none was requested
+     */
+    public long windowStartOr(long defaultWindowStart) {
+        return window != null ? currentTimestamp - window.getDuration().toMillis() : defaultWindowStart;
+    }
 }
-
@@ -1,10 +1,20 @@
 package com.liftlab.analytics.metrics.model;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * Result of metric calculation
  */
 public interface MetricResult {
     String getMetricName();
     Object getValue();
+    
+    /**
+     * Extra values reported alongside the metric (e.g. how it was counted), keyed by response field
+     */
+    default Map<String, Object> getDetails() {
+        return Collections.emptyMap();
+    }
 }
 
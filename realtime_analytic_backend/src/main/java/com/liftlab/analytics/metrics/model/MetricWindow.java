@@ -0,0 +1,38 @@
+package com.liftlab.analytics.metrics.model;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Time windows a metrics request can ask for (?window=5m)
+ */
+public enum MetricWindow {
+    ONE_MINUTE("1m", Duration.ofMinutes(1)),
+    FIVE_MINUTES("5m", Duration.ofMinutes(5)),
+    FIFTEEN_MINUTES("15m", Duration.ofMinutes(15)),
+    ONE_HOUR("1h", Duration.ofHours(1)),
+    ONE_DAY("24h", Duration.ofHours(24));
+    
+    private final String label;
+    private final Duration duration;
+    
+    MetricWindow(String label, Duration duration) {
+        this.label = label;
+        this.duration = duration;
+    }
+    
+    public String getLabel() {
+        return label;
+    }
+    
+    public Duration getDuration() {
+        return duration;
+    }
+    
+    public static Optional<MetricWindow> fromLabel(String label) {
+        return Arrays.stream(values())
+            .filter(window -> window.label.equals(label))
+            .findFirst();
+    }
+}
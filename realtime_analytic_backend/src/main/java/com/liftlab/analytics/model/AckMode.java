@@ -0,0 +1,32 @@
+package com.liftlab.analytics.model;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * When POST /api/events answers (?ack=accepted)
+ */
+public enum AckMode {
+    // Right after the event is queued (202 Accepted); validation errors are not reported
+    NONE("none"),
+    // Once the event is validated and held in the local ingest journal
+    ACCEPTED("accepted"),
+    // Once the event is written to metrics storage
+    DURABLE("durable");
+    
+    private final String name;
+    
+    AckMode(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public static Optional<AckMode> fromName(String name) {
+        return Arrays.stream(values())
+            .filter(mode -> mode.name.equals(name))
+            .findFirst();
+    }
+}
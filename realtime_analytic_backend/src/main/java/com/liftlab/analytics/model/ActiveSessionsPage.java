@@ -0,0 +1,28 @@
+package com.liftlab.analytics.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One page of active sessions per user. Pages are cursor based and unordered: pass nextCursor back
+ * to get the next page, until it is null. A page may hold fewer entries than requested (even none)
+ * while more pages follow.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActiveSessionsPage {
+    
+    public static final String START_CURSOR = "0";
+    
+    private List<UserSessionCount> users;
+    private String nextCursor;
+    private Instant timestamp;
+}
+
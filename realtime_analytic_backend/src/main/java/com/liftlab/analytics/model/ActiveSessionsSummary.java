@@ -0,0 +1,20 @@
+package com.liftlab.analytics.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Users with the most active sessions in a window, plus totals over all users
+ */
+@Value
+@Builder
+public class ActiveSessionsSummary {
+    
+    // Highest session count first, ties by user id
+    List<UserSessionCount> topUsers;
+    int totalUsers;
+    long totalSessions;
+}
+
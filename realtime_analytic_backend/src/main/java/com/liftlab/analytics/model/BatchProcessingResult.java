@@ -0,0 +1,54 @@
+package com.liftlab.analytics.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of batch event processing, with one result per submitted event (same order)
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchProcessingResult {
+    
+    private boolean success;
+    private String message;
+    private int received;
+    private int accepted;
+    private int rejected;
+    private List<EventProcessingResult> results;
+    private Instant processedAt;
+    
+    public static BatchProcessingResult of(List<EventProcessingResult> results) {
+        int accepted = (int) results.stream().filter(EventProcessingResult::isSuccess).count();
+        int rejected = results.size() - accepted;
+        return BatchProcessingResult.builder()
+            .success(rejected == 0)
+            .message(rejected == 0
+                ? "Batch processed successfully"
+                : String.format("%d of %d events rejected", rejected, results.size()))
+            .received(results.size())
+            .accepted(accepted)
+            .rejected(rejected)
+            .results(results)
+            .processedAt(Instant.now())
+            .build();
+    }
+    
+    public static BatchProcessingResult failure(String message) {
+        return BatchProcessingResult.builder()
+            .success(false)
+            .message(message)
+            .results(Collections.emptyList())
+            .processedAt(Instant.now())
+            .build();
+    }
+}
+
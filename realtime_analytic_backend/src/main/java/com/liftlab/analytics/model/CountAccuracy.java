@@ -0,0 +1,24 @@
+package com.liftlab.analytics.model;
+
+import lombok.Value;
+
+/**
+ * How a count was produced: exactly, or estimated with a relative standard error
+ */
+@Value
+public class CountAccuracy {
+    
+    public static final String EXACT_MODE = "exact";
+    public static final String APPROXIMATE_MODE = "approximate";
+    
+    public static final CountAccuracy EXACT = new CountAccuracy(EXACT_MODE, 0.0);
+    
+    String mode;
+    // Relative standard error of the count (0.0081 means +/-0.81% for one standard deviation)
+    double errorBound;
+    
+    public static CountAccuracy approximate(double standardError) {
+        return new CountAccuracy(APPROXIMATE_MODE, standardError);
+    }
+}
+
@@ -0,0 +1,84 @@
+package com.liftlab.analytics.model;
+
+import lombok.Value;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Events coalesced per metric key: the latest event time of each user and each user session, and
+ * event counts per second for pages, event types and (page, event type) pairs, and the users of each
+ * minute for the time series (see TimeSeriesService.record(EventAggregate)).
+ * Recording it has the same effect on the metrics as recording the events one by one, as users and
+ * sessions are counted at their latest event and counts are bucketed by second at the finest.
+ */
+@Value
+public class EventAggregate {
+    
+    // userId -> latest event time
+    Map<String, Long> userLastSeen;
+    // userId -> sessionId -> latest event time
+    Map<String, Map<String, Long>> sessionLastSeen;
+    // Start of the second (epoch millis) -> page URL -> views
+    Map<Long, Map<String, Long>> pageViews;
+    // Start of the second (epoch millis) -> event type -> events
+    Map<Long, Map<String, Long>> eventTypes;
+    // Start of the second (epoch millis) -> (page URL, event type) -> events; empty when not counted per page
+    Map<Long, Map<PageEventType, Long>> pageEventTypes;
+    // Start of the minute (epoch millis) -> users with events in it
+    Map<Long, Set<String>> minuteUsers;
+    
+    @Value
+    public static class PageEventType {
+        String pageUrl;
+        String eventType;
+    }
+    
+    /**
+     * @param byPage Also count (page, event type) pairs
+     */
+    public static EventAggregate of(List<EventRecord> records, boolean byPage) {
+        Map<String, Long> userLastSeen = new HashMap<>();
+        Map<String, Map<String, Long>> sessionLastSeen = new HashMap<>();
+        Map<Long, Map<String, Long>> pageViews = new HashMap<>();
+        Map<Long, Map<String, Long>> eventTypes = new HashMap<>();
+        Map<Long, Map<PageEventType, Long>> pageEventTypes = new HashMap<>();
+        Map<Long, Set<String>> minuteUsers = new HashMap<>();
+        for (EventRecord record : records) {
+            long timestamp = record.getTimestamp();
+            long second = secondOf(timestamp);
+            userLastSeen.merge(record.getUserId(), timestamp, Math::max);
+            sessionLastSeen.computeIfAbsent(record.getUserId(), userId -> new HashMap<>())
+                .merge(record.getSessionId(), timestamp, Math::max);
+            pageViews.computeIfAbsent(second, key -> new HashMap<>()).merge(record.getPageUrl(), 1L, Long::sum);
+            eventTypes.computeIfAbsent(second, key -> new HashMap<>()).merge(record.getEventType(), 1L, Long::sum);
+            if (byPage) {
+                pageEventTypes.computeIfAbsent(second, key -> new HashMap<>())
+                    .merge(new PageEventType(record.getPageUrl(), record.getEventType()), 1L, Long::sum);
+            }
+            minuteUsers.computeIfAbsent(minuteOf(timestamp), key -> new HashSet<>()).add(record.getUserId());
+        }
+        return new EventAggregate(userLastSeen, sessionLastSeen, pageViews, eventTypes, pageEventTypes, minuteUsers);
+    }
+    
+    /**
+     * Start of the second holding the timestamp, the key of the per-second counts
+     */
+    public static long secondOf(long timestamp) {
+        return Math.floorDiv(timestamp, 1000L) * 1000L;
+    }
+    
+    /**
+     * Start of the minute holding the timestamp, the key of the per-minute users
+     */
+    public static long minuteOf(long timestamp) {
+        return Math.floorDiv(timestamp, 60_000L) * 60_000L;
+    }
+    
+    public boolean isEmpty() {
+        return userLastSeen.isEmpty();
+    }
+}
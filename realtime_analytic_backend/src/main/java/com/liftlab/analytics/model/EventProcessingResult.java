@@ -28,6 +28,17 @@ public class EventProcessingResult {
             .build();
     }
     
+    /**
+     * Result of an event queued without waiting for its validation (ack=none)
+     */
+    public static EventProcessingResult queued() {
+        return EventProcessingResult.builder()
+            .success(true)
+            .message("Event queued for processing")
+            .processedAt(Instant.now())
+            .build();
+    }
+    
     public static EventProcessingResult failure(String message) {
         return EventProcessingResult.builder()
             .success(false)
@@ -0,0 +1,18 @@
+package com.liftlab.analytics.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Validated and normalized event, ready to be written to metrics storage
+ */
+@Value
+@Builder
+public class EventRecord {
+    String userId;
+    String sessionId;
+    String pageUrl;
+    String eventType;
+    long timestamp;
+}
+
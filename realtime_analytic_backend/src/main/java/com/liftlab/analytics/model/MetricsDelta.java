@@ -0,0 +1,72 @@
+package com.liftlab.analytics.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Changed fields between two metrics snapshots (unchanged fields are left out of the JSON)
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MetricsDelta {
+    
+    private Integer activeUsersCount;
+    private List<PageView> topPages;
+    private Map<String, Integer> activeSessionsByUser;
+    private Integer activeSessionsUserCount;
+    private Long activeSessionsTotal;
+    private Map<String, Long> eventTypeCounts;
+    private List<PageEventTypeCount> eventTypesByPage;
+    // Sent whenever the set changes; an empty list means nothing is stale any more
+    private List<String> staleMetrics;
+    private Instant timestamp;
+    
+    /**
+     * @param previous Snapshot the client already has, or null for none
+     * @param current  New snapshot
+     * @return Fields of current that differ from previous, or null if no metric changed
+     */
+    public static MetricsDelta between(MetricsResponse previous, MetricsResponse current) {
+        boolean usersChanged = previous == null
+            || !Objects.equals(previous.getActiveUsersCount(), current.getActiveUsersCount());
+        boolean pagesChanged = previous == null
+            || !Objects.equals(previous.getTopPages(), current.getTopPages());
+        // Top users and totals are sent together, so clients never mix two calculations
+        boolean sessionsChanged = previous == null
+            || !Objects.equals(previous.getActiveSessionsByUser(), current.getActiveSessionsByUser())
+            || !Objects.equals(previous.getActiveSessionsUserCount(), current.getActiveSessionsUserCount())
+            || !Objects.equals(previous.getActiveSessionsTotal(), current.getActiveSessionsTotal());
+        boolean eventTypesChanged = previous == null
+            || !Objects.equals(previous.getEventTypeCounts(), current.getEventTypeCounts())
+            || !Objects.equals(previous.getEventTypesByPage(), current.getEventTypesByPage());
+        boolean staleChanged = previous == null
+            || !Objects.equals(previous.getStaleMetrics(), current.getStaleMetrics());
+        if (!usersChanged && !pagesChanged && !sessionsChanged && !eventTypesChanged && !staleChanged) {
+            return null;
+        }
+        
+        return MetricsDelta.builder()
+            .activeUsersCount(usersChanged ? current.getActiveUsersCount() : null)
+            .topPages(pagesChanged ? current.getTopPages() : null)
+            .activeSessionsByUser(sessionsChanged ? current.getActiveSessionsByUser() : null)
+            .activeSessionsUserCount(sessionsChanged ? current.getActiveSessionsUserCount() : null)
+            .activeSessionsTotal(sessionsChanged ? current.getActiveSessionsTotal() : null)
+            .eventTypeCounts(eventTypesChanged ? current.getEventTypeCounts() : null)
+            .eventTypesByPage(eventTypesChanged ? current.getEventTypesByPage() : null)
+            .staleMetrics(staleChanged ? current.getStaleMetrics() : null)
+            .timestamp(current.getTimestamp())
+            .build();
+    }
+}
+
@@ -1,5 +1,6 @@
 package com.liftlab.analytics.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -11,16 +12,32 @@ import java.util.Map;
 
 /**
  * Metrics API response
+ * Fields of metrics that were not requested are null and left out of the JSON
  */
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class MetricsResponse {
     
     private Integer activeUsersCount;
+    // "exact", or "approximate" with activeUsersErrorBound as the relative standard error
+    private String activeUsersMode;
+    private Double activeUsersErrorBound;
     private List<PageView> topPages;
+    // Top users by active session count (highest first); the totals cover every active user
     private Map<String, Integer> activeSessionsByUser;
+    private Integer activeSessionsUserCount;
+    private Long activeSessionsTotal;
+    // Events per type, most frequent first
+    private Map<String, Long> eventTypeCounts;
+    // Most frequent page and event type pairs, only when counted per page
+    private List<PageEventTypeCount> eventTypesByPage;
+    // Metrics that missed their latency budget or failed; their fields hold the last known value
+    private List<String> staleMetrics;
+    // Window the client asked for (e.g. "1h"), or null when each metric used its own window
+    private String window;
     private Instant timestamp;
 }
 
@@ -0,0 +1,20 @@
+package com.liftlab.analytics.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Events of one type on one page
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PageEventTypeCount {
+    
+    private String url;
+    private String eventType;
+    private Long count;
+}
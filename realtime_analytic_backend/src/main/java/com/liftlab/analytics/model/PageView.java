@@ -14,7 +14,17 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class PageView {
     
+    // Page that events of URLs over the tracked pages cap are counted as (see PageCardinalityGuard)
+    public static final String OTHER_URL = "(other)";
+    
     private String url;
     private Long viewCount;
+    
+    /**
+     * URLs are stored without their leading slash (see UrlNormalizer); adds it back for display
+     */
+    public static String displayUrl(String storedUrl) {
+        return storedUrl.startsWith("/") || storedUrl.equals(OTHER_URL) ? storedUrl : "/" + storedUrl;
+    }
 }
 
@@ -0,0 +1,30 @@
+package com.liftlab.analytics.model;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Metrics kept as time series (?metric=activeUsers)
+ */
+public enum SeriesMetric {
+    // Distinct users with events in each step
+    ACTIVE_USERS("activeUsers"),
+    // Page views of all pages in each step
+    PAGE_VIEWS("pageViews");
+    
+    private final String name;
+    
+    SeriesMetric(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public static Optional<SeriesMetric> fromName(String name) {
+        return Arrays.stream(values())
+            .filter(metric -> metric.name.equals(name))
+            .findFirst();
+    }
+}
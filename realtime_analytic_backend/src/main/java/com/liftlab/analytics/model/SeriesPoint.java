@@ -0,0 +1,21 @@
+package com.liftlab.analytics.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Value of a series for the step starting at timestamp
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeriesPoint {
+    
+    private Instant timestamp;
+    private Long value;
+}
@@ -0,0 +1,48 @@
+package com.liftlab.analytics.model;
+
+import java.time.Duration;
+
+/**
+ * Resolutions the time series are kept at, finest first. Every event is counted at each of them;
+ * older data is only kept at the coarser ones.
+ */
+public enum SeriesResolution {
+    MINUTE("1m", Duration.ofMinutes(1), Duration.ofHours(48)),
+    HOUR("1h", Duration.ofHours(1), Duration.ofDays(90));
+    
+    private final String label;
+    private final Duration step;
+    private final Duration retention;
+    
+    SeriesResolution(String label, Duration step, Duration retention) {
+        this.label = label;
+        this.step = step;
+        this.retention = retention;
+    }
+    
+    public String getLabel() {
+        return label;
+    }
+    
+    public Duration getStep() {
+        return step;
+    }
+    
+    public Duration getRetention() {
+        return retention;
+    }
+    
+    /**
+     * Bucket holding the given time (epoch millis / step)
+     */
+    public long bucketOf(long timestamp) {
+        return Math.floorDiv(timestamp, step.toMillis());
+    }
+    
+    /**
+     * Buckets kept at this resolution, plus the one in progress
+     */
+    public int bucketCount() {
+        return (int) (retention.toMillis() / step.toMillis()) + 1;
+    }
+}
@@ -0,0 +1,28 @@
+package com.liftlab.analytics.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Time series of one metric: a point per step from `from` (rounded down to the step) to `to`
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeriesResponse {
+    
+    private String metric;
+    private Instant from;
+    private Instant to;
+    // Step between points, e.g. "5m"
+    private String step;
+    // Resolution the points were summed from, e.g. "1m"
+    private String resolution;
+    private List<SeriesPoint> points;
+}
@@ -0,0 +1,26 @@
+package com.liftlab.analytics.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Outcome of one budgeted cleanup step: where to resume the keyspace scan and how much was done
+ */
+@Value
+@Builder
+public class SweepResult {
+    
+    public static final String START_CURSOR = "0";
+    
+    String cursor;
+    long keysScanned;
+    long entriesRemoved;
+    
+    /**
+     * True when the scan wrapped around, i.e. the whole keyspace has been swept once
+     */
+    public boolean isPassComplete() {
+        return START_CURSOR.equals(cursor);
+    }
+}
+
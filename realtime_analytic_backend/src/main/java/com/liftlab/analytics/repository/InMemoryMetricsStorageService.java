@@ -0,0 +1,1021 @@
+package com.liftlab.analytics.repository;
+
+import com.liftlab.analytics.model.ActiveSessionsPage;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageEventTypeCount;
+import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesResolution;
+import com.liftlab.analytics.model.SweepResult;
+import com.liftlab.analytics.model.UserSessionCount;
+import com.liftlab.analytics.util.IdInterner;
+import com.liftlab.analytics.util.LongIntHashMap;
+import com.liftlab.analytics.util.RollupPlanner;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process metrics storage for single-node deployments and tests (profile "memory").
+ * Events are counted in a ring buffer of per-second buckets covering 15 minutes, rolled up into
+ * minute and hour rings for windows up to a day; user, session and URL ids are interned to ints and
+ * all counters live in primitive maps. Every operation is a few in-memory lookups under one lock.
+ *
+ * Active users and sessions are counted in the bucket of their latest event (moved forward when they
+ * are seen again), so a window's distinct count is a sum over its buckets. Windows read the coarsest
+ * buckets that cover them (see RollupPlanner): one-second granularity up to 15 minutes, one minute
+ * beyond. Sessions are only kept in the seconds ring. Page views are also kept as running totals over
+ * the seconds ring, so 15 minute reads do not touch the buckets. Event types (and, when enabled, page
+ * and event type pairs) are counted in the same buckets as page views.
+ *
+ * Time series are separate rings of counters per SeriesResolution. A user is counted in a series
+ * bucket when first seen in it, so events arriving more than a bucket late may go uncounted.
+ */
+@Service
+@Slf4j
+@Profile("memory")
+public class InMemoryMetricsStorageService implements MetricsStorageService {
+    
+    // 15 minutes of seconds plus the current one
+    static final int RING_SECONDS = (int) Duration.ofMinutes(15).getSeconds() + 1;
+    // Longest window served by the minute and hour rollups
+    static final int MAX_WINDOW_SECONDS = (int) Duration.ofHours(24).getSeconds();
+    private static final int MINUTE = 60;
+    private static final int HOUR = 3600;
+    // In ticks (seconds): resolution 0 is the seconds ring, then the minute and hour rings. The planner
+    // reads one bucket past a retention, and the ring holds the current second besides the 15 minutes.
+    private static final RollupPlanner ROLLUPS = new RollupPlanner(
+        new long[] {1, MINUTE, HOUR},
+        new long[] {RING_SECONDS - 2, MAX_WINDOW_SECONDS, MAX_WINDOW_SECONDS});
+    private static final int NONE = Integer.MIN_VALUE;
+    // Interned ids are rebuilt once this many are no longer referenced
+    private static final int MIN_IDS_TO_COMPACT = 1024;
+    // How long a series bucket still tells a late event's user apart from those already counted
+    private static final Duration SERIES_LATE_EVENTS = Duration.ofHours(1);
+    private static final Comparator<UserSessionCount> BY_SESSION_COUNT =
+        Comparator.comparing(UserSessionCount::getSessionCount).reversed().thenComparing(UserSessionCount::getUserId);
+    
+    private final LongSupplier clock;
+    // Ticks are seconds since this point, so they fit in an int
+    private final long baseSecond;
+    private final Object lock = new Object();
+    
+    private final Bucket[] ring = new Bucket[RING_SECONDS];
+    private int nextTickToExpire;
+    // A day of minutes and of hours, plus the bucket in progress and the one the window starts in
+    private final RollupRing[] rollups = {
+        new RollupRing(MINUTE, MAX_WINDOW_SECONDS / MINUTE + 2),
+        new RollupRing(HOUR, MAX_WINDOW_SECONDS / HOUR + 2)
+    };
+    
+    private IdInterner users = new IdInterner();
+    private IdInterner sessions = new IdInterner();
+    private IdInterner urls = new IdInterner();
+    // Event types are a small vocabulary, so their ids are never compacted
+    private final IdInterner eventTypes = new IdInterner();
+    
+    private final LongIntHashMap userLastSeen = new LongIntHashMap();    // userId -> tick
+    private final LongIntHashMap sessionLastSeen = new LongIntHashMap(); // (userId, sessionId) -> tick
+    private final LongIntHashMap pageViewTotals = new LongIntHashMap();  // urlId -> views in the ring
+    private final LongIntHashMap urlLastSeen = new LongIntHashMap();     // urlId -> tick, while in a rollup
+    private final SeriesRing[] series = new SeriesRing[SeriesResolution.values().length];
+    // minute -> node id -> serialized top pages sketch, trimmed to the ttl of the latest save
+    private final TreeMap<Long, Map<String, String>> topPagesSketches = new TreeMap<>();
+    
+    @Value("${analytics.metrics.event-types.by-page:false}")
+    private boolean eventTypesByPage = false;
+    
+    /**
+     * Counters shared by seconds and rollup buckets
+     */
+    private static class Counts {
+        // Users whose latest event is in this bucket
+        int usersLastSeen;
+        // urlId -> views in this bucket
+        final LongIntHashMap pageViews = new LongIntHashMap();
+        // eventTypeId -> events in this bucket
+        final LongIntHashMap eventTypes = new LongIntHashMap();
+        // (urlId, eventTypeId) -> events in this bucket, when counted per page
+        final LongIntHashMap pageEventTypes = new LongIntHashMap();
+        
+        void clearCounts() {
+            usersLastSeen = 0;
+            pageViews.clear();
+            eventTypes.clear();
+            pageEventTypes.clear();
+        }
+    }
+    
+    /**
+     * One second of events
+     */
+    private static final class Bucket extends Counts {
+        int tick = NONE;
+        // userId -> sessions of the user whose latest event is in this second
+        final LongIntHashMap sessionsLastSeen = new LongIntHashMap();
+    }
+    
+    /**
+     * One minute or hour of events
+     */
+    private static final class RollupBucket extends Counts {
+        int index = NONE;
+        
+        void reset(int newIndex) {
+            index = newIndex;
+            clearCounts();
+        }
+    }
+    
+    /**
+     * Ring of minute or hour buckets. Events only arrive within the seconds ring, so a slot is simply
+     * reset when a newer bucket takes it over.
+     */
+    private static final class RollupRing {
+        
+        private final int bucketTicks;
+        private final RollupBucket[] buckets;
+        
+        RollupRing(int bucketTicks, int size) {
+            this.bucketTicks = bucketTicks;
+            this.buckets = new RollupBucket[size];
+            for (int i = 0; i < size; i++) {
+                buckets[i] = new RollupBucket();
+            }
+        }
+        
+        int indexOf(int tick) {
+            return Math.floorDiv(tick, bucketTicks);
+        }
+        
+        /**
+         * First tick of the oldest bucket the ring still holds
+         */
+        int oldestTick(int now) {
+            return (indexOf(now) - buckets.length + 1) * bucketTicks;
+        }
+        
+        RollupBucket bucket(int tick) {
+            int index = indexOf(tick);
+            RollupBucket bucket = buckets[Math.floorMod(index, buckets.length)];
+            if (bucket.index != index) {
+                bucket.reset(index);
+            }
+            return bucket;
+        }
+        
+        RollupBucket liveBucket(int index) {
+            RollupBucket bucket = buckets[Math.floorMod(index, buckets.length)];
+            return bucket.index == index ? bucket : null;
+        }
+        
+        /**
+         * Clears the buckets that fell out of the ring, so they no longer reference any ids
+         */
+        void expire(int now) {
+            int oldestIndex = indexOf(oldestTick(now));
+            for (RollupBucket bucket : buckets) {
+                if (bucket.index != NONE && bucket.index < oldestIndex) {
+                    bucket.reset(NONE);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Time series counters of one resolution, kept for its retention
+     */
+    private static final class SeriesRing {
+        
+        private final long[] buckets;
+        private final long[] pageViews;
+        private final long[] activeUsers;
+        // userId -> latest bucket the user was counted in (buckets since the epoch fit an int)
+        private final LongIntHashMap userLastCounted = new LongIntHashMap();
+        
+        SeriesRing(int size) {
+            buckets = new long[size];
+            pageViews = new long[size];
+            activeUsers = new long[size];
+            Arrays.fill(buckets, Long.MIN_VALUE);
+        }
+        
+        /**
+         * Slot to add to for a bucket, reset if it still holds an older bucket
+         */
+        int slot(long bucket) {
+            int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            if (buckets[slot] != bucket) {
+                buckets[slot] = bucket;
+                pageViews[slot] = 0;
+                activeUsers[slot] = 0;
+            }
+            return slot;
+        }
+        
+        long get(SeriesMetric metric, long bucket) {
+            int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            if (buckets[slot] != bucket) {
+                return 0;
+            }
+            return metric == SeriesMetric.ACTIVE_USERS ? activeUsers[slot] : pageViews[slot];
+        }
+    }
+    
+    public InMemoryMetricsStorageService() {
+        this(System::currentTimeMillis);
+    }
+    
+    InMemoryMetricsStorageService(LongSupplier clock) {
+        this.clock = clock;
+        // Aligned to the hour, so hour buckets are clock hours
+        this.baseSecond = Math.floorDiv(Math.floorDiv(clock.getAsLong(), 1000L) - RING_SECONDS, HOUR) * HOUR;
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Bucket();
+        }
+        for (SeriesResolution resolution : SeriesResolution.values()) {
+            series[resolution.ordinal()] = new SeriesRing(resolution.bucketCount());
+        }
+        this.nextTickToExpire = oldestTick(nowTick());
+        log.info("Using in-memory metrics storage ({} one-second buckets, minute and hour rollups for {} hours)",
+            RING_SECONDS, MAX_WINDOW_SECONDS / HOUR);
+    }
+    
+    // ==================== WRITES ====================
+    
+    @Override
+    public void recordActiveUser(String userId, long timestamp) {
+        synchronized (lock) {
+            int now = advance();
+            int tick = liveTick(timestamp, now);
+            if (tick != NONE) {
+                addActiveUser(users.intern(userId), tick);
+            }
+        }
+    }
+    
+    @Override
+    public void recordPageView(String pageUrl, long timestamp) {
+        // pageUrl is already normalized by UrlNormalizer in EventProcessingService
+        synchronized (lock) {
+            int now = advance();
+            int tick = liveTick(timestamp, now);
+            if (tick != NONE) {
+                addPageView(urls.intern(pageUrl), tick);
+            }
+        }
+    }
+    
+    @Override
+    public void recordUserSession(String userId, String sessionId, long timestamp) {
+        synchronized (lock) {
+            int now = advance();
+            int tick = liveTick(timestamp, now);
+            if (tick != NONE) {
+                addSession(users.intern(userId), sessions.intern(sessionId), tick);
+            }
+        }
+    }
+    
+    @Override
+    public void recordEventType(String eventType, String pageUrl, long timestamp) {
+        synchronized (lock) {
+            int now = advance();
+            int tick = liveTick(timestamp, now);
+            if (tick != NONE) {
+                addEventType(eventTypes.intern(eventType), urls.intern(pageUrl), tick);
+            }
+        }
+    }
+    
+    @Override
+    public void recordEvent(EventRecord record) {
+        synchronized (lock) {
+            addEvent(record, advance());
+        }
+    }
+    
+    @Override
+    public Mono<Void> recordEvents(List<EventRecord> records) {
+        return Mono.fromRunnable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                for (EventRecord record : records) {
+                    addEvent(record, now);
+                }
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Void> recordAggregate(EventAggregate aggregate) {
+        return Mono.fromRunnable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                aggregate.getUserLastSeen().forEach((userId, timestamp) -> {
+                    int tick = liveTick(timestamp, now);
+                    if (tick != NONE) {
+                        addActiveUser(users.intern(userId), tick);
+                    }
+                });
+                aggregate.getSessionLastSeen().forEach((userId, sessionsLastSeen) ->
+                    sessionsLastSeen.forEach((sessionId, timestamp) -> {
+                        int tick = liveTick(timestamp, now);
+                        if (tick != NONE) {
+                            addSession(users.intern(userId), sessions.intern(sessionId), tick);
+                        }
+                    }));
+                aggregate.getPageViews().forEach((second, views) -> {
+                    int tick = liveTick(second, now);
+                    if (tick != NONE) {
+                        views.forEach((pageUrl, count) -> addPageViews(urls.intern(pageUrl), tick, count.intValue()));
+                    }
+                });
+                aggregate.getEventTypes().forEach((second, counts) -> {
+                    int tick = liveTick(second, now);
+                    if (tick != NONE) {
+                        counts.forEach((eventType, count) -> addEventTypes(eventTypes.intern(eventType), tick, count.intValue()));
+                    }
+                });
+                if (eventTypesByPage) {
+                    aggregate.getPageEventTypes().forEach((second, counts) -> {
+                        int tick = liveTick(second, now);
+                        if (tick != NONE) {
+                            counts.forEach((pair, count) -> addPageEventTypes(urls.intern(pair.getPageUrl()),
+                                eventTypes.intern(pair.getEventType()), tick, count.intValue()));
+                        }
+                    });
+                }
+            }
+        });
+    }
+    
+    private void addEvent(EventRecord record, int now) {
+        int tick = liveTick(record.getTimestamp(), now);
+        if (tick == NONE) {
+            return;
+        }
+        int userId = users.intern(record.getUserId());
+        int urlId = urls.intern(record.getPageUrl());
+        addActiveUser(userId, tick);
+        addPageView(urlId, tick);
+        addSession(userId, sessions.intern(record.getSessionId()), tick);
+        addEventType(eventTypes.intern(record.getEventType()), urlId, tick);
+    }
+    
+    private void addActiveUser(int userId, int tick) {
+        int previous = userLastSeen.get(userId, NONE);
+        if (previous != NONE && previous >= tick) {
+            return;
+        }
+        Bucket previousBucket = liveBucket(previous);
+        if (previousBucket != null) {
+            previousBucket.usersLastSeen--;
+        }
+        for (RollupRing rollup : rollups) {
+            RollupBucket previousRollup = previous != NONE ? rollup.liveBucket(rollup.indexOf(previous)) : null;
+            if (previousRollup != null) {
+                previousRollup.usersLastSeen--;
+            }
+            rollup.bucket(tick).usersLastSeen++;
+        }
+        userLastSeen.put(userId, tick);
+        bucket(tick).usersLastSeen++;
+    }
+    
+    private void addPageView(int urlId, int tick) {
+        addPageViews(urlId, tick, 1);
+    }
+    
+    private void addPageViews(int urlId, int tick, int views) {
+        bucket(tick).pageViews.addTo(urlId, views);
+        pageViewTotals.addTo(urlId, views);
+        for (RollupRing rollup : rollups) {
+            rollup.bucket(tick).pageViews.addTo(urlId, views);
+        }
+        if (urlLastSeen.get(urlId, NONE) < tick) {
+            urlLastSeen.put(urlId, tick);
+        }
+    }
+    
+    private void addEventType(int eventTypeId, int urlId, int tick) {
+        addEventTypes(eventTypeId, tick, 1);
+        if (eventTypesByPage) {
+            addPageEventTypes(urlId, eventTypeId, tick, 1);
+        }
+    }
+    
+    private void addEventTypes(int eventTypeId, int tick, int events) {
+        bucket(tick).eventTypes.addTo(eventTypeId, events);
+        for (RollupRing rollup : rollups) {
+            rollup.bucket(tick).eventTypes.addTo(eventTypeId, events);
+        }
+    }
+    
+    private void addPageEventTypes(int urlId, int eventTypeId, int tick, int events) {
+        long pair = pairKey(urlId, eventTypeId);
+        bucket(tick).pageEventTypes.addTo(pair, events);
+        for (RollupRing rollup : rollups) {
+            rollup.bucket(tick).pageEventTypes.addTo(pair, events);
+        }
+        if (urlLastSeen.get(urlId, NONE) < tick) {
+            urlLastSeen.put(urlId, tick);
+        }
+    }
+    
+    private void addSession(int userId, int sessionId, int tick) {
+        long pair = pairKey(userId, sessionId);
+        int previous = sessionLastSeen.get(pair, NONE);
+        if (previous != NONE && previous >= tick) {
+            return;
+        }
+        Bucket previousBucket = liveBucket(previous);
+        if (previousBucket != null) {
+            previousBucket.sessionsLastSeen.addTo(userId, -1);
+        }
+        sessionLastSeen.put(pair, tick);
+        bucket(tick).sessionsLastSeen.addTo(userId, 1);
+    }
+    
+    // ==================== READS ====================
+    
+    @Override
+    public Mono<Integer> getActiveUserCount(long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int[] count = {0};
+                forEachWindowBucket(windowStartTime, advance(), counts -> count[0] += counts.usersLastSeen);
+                return count[0];
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Integer> getPageViewCount(String pageUrl, long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                int urlId = urls.find(pageUrl);
+                if (urlId == IdInterner.UNKNOWN) {
+                    return 0;
+                }
+                if (toTick(windowStartTime) == oldestTick(now)) {
+                    return pageViewTotals.get(urlId, 0);
+                }
+                int[] count = {0};
+                forEachWindowBucket(windowStartTime, now, counts -> count[0] += counts.pageViews.get(urlId, 0));
+                return count[0];
+            }
+        });
+    }
+    
+    @Override
+    public Mono<List<PageView>> getTopPages(int limit, long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                LongIntHashMap counts = toTick(windowStartTime) == oldestTick(now)
+                    ? pageViewTotals
+                    : sumPageViews(windowStartTime, now);
+                return topPages(counts, limit);
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Map<String, Long>> getEventTypeCounts(int limit, long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                LongIntHashMap sums = new LongIntHashMap();
+                forEachWindowBucket(windowStartTime, advance(), counts -> counts.eventTypes.forEach(sums::addTo));
+                TopEntries top = new TopEntries(sums, limit);
+                Map<String, Long> eventTypeCounts = new LinkedHashMap<>();
+                for (int i = 0; i < top.size; i++) {
+                    eventTypeCounts.put(eventTypes.get((int) top.keys[i]), (long) top.counts[i]);
+                }
+                return eventTypeCounts;
+            }
+        });
+    }
+    
+    @Override
+    public Mono<List<PageEventTypeCount>> getTopPageEventTypes(int limit, long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                LongIntHashMap sums = new LongIntHashMap();
+                forEachWindowBucket(windowStartTime, advance(), counts -> counts.pageEventTypes.forEach(sums::addTo));
+                TopEntries top = new TopEntries(sums, limit);
+                List<PageEventTypeCount> pageEventTypes = new ArrayList<>(top.size);
+                for (int i = 0; i < top.size; i++) {
+                    pageEventTypes.add(PageEventTypeCount.builder()
+                        .url(PageView.displayUrl(urls.get((int) (top.keys[i] >>> 32))))
+                        .eventType(eventTypes.get((int) top.keys[i]))
+                        .count((long) top.counts[i])
+                        .build());
+                }
+                return pageEventTypes;
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Integer> getActiveSessionCount(String userId, long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                int id = users.find(userId);
+                if (id == IdInterner.UNKNOWN) {
+                    return 0;
+                }
+                int count = 0;
+                for (int tick = windowStartTick(windowStartTime, now); tick <= now; tick++) {
+                    Bucket bucket = liveBucket(tick);
+                    if (bucket != null) {
+                        count += bucket.sessionsLastSeen.get(id, 0);
+                    }
+                }
+                return count;
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Map<String, Integer>> getActiveSessionsByUser(long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                LongIntHashMap counts = sumSessions(windowStartTick(windowStartTime, now), now);
+                Map<String, Integer> sessionsByUser = new HashMap<>(counts.size() * 2);
+                counts.forEach((userId, count) -> sessionsByUser.put(users.get((int) userId), count));
+                return sessionsByUser;
+            }
+        });
+    }
+    
+    @Override
+    public Mono<ActiveSessionsSummary> getTopActiveSessions(int limit, long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                LongIntHashMap counts = sumSessions(windowStartTick(windowStartTime, now), now);
+                long[] totalSessions = {0};
+                List<UserSessionCount> all = new ArrayList<>(counts.size());
+                counts.forEach((userId, count) -> {
+                    totalSessions[0] += count;
+                    all.add(new UserSessionCount(users.get((int) userId), count));
+                });
+                all.sort(BY_SESSION_COUNT);
+                return ActiveSessionsSummary.builder()
+                    .topUsers(new ArrayList<>(all.subList(0, Math.min(Math.max(0, limit), all.size()))))
+                    .totalUsers(counts.size())
+                    .totalSessions(totalSessions[0])
+                    .build();
+            }
+        });
+    }
+    
+    /**
+     * The cursor is the interned user id to resume from. Ids are reassigned when they are compacted,
+     * so like SSCAN, a listing that spans a compaction may miss or repeat users.
+     */
+    @Override
+    public Mono<ActiveSessionsPage> getActiveSessionsPage(String cursor, int limit, long windowStartTime) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                // Summing the window is cheap in memory; only the page itself is materialized as objects
+                LongIntHashMap counts = sumSessions(windowStartTick(windowStartTime, now), now);
+                List<UserSessionCount> page = new ArrayList<>();
+                int userId = cursor == null ? 0 : parseCursor(cursor);
+                for (; userId < users.size() && page.size() < Math.max(1, limit); userId++) {
+                    int count = counts.get(userId, 0);
+                    if (count > 0) {
+                        page.add(new UserSessionCount(users.get(userId), count));
+                    }
+                }
+                return ActiveSessionsPage.builder()
+                    .users(page)
+                    .nextCursor(userId < users.size() ? String.valueOf(userId) : null)
+                    .build();
+            }
+        });
+    }
+    
+    private static int parseCursor(String cursor) {
+        // Cursors beyond any assigned id (too long for an int) are simply past the end
+        return cursor.length() > 9 ? Integer.MAX_VALUE : Integer.parseInt(cursor);
+    }
+    
+    private LongIntHashMap sumSessions(int fromTick, int toTick) {
+        LongIntHashMap sums = new LongIntHashMap();
+        for (int tick = fromTick; tick <= toTick; tick++) {
+            Bucket bucket = liveBucket(tick);
+            if (bucket != null) {
+                bucket.sessionsLastSeen.forEach(sums::addTo);
+            }
+        }
+        return sums;
+    }
+    
+    private LongIntHashMap sumPageViews(long windowStartTime, int now) {
+        LongIntHashMap sums = new LongIntHashMap();
+        forEachWindowBucket(windowStartTime, now, counts -> counts.pageViews.forEach(sums::addTo));
+        return sums;
+    }
+    
+    /**
+     * Visits the second, minute and hour buckets covering the window (at most a day)
+     */
+    private void forEachWindowBucket(long windowStartTime, int now, Consumer<Counts> action) {
+        int from = Math.max(toTick(windowStartTime), now - MAX_WINDOW_SECONDS);
+        ROLLUPS.cover(from, now, (resolution, index) -> {
+            Counts counts = resolution == 0
+                ? liveBucket((int) index)
+                : rollups[resolution - 1].liveBucket((int) index);
+            if (counts != null) {
+                action.accept(counts);
+            }
+        });
+    }
+    
+    private List<PageView> topPages(LongIntHashMap counts, int limit) {
+        TopEntries top = new TopEntries(counts, limit);
+        if (top.size == 0) {
+            return Collections.emptyList();
+        }
+        List<PageView> topPages = new ArrayList<>(top.size);
+        for (int i = 0; i < top.size; i++) {
+            topPages.add(PageView.builder()
+                .url(PageView.displayUrl(urls.get((int) top.keys[i])))
+                .viewCount((long) top.counts[i])
+                .build());
+        }
+        return topPages;
+    }
+    
+    /**
+     * The `limit` entries with the highest counts, sorted descending
+     */
+    private static final class TopEntries {
+        
+        final long[] keys;
+        final int[] counts;
+        int size;
+        
+        TopEntries(LongIntHashMap all, int limit) {
+            int capacity = Math.max(0, Math.min(limit, all.size()));
+            keys = new long[capacity];
+            counts = new int[capacity];
+            if (capacity == 0) {
+                return;
+            }
+            // Keep the best entries by insertion into small arrays
+            all.forEach((key, count) -> {
+                if (size == capacity && count <= counts[size - 1]) {
+                    return;
+                }
+                int position = size < capacity ? size++ : size - 1;
+                while (position > 0 && counts[position - 1] < count) {
+                    keys[position] = keys[position - 1];
+                    counts[position] = counts[position - 1];
+                    position--;
+                }
+                keys[position] = key;
+                counts[position] = count;
+            });
+        }
+    }
+    
+    // ==================== TIME SERIES ====================
+    
+    @Override
+    public Mono<Void> recordSeries(SeriesResolution resolution, Map<Long, Long> pageViewsByBucket,
+                                   Map<Long, Set<String>> usersByBucket) {
+        return Mono.fromRunnable(() -> {
+            synchronized (lock) {
+                SeriesRing ring = series[resolution.ordinal()];
+                // Future timestamps count as now, and buckets past the retention are dropped
+                long newest = resolution.bucketOf(clock.getAsLong());
+                long oldest = newest - resolution.bucketCount() + 1;
+                pageViewsByBucket.forEach((bucket, views) -> {
+                    long live = Math.min(bucket, newest);
+                    if (live >= oldest) {
+                        ring.pageViews[ring.slot(live)] += views;
+                    }
+                });
+                // Oldest bucket first, as a user is only counted in buckets after the one last counted
+                new TreeMap<>(usersByBucket).forEach((bucket, userIds) -> {
+                    long live = Math.min(bucket, newest);
+                    if (live < oldest) {
+                        return;
+                    }
+                    for (String userId : userIds) {
+                        int id = users.intern(userId);
+                        if (ring.userLastCounted.get(id, NONE) < live) {
+                            ring.userLastCounted.put(id, (int) live);
+                            ring.activeUsers[ring.slot(live)]++;
+                        }
+                    }
+                });
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Map<Long, Long>> getSeries(SeriesMetric metric, SeriesResolution resolution,
+                                           long fromBucket, long toBucket) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                SeriesRing ring = series[resolution.ordinal()];
+                Map<Long, Long> values = new HashMap<>();
+                for (long bucket = fromBucket; bucket <= toBucket; bucket++) {
+                    long value = ring.get(metric, bucket);
+                    if (value != 0) {
+                        values.put(bucket, value);
+                    }
+                }
+                return values;
+            }
+        });
+    }
+    
+    /**
+     * Forgets which users were counted in series buckets too old to receive events anymore
+     */
+    private long removeSeriesUsersCounted(long currentTimestamp) {
+        long removed = 0;
+        for (SeriesResolution resolution : SeriesResolution.values()) {
+            long oldest = resolution.bucketOf(currentTimestamp - SERIES_LATE_EVENTS.toMillis());
+            removed += series[resolution.ordinal()].userLastCounted.removeIf((userId, bucket) -> bucket < oldest);
+        }
+        return removed;
+    }
+    
+    // ==================== TOP PAGES SKETCHES ====================
+    
+    @Override
+    public Mono<Void> saveTopPagesSketch(long minute, String nodeId, String sketch, Duration ttl) {
+        return Mono.fromRunnable(() -> {
+            synchronized (lock) {
+                topPagesSketches.computeIfAbsent(minute, key -> new HashMap<>()).put(nodeId, sketch);
+                topPagesSketches.headMap(minute - ttl.toMinutes()).clear();
+            }
+        });
+    }
+    
+    @Override
+    public Mono<List<String>> getTopPagesSketches(long fromMinute, long toMinute) {
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                List<String> sketches = new ArrayList<>();
+                for (Map<String, String> byNode : topPagesSketches.subMap(fromMinute, true, toMinute, true).values()) {
+                    sketches.addAll(byNode.values());
+                }
+                return sketches;
+            }
+        });
+    }
+    
+    // ==================== CLEANUP METHODS - Run by the background sweeper ====================
+    
+    @Override
+    public Mono<Void> cleanupActiveUsers(long currentTimestamp) {
+        return Mono.fromRunnable(() -> {
+            synchronized (lock) {
+                int oldest = oldestRollupTick(advance());
+                userLastSeen.removeIf((userId, tick) -> tick < oldest);
+                removeSeriesUsersCounted(clock.getAsLong());
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Void> cleanupPageViews(long currentTimestamp) {
+        // Expired seconds are dropped from the ring (and page view totals) as time advances
+        return Mono.fromRunnable(() -> {
+            synchronized (lock) {
+                int oldest = oldestRollupTick(advance());
+                urlLastSeen.removeIf((urlId, tick) -> tick < oldest);
+            }
+        });
+    }
+    
+    @Override
+    public Mono<Void> cleanupUserSessions(long currentTimestamp) {
+        return Mono.fromRunnable(() -> {
+            synchronized (lock) {
+                int oldest = oldestTick(advance());
+                sessionLastSeen.removeIf((pair, tick) -> tick < oldest);
+            }
+        });
+    }
+    
+    @Override
+    public Mono<SweepResult> sweepExpiredEntries(long currentTimestamp, String cursor, int maxKeys) {
+        // Everything is in memory, so each step is a full pass that also releases unused ids
+        return Mono.fromCallable(() -> {
+            synchronized (lock) {
+                int now = advance();
+                int oldest = oldestTick(now);
+                int oldestRollup = oldestRollupTick(now);
+                long scanned = userLastSeen.size() + sessionLastSeen.size() + urlLastSeen.size();
+                for (SeriesRing ring : series) {
+                    scanned += ring.userLastCounted.size();
+                }
+                long removed = userLastSeen.removeIf((userId, tick) -> tick < oldestRollup)
+                    + sessionLastSeen.removeIf((pair, tick) -> tick < oldest)
+                    + urlLastSeen.removeIf((urlId, tick) -> tick < oldestRollup)
+                    + removeSeriesUsersCounted(clock.getAsLong());
+                for (RollupRing rollup : rollups) {
+                    rollup.expire(now);
+                }
+                compactIdsIfNeeded();
+                return SweepResult.builder()
+                    .cursor(SweepResult.START_CURSOR)
+                    .keysScanned(scanned)
+                    .entriesRemoved(removed)
+                    .build();
+            }
+        });
+    }
+    
+    /**
+     * Interned ids are never released one by one; once most of them are unused, the interners are
+     * rebuilt from the ids still referenced and every map is rewritten with the new ids
+     */
+    private void compactIdsIfNeeded() {
+        boolean compactUsers = users.size() > 2 * (userLastSeen.size() + sessionLastSeen.size()) + MIN_IDS_TO_COMPACT;
+        boolean compactSessions = sessions.size() > 2 * sessionLastSeen.size() + MIN_IDS_TO_COMPACT;
+        boolean compactUrls = urls.size() > 2 * urlLastSeen.size() + MIN_IDS_TO_COMPACT;
+        if (!compactUsers && !compactSessions && !compactUrls) {
+            return;
+        }
+        
+        IdRemapping userIds = new IdRemapping(users);
+        IdRemapping sessionIds = new IdRemapping(sessions);
+        IdRemapping urlIds = new IdRemapping(urls);
+        
+        userLastSeen.replaceKeys(userIds::map);
+        for (SeriesRing ring : series) {
+            ring.userLastCounted.replaceKeys(userIds::map);
+        }
+        sessionLastSeen.replaceKeys(pair -> pairKey(userIds.map(pair >>> 32), sessionIds.map(pair & 0xFFFFFFFFL)));
+        pageViewTotals.replaceKeys(urlIds::map);
+        urlLastSeen.replaceKeys(urlIds::map);
+        for (Bucket bucket : ring) {
+            bucket.sessionsLastSeen.replaceKeys(userIds::map);
+            bucket.pageViews.replaceKeys(urlIds::map);
+            bucket.pageEventTypes.replaceKeys(pair -> pairKey(urlIds.map(pair >>> 32), (int) pair));
+        }
+        for (RollupRing rollup : rollups) {
+            for (RollupBucket bucket : rollup.buckets) {
+                bucket.pageViews.replaceKeys(urlIds::map);
+                bucket.pageEventTypes.replaceKeys(pair -> pairKey(urlIds.map(pair >>> 32), (int) pair));
+            }
+        }
+        
+        log.debug("Compacted interned ids: users {} -> {}, sessions {} -> {}, urls {} -> {}",
+            users.size(), userIds.target.size(), sessions.size(), sessionIds.target.size(),
+            urls.size(), urlIds.target.size());
+        users = userIds.target;
+        sessions = sessionIds.target;
+        urls = urlIds.target;
+    }
+    
+    /**
+     * Old id -> new id, assigning new ids on first use
+     */
+    private static final class IdRemapping {
+        
+        private final IdInterner source;
+        private final IdInterner target = new IdInterner();
+        private final int[] newIds;
+        
+        IdRemapping(IdInterner source) {
+            this.source = source;
+            this.newIds = new int[source.size()];
+            Arrays.fill(newIds, IdInterner.UNKNOWN);
+        }
+        
+        int map(long oldId) {
+            int id = (int) oldId;
+            if (newIds[id] == IdInterner.UNKNOWN) {
+                newIds[id] = target.intern(source.get(id));
+            }
+            return newIds[id];
+        }
+    }
+    
+    // ==================== RING BUFFER ====================
+    
+    private int nowTick() {
+        return toTick(clock.getAsLong());
+    }
+    
+    private int toTick(long timestamp) {
+        return (int) (Math.floorDiv(timestamp, 1000L) - baseSecond);
+    }
+    
+    private static int oldestTick(int now) {
+        return now - RING_SECONDS + 1;
+    }
+    
+    /**
+     * Oldest tick still counted in a rollup: users and URLs last seen before it are no longer referenced
+     */
+    private int oldestRollupTick(int now) {
+        return Math.min(rollups[0].oldestTick(now), rollups[1].oldestTick(now));
+    }
+    
+    /**
+     * Tick to record an event at: future timestamps count as now, and events older than the ring are dropped
+     */
+    private int liveTick(long timestamp, int now) {
+        int tick = Math.min(toTick(timestamp), now);
+        return tick >= oldestTick(now) ? tick : NONE;
+    }
+    
+    private int windowStartTick(long windowStartTime, int now) {
+        return Math.max(toTick(windowStartTime), oldestTick(now));
+    }
+    
+    /**
+     * Drops the seconds that fell out of the ring since the last call
+     *
+     * @return Current tick
+     */
+    private int advance() {
+        int now = nowTick();
+        int oldest = oldestTick(now);
+        if (oldest > nextTickToExpire) {
+            if (oldest - nextTickToExpire >= RING_SECONDS) {
+                // After an idle period longer than the ring any slot may hold an expired tick
+                for (Bucket bucket : ring) {
+                    if (bucket.tick != NONE && bucket.tick < oldest) {
+                        expire(bucket);
+                    }
+                }
+            } else {
+                for (int tick = nextTickToExpire; tick < oldest; tick++) {
+                    Bucket bucket = ring[slot(tick)];
+                    if (bucket.tick == tick) {
+                        expire(bucket);
+                    }
+                }
+            }
+            nextTickToExpire = oldest;
+        }
+        return now;
+    }
+    
+    private void expire(Bucket bucket) {
+        bucket.pageViews.forEach((urlId, views) -> pageViewTotals.addTo(urlId, -views));
+        bucket.clearCounts();
+        bucket.sessionsLastSeen.clear();
+        bucket.tick = NONE;
+    }
+    
+    /**
+     * Bucket to write a live tick into; its slot is either empty or already holds this tick
+     */
+    private Bucket bucket(int tick) {
+        Bucket bucket = ring[slot(tick)];
+        bucket.tick = tick;
+        return bucket;
+    }
+    
+    private Bucket liveBucket(int tick) {
+        if (tick == NONE) {
+            return null;
+        }
+        Bucket bucket = ring[slot(tick)];
+        return bucket.tick == tick ? bucket : null;
+    }
+    
+    private static int slot(int tick) {
+        return Math.floorMod(tick, RING_SECONDS);
+    }
+    
+    private static long pairKey(int high, int low) {
+        return ((long) high << 32) | low;
+    }
+}
+
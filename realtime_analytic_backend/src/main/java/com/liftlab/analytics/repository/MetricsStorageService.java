@@ -1,10 +1,22 @@
 package com.liftlab.analytics.repository;
 
+import com.liftlab.analytics.model.ActiveSessionsPage;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.CountAccuracy;
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageEventTypeCount;
 import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesResolution;
+import com.liftlab.analytics.model.SweepResult;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * Interface for metrics storage operations
@@ -17,6 +29,16 @@ public interface MetricsStorageService {
     void recordActiveUser(String userId, long timestamp);
     Mono<Integer> getActiveUserCount(long windowStartTime);
     
+    // Whether getActiveUserCount is exact or an estimate, and how far off an estimate may be
+    default CountAccuracy getActiveUserCountAccuracy() {
+        return CountAccuracy.EXACT;
+    }
+    
+    // Longest window getActiveUserCount keeps users for, or empty when it serves every window
+    default Optional<Duration> getActiveUserCountMaxWindow() {
+        return Optional.empty();
+    }
+    
     // Page Views
     void recordPageView(String pageUrl, long timestamp);
     Mono<Integer> getPageViewCount(String pageUrl, long windowStartTime);
@@ -26,10 +48,53 @@ public interface MetricsStorageService {
     void recordUserSession(String userId, String sessionId, long timestamp);
     Mono<Integer> getActiveSessionCount(String userId, long windowStartTime);
     Mono<Map<String, Integer>> getActiveSessionsByUser(long windowStartTime);
+    // Bounded reads for many users: the top users by session count with totals, and cursor-based pages
+    // of every user (start with ActiveSessionsPage.START_CURSOR, stop when nextCursor is null)
+    Mono<ActiveSessionsSummary> getTopActiveSessions(int limit, long windowStartTime);
+    Mono<ActiveSessionsPage> getActiveSessionsPage(String cursor, int limit, long windowStartTime);
+    
+    // Event types - bucketed counters per type (and per page and type, when enabled), summed over the
+    // window's buckets at read time. Reads return the most frequent entries first.
+    void recordEventType(String eventType, String pageUrl, long timestamp);
+    Mono<Map<String, Long>> getEventTypeCounts(int limit, long windowStartTime);
+    Mono<List<PageEventTypeCount>> getTopPageEventTypes(int limit, long windowStartTime);
+    
+    // Single event - records active user, page view, session and event type together.
+    // Implementations may override this to apply all updates in one round trip.
+    default void recordEvent(EventRecord record) {
+        recordActiveUser(record.getUserId(), record.getTimestamp());
+        recordPageView(record.getPageUrl(), record.getTimestamp());
+        recordUserSession(record.getUserId(), record.getSessionId(), record.getTimestamp());
+        recordEventType(record.getEventType(), record.getPageUrl(), record.getTimestamp());
+    }
+    
+    // Batch writes - records active user, page view, session and event type for every event in one flush.
+    // Completes once all writes are acknowledged by the store.
+    Mono<Void> recordEvents(List<EventRecord> records);
     
-    // Cleanup methods - called when metrics are retrieved (returns Mono for reactive chaining)
+    // Pre-aggregated events (see EventAggregate) - same effect on the metrics as recording the events they
+    // were built from, with one write per distinct key. Completes once all writes are acknowledged by the store.
+    Mono<Void> recordAggregate(EventAggregate aggregate);
+    
+    // Time series - per-bucket counters maintained at ingestion (see TimeSeriesService): page views are
+    // added to each bucket's count, and users are counted once per bucket however often they are seen.
+    // Reads return bucket -> value for the buckets in [fromBucket, toBucket] that hold data.
+    Mono<Void> recordSeries(SeriesResolution resolution, Map<Long, Long> pageViewsByBucket,
+                            Map<Long, Set<String>> usersByBucket);
+    Mono<Map<Long, Long>> getSeries(SeriesMetric metric, SeriesResolution resolution, long fromBucket, long toBucket);
+    
+    // Top pages sketches - one serialized sketch per node and minute (see TopPagesSketchService), kept for
+    // ttl. Reads return the sketches of every node for the minutes in [fromMinute, toMinute].
+    Mono<Void> saveTopPagesSketch(long minute, String nodeId, String sketch, Duration ttl);
+    Mono<List<String>> getTopPagesSketches(long fromMinute, long toMinute);
+    
+    // Cleanup methods - full passes over expired entries (returns Mono for reactive chaining)
     Mono<Void> cleanupActiveUsers(long currentTimestamp);
     Mono<Void> cleanupPageViews(long currentTimestamp);
     Mono<Void> cleanupUserSessions(long currentTimestamp);
+    
+    // Budgeted cleanup - trims expired page view / session entries from about maxKeys keys, starting
+    // at the given scan cursor. Callers keep the returned cursor and pass it to the next step.
+    Mono<SweepResult> sweepExpiredEntries(long currentTimestamp, String cursor, int maxKeys);
 }
 
@@ -1,17 +1,38 @@
 package com.liftlab.analytics.repository;
 
+import com.liftlab.analytics.model.ActiveSessionsPage;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.CountAccuracy;
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageEventTypeCount;
 import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesResolution;
+import com.liftlab.analytics.model.SweepResult;
+import com.liftlab.analytics.model.UserSessionCount;
+import com.liftlab.analytics.util.RollupPlanner;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.domain.Range;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -21,6 +42,7 @@ import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
 @Slf4j
+@Profile("!memory")
 public class RedisMetricsStorageService implements MetricsStorageService {
     
     private static final String ACTIVE_USERS_KEY = "active_users:5m";
@@ -29,15 +51,212 @@ public class RedisMetricsStorageService implements MetricsStorageService {
     private static final String PAGE_VIEW_PREFIX = "page_views:";
     private static final String USER_SESSION_PREFIX = "user_sessions:";
     private static final String USER_SESSION_SUFFIX = ":5m";
+    // Page view counters per time bucket: ZSET of url -> views in that bucket (page_view_buckets:1m:<minute>).
+    // Deliberately outside the page_views: prefix so the per-page cleanup SCAN never matches them.
+    private static final String PAGE_VIEW_BUCKET_PREFIX = "page_view_buckets:";
+    // Scratch key the top pages script merges the window into; the script runs atomically, so one key is enough
+    private static final String TOP_PAGES_UNION_KEY = "page_view_buckets_union";
+    // HyperLogLog of the users seen in a time bucket (approximate active users mode)
+    private static final String ACTIVE_USERS_HLL_PREFIX = "active_users_hll:";
+    // Event counters per time bucket, rolled up like page views: ZSET of event type -> events
+    // (event_type_buckets:1m:<minute>), and of page and type -> events when enabled (page_event_type_buckets:)
+    private static final String EVENT_TYPE_BUCKET_PREFIX = "event_type_buckets:";
+    private static final String PAGE_EVENT_TYPE_BUCKET_PREFIX = "page_event_type_buckets:";
+    private static final String EVENT_TYPES_UNION_KEY = "event_type_buckets_union";
+    // Standard error of Redis HyperLogLog estimates (16384 registers)
+    private static final double HYPERLOGLOG_STANDARD_ERROR = 0.0081;
     
-    private static final long ACTIVE_USERS_TTL_SECONDS = 600; // 10 minutes
+    // Bucketed page views and active users are rolled up at three resolutions: every event is counted in
+    // its second, minute and hour bucket, and a window reads the coarsest buckets that cover it, so a
+    // 24 hour window is about 24 hour buckets plus a few dozen minutes rather than 1440 minutes
+    private static final String[] ROLLUP_TAGS = {"1s", "1m", "1h"};
+    private static final RollupPlanner ROLLUPS = new RollupPlanner(
+        new long[] {Duration.ofSeconds(1).toMillis(), Duration.ofMinutes(1).toMillis(), Duration.ofHours(1).toMillis()},
+        new long[] {Duration.ofMinutes(5).toMillis(), Duration.ofHours(24).toMillis(), Duration.ofDays(31).toMillis()});
+    // Kept for the retention plus one bucket, so a bucket outlives the window it is read for
+    private static final long[] ROLLUP_TTL_SECONDS = {
+        Duration.ofMinutes(5).plusSeconds(1).getSeconds(),
+        Duration.ofHours(24).plusMinutes(1).getSeconds(),
+        Duration.ofDays(31).plusHours(1).getSeconds()
+    };
+    
+    // Exact active users keep their last seen time for 5 minutes, so memory follows the users of the last
+    // 5 minutes; longer windows need the approximate mode's rollup HyperLogLogs
+    private static final Duration ACTIVE_USERS_RETENTION = Duration.ofMinutes(5);
+    private static final long ACTIVE_USERS_TTL_SECONDS = ACTIVE_USERS_RETENTION.plusMinutes(5).getSeconds();
     private static final long PAGE_VIEWS_TTL_SECONDS = 1800; // 30 minutes
     private static final long USER_SESSIONS_TTL_SECONDS = 600; // 10 minutes
     
+    // Time series counters: hashes of bucket -> value (series:pageViews:1m:<day>), one per day of
+    // minutes or 30 days of hours, so a 24 hour chart is one or two HMGETs
+    private static final String SERIES_PREFIX = "series:";
+    // HyperLogLog of the users seen in a series bucket, kept while late events may still arrive
+    private static final String SERIES_USERS_PREFIX = "series_users:";
+    private static final Duration SERIES_LATE_EVENTS = Duration.ofHours(1);
+    // Top pages sketches: hash of node id -> serialized sketch, one per minute (top_pages_sketch:<minute>)
+    private static final String TOP_PAGES_SKETCH_PREFIX = "top_pages_sketch:";
+    
+    // Applies the active user, page view and session updates of one event in a single round trip
+    private static final RedisScript<Long> RECORD_EVENT_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/record_event.lua"), Long.class);
+    
+    // Merges the buckets of a window and returns the top entries (pages, event types) in a single round trip
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> TOP_PAGES_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/top_pages.lua"), List.class);
+    
+    // Counts every tracked user's active sessions and prunes users without any in a single round trip
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ACTIVE_SESSIONS_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/active_sessions.lua"), List.class);
+    
+    // One SSCAN step over the users with sessions, with their active session counts
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ACTIVE_SESSIONS_PAGE_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/active_sessions_page.lua"), List.class);
+    
+    // Adds the users and page views of one time series bucket in a single round trip
+    private static final RedisScript<Long> RECORD_SERIES_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/record_series.lua"), Long.class);
+    
+    // One budgeted cleanup step over the keyspace, resuming from a SCAN cursor
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SWEEP_EXPIRED_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/sweep_expired.lua"), List.class);
+    
+    /**
+     * How a single event is written: separate command chains per metric, or one Lua script call
+     */
+    public enum WriteMode {
+        COMMANDS,
+        SCRIPT
+    }
+    
+    /**
+     * How page views are stored: one ZSET member per view (memory grows with traffic), or
+     * per-second, per-minute and per-hour counters per URL (memory bounded by pages x buckets)
+     */
+    public enum PageViewLayout {
+        MEMBERS,
+        BUCKETS
+    }
+    
+    /**
+     * How active users are counted: a ZSET of every user's last seen time (exact, memory grows with
+     * users), or per-second, per-minute and per-hour HyperLogLogs merged at read time (approximate, ~12KB per bucket)
+     */
+    public enum ActiveUsersMode {
+        EXACT,
+        APPROXIMATE
+    }
+    
     private final ReactiveRedisTemplate<String, String> redisTemplate;
     
+    @Value("${analytics.storage.redis.write-mode:script}")
+    private WriteMode writeMode = WriteMode.SCRIPT;
+    
+    @Value("${analytics.storage.redis.page-views.layout:buckets}")
+    private PageViewLayout pageViewLayout = PageViewLayout.BUCKETS;
+    
+    @Value("${analytics.storage.redis.active-users.mode:exact}")
+    private ActiveUsersMode activeUsersMode = ActiveUsersMode.EXACT;
+    
+    @Value("${analytics.metrics.event-types.by-page:false}")
+    private boolean eventTypesByPage = false;
+    
+    /**
+     * Loads the scripts in use once at startup (SCRIPT LOAD), so every call runs with EVALSHA.
+     * If Redis loses a script (restart, SCRIPT FLUSH) the template falls back to EVAL, which reloads it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadScripts() {
+        if (writeMode == WriteMode.SCRIPT) {
+            loadScript("record event", RECORD_EVENT_SCRIPT);
+        }
+        loadScript("top pages", TOP_PAGES_SCRIPT);
+        loadScript("active sessions", ACTIVE_SESSIONS_SCRIPT);
+        loadScript("active sessions page", ACTIVE_SESSIONS_PAGE_SCRIPT);
+        loadScript("sweep expired", SWEEP_EXPIRED_SCRIPT);
+        loadScript("record series", RECORD_SERIES_SCRIPT);
+    }
+    
+    private void loadScript(String name, RedisScript<?> redisScript) {
+        ByteBuffer script = ByteBuffer.wrap(redisScript.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+        redisTemplate.execute(connection -> connection.scriptingCommands().scriptLoad(script))
+            .subscribe(
+                sha -> log.info("Loaded {} script: {}", name, sha),
+                error -> log.warn("Could not preload {} script, it will be loaded on first use", name, error)
+            );
+    }
+    
+    @Override
+    public void recordEvent(EventRecord record) {
+        if (writeMode == WriteMode.COMMANDS) {
+            MetricsStorageService.super.recordEvent(record);
+            return;
+        }
+        
+        String userId = record.getUserId();
+        boolean buckets = pageViewLayout == PageViewLayout.BUCKETS;
+        List<String> keys = new ArrayList<>(Arrays.asList(
+            ACTIVE_USERS_KEY,
+            PAGE_VIEW_PREFIX + record.getPageUrl(),
+            PAGE_VIEWS_COUNTS_KEY,
+            USER_SESSION_PREFIX + userId + USER_SESSION_SUFFIX,
+            USERS_WITH_SESSIONS_KEY
+        ));
+        if (buckets) {
+            keys.addAll(rollupKeys(PAGE_VIEW_BUCKET_PREFIX, record.getTimestamp()));
+        }
+        if (activeUsersMode == ActiveUsersMode.APPROXIMATE) {
+            keys.addAll(rollupKeys(ACTIVE_USERS_HLL_PREFIX, record.getTimestamp()));
+        }
+        keys.addAll(rollupKeys(EVENT_TYPE_BUCKET_PREFIX, record.getTimestamp()));
+        if (eventTypesByPage) {
+            keys.addAll(rollupKeys(PAGE_EVENT_TYPE_BUCKET_PREFIX, record.getTimestamp()));
+        }
+        List<String> args = new ArrayList<>(Arrays.asList(
+            userId,
+            record.getSessionId(),
+            record.getPageUrl(),
+            String.valueOf(record.getTimestamp()),
+            buckets ? "" : newPageViewMember(record.getTimestamp()),
+            String.valueOf(ACTIVE_USERS_TTL_SECONDS),
+            String.valueOf(PAGE_VIEWS_TTL_SECONDS),
+            String.valueOf(USER_SESSIONS_TTL_SECONDS),
+            pageViewLayout.name(),
+            activeUsersMode.name(),
+            record.getEventType(),
+            eventTypesByPage ? pageEventTypeMember(record.getEventType(), record.getPageUrl()) : ""
+        ));
+        for (long ttlSeconds : ROLLUP_TTL_SECONDS) {
+            args.add(String.valueOf(ttlSeconds));
+        }
+        
+        redisTemplate.execute(RECORD_EVENT_SCRIPT, keys, args)
+            .subscribe(
+                views -> log.debug("Recorded event: {} - {} on {} at {}", userId, record.getSessionId(),
+                    record.getPageUrl(), record.getTimestamp()),
+                error -> log.error("Error recording event", error)
+            );
+    }
+    
     @Override
     public void recordActiveUser(String userId, long timestamp) {
+        if (activeUsersMode == ActiveUsersMode.APPROXIMATE) {
+            // Add the user to the event's rollup HyperLogLogs - buckets expire on their own
+            List<Mono<Boolean>> writes = new ArrayList<>();
+            forEachRollupBucket(ACTIVE_USERS_HLL_PREFIX, timestamp, (bucketKey, ttlSeconds) ->
+                writes.add(redisTemplate.opsForHyperLogLog().add(bucketKey, userId)
+                    .then(expire(bucketKey, ttlSeconds))));
+            Mono.when(writes)
+                .subscribe(
+                    result -> log.debug("Recorded active user: {} at {}", userId, timestamp),
+                    error -> log.error("Error recording active user", error)
+                );
+            return;
+        }
+        
         // Just store the data - cleanup happens when metrics are retrieved
         redisTemplate.opsForZSet().add(ACTIVE_USERS_KEY, userId, (double) timestamp)
             .then(redisTemplate.expire(ACTIVE_USERS_KEY, Duration.ofSeconds(ACTIVE_USERS_TTL_SECONDS)))
@@ -49,6 +268,15 @@ public class RedisMetricsStorageService implements MetricsStorageService {
     
     @Override
     public Mono<Integer> getActiveUserCount(long windowStartTime) {
+        if (activeUsersMode == ActiveUsersMode.APPROXIMATE) {
+            // PFCOUNT over several keys estimates the cardinality of their union
+            String[] bucketKeys = windowKeys(ACTIVE_USERS_HLL_PREFIX, windowStartTime).toArray(new String[0]);
+            return redisTemplate.opsForHyperLogLog()
+                .size(bucketKeys)
+                .map(Long::intValue)
+                .defaultIfEmpty(0);
+        }
+        
         Range<Double> range = Range.of(Range.Bound.inclusive((double) windowStartTime), Range.Bound.unbounded());
         return redisTemplate.opsForZSet()
             .count(ACTIVE_USERS_KEY, range)
@@ -56,12 +284,38 @@ public class RedisMetricsStorageService implements MetricsStorageService {
             .defaultIfEmpty(0);
     }
     
+    @Override
+    public Optional<Duration> getActiveUserCountMaxWindow() {
+        return activeUsersMode == ActiveUsersMode.APPROXIMATE ? Optional.empty() : Optional.of(ACTIVE_USERS_RETENTION);
+    }
+    
+    @Override
+    public CountAccuracy getActiveUserCountAccuracy() {
+        return activeUsersMode == ActiveUsersMode.APPROXIMATE
+            ? CountAccuracy.approximate(HYPERLOGLOG_STANDARD_ERROR)
+            : CountAccuracy.EXACT;
+    }
+    
     @Override
     public void recordPageView(String pageUrl, long timestamp) {
         // pageUrl is already normalized by UrlNormalizer in EventProcessingService
+        if (pageViewLayout == PageViewLayout.BUCKETS) {
+            // Bump the URL's counter in the event's rollup buckets - buckets expire on their own
+            List<Mono<Boolean>> writes = new ArrayList<>();
+            forEachRollupBucket(PAGE_VIEW_BUCKET_PREFIX, timestamp, (bucketKey, ttlSeconds) ->
+                writes.add(redisTemplate.opsForZSet().incrementScore(bucketKey, pageUrl, 1)
+                    .then(expire(bucketKey, ttlSeconds))));
+            Mono.when(writes)
+                .subscribe(
+                    result -> log.debug("Recorded page view: {} at {}", pageUrl, timestamp),
+                    error -> log.error("Error recording page view", error)
+                );
+            return;
+        }
+        
         // Just store the data - cleanup happens when metrics are retrieved
         String pageKey = PAGE_VIEW_PREFIX + pageUrl;
-        String member = timestamp + ":" + UUID.randomUUID().toString().substring(0, 8);
+        String member = newPageViewMember(timestamp);
         
         // Store page view and update count in master ranking
         redisTemplate.opsForZSet().add(pageKey, member, (double) timestamp)
@@ -82,6 +336,14 @@ public class RedisMetricsStorageService implements MetricsStorageService {
     @Override
     public Mono<Integer> getPageViewCount(String pageUrl, long windowStartTime) {
         // pageUrl is already normalized
+        if (pageViewLayout == PageViewLayout.BUCKETS) {
+            // Sum the URL's counter over the buckets of the window (lookups are pipelined)
+            return Flux.fromIterable(windowKeys(PAGE_VIEW_BUCKET_PREFIX, windowStartTime))
+                .flatMap(bucketKey -> redisTemplate.opsForZSet().score(bucketKey, pageUrl))
+                .reduce(0.0, Double::sum)
+                .map(Double::intValue);
+        }
+        
         String pageKey = PAGE_VIEW_PREFIX + pageUrl;
         Range<Double> range = Range.of(Range.Bound.inclusive((double) windowStartTime), Range.Bound.unbounded());
         
@@ -93,6 +355,10 @@ public class RedisMetricsStorageService implements MetricsStorageService {
     
     @Override
     public Mono<List<PageView>> getTopPages(int limit, long windowStartTime) {
+        if (pageViewLayout == PageViewLayout.BUCKETS) {
+            return getTopPagesFromBuckets(limit, windowStartTime);
+        }
+        
         // Get top pages from master ranking
         // Use Range<Long> for indices
         Range<Long> indexRange = Range.of(Range.Bound.inclusive(0L), Range.Bound.inclusive((long) (limit - 1)));
@@ -110,10 +376,8 @@ public class RedisMetricsStorageService implements MetricsStorageService {
                     .defaultIfEmpty(0L)
                     .flatMap(actualCount -> {
                         if (actualCount > 0) {
-                            // URL is stored without leading slash, add it back for display
-                            String displayUrl = url.startsWith("/") ? url : "/" + url;
                             return Mono.just(PageView.builder()
-                                .url(displayUrl)
+                                .url(PageView.displayUrl(url))
                                 .viewCount(actualCount)
                                 .build());
                         } else {
@@ -136,6 +400,114 @@ public class RedisMetricsStorageService implements MetricsStorageService {
             .defaultIfEmpty(Collections.emptyList());
     }
     
+    /**
+     * Exact top pages of the window: the script unions the window's buckets server-side and
+     * returns only the top entries, so this is one round trip regardless of how many pages exist
+     */
+    private Mono<List<PageView>> getTopPagesFromBuckets(int limit, long windowStartTime) {
+        List<String> keys = new ArrayList<>();
+        keys.add(TOP_PAGES_UNION_KEY);
+        keys.addAll(windowKeys(PAGE_VIEW_BUCKET_PREFIX, windowStartTime));
+        
+        return redisTemplate.execute(TOP_PAGES_SCRIPT, keys, Collections.singletonList(String.valueOf(limit)))
+            .next()
+            .map(RedisMetricsStorageService::toPageViews)
+            .defaultIfEmpty(Collections.emptyList());
+    }
+    
+    private static List<PageView> toPageViews(List<?> urlsAndViews) {
+        // Script reply is a flat url, views, url, views... list
+        List<PageView> pageViews = new ArrayList<>(urlsAndViews.size() / 2);
+        for (int i = 0; i + 1 < urlsAndViews.size(); i += 2) {
+            pageViews.add(PageView.builder()
+                .url(PageView.displayUrl(String.valueOf(urlsAndViews.get(i))))
+                .viewCount((long) Double.parseDouble(String.valueOf(urlsAndViews.get(i + 1))))
+                .build());
+        }
+        return pageViews;
+    }
+    
+    @Override
+    public void recordEventType(String eventType, String pageUrl, long timestamp) {
+        // Bump the type's (and page and type's) counter in the event's rollup buckets - buckets expire on their own
+        List<Mono<Boolean>> writes = new ArrayList<>();
+        forEachRollupBucket(EVENT_TYPE_BUCKET_PREFIX, timestamp, (bucketKey, ttlSeconds) ->
+            writes.add(redisTemplate.opsForZSet().incrementScore(bucketKey, eventType, 1)
+                .then(expire(bucketKey, ttlSeconds))));
+        if (eventTypesByPage) {
+            String member = pageEventTypeMember(eventType, pageUrl);
+            forEachRollupBucket(PAGE_EVENT_TYPE_BUCKET_PREFIX, timestamp, (bucketKey, ttlSeconds) ->
+                writes.add(redisTemplate.opsForZSet().incrementScore(bucketKey, member, 1)
+                    .then(expire(bucketKey, ttlSeconds))));
+        }
+        Mono.when(writes)
+            .subscribe(
+                result -> log.debug("Recorded event type: {} on {} at {}", eventType, pageUrl, timestamp),
+                error -> log.error("Error recording event type", error)
+            );
+    }
+    
+    @Override
+    public Mono<Map<String, Long>> getEventTypeCounts(int limit, long windowStartTime) {
+        return topBucketEntries(EVENT_TYPE_BUCKET_PREFIX, limit, windowStartTime)
+            .map(typesAndCounts -> {
+                Map<String, Long> counts = new LinkedHashMap<>();
+                for (int i = 0; i + 1 < typesAndCounts.size(); i += 2) {
+                    counts.put(String.valueOf(typesAndCounts.get(i)), toCount(typesAndCounts.get(i + 1)));
+                }
+                return counts;
+            });
+    }
+    
+    @Override
+    public Mono<List<PageEventTypeCount>> getTopPageEventTypes(int limit, long windowStartTime) {
+        if (!eventTypesByPage) {
+            return Mono.just(Collections.emptyList());
+        }
+        return topBucketEntries(PAGE_EVENT_TYPE_BUCKET_PREFIX, limit, windowStartTime)
+            .map(membersAndCounts -> {
+                List<PageEventTypeCount> counts = new ArrayList<>(membersAndCounts.size() / 2);
+                for (int i = 0; i + 1 < membersAndCounts.size(); i += 2) {
+                    String member = String.valueOf(membersAndCounts.get(i));
+                    int separator = member.indexOf(':');
+                    int urlStart = separator + 1 + Integer.parseInt(member.substring(0, separator));
+                    counts.add(PageEventTypeCount.builder()
+                        .url(PageView.displayUrl(member.substring(urlStart)))
+                        .eventType(member.substring(separator + 1, urlStart))
+                        .count(toCount(membersAndCounts.get(i + 1)))
+                        .build());
+                }
+                return counts;
+            });
+    }
+    
+    /**
+     * Top members of the window's buckets with their summed counts, as a flat member, count... list -
+     * the same server-side merge as the bucketed top pages
+     */
+    private Mono<List<?>> topBucketEntries(String prefix, int limit, long windowStartTime) {
+        List<String> keys = new ArrayList<>();
+        keys.add(EVENT_TYPES_UNION_KEY);
+        keys.addAll(windowKeys(prefix, windowStartTime));
+        
+        return redisTemplate.execute(TOP_PAGES_SCRIPT, keys, Collections.singletonList(String.valueOf(limit)))
+            .next()
+            .<List<?>>map(reply -> (List<?>) reply)
+            .defaultIfEmpty(Collections.emptyList());
+    }
+    
+    private static long toCount(Object score) {
+        return (long) Double.parseDouble(String.valueOf(score));
+    }
+    
+    /**
+     * Page and event type as one ZSET member: the type's length, the type, then the URL, so neither
+     * needs a separator character that could also appear in it
+     */
+    private static String pageEventTypeMember(String eventType, String pageUrl) {
+        return eventType.length() + ":" + eventType + pageUrl;
+    }
+    
     @Override
     public void recordUserSession(String userId, String sessionId, long timestamp) {
         // Just store the data - cleanup happens when metrics are retrieved
@@ -163,59 +535,348 @@ public class RedisMetricsStorageService implements MetricsStorageService {
             .defaultIfEmpty(0);
     }
     
+    /**
+     * One script call instead of SMEMBERS plus a lookup per user. Users whose sessions have all
+     * expired are removed from the tracking SET inside the same script, so the pruning cannot race
+     * with a concurrent write that adds a new session for that user.
+     */
     @Override
     public Mono<Map<String, Integer>> getActiveSessionsByUser(long windowStartTime) {
-        // Get all users with active sessions
-        return redisTemplate.opsForSet()
-            .members(USERS_WITH_SESSIONS_KEY)
-            .collectList()
-            .defaultIfEmpty(Collections.emptyList())
-            .flatMapMany(Flux::fromIterable)
-            .flatMap(userId -> {
-                String sessionKey = USER_SESSION_PREFIX + userId + USER_SESSION_SUFFIX;
-                
-                // Check if key exists and get count in reactive chain
-                return redisTemplate.hasKey(sessionKey)
-                    .flatMap(exists -> {
-                        if (Boolean.TRUE.equals(exists)) {
-                            return getActiveSessionCount(userId, windowStartTime)
-                                .flatMap(count -> {
-                                    if (count > 0) {
-                                        return Mono.just(new AbstractMap.SimpleEntry<>(userId, count));
-                                    } else {
-                                        // Mark for removal (fire and forget)
-                                        redisTemplate.opsForSet().remove(USERS_WITH_SESSIONS_KEY, userId)
-                                            .subscribe(
-                                                removed -> log.debug("Removed expired user from sessions set: {}", userId),
-                                                error -> log.warn("Error removing expired user from sessions set: {}", userId, error)
-                                            );
-                                        return Mono.empty();
-                                    }
-                                });
-                        } else {
-                            // Key doesn't exist, mark for removal (fire and forget)
-                            redisTemplate.opsForSet().remove(USERS_WITH_SESSIONS_KEY, userId)
-                                .subscribe(
-                                    removed -> log.debug("Removed expired user from sessions set: {}", userId),
-                                    error -> log.warn("Error removing expired user from sessions set: {}", userId, error)
-                                );
-                            return Mono.empty();
-                        }
-                    });
+        return executeActiveSessions(0, windowStartTime)
+            .map(reply -> {
+                Map<String, Integer> sessionsByUser = new HashMap<>(reply.size());
+                for (UserSessionCount entry : toSessionCounts(reply, 2)) {
+                    sessionsByUser.put(entry.getUserId(), entry.getSessionCount());
+                }
+                return sessionsByUser;
             })
-            .collectMap(
-                Map.Entry::getKey,
-                Map.Entry::getValue
-            )
             .defaultIfEmpty(Collections.emptyMap());
     }
     
-    // ==================== CLEANUP METHODS - Called when metrics are retrieved ====================
+    /**
+     * Same single script call as getActiveSessionsByUser, but only the top users and the totals
+     * leave Redis, so the reply size does not grow with the number of active users
+     */
+    @Override
+    public Mono<ActiveSessionsSummary> getTopActiveSessions(int limit, long windowStartTime) {
+        if (limit <= 0) {
+            return Mono.just(ActiveSessionsSummary.builder().topUsers(Collections.emptyList()).build());
+        }
+        
+        return executeActiveSessions(limit, windowStartTime)
+            .map(reply -> ActiveSessionsSummary.builder()
+                .totalUsers(Integer.parseInt(String.valueOf(reply.get(0))))
+                .totalSessions(Long.parseLong(String.valueOf(reply.get(1))))
+                .topUsers(toSessionCounts(reply, 2))
+                .build())
+            .defaultIfEmpty(ActiveSessionsSummary.builder().topUsers(Collections.emptyList()).build());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Mono<List<Object>> executeActiveSessions(int limit, long windowStartTime) {
+        long retentionCutoff = System.currentTimeMillis() - Duration.ofMinutes(5).toMillis();
+        List<String> args = Arrays.asList(
+            USER_SESSION_PREFIX,
+            USER_SESSION_SUFFIX,
+            String.valueOf(windowStartTime),
+            String.valueOf(Math.min(windowStartTime, retentionCutoff)),
+            String.valueOf(limit)
+        );
+        
+        return redisTemplate.execute(ACTIVE_SESSIONS_SCRIPT, Collections.singletonList(USERS_WITH_SESSIONS_KEY), args)
+            .next()
+            .map(reply -> (List<Object>) reply);
+    }
+    
+    @Override
+    public Mono<ActiveSessionsPage> getActiveSessionsPage(String cursor, int limit, long windowStartTime) {
+        List<String> args = Arrays.asList(
+            cursor == null ? ActiveSessionsPage.START_CURSOR : cursor,
+            String.valueOf(Math.max(1, limit)),
+            USER_SESSION_PREFIX,
+            USER_SESSION_SUFFIX,
+            String.valueOf(windowStartTime)
+        );
+        
+        return redisTemplate.execute(ACTIVE_SESSIONS_PAGE_SCRIPT, Collections.singletonList(USERS_WITH_SESSIONS_KEY), args)
+            .next()
+            .map(reply -> {
+                String nextCursor = String.valueOf(reply.get(0));
+                return ActiveSessionsPage.builder()
+                    .users(toSessionCounts(reply, 1))
+                    .nextCursor(ActiveSessionsPage.START_CURSOR.equals(nextCursor) ? null : nextCursor)
+                    .build();
+            });
+    }
+    
+    private static List<UserSessionCount> toSessionCounts(List<?> reply, int offset) {
+        // Script replies end with a flat userId, count, userId, count... list
+        List<UserSessionCount> counts = new ArrayList<>(Math.max(0, reply.size() - offset) / 2);
+        for (int i = offset; i + 1 < reply.size(); i += 2) {
+            counts.add(UserSessionCount.builder()
+                .userId(String.valueOf(reply.get(i)))
+                .sessionCount(Integer.parseInt(String.valueOf(reply.get(i + 1))))
+                .build());
+        }
+        return counts;
+    }
+    
+    // ==================== TIME SERIES ====================
+    
+    @Override
+    public Mono<Void> recordSeries(SeriesResolution resolution, Map<Long, Long> pageViewsByBucket,
+                                   Map<Long, Set<String>> usersByBucket) {
+        Set<Long> buckets = new HashSet<>(pageViewsByBucket.keySet());
+        buckets.addAll(usersByBucket.keySet());
+        String usersTtl = String.valueOf(resolution.getStep().plus(SERIES_LATE_EVENTS).getSeconds());
+        String countersTtl = String.valueOf(resolution.getRetention().plusMillis(
+            seriesBucketsPerKey(resolution) * resolution.getStep().toMillis()).getSeconds());
+        
+        List<Mono<Void>> writes = new ArrayList<>(buckets.size());
+        for (long bucket : buckets) {
+            List<String> keys = Arrays.asList(
+                SERIES_USERS_PREFIX + resolution.getLabel() + ":" + bucket,
+                seriesKey(SeriesMetric.ACTIVE_USERS, resolution, bucket),
+                seriesKey(SeriesMetric.PAGE_VIEWS, resolution, bucket)
+            );
+            List<String> args = new ArrayList<>();
+            args.add(String.valueOf(bucket));
+            args.add(usersTtl);
+            args.add(countersTtl);
+            args.add(String.valueOf(pageViewsByBucket.getOrDefault(bucket, 0L)));
+            args.addAll(usersByBucket.getOrDefault(bucket, Collections.emptySet()));
+            writes.add(redisTemplate.execute(RECORD_SERIES_SCRIPT, keys, args).then());
+        }
+        return Mono.when(writes);
+    }
+    
+    @Override
+    public Mono<Map<Long, Long>> getSeries(SeriesMetric metric, SeriesResolution resolution,
+                                           long fromBucket, long toBucket) {
+        // One HMGET per counters hash the range touches
+        long bucketsPerKey = seriesBucketsPerKey(resolution);
+        long lastPeriod = Math.floorDiv(toBucket, bucketsPerKey);
+        List<Mono<Map<Long, Long>>> reads = new ArrayList<>();
+        for (long period = Math.floorDiv(fromBucket, bucketsPerKey); period <= lastPeriod; period++) {
+            long first = Math.max(fromBucket, period * bucketsPerKey);
+            long last = Math.min(toBucket, (period + 1) * bucketsPerKey - 1);
+            List<String> fields = new ArrayList<>((int) (last - first + 1));
+            for (long bucket = first; bucket <= last; bucket++) {
+                fields.add(String.valueOf(bucket));
+            }
+            reads.add(redisTemplate.<String, String>opsForHash()
+                .multiGet(seriesKey(metric, resolution, first), fields)
+                .map(values -> {
+                    Map<Long, Long> valuesByBucket = new HashMap<>();
+                    for (int i = 0; i < values.size(); i++) {
+                        if (values.get(i) != null) {
+                            valuesByBucket.put(first + i, Long.parseLong(values.get(i)));
+                        }
+                    }
+                    return valuesByBucket;
+                }));
+        }
+        return Flux.merge(reads)
+            .<Map<Long, Long>>collect(HashMap::new, Map::putAll);
+    }
+    
+    private static String seriesKey(SeriesMetric metric, SeriesResolution resolution, long bucket) {
+        return SERIES_PREFIX + metric.getName() + ":" + resolution.getLabel() + ":"
+            + Math.floorDiv(bucket, seriesBucketsPerKey(resolution));
+    }
+    
+    private static long seriesBucketsPerKey(SeriesResolution resolution) {
+        Duration keySpan = resolution == SeriesResolution.MINUTE ? Duration.ofDays(1) : Duration.ofDays(30);
+        return keySpan.toMillis() / resolution.getStep().toMillis();
+    }
+    
+    // ==================== TOP PAGES SKETCHES ====================
+    
+    @Override
+    public Mono<Void> saveTopPagesSketch(long minute, String nodeId, String sketch, Duration ttl) {
+        String key = TOP_PAGES_SKETCH_PREFIX + minute;
+        return redisTemplate.<String, String>opsForHash().put(key, nodeId, sketch)
+            .then(redisTemplate.expire(key, ttl))
+            .then();
+    }
+    
+    @Override
+    public Mono<List<String>> getTopPagesSketches(long fromMinute, long toMinute) {
+        // One HVALS per minute, issued concurrently
+        List<Flux<String>> reads = new ArrayList<>();
+        for (long minute = fromMinute; minute <= toMinute; minute++) {
+            reads.add(redisTemplate.<String, String>opsForHash().values(TOP_PAGES_SKETCH_PREFIX + minute));
+        }
+        return Flux.merge(reads).collectList();
+    }
+    
+    // ==================== BATCH WRITES ====================
+    
+    @Override
+    public Mono<Void> recordEvents(List<EventRecord> records) {
+        if (records.isEmpty()) {
+            return Mono.empty();
+        }
+        return recordAggregate(EventAggregate.of(records, eventTypesByPage))
+            .doOnSuccess(result -> log.debug("Recorded batch of {} events", records.size()));
+    }
+    
+    @Override
+    public Mono<Void> recordAggregate(EventAggregate aggregate) {
+        if (aggregate.isEmpty()) {
+            return Mono.empty();
+        }
+        
+        // Collapse the aggregate per key: one ZADD/SADD/PFADD with all members and one EXPIRE per key,
+        // instead of separate command chains per event
+        Map<String, Double> lastSeenByUser = new HashMap<>();
+        Map<String, Set<String>> usersByBucket = new HashMap<>();
+        Map<String, List<ZSetOperations.TypedTuple<String>>> viewsByPage = new HashMap<>();
+        // Bucket key -> member -> increment, for page views and event types alike
+        Map<String, Map<String, Double>> countsByBucket = new HashMap<>();
+        Map<String, Long> bucketTtls = new HashMap<>();
+        aggregate.getUserLastSeen().forEach((userId, timestamp) -> {
+            if (activeUsersMode == ActiveUsersMode.APPROXIMATE) {
+                // The bucket of the latest event is enough: windows always reach up to now
+                forEachRollupBucket(ACTIVE_USERS_HLL_PREFIX, timestamp, (bucketKey, ttlSeconds) -> {
+                    usersByBucket.computeIfAbsent(bucketKey, key -> new HashSet<>()).add(userId);
+                    bucketTtls.put(bucketKey, ttlSeconds);
+                });
+            } else {
+                lastSeenByUser.put(userId, (double) timestamp);
+            }
+        });
+        aggregate.getPageViews().forEach((second, views) -> views.forEach((pageUrl, count) -> {
+            if (pageViewLayout == PageViewLayout.BUCKETS) {
+                countInRollupBuckets(PAGE_VIEW_BUCKET_PREFIX, pageUrl, second, count, countsByBucket, bucketTtls);
+            } else {
+                List<ZSetOperations.TypedTuple<String>> members =
+                    viewsByPage.computeIfAbsent(pageUrl, key -> new ArrayList<>());
+                for (long i = 0; i < count; i++) {
+                    members.add(ZSetOperations.TypedTuple.of(newPageViewMember(second), (double) second));
+                }
+            }
+        }));
+        aggregate.getEventTypes().forEach((second, counts) -> counts.forEach((eventType, count) ->
+            countInRollupBuckets(EVENT_TYPE_BUCKET_PREFIX, eventType, second, count, countsByBucket, bucketTtls)));
+        if (eventTypesByPage) {
+            aggregate.getPageEventTypes().forEach((second, counts) -> counts.forEach((pair, count) ->
+                countInRollupBuckets(PAGE_EVENT_TYPE_BUCKET_PREFIX,
+                    pageEventTypeMember(pair.getEventType(), pair.getPageUrl()), second, count,
+                    countsByBucket, bucketTtls)));
+        }
+        
+        // Chains for different keys are subscribed together, so Lettuce pipelines them on the shared
+        // connection - the number of round trips depends on chain depth, not on the number of keys
+        List<Mono<?>> writes = new ArrayList<>();
+        if (!lastSeenByUser.isEmpty()) {
+            writes.add(redisTemplate.opsForZSet().addAll(ACTIVE_USERS_KEY, toTuples(lastSeenByUser))
+                .then(expire(ACTIVE_USERS_KEY, ACTIVE_USERS_TTL_SECONDS)));
+        }
+        usersByBucket.forEach((bucketKey, userIds) ->
+            writes.add(redisTemplate.opsForHyperLogLog().add(bucketKey, userIds.toArray(new String[0]))
+                .then(expire(bucketKey, bucketTtls.get(bucketKey)))));
+            
+        aggregate.getSessionLastSeen().forEach((userId, sessions) -> {
+            String sessionKey = USER_SESSION_PREFIX + userId + USER_SESSION_SUFFIX;
+            List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>(sessions.size());
+            sessions.forEach((sessionId, timestamp) -> tuples.add(ZSetOperations.TypedTuple.of(sessionId, (double) timestamp)));
+            writes.add(redisTemplate.opsForZSet().addAll(sessionKey, tuples)
+                .then(expire(sessionKey, USER_SESSIONS_TTL_SECONDS)));
+        });
+        writes.add(redisTemplate.opsForSet().add(USERS_WITH_SESSIONS_KEY,
+                aggregate.getSessionLastSeen().keySet().toArray(new String[0]))
+            .then(expire(USERS_WITH_SESSIONS_KEY, USER_SESSIONS_TTL_SECONDS)));
+            
+        countsByBucket.forEach((bucketKey, counts) ->
+            writes.add(Flux.fromIterable(counts.entrySet())
+                .flatMap(entry -> redisTemplate.opsForZSet().incrementScore(bucketKey, entry.getKey(), entry.getValue()))
+                .then(expire(bucketKey, bucketTtls.get(bucketKey)))));
+        
+        Mono<Void> pageViews = viewsByPage.isEmpty() ? Mono.empty() : Flux.fromIterable(viewsByPage.entrySet())
+            .flatMap(entry -> {
+                String pageKey = PAGE_VIEW_PREFIX + entry.getKey();
+                return redisTemplate.opsForZSet().addAll(pageKey, entry.getValue())
+                    .then(expire(pageKey, PAGE_VIEWS_TTL_SECONDS))
+                    .then(redisTemplate.opsForZSet().size(pageKey))
+                    .map(count -> ZSetOperations.TypedTuple.of(entry.getKey(), count.doubleValue()));
+            })
+            .collectList()
+            .flatMap(counts -> redisTemplate.opsForZSet().addAll(PAGE_VIEWS_COUNTS_KEY, counts)
+                .then(expire(PAGE_VIEWS_COUNTS_KEY, PAGE_VIEWS_TTL_SECONDS)))
+            .then();
+        writes.add(pageViews);
+        
+        return Mono.when(writes)
+            .doOnError(error -> log.error("Error recording event batch", error));
+    }
+    
+    private static void countInRollupBuckets(String prefix, String member, long timestamp, long count,
+                                             Map<String, Map<String, Double>> countsByBucket,
+                                             Map<String, Long> bucketTtls) {
+        forEachRollupBucket(prefix, timestamp, (bucketKey, ttlSeconds) -> {
+            countsByBucket.computeIfAbsent(bucketKey, key -> new HashMap<>()).merge(member, (double) count, Double::sum);
+            bucketTtls.put(bucketKey, ttlSeconds);
+        });
+    }
+    
+    private Mono<Boolean> expire(String key, long ttlSeconds) {
+        return redisTemplate.expire(key, Duration.ofSeconds(ttlSeconds));
+    }
+    
+    private static List<ZSetOperations.TypedTuple<String>> toTuples(Map<String, Double> scoresByMember) {
+        return scoresByMember.entrySet().stream()
+            .map(entry -> ZSetOperations.TypedTuple.of(entry.getKey(), entry.getValue()))
+            .collect(Collectors.toList());
+    }
+    
+    private static String newPageViewMember(long timestamp) {
+        // Each view is its own ZSET member, so it needs a unique suffix
+        return timestamp + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+    
+    private static String rollupKey(String prefix, int resolution, long bucket) {
+        return prefix + ROLLUP_TAGS[resolution] + ":" + bucket;
+    }
+    
+    /**
+     * Keys of the event's bucket at every resolution, with their TTLs
+     */
+    private static void forEachRollupBucket(String prefix, long timestamp, BiConsumer<String, Long> action) {
+        for (int resolution = 0; resolution < ROLLUPS.resolutions(); resolution++) {
+            action.accept(rollupKey(prefix, resolution, ROLLUPS.bucketOf(resolution, timestamp)),
+                ROLLUP_TTL_SECONDS[resolution]);
+        }
+    }
+    
+    private static List<String> rollupKeys(String prefix, long timestamp) {
+        List<String> keys = new ArrayList<>(ROLLUPS.resolutions());
+        forEachRollupBucket(prefix, timestamp, (bucketKey, ttlSeconds) -> keys.add(bucketKey));
+        return keys;
+    }
+    
+    /**
+     * Keys of the buckets covering [windowStartTime, now]. The start is rounded up to the finest
+     * bucket still kept at that time, so counts have that granularity at the start of the window.
+     */
+    private static List<String> windowKeys(String prefix, long windowStartTime) {
+        List<String> keys = new ArrayList<>();
+        ROLLUPS.cover(windowStartTime, System.currentTimeMillis(),
+            (resolution, bucket) -> keys.add(rollupKey(prefix, resolution, bucket)));
+        return keys;
+    }
+    
+    // ==================== CLEANUP METHODS - Run by the background sweeper ====================
     
     @Override
     public Mono<Void> cleanupActiveUsers(long currentTimestamp) {
-        long fiveMinAgo = currentTimestamp - Duration.ofMinutes(5).toMillis();
-        Range<Double> cleanupRange = Range.of(Range.Bound.unbounded(), Range.Bound.inclusive((double) fiveMinAgo));
+        if (activeUsersMode == ActiveUsersMode.APPROXIMATE) {
+            // Rollup HyperLogLogs expire by TTL and are never read outside the window
+            return Mono.empty();
+        }
+        
+        long cutoff = currentTimestamp - ACTIVE_USERS_RETENTION.toMillis();
+        Range<Double> cleanupRange = Range.of(Range.Bound.unbounded(), Range.Bound.inclusive((double) cutoff));
         
         return redisTemplate.opsForZSet().removeRangeByScore(ACTIVE_USERS_KEY, cleanupRange)
             .doOnNext(removed -> log.debug("Cleaned up {} old active user entries", removed))
@@ -225,6 +886,11 @@ public class RedisMetricsStorageService implements MetricsStorageService {
     
     @Override
     public Mono<Void> cleanupPageViews(long currentTimestamp) {
+        if (pageViewLayout == PageViewLayout.BUCKETS) {
+            // Rollup buckets expire by TTL and are never read outside the window - nothing to scan
+            return Mono.empty();
+        }
+        
         long fifteenMinAgo = currentTimestamp - Duration.ofMinutes(15).toMillis();
         Range<Double> cleanupRange = Range.of(Range.Bound.unbounded(), Range.Bound.inclusive((double) fifteenMinAgo));
         
@@ -303,5 +969,34 @@ public class RedisMetricsStorageService implements MetricsStorageService {
             .doOnSuccess(result -> log.debug("Completed user sessions cleanup"))
             .doOnError(error -> log.error("Error during user sessions cleanup", error));
     }
+    
+    @Override
+    public Mono<SweepResult> sweepExpiredEntries(long currentTimestamp, String cursor, int maxKeys) {
+        long fiveMinAgo = currentTimestamp - Duration.ofMinutes(5).toMillis();
+        long fifteenMinAgo = currentTimestamp - Duration.ofMinutes(15).toMillis();
+        
+        // Page view ZSETs only exist in the members layout; bucket keys are skipped by prefix
+        List<String> keys = Arrays.asList(PAGE_VIEWS_COUNTS_KEY, USERS_WITH_SESSIONS_KEY);
+        List<String> args = Arrays.asList(
+            cursor,
+            String.valueOf(Math.max(1, maxKeys)),
+            PAGE_VIEW_PREFIX,
+            USER_SESSION_PREFIX,
+            USER_SESSION_SUFFIX,
+            String.valueOf(fifteenMinAgo),
+            String.valueOf(fiveMinAgo)
+        );
+        
+        return redisTemplate.execute(SWEEP_EXPIRED_SCRIPT, keys, args)
+            .next()
+            .map(reply -> SweepResult.builder()
+                .cursor(String.valueOf(reply.get(0)))
+                .keysScanned(Long.parseLong(String.valueOf(reply.get(1))))
+                .entriesRemoved(Long.parseLong(String.valueOf(reply.get(2))))
+                .build())
+            .doOnNext(result -> log.debug("Swept {} keys, removed {} expired entries",
+                result.getKeysScanned(), result.getEntriesRemoved()))
+            .doOnError(error -> log.error("Error sweeping expired entries", error));
+    }
 }
 
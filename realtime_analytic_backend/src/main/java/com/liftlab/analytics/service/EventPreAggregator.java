@@ -0,0 +1,222 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Pre-aggregation stage between EventProcessingService and the storage for single events
+ * (analytics.ingestion.pre-aggregation.enabled).
+ * Events are coalesced into per-tick accumulators - latest event time per user and per user session,
+ * counts per second for pages, event types and (page, event type) pairs, and the users of each minute -
+ * and every analytics.ingestion.pre-aggregation.flush-interval-ms a tick is written as one EventAggregate,
+ * metrics and time series together, so storage writes grow with the distinct keys of a tick, not with
+ * the number of events.
+ *
+ * Accumulators are ConcurrentHashMaps of LongAdders and LongAccumulators, so adding an event takes no
+ * lock and concurrent writers to the same key contend on separate cells. A tick that is swapped out may
+ * still receive the events of writers that read it just before, so it is written one flush later: events
+ * reach the storage within two flush intervals. Events of a tick whose write fails are dropped, as with
+ * direct single-event writes; batches (processBatch) bypass this stage, as their callers wait for the write.
+ * For the same reason it cannot be enabled together with the IngestPipeline, whose writer already writes
+ * each batch as one aggregate and answers durable acks and releases journal entries once it is written.
+ */
+@Service
+@Slf4j
+public class EventPreAggregator {
+    
+    private final MetricsStorageService storageService;
+    private final TimeSeriesService timeSeriesService;
+    private final boolean enabled;
+    private final boolean eventTypesByPage;
+    
+    private final AtomicReference<Tick> current = new AtomicReference<>(new Tick());
+    // Swapped out by the last flush, written by the next one; only touched by flushes, which do not overlap
+    private Tick draining = new Tick();
+    
+    private final Counter eventsAdded;
+    private final Counter keysWritten;
+    private final Counter eventsDropped;
+    
+    public EventPreAggregator(MetricsStorageService storageService, TimeSeriesService timeSeriesService,
+                              MeterRegistry meterRegistry,
+                              @Value("${analytics.ingestion.pre-aggregation.enabled:false}") boolean enabled,
+                              @Value("${analytics.ingestion.pipeline.enabled:true}") boolean pipelineEnabled,
+                              @Value("${analytics.metrics.event-types.by-page:false}") boolean eventTypesByPage) {
+        if (enabled && pipelineEnabled) {
+            throw new IllegalStateException("analytics.ingestion.pre-aggregation.enabled requires "
+                + "analytics.ingestion.pipeline.enabled=false: single events go through the ingest pipeline otherwise");
+        }
+        this.storageService = storageService;
+        this.timeSeriesService = timeSeriesService;
+        this.enabled = enabled;
+        this.eventTypesByPage = eventTypesByPage;
+        this.eventsAdded = Counter.builder("analytics.preaggregation.events")
+            .description("Events coalesced by the pre-aggregation stage")
+            .register(meterRegistry);
+        this.keysWritten = Counter.builder("analytics.preaggregation.keys.written")
+            .description("Distinct user, session and counter keys written by pre-aggregation flushes")
+            .register(meterRegistry);
+        this.eventsDropped = Counter.builder("analytics.preaggregation.events.dropped")
+            .description("Events of ticks whose storage write failed")
+            .register(meterRegistry);
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Adds the event to the current tick
+     */
+    public void add(EventRecord record) {
+        Tick tick = current.get();
+        long timestamp = record.getTimestamp();
+        long second = EventAggregate.secondOf(timestamp);
+        getOrCreate(tick.userLastSeen, record.getUserId(), EventPreAggregator::newLastSeen).accumulate(timestamp);
+        getOrCreate(tick.sessionLastSeen, new SessionKey(record.getUserId(), record.getSessionId()),
+            EventPreAggregator::newLastSeen).accumulate(timestamp);
+        getOrCreate(tick.pageViews, new CountKey(second, record.getPageUrl(), null), key -> new LongAdder()).increment();
+        getOrCreate(tick.eventTypes, new CountKey(second, null, record.getEventType()), key -> new LongAdder()).increment();
+        if (eventTypesByPage) {
+            getOrCreate(tick.pageEventTypes, new CountKey(second, record.getPageUrl(), record.getEventType()),
+                key -> new LongAdder()).increment();
+        }
+        getOrCreate(tick.minuteUsers, EventAggregate.minuteOf(timestamp), key -> ConcurrentHashMap.newKeySet())
+            .add(record.getUserId());
+        tick.events.increment();
+        eventsAdded.increment();
+    }
+    
+    @Scheduled(fixedDelayString = "${analytics.ingestion.pre-aggregation.flush-interval-ms:200}",
+        initialDelayString = "${analytics.ingestion.pre-aggregation.flush-interval-ms:200}")
+    public void scheduledFlush() {
+        if (enabled) {
+            // Blocking keeps flushes from overlapping; this runs on the scheduler thread, not an event loop
+            flush().block();
+        }
+    }
+    
+    /**
+     * Writes everything still held, on shutdown
+     */
+    @PreDestroy
+    public void close() {
+        if (enabled) {
+            flush().then(flush()).block();
+        }
+    }
+    
+    /**
+     * Starts a new tick and writes the one swapped out by the previous flush
+     */
+    public Mono<Void> flush() {
+        return Mono.defer(() -> {
+            Tick ready = draining;
+            draining = current.getAndSet(new Tick());
+            long events = ready.events.sum();
+            if (events == 0) {
+                return Mono.empty();
+            }
+            EventAggregate aggregate = ready.toAggregate();
+            long keys = ready.keyCount();
+            Mono<Void> metrics = storageService.recordAggregate(aggregate)
+                .doOnSuccess(result -> {
+                    keysWritten.increment(keys);
+                    log.debug("Flushed {} events as {} keys", events, keys);
+                })
+                .onErrorResume(error -> {
+                    eventsDropped.increment(events);
+                    log.error("Error writing {} pre-aggregated events", events, error);
+                    return Mono.empty();
+                });
+            Mono<Void> series = timeSeriesService.record(aggregate)
+                .onErrorResume(error -> {
+                    log.error("Error recording time series of {} pre-aggregated events", events, error);
+                    return Mono.empty();
+                });
+            return Mono.when(metrics, series);
+        });
+    }
+    
+    private static LongAccumulator newLastSeen(Object key) {
+        return new LongAccumulator(Math::max, Long.MIN_VALUE);
+    }
+    
+    private static <K, V> V getOrCreate(Map<K, V> map, K key, Function<K, V> factory) {
+        // get first: computeIfAbsent may lock the bin even when the key is present
+        V value = map.get(key);
+        return value != null ? value : map.computeIfAbsent(key, factory);
+    }
+    
+    @lombok.Value
+    private static class SessionKey {
+        String userId;
+        String sessionId;
+    }
+    
+    /**
+     * Counter of a second: a page (no event type), an event type (no page), or a page and event type pair
+     */
+    @lombok.Value
+    private static class CountKey {
+        long second;
+        String pageUrl;
+        String eventType;
+    }
+    
+    private static final class Tick {
+        final Map<String, LongAccumulator> userLastSeen = new ConcurrentHashMap<>();
+        final Map<SessionKey, LongAccumulator> sessionLastSeen = new ConcurrentHashMap<>();
+        final Map<CountKey, LongAdder> pageViews = new ConcurrentHashMap<>();
+        final Map<CountKey, LongAdder> eventTypes = new ConcurrentHashMap<>();
+        final Map<CountKey, LongAdder> pageEventTypes = new ConcurrentHashMap<>();
+        final Map<Long, Set<String>> minuteUsers = new ConcurrentHashMap<>();
+        final LongAdder events = new LongAdder();
+        
+        long keyCount() {
+            return userLastSeen.size() + sessionLastSeen.size() + pageViews.size() + eventTypes.size()
+                + pageEventTypes.size();
+        }
+        
+        EventAggregate toAggregate() {
+            Map<String, Long> users = new HashMap<>();
+            userLastSeen.forEach((userId, lastSeen) -> users.put(userId, lastSeen.get()));
+            Map<String, Map<String, Long>> sessions = new HashMap<>();
+            sessionLastSeen.forEach((key, lastSeen) -> sessions
+                .computeIfAbsent(key.getUserId(), userId -> new HashMap<>())
+                .put(key.getSessionId(), lastSeen.get()));
+            Map<Long, Map<String, Long>> views = new HashMap<>();
+            pageViews.forEach((key, count) -> views
+                .computeIfAbsent(key.getSecond(), second -> new HashMap<>())
+                .put(key.getPageUrl(), count.sum()));
+            Map<Long, Map<String, Long>> types = new HashMap<>();
+            eventTypes.forEach((key, count) -> types
+                .computeIfAbsent(key.getSecond(), second -> new HashMap<>())
+                .put(key.getEventType(), count.sum()));
+            Map<Long, Map<EventAggregate.PageEventType, Long>> pairs = new HashMap<>();
+            pageEventTypes.forEach((key, count) -> pairs
+                .computeIfAbsent(key.getSecond(), second -> new HashMap<>())
+                .put(new EventAggregate.PageEventType(key.getPageUrl(), key.getEventType()), count.sum()));
+            Map<Long, Set<String>> series = new HashMap<>(minuteUsers);
+            return new EventAggregate(users, sessions, views, types, pairs, series);
+        }
+    }
+}
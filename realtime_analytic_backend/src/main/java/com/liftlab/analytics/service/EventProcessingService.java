@@ -1,17 +1,33 @@
 package com.liftlab.analytics.service;
 
 import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.BatchProcessingResult;
 import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.model.EventRecord;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import com.liftlab.analytics.util.UrlNormalizer;
+import com.liftlab.analytics.validation.ValidationException;
 import com.liftlab.analytics.validation.ValidationManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Service for processing analytics events
+ * Accepted events are written to the metrics storage and added to the time series (TimeSeriesService).
+ * Series writes are best effort: a failure is logged and does not fail the event.
+ * Normalized URLs pass the PageCardinalityGuard, so the number of distinct pages stays capped.
+ * With the sketch engine enabled, page views are also counted in this node's TopPagesSketchService.
+ * Single events go through the EventPreAggregator when it is enabled, which also writes their time
+ * series with each tick; batches are written directly, as they are already coalesced per key and
+ * their callers wait for the write.
+ * The IngestPipeline calls the two halves separately: toEventRecord on its validate stage and write
+ * on its batched writer stage.
  */
 @Service
 @Slf4j
@@ -21,28 +37,30 @@ public class EventProcessingService {
     private final ValidationManager validationManager;
     private final MetricsStorageService storageService;
     private final UrlNormalizer urlNormalizer;
+    private final TimeSeriesService timeSeriesService;
+    private final PageCardinalityGuard pageCardinalityGuard;
+    private final TopPagesSketchService topPagesSketchService;
+    private final EventPreAggregator preAggregator;
     
     public Mono<EventProcessingResult> processEvent(AnalyticsEvent event) {
         try {
             // Event Processing
             log.debug("Processing event: {}", event);
             
-            // 1. Validate event
-            validationManager.validate(event);
-            
-            // 2. Extract timestamp
-            long eventTimestamp = event.getTimestamp().toEpochMilli();
-            
-            // 3. Process metrics (storage operations)
-            // Active Users
-            storageService.recordActiveUser(event.getUserId(), eventTimestamp);
+            // 1. Validate event, normalize URL and apply the page cap
+            EventRecord record = toEventRecord(event);
             
-            // Page Views
-            String normalizedUrl = urlNormalizer.normalize(event.getPageUrl());
-            storageService.recordPageView(normalizedUrl, eventTimestamp);
+            // 2. Process metrics and time series: coalesced with other events by the pre-aggregation stage,
+            // or active user, page view and session in one storage call and the series in another
+            if (preAggregator.isEnabled()) {
+                preAggregator.add(record);
+            } else {
+                storageService.recordEvent(record);
+                recordSeries(Collections.singletonList(record)).subscribe();
+            }
             
-            // User Sessions
-            storageService.recordUserSession(event.getUserId(), event.getSessionId(), eventTimestamp);
+            // 3. When enabled, add to the top pages sketches
+            topPagesSketchService.record(Collections.singletonList(record));
             
             log.debug("Event processed successfully: {}", event.getUserId());
             return Mono.just(EventProcessingResult.success());
@@ -52,5 +70,100 @@ public class EventProcessingService {
             return Mono.just(EventProcessingResult.failure(e.getMessage()));
         }
     }
+    
+    /**
+     * Processes a batch of events: each event is validated on its own, and all valid events
+     * are written to storage in a single flush. Completes once the storage writes are done.
+     *
+     * @param events Events to process
+     * @return Batch result with one entry per event, in the order they were submitted
+     */
+    public Mono<BatchProcessingResult> processBatch(List<AnalyticsEvent> events) {
+        return processBatch(events, false);
+    }
+    
+    /**
+     * Same as {@link #processBatch(List)}, but a storage failure fails the returned Mono instead of
+     * being reported per event. Used by callers that must retry the batch rather than drop it
+     * (e.g. Kafka consumers that commit offsets only after a successful write).
+     */
+    public Mono<BatchProcessingResult> processBatchOrFail(List<AnalyticsEvent> events) {
+        return processBatch(events, true);
+    }
+    
+    private Mono<BatchProcessingResult> processBatch(List<AnalyticsEvent> events, boolean propagateStorageErrors) {
+        log.debug("Processing batch of {} events", events.size());
+        
+        // Validation failures are reported per event; accepted events get a null placeholder
+        // that is resolved once the storage flush completes
+        List<EventProcessingResult> results = new ArrayList<>(events.size());
+        List<EventRecord> records = new ArrayList<>(events.size());
+        for (AnalyticsEvent event : events) {
+            try {
+                records.add(toEventRecord(event));
+                results.add(null);
+            } catch (Exception e) {
+                log.debug("Rejected event in batch: {}", e.getMessage());
+                results.add(EventProcessingResult.failure(e.getMessage()));
+            }
+        }
+        
+        Mono<List<EventProcessingResult>> written = write(records)
+            .then(Mono.fromCallable(() -> resolveAccepted(results, EventProcessingResult.success())));
+        if (!propagateStorageErrors) {
+            written = written.onErrorResume(error -> {
+                log.error("Error writing event batch", error);
+                return Mono.just(resolveAccepted(results,
+                    EventProcessingResult.failure("Storage write failed: " + error.getMessage())));
+            });
+        }
+        return written.map(BatchProcessingResult::of);
+    }
+    
+    /**
+     * Writes accepted records to storage in one flush, and adds them to the time series and, when
+     * enabled, the top pages sketches. Completes once the storage writes are done; time series
+     * failures are logged and ignored.
+     */
+    public Mono<Void> write(List<EventRecord> records) {
+        topPagesSketchService.record(records);
+        return Mono.when(
+            storageService.recordEvents(records),
+            recordSeries(records));
+    }
+    
+    private Mono<Void> recordSeries(List<EventRecord> records) {
+        return timeSeriesService.record(records)
+            .onErrorResume(error -> {
+                log.error("Error recording time series", error);
+                return Mono.empty();
+            });
+    }
+    
+    /**
+     * Validates the event and builds the record that is stored, with its URL normalized and the page cap applied
+     *
+     * @throws ValidationException If the event is invalid
+     */
+    public EventRecord toEventRecord(AnalyticsEvent event) {
+        validationManager.validate(event);
+        
+        return EventRecord.builder()
+            .userId(event.getUserId())
+            .sessionId(event.getSessionId())
+            .pageUrl(pageCardinalityGuard.admit(urlNormalizer.normalize(event.getPageUrl())))
+            .eventType(event.getEventType())
+            .timestamp(event.getTimestamp().toEpochMilli())
+            .build();
+    }
+    
+    private static List<EventProcessingResult> resolveAccepted(
+            List<EventProcessingResult> results, EventProcessingResult outcome) {
+        List<EventProcessingResult> resolved = new ArrayList<>(results.size());
+        for (EventProcessingResult result : results) {
+            resolved.add(result != null ? result : outcome);
+        }
+        return resolved;
+    }
 }
 
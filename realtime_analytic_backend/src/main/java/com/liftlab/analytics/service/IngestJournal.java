@@ -0,0 +1,448 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.EventRecord;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local write-ahead journal of the events acknowledged with ack=accepted, the durable buffer between
+ * the answer to the client and the storage write (analytics.ingestion.journal.enabled).
+ * The IngestPipeline's validate stage appends events to segment files under analytics.ingestion.journal.dir
+ * and syncs once per run of events (group commit); its write stage releases the entries of each batch
+ * written to storage. Released entries are recorded as runs of entry positions in a .released file next
+ * to their segment, and a segment whose entries are all released is deleted, or truncated while it is the
+ * active one. Only the entries not released are replayed to storage on the next start - at least once:
+ * release records are not synced, so after a crash a few events may be counted twice.
+ * Each entry is framed by its length and CRC32, and a torn tail is ignored on replay.
+ */
+@Service
+@Slf4j
+public class IngestJournal {
+    
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String RELEASED_SUFFIX = ".released";
+    // Largest entry read back; anything bigger is a corrupt length
+    private static final int MAX_ENTRY_BYTES = 1 << 20;
+    
+    private final boolean enabled;
+    private final Path directory;
+    private final boolean fsync;
+    private final long segmentBytes;
+    // Segments of this process sort after those of earlier runs
+    private final String segmentPrefix = SEGMENT_PREFIX + System.currentTimeMillis() + "-";
+    
+    private final AtomicLong bytes = new AtomicLong();
+    private final Counter replayed;
+    
+    // Guarded by this
+    private final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    private final DataOutputStream entryOut = new DataOutputStream(entry);
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    // Earlier segments with entries not released yet
+    private final List<Segment> full = new ArrayList<>();
+    private int segmentCount;
+    
+    public IngestJournal(MeterRegistry meterRegistry,
+                         @Value("${analytics.ingestion.journal.enabled:true}") boolean enabled,
+                         @Value("${analytics.ingestion.journal.dir:data/ingest-journal}") String directory,
+                         @Value("${analytics.ingestion.journal.fsync:true}") boolean fsync,
+                         @Value("${analytics.ingestion.journal.segment-bytes:16777216}") long segmentBytes) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.fsync = fsync;
+        this.segmentBytes = segmentBytes;
+        this.replayed = Counter.builder("analytics.ingest.journal.replayed")
+            .description("Events replayed to storage from the journal of an earlier run")
+            .register(meterRegistry);
+        Gauge.builder("analytics.ingest.journal.bytes", bytes, AtomicLong::get)
+            .description("Size of the journal segments not released yet")
+            .register(meterRegistry);
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Replays the entries not released of the segments left by earlier runs to the sink, in batches, and
+     * starts a new segment. Each replayed segment is deleted once all its events are written; when a batch
+     * fails, the batches written before it are released and the segment is kept for the next start.
+     *
+     * @param sink Writes a batch to storage, throws when the write fails
+     * @return Events replayed
+     */
+    public synchronized long open(Consumer<List<EventRecord>> sink, int batchSize) throws IOException {
+        if (!enabled) {
+            return 0;
+        }
+        Files.createDirectories(directory);
+        List<Path> leftovers;
+        try (Stream<Path> files = Files.list(directory)) {
+            leftovers = files
+                .filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        long count = 0;
+        for (Path file : leftovers) {
+            if (file.getFileName().toString().endsWith(SEGMENT_SUFFIX)) {
+                count += replay(file, sink, batchSize);
+            } else if (file.getFileName().toString().endsWith(RELEASED_SUFFIX) && !Files.exists(segmentOf(file))) {
+                // Left behind when its segment was deleted, or already deleted with the segment replayed above
+                Files.deleteIfExists(file);
+            }
+        }
+        if (count > 0) {
+            log.info("Replayed {} events from the ingest journal", count);
+            replayed.increment(count);
+        }
+        active = newSegment();
+        return count;
+    }
+    
+    /**
+     * Appends the event to the active segment; it is durable after the next sync()
+     *
+     * @return The entry, to release it once written, or null when the journal is disabled
+     */
+    public synchronized Entry append(EventRecord record) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        entry.reset();
+        entryOut.writeUTF(record.getUserId());
+        entryOut.writeUTF(record.getSessionId());
+        entryOut.writeUTF(record.getPageUrl());
+        entryOut.writeUTF(record.getEventType());
+        entryOut.writeLong(record.getTimestamp());
+        byte[] payload = entry.toByteArray();
+        crc.reset();
+        crc.update(payload);
+        active.out.writeInt(payload.length);
+        active.out.writeInt((int) crc.getValue());
+        active.out.write(payload);
+        active.size += Integer.BYTES * 2 + payload.length;
+        bytes.addAndGet(Integer.BYTES * 2 + payload.length);
+        active.pending++;
+        return new Entry(active, active.entries++);
+    }
+    
+    /**
+     * Makes every appended entry durable (fsync unless analytics.ingestion.journal.fsync=false), and
+     * starts a new segment once the active one is over analytics.ingestion.journal.segment-bytes
+     */
+    public synchronized void sync() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        active.out.flush();
+        if (fsync) {
+            active.file.getChannel().force(false);
+        }
+        if (active.size >= segmentBytes) {
+            Segment closed = active;
+            active = newSegment();
+            closed.out.close();
+            if (closed.pending == 0) {
+                delete(closed);
+            } else {
+                full.add(closed);
+            }
+        }
+    }
+    
+    /**
+     * Releases entries whose events are written to storage, so they are not replayed. Consecutive entries
+     * of a segment are recorded as one run.
+     *
+     * @param entries Entries in the order they were appended
+     */
+    public synchronized void release(List<Entry> entries) throws IOException {
+        List<Segment> touched = new ArrayList<>(1);
+        int i = 0;
+        while (i < entries.size()) {
+            Entry first = entries.get(i);
+            int to = first.position + 1;
+            i++;
+            while (i < entries.size() && entries.get(i).segment == first.segment && entries.get(i).position == to) {
+                to++;
+                i++;
+            }
+            Segment segment = first.segment;
+            segment.pending -= to - first.position;
+            if (segment.pending > 0) {
+                writeRun(segment.released(), first.position, to);
+            }
+            if (!touched.contains(segment)) {
+                touched.add(segment);
+            }
+        }
+        for (Segment segment : touched) {
+            if (segment.pending > 0) {
+                segment.released.flush();
+            } else if (segment == active) {
+                // Every appended entry was synced before it could be released, so nothing is buffered
+                segment.file.getChannel().truncate(0);
+                segment.closeReleased();
+                Files.deleteIfExists(segment.releasedPath);
+                bytes.addAndGet(-segment.size);
+                segment.size = 0;
+                segment.entries = 0;
+            } else {
+                full.remove(segment);
+                delete(segment);
+            }
+        }
+    }
+    
+    /**
+     * Closes the segments; those with unreleased entries are kept for the next start
+     */
+    public synchronized void close() throws IOException {
+        if (active == null) {
+            return;
+        }
+        active.out.close();
+        if (active.pending == 0) {
+            delete(active);
+        } else {
+            active.closeReleased();
+        }
+        for (Segment segment : full) {
+            segment.closeReleased();
+        }
+        full.clear();
+        active = null;
+    }
+    
+    /**
+     * Replays the entries of a leftover segment that were not released
+     *
+     * @return Events replayed
+     */
+    private long replay(Path file, Consumer<List<EventRecord>> sink, int batchSize) throws IOException {
+        List<EventRecord> records = read(file);
+        Path releasedPath = releasedOf(file);
+        BitSet released = readReleased(releasedPath);
+        List<EventRecord> unreleased = new ArrayList<>(records.size());
+        int[] positions = new int[records.size()];
+        for (int position = 0; position < records.size(); position++) {
+            if (!released.get(position)) {
+                positions[unreleased.size()] = position;
+                unreleased.add(records.get(position));
+            }
+        }
+        int from = 0;
+        try (DataOutputStream markers = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(releasedPath.toFile(), true)))) {
+            for (; from < unreleased.size(); from += batchSize) {
+                int to = Math.min(from + batchSize, unreleased.size());
+                sink.accept(unreleased.subList(from, to));
+                // A later batch may fail, so the written ones are not replayed again
+                writeRuns(markers, positions, from, to);
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not replay ingest journal segment {}, keeping its {} unwritten events for the next start",
+                file, unreleased.size() - from, e);
+            bytes.addAndGet(Files.size(file));
+            return from;
+        }
+        Files.delete(file);
+        Files.deleteIfExists(releasedPath);
+        return unreleased.size();
+    }
+    
+    private Segment newSegment() throws IOException {
+        Path path;
+        do {
+            // Skips the name of a segment kept by an earlier run started in the same millisecond
+            path = directory.resolve(String.format("%s%06d%s", segmentPrefix, segmentCount++, SEGMENT_SUFFIX));
+        } while (Files.exists(path));
+        return new Segment(path);
+    }
+    
+    private void delete(Segment segment) throws IOException {
+        segment.closeReleased();
+        Files.deleteIfExists(segment.path);
+        Files.deleteIfExists(segment.releasedPath);
+        bytes.addAndGet(-segment.size);
+    }
+    
+    private static Path releasedOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + RELEASED_SUFFIX);
+    }
+    
+    private static Path segmentOf(Path released) {
+        String name = released.getFileName().toString();
+        return released.resolveSibling(name.substring(0, name.length() - RELEASED_SUFFIX.length()) + SEGMENT_SUFFIX);
+    }
+    
+    /**
+     * Writes the positions[from, to) as runs of consecutive positions
+     */
+    private static void writeRuns(DataOutputStream out, int[] positions, int from, int to) throws IOException {
+        int start = from;
+        for (int i = from + 1; i <= to; i++) {
+            if (i == to || positions[i] != positions[i - 1] + 1) {
+                writeRun(out, positions[start], positions[i - 1] + 1);
+                start = i;
+            }
+        }
+        out.flush();
+    }
+    
+    private static void writeRun(DataOutputStream out, int from, int to) throws IOException {
+        out.writeInt(from);
+        out.writeInt(to);
+    }
+    
+    /**
+     * Positions of the released entries of a segment; a torn or invalid run ends the file
+     */
+    private static BitSet readReleased(Path file) throws IOException {
+        BitSet released = new BitSet();
+        if (!Files.exists(file)) {
+            return released;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int from = in.readInt();
+                int to = in.readInt();
+                if (from < 0 || to <= from) {
+                    log.warn("Ignoring the rest of ingest journal release file {}: invalid run {}-{}", file, from, to);
+                    break;
+                }
+                released.set(from, to);
+            }
+        } catch (EOFException e) {
+            // End of the file, or a run torn by a crash
+        }
+        return released;
+    }
+    
+    private static List<EventRecord> read(Path file) throws IOException {
+        List<EventRecord> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_ENTRY_BYTES) {
+                        log.warn("Ignoring the rest of ingest journal segment {}: invalid entry length {}", file, length);
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn("Ignoring the rest of ingest journal segment {}: checksum mismatch", file);
+                        break;
+                    }
+                    records.add(readRecord(new ByteArrayInputStream(payload)));
+                } catch (EOFException e) {
+                    log.warn("Ignoring a partly written entry at the end of ingest journal segment {}", file);
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+    
+    private static EventRecord readRecord(InputStream payload) throws IOException {
+        DataInputStream in = new DataInputStream(payload);
+        return EventRecord.builder()
+            .userId(in.readUTF())
+            .sessionId(in.readUTF())
+            .pageUrl(in.readUTF())
+            .eventType(in.readUTF())
+            .timestamp(in.readLong())
+            .build();
+    }
+    
+    /**
+     * Position of an appended event in its segment, to release it once written
+     */
+    public static final class Entry {
+        private final Segment segment;
+        private final int position;
+        
+        private Entry(Segment segment, int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+    
+    /**
+     * Journal file, appended to while it is the active segment. Guarded by the journal's lock.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final Path releasedPath;
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        // Runs of released entries; opened on the first release
+        private DataOutputStream released;
+        private long size;
+        // Entries appended since the segment was created or truncated
+        private int entries;
+        // Entries appended and not released yet
+        private int pending;
+        
+        private Segment(Path path) throws IOException {
+            this.path = path;
+            this.releasedPath = releasedOf(path);
+            // Append mode, so writes after a truncate start at the beginning again
+            this.file = new FileOutputStream(path.toFile(), true);
+            this.out = new DataOutputStream(new BufferedOutputStream(file));
+        }
+        
+        private DataOutputStream released() throws IOException {
+            if (released == null) {
+                released = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(releasedPath.toFile(), true)));
+            }
+            return released;
+        }
+        
+        private void closeReleased() throws IOException {
+            if (released != null) {
+                released.close();
+                released = null;
+            }
+        }
+    }
+}
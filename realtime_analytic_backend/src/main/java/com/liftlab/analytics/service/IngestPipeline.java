@@ -0,0 +1,544 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.exception.IngestQueueFullException;
+import com.liftlab.analytics.model.AckMode;
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.util.RingBuffer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Staged ingest pipeline between the ingress (HTTP, Kafka record listener) and the storage writers
+ * (analytics.ingestion.pipeline.enabled).
+ * Ingress threads publish events into a pre-allocated RingBuffer and return; a validate stage thread
+ * validates and normalizes them (EventProcessingService.toEventRecord), and a write stage thread writes
+ * the accepted records in batches of up to analytics.ingestion.pipeline.write-batch-size, one storage
+ * flush at a time. Memory is bounded by the buffer capacity and there is a single storage write in
+ * flight, however bursty the ingress.
+ *
+ * The caller's AckMode picks the stage that answers it: NONE right after publishing, ACCEPTED once the
+ * validate stage has appended the event to the IngestJournal and synced it (one sync per run of events),
+ * DURABLE once the write stage's batch is in storage. Journal entries are released as their batches are
+ * written, and entries left by a crash are replayed on the next start.
+ *
+ * When the buffer is full the overflow policy applies: BLOCK waits for a free slot for up to
+ * block-timeout-ms (off the event loop for HTTP callers) and then rejects, DROP reports the event
+ * as failed without queueing it, and REJECT fails with IngestQueueFullException (429 Too Many Requests).
+ * Queue depth, stage latencies and overflow counts are exposed as analytics.ingest.* meters.
+ * Events whose batch write fails are counted. Journaled ones were already acknowledged, so the write stage
+ * writes them again, with a back-off doubling from write-retry-backoff-ms, before it takes new events (the
+ * buffer fills up meanwhile and the overflow policy applies); at shutdown they are left to the journal
+ * replay. The others are reported as failed (DURABLE) or dropped, as with direct single-event writes.
+ */
+@Service
+@Slf4j
+public class IngestPipeline {
+    
+    /**
+     * What happens to an event published while every slot of the buffer is in use
+     */
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP,
+        REJECT
+    }
+    
+    private static final int VALIDATE = 0;
+    private static final int WRITE = 1;
+    // Park time of a producer waiting for a slot
+    private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // Longest park of an idle stage; it is unparked as soon as the stage before it has work
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_RETRY_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+    
+    private final EventProcessingService eventProcessingService;
+    private final IngestJournal journal;
+    private final boolean enabled;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final int writeBatchSize;
+    private final Duration writeTimeout;
+    private final long retryBackoffNanos;
+    private final RingBuffer<Slot> ring;
+    
+    private volatile boolean running;
+    // Publishers between reading running and publishing their slot; the validate stage waits for them at close
+    private final AtomicInteger publishing = new AtomicInteger();
+    private Thread validator;
+    private Thread writer;
+    private final IdleStage idleValidator = new IdleStage();
+    private final IdleStage idleWriter = new IdleStage();
+    
+    private final Counter dropped;
+    private final Counter rejected;
+    private final Counter writeFailures;
+    private final Timer queueLatency;
+    private final Timer validateLatency;
+    private final Timer journalLatency;
+    private final Timer writeLatency;
+    
+    public IngestPipeline(EventProcessingService eventProcessingService, IngestJournal journal, MeterRegistry meterRegistry,
+                          @Value("${analytics.ingestion.pipeline.enabled:true}") boolean enabled,
+                          @Value("${analytics.ingestion.pipeline.capacity:8192}") int capacity,
+                          @Value("${analytics.ingestion.pipeline.overflow:block}") OverflowPolicy overflowPolicy,
+                          @Value("${analytics.ingestion.pipeline.block-timeout-ms:1000}") long blockTimeoutMillis,
+                          @Value("${analytics.ingestion.pipeline.write-batch-size:500}") int writeBatchSize,
+                          @Value("${analytics.ingestion.pipeline.write-timeout-ms:5000}") long writeTimeoutMillis,
+                          @Value("${analytics.ingestion.pipeline.write-retry-backoff-ms:100}") long retryBackoffMillis) {
+        this.eventProcessingService = eventProcessingService;
+        this.journal = journal;
+        this.enabled = enabled;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.writeBatchSize = writeBatchSize;
+        this.writeTimeout = Duration.ofMillis(writeTimeoutMillis);
+        this.retryBackoffNanos = TimeUnit.MILLISECONDS.toNanos(retryBackoffMillis);
+        this.ring = new RingBuffer<>(capacity, 2, Slot::new);
+        this.dropped = Counter.builder("analytics.ingest.events.dropped")
+            .description("Events dropped because the ingest queue was full")
+            .register(meterRegistry);
+        this.rejected = Counter.builder("analytics.ingest.events.rejected")
+            .description("Events rejected with 429 because the ingest queue was full")
+            .register(meterRegistry);
+        this.writeFailures = Counter.builder("analytics.ingest.write.failures")
+            .description("Events of failed batch writes to storage, counted on every attempt")
+            .register(meterRegistry);
+        this.queueLatency = stageTimer(meterRegistry, "queue", "Time from publish to the validate stage");
+        this.validateLatency = stageTimer(meterRegistry, "validate", "Validation and URL normalization per event");
+        this.journalLatency = stageTimer(meterRegistry, "journal", "Journal sync per run of accepted events");
+        this.writeLatency = stageTimer(meterRegistry, "write", "Storage write per batch");
+        Gauge.builder("analytics.ingest.queue.depth", ring, RingBuffer::depth)
+            .description("Events published and not yet written")
+            .register(meterRegistry);
+        Gauge.builder("analytics.ingest.queue.capacity", ring, RingBuffer::getCapacity)
+            .description("Slots of the ingest ring buffer")
+            .register(meterRegistry);
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            // Events journaled by an earlier run are written before new ones are taken
+            journal.open(records -> eventProcessingService.write(records).block(writeTimeout), writeBatchSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the ingest journal", e);
+        }
+        running = true;
+        validator = startStage("ingest-validate", this::runValidator);
+        writer = startStage("ingest-write", this::runWriter);
+    }
+    
+    /**
+     * Stops accepting events and lets both stages drain what was published, including the events of
+     * publishers that claimed a slot before the stop
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        idleValidator.wake();
+        idleWriter.wake();
+        validator.join(writeTimeout.toMillis());
+        writer.join(writeTimeout.toMillis());
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.error("Error closing the ingest journal", e);
+        }
+    }
+    
+    /**
+     * Publishes the event and answers once it is accepted (see AckMode.ACCEPTED)
+     */
+    public Mono<EventProcessingResult> publish(AnalyticsEvent event) {
+        return publish(event, AckMode.ACCEPTED);
+    }
+    
+    /**
+     * Publishes the event into the pipeline, or processes it directly when the pipeline is disabled
+     * (without the journal: ACCEPTED then answers after validation)
+     *
+     * @return Result of the event at the stage the ack mode waits for
+     */
+    public Mono<EventProcessingResult> publish(AnalyticsEvent event, AckMode ack) {
+        if (!enabled) {
+            return processDirectly(event, ack);
+        }
+        return Mono.defer(() -> {
+            Mono<EventProcessingResult> queued = tryEnqueue(event, ack);
+            if (queued != null) {
+                return queued;
+            }
+            if (overflowPolicy != OverflowPolicy.BLOCK || !running) {
+                return overflow();
+            }
+            Mono<EventProcessingResult> blocked = Mono.defer(() -> {
+                Mono<EventProcessingResult> enqueued = awaitSlot(event, ack);
+                return enqueued != null ? enqueued : overflow();
+            });
+            // Waiting for a free slot must not hold an event loop thread
+            return Schedulers.isInNonBlockingThread() ? blocked.subscribeOn(Schedulers.boundedElastic()) : blocked;
+        });
+    }
+    
+    long getDepth() {
+        return ring.depth();
+    }
+    
+    private Mono<EventProcessingResult> processDirectly(AnalyticsEvent event, AckMode ack) {
+        switch (ack) {
+            case NONE:
+                // processEvent does its work when called; the result is not waited for
+                eventProcessingService.processEvent(event).subscribe();
+                return Mono.just(EventProcessingResult.queued());
+            case DURABLE:
+                return eventProcessingService.processBatch(List.of(event))
+                    .map(batch -> batch.getResults().get(0));
+            default:
+                return eventProcessingService.processEvent(event);
+        }
+    }
+    
+    /**
+     * Claims a slot and publishes the event into it, unless the pipeline is closed
+     *
+     * @return Result of the event, or null when no slot is free or the pipeline is closed
+     */
+    private Mono<EventProcessingResult> tryEnqueue(AnalyticsEvent event, AckMode ack) {
+        // Counted before running is read: a slot claimed while close() runs is published before the
+        // validate stage stops, so its caller is answered and an accepted event is journaled
+        publishing.incrementAndGet();
+        try {
+            long sequence = running ? ring.tryClaim() : -1;
+            return sequence >= 0 ? enqueue(sequence, event, ack) : null;
+        } finally {
+            publishing.decrementAndGet();
+        }
+    }
+    
+    private Mono<EventProcessingResult> enqueue(long sequence, AnalyticsEvent event, AckMode ack) {
+        CompletableFuture<EventProcessingResult> result = ack == AckMode.NONE ? null : new CompletableFuture<>();
+        Slot slot = ring.get(sequence);
+        slot.event = event;
+        slot.ack = ack;
+        slot.result = result;
+        slot.publishedAt = System.nanoTime();
+        ring.publish(sequence);
+        idleValidator.wake();
+        return result == null ? Mono.just(EventProcessingResult.queued()) : Mono.fromFuture(result);
+    }
+    
+    private Mono<EventProcessingResult> overflow() {
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            dropped.increment();
+            return Mono.just(EventProcessingResult.failure("Ingest queue full, event dropped"));
+        }
+        rejected.increment();
+        return Mono.error(new IngestQueueFullException(
+            String.format("Ingest queue full (%d events)", ring.getCapacity())));
+    }
+    
+    /**
+     * Waits for a free slot for up to block-timeout-ms and publishes the event into it
+     *
+     * @return Result of the event, or null on timeout or shutdown
+     */
+    private Mono<EventProcessingResult> awaitSlot(AnalyticsEvent event, AckMode ack) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        Mono<EventProcessingResult> queued = null;
+        while (queued == null && running && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(WAIT_NANOS);
+            queued = tryEnqueue(event, ack);
+        }
+        return queued;
+    }
+    
+    private void runValidator() {
+        long next = ring.getCursor(VALIDATE) + 1;
+        // After close, keeps going until every claimed slot is published and everything published has been
+        // validated; publishing is read after running and before the buffer, see tryEnqueue
+        while (running || publishing.get() > 0 || ring.available(VALIDATE) >= next) {
+            long available = ring.available(VALIDATE);
+            if (available < next) {
+                long wanted = next;
+                idleValidator.await(() -> !running || ring.available(VALIDATE) >= wanted);
+                continue;
+            }
+            boolean journaled = false;
+            for (long sequence = next; sequence <= available; sequence++) {
+                journaled |= validate(ring.get(sequence));
+            }
+            if (journaled) {
+                syncJournal(next, available);
+            }
+            for (long sequence = next; sequence <= available; sequence++) {
+                Slot slot = ring.get(sequence);
+                if (slot.failure != null) {
+                    complete(slot, EventProcessingResult.failure(slot.failure));
+                } else if (slot.ack == AckMode.ACCEPTED) {
+                    complete(slot, EventProcessingResult.success());
+                }
+            }
+            ring.release(VALIDATE, available);
+            idleWriter.wake();
+            next = available + 1;
+        }
+    }
+    
+    /**
+     * @return Whether the event was appended to the journal
+     */
+    private boolean validate(Slot slot) {
+        long start = System.nanoTime();
+        queueLatency.record(start - slot.publishedAt, TimeUnit.NANOSECONDS);
+        try {
+            slot.record = eventProcessingService.toEventRecord(slot.event);
+        } catch (Exception e) {
+            log.debug("Rejected event: {}", e.getMessage());
+            slot.failure = String.valueOf(e.getMessage());
+        }
+        validateLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (slot.record == null || slot.ack != AckMode.ACCEPTED) {
+            return false;
+        }
+        try {
+            slot.entry = journal.append(slot.record);
+            return slot.entry != null;
+        } catch (IOException e) {
+            fail(slot, e);
+            return false;
+        }
+    }
+    
+    private void syncJournal(long from, long to) {
+        long start = System.nanoTime();
+        try {
+            journal.sync();
+        } catch (IOException e) {
+            // Not durable: the events are not written either, so a client retry does not count them twice
+            for (long sequence = from; sequence <= to; sequence++) {
+                Slot slot = ring.get(sequence);
+                if (slot.entry != null) {
+                    fail(slot, e);
+                }
+            }
+        }
+        journalLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    
+    private void fail(Slot slot, IOException error) {
+        log.error("Could not journal event: {}", error.getMessage());
+        slot.record = null;
+        slot.failure = "Could not journal event: " + error.getMessage();
+    }
+    
+    private void runWriter() {
+        long next = ring.getCursor(WRITE) + 1;
+        // Journaled events of failed writes, written again before new events are taken
+        List<EventRecord> retryRecords = new ArrayList<>();
+        List<IngestJournal.Entry> retryEntries = new ArrayList<>();
+        long backoff = retryBackoffNanos;
+        while (running || validator.isAlive() || ring.available(WRITE) >= next) {
+            if (!retryRecords.isEmpty()) {
+                if (!running) {
+                    log.warn("Leaving {} unwritten events in the ingest journal, they will be replayed on the next start",
+                        retryRecords.size());
+                    retryRecords = new ArrayList<>();
+                    retryEntries = new ArrayList<>();
+                    continue;
+                }
+                pause(backoff);
+                if (write(retryRecords) == null) {
+                    releaseJournal(retryEntries);
+                    retryRecords = new ArrayList<>();
+                    retryEntries = new ArrayList<>();
+                    backoff = retryBackoffNanos;
+                } else {
+                    backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_NANOS);
+                }
+                continue;
+            }
+            long available = Math.min(ring.available(WRITE), next + writeBatchSize - 1);
+            if (available < next) {
+                long wanted = next;
+                idleWriter.await(() -> !running || ring.available(WRITE) >= wanted);
+                continue;
+            }
+            List<EventRecord> records = new ArrayList<>((int) (available - next + 1));
+            for (long sequence = next; sequence <= available; sequence++) {
+                Slot slot = ring.get(sequence);
+                if (slot.record != null) {
+                    records.add(slot.record);
+                }
+            }
+            String failure = write(records);
+            List<IngestJournal.Entry> written = new ArrayList<>(records.size());
+            for (long sequence = next; sequence <= available; sequence++) {
+                Slot slot = ring.get(sequence);
+                if (slot.record != null && slot.ack == AckMode.DURABLE) {
+                    complete(slot, failure == null ? EventProcessingResult.success()
+                        : EventProcessingResult.failure("Storage write failed: " + failure));
+                }
+                if (slot.entry != null) {
+                    if (failure == null || slot.record == null) {
+                        // Written, or its sync failed and it was reported as failed
+                        written.add(slot.entry);
+                    } else {
+                        retryRecords.add(slot.record);
+                        retryEntries.add(slot.entry);
+                    }
+                }
+                slot.clear();
+            }
+            releaseJournal(written);
+            ring.release(WRITE, available);
+            next = available + 1;
+        }
+    }
+    
+    /**
+     * @return Error message of the failed write, or null when it succeeded
+     */
+    private String write(List<EventRecord> records) {
+        if (records.isEmpty()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        String failure = null;
+        try {
+            // Runs on the write stage thread, not an event loop; one flush in flight at a time
+            eventProcessingService.write(records).block(writeTimeout);
+            log.debug("Wrote batch of {} events", records.size());
+        } catch (RuntimeException e) {
+            writeFailures.increment(records.size());
+            log.error("Error writing batch of {} events", records.size(), e);
+            failure = String.valueOf(e.getMessage());
+        }
+        writeLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return failure;
+    }
+    
+    private void releaseJournal(List<IngestJournal.Entry> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        try {
+            journal.release(written);
+        } catch (IOException e) {
+            log.warn("Could not release ingest journal entries, they will be replayed on the next start", e);
+        }
+    }
+    
+    /**
+     * Waits before a retry, returning early at shutdown
+     */
+    private void pause(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (running && remaining > 0) {
+            LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+            remaining = deadline - System.nanoTime();
+        }
+    }
+    
+    private static void complete(Slot slot, EventProcessingResult result) {
+        if (slot.result != null) {
+            slot.result.complete(result);
+        }
+    }
+    
+    private static Thread startStage(String name, Runnable stage) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+    
+    private static Timer stageTimer(MeterRegistry meterRegistry, String stage, String description) {
+        return Timer.builder("analytics.ingest.stage.latency")
+            .tag("stage", stage)
+            .description(description)
+            .register(meterRegistry);
+    }
+    
+    /**
+     * Parks a stage thread while it has nothing to process, instead of polling the ring buffer. The stage
+     * registers itself before checking for work once more, so a wake() after that check always unparks it;
+     * the park is bounded by IDLE_NANOS all the same.
+     */
+    private static final class IdleStage {
+        
+        private volatile Thread parked;
+        
+        void await(BooleanSupplier hasWork) {
+            parked = Thread.currentThread();
+            if (!hasWork.getAsBoolean()) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            parked = null;
+        }
+        
+        void wake() {
+            Thread thread = parked;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+    
+    /**
+     * Ring buffer entry, reused for every event that passes through its slot
+     */
+    private static final class Slot {
+        AnalyticsEvent event;
+        AckMode ack;
+        // Completed at the stage the ack mode waits for; null with AckMode.NONE
+        CompletableFuture<EventProcessingResult> result;
+        long publishedAt;
+        // Set by the validate stage: the record, or why the event was rejected
+        EventRecord record;
+        String failure;
+        // Journal entry of the event, when it was journaled
+        IngestJournal.Entry entry;
+        
+        void clear() {
+            event = null;
+            ack = null;
+            result = null;
+            record = null;
+            failure = null;
+            entry = null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.SweepResult;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background cleanup of expired metric entries, so metric reads are pure queries.
+ * Each tick trims the active users ZSET and sweeps a bounded number of keys, resuming the keyspace
+ * scan where the previous tick stopped - the cost of a tick stays flat however many pages and users exist.
+ * Progress is published as analytics.cleanup.* meters.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "analytics.cleanup.enabled", havingValue = "true", matchIfMissing = true)
+public class MetricsCleanupSweeper {
+    
+    private final MetricsStorageService storageService;
+    
+    @Value("${analytics.cleanup.max-keys-per-tick:1000}")
+    private int maxKeysPerTick = 1000;
+    
+    // Ticks run one at a time (fixed delay); volatile so progress is visible to other readers
+    private volatile String cursor = SweepResult.START_CURSOR;
+    private volatile long passStartedAt = System.currentTimeMillis();
+    
+    private final AtomicLong passKeysScanned = new AtomicLong();
+    private final AtomicLong lastPassDurationMillis = new AtomicLong();
+    private final Counter keysScanned;
+    private final Counter entriesRemoved;
+    private final Counter passesCompleted;
+    private final Counter failedTicks;
+    
+    public MetricsCleanupSweeper(MetricsStorageService storageService, MeterRegistry meterRegistry) {
+        this.storageService = storageService;
+        this.keysScanned = Counter.builder("analytics.cleanup.keys.scanned")
+            .description("Keys examined by the cleanup sweeper")
+            .register(meterRegistry);
+        this.entriesRemoved = Counter.builder("analytics.cleanup.entries.removed")
+            .description("Expired entries removed by the cleanup sweeper")
+            .register(meterRegistry);
+        this.passesCompleted = Counter.builder("analytics.cleanup.passes")
+            .description("Completed passes over the whole keyspace")
+            .register(meterRegistry);
+        this.failedTicks = Counter.builder("analytics.cleanup.failures")
+            .description("Cleanup ticks that failed and will be retried from the same cursor")
+            .register(meterRegistry);
+        Gauge.builder("analytics.cleanup.pass.keys.scanned", passKeysScanned, AtomicLong::get)
+            .description("Keys examined so far in the current pass")
+            .register(meterRegistry);
+        TimeGauge.builder("analytics.cleanup.pass.last.duration", lastPassDurationMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+            .description("Wall-clock time of the last complete pass")
+            .register(meterRegistry);
+    }
+    
+    @Scheduled(fixedDelayString = "${analytics.cleanup.interval-ms:5000}",
+        initialDelayString = "${analytics.cleanup.interval-ms:5000}")
+    public void scheduledSweep() {
+        // Blocking keeps ticks from overlapping; this runs on the scheduler thread, not an event loop
+        sweep().block();
+    }
+    
+    /**
+     * Runs one budgeted cleanup step. Errors are logged and counted, and the next tick retries
+     * from the same cursor.
+     *
+     * @return Result of the step, or empty if it failed
+     */
+    public Mono<SweepResult> sweep() {
+        long now = System.currentTimeMillis();
+        
+        return storageService.cleanupActiveUsers(now)
+            .then(storageService.sweepExpiredEntries(now, cursor, maxKeysPerTick))
+            .doOnNext(this::recordProgress)
+            .onErrorResume(error -> {
+                failedTicks.increment();
+                log.warn("Cleanup tick failed, retrying from cursor {} on the next tick", cursor, error);
+                return Mono.empty();
+            });
+    }
+    
+    String getCursor() {
+        return cursor;
+    }
+    
+    private void recordProgress(SweepResult result) {
+        keysScanned.increment(result.getKeysScanned());
+        entriesRemoved.increment(result.getEntriesRemoved());
+        passKeysScanned.addAndGet(result.getKeysScanned());
+        cursor = result.getCursor();
+        
+        if (result.isPassComplete()) {
+            long now = System.currentTimeMillis();
+            lastPassDurationMillis.set(now - passStartedAt);
+            log.debug("Cleanup pass complete: {} keys in {} ms", passKeysScanned.get(), now - passStartedAt);
+            passesCompleted.increment();
+            passKeysScanned.set(0);
+            passStartedAt = now;
+        }
+    }
+}
+
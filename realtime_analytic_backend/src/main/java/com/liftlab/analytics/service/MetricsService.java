@@ -2,14 +2,29 @@ package com.liftlab.analytics.service;
 
 import com.liftlab.analytics.metrics.MetricsCollector;
 import com.liftlab.analytics.metrics.model.MetricContext;
+import com.liftlab.analytics.metrics.model.MetricWindow;
+import com.liftlab.analytics.model.ActiveSessionsPage;
 import com.liftlab.analytics.model.MetricsResponse;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Service for retrieving metrics
@@ -19,34 +34,234 @@ import java.time.Duration;
 @RequiredArgsConstructor
 public class MetricsService {
     
+    /**
+     * How reads are served: calculated on every request, or from a snapshot refreshed in the background
+     */
+    public enum ReadMode {
+        LIVE,
+        SNAPSHOT
+    }
+    
     private final MetricsCollector metricsCollector;
     private final MetricsStorageService storageService;
     
+    @Value("${analytics.metrics.read-mode:snapshot}")
+    private ReadMode readMode = ReadMode.SNAPSHOT;
+    
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final AtomicReference<Mono<Snapshot>> inFlightRefresh = new AtomicReference<>();
+    // What was read since the last refresh, so a refresh only calculates the metrics readers ask for.
+    // The first snapshot holds every metric.
+    private final AtomicBoolean allRequested = new AtomicBoolean(true);
+    private final Set<String> requestedMetrics = ConcurrentHashMap.newKeySet();
+    // Every refreshed snapshot; replays the latest one to new subscribers (feeds the metrics stream)
+    private final Sinks.Many<MetricsResponse> snapshotUpdates = Sinks.many().replay().latest();
+    
     /**
      * Get current metrics (for REST API)
-     * Performs cleanup before calculating metrics to ensure data accuracy
+     * In snapshot mode this returns the latest snapshot without touching storage, so the cost of a
+     * read does not depend on how many clients are polling. Reads are pure queries either way -
+     * expired entries are removed by the background MetricsCleanupSweeper.
      */
     public Mono<MetricsResponse> getCurrentMetrics() {
-        long now = System.currentTimeMillis();
-        
-        // Step 1: Perform cleanup operations (in parallel)
-        Mono<Void> cleanupMono = Mono.when(
-            storageService.cleanupActiveUsers(now),
-            storageService.cleanupPageViews(now),
-            storageService.cleanupUserSessions(now)
-        ).doOnSuccess(v -> log.debug("Completed all cleanup operations before calculating metrics"));
+        if (readMode == ReadMode.LIVE) {
+            return calculateMetrics();
+        }
         
-        // Step 2: After cleanup completes, calculate metrics
-        return cleanupMono.then(Mono.fromCallable(() -> {
-            MetricContext context = MetricContext.builder()
+        allRequested.set(true);
+        Snapshot latest = snapshot.get();
+        if (latest != null && latest.getMetrics() == null) {
+            return Mono.just(latest.getResponse());
+        }
+        // Only the first reads after startup, or after only some metrics were read, wait for a calculation
+        return refresh().flatMap(refreshed -> refreshed.getMetrics() == null
+            ? Mono.just(refreshed.getResponse()) : calculateMetrics());
+    }
+    
+    /**
+     * Get only the named metrics. Live reads and requests for a window calculate just those metrics
+     * (snapshots only hold the default windows); other reads return the matching fields of the latest snapshot.
+     * Snapshots are refreshed with the metrics read since the previous refresh, so metrics nobody reads are
+     * not calculated; a read for metrics the latest snapshot does not hold calculates them.
+     *
+     * @param names  Metric names, see getMetricNames()
+     * @param window Window for every metric, or null for each metric's own window
+     */
+    public Mono<MetricsResponse> getMetrics(Set<String> names, MetricWindow window) {
+        if (window != null) {
+            return newContext(window)
+                .flatMap(context -> metricsCollector.calculateMetrics(context, names))
+                .doOnNext(response -> response.setWindow(window.getLabel()));
+        }
+        if (readMode == ReadMode.LIVE) {
+            return newContext(null).flatMap(context -> metricsCollector.calculateMetrics(context, names));
+        }
+        requestedMetrics.addAll(names);
+        Snapshot latest = snapshot.get();
+        if (latest != null && latest.holds(names)) {
+            return Mono.just(metricsCollector.select(latest.getResponse(), names));
+        }
+        return newContext(null).flatMap(context -> metricsCollector.calculateMetrics(context, names));
+    }
+    
+    /**
+     * Names of the metrics that can be requested
+     */
+    public Set<String> getMetricNames() {
+        return metricsCollector.getMetricNames();
+    }
+    
+    /**
+     * One page of active sessions per user (last 5 minutes), always read from storage
+     *
+     * @param cursor Cursor from the previous page, or ActiveSessionsPage.START_CURSOR
+     * @param limit  Users to examine for this page
+     */
+    public Mono<ActiveSessionsPage> getActiveSessionsPage(String cursor, int limit) {
+        return Mono.defer(() -> {
+            long now = System.currentTimeMillis();
+            return storageService.getActiveSessionsPage(cursor, limit, now - Duration.ofMinutes(5).toMillis())
+                .doOnNext(page -> page.setTimestamp(Instant.ofEpochMilli(now)));
+        });
+    }
+    
+    /**
+     * Snapshots as they are refreshed, starting with the latest one
+     */
+    public Flux<MetricsResponse> snapshotUpdates() {
+        return snapshotUpdates.asFlux();
+    }
+    
+    @Scheduled(fixedDelayString = "${analytics.metrics.snapshot.refresh-interval-ms:1000}")
+    public void scheduledRefresh() {
+        // In live mode snapshots are only needed while someone is streaming them
+        if (readMode != ReadMode.SNAPSHOT && snapshotUpdates.currentSubscriberCount() == 0) {
+            return;
+        }
+        // Blocking keeps refreshes from piling up; this runs on the scheduler thread, not an event loop
+        refreshSnapshot()
+            .onErrorResume(error -> {
+                log.warn("Error refreshing metrics snapshot, keeping the previous one", error);
+                return Mono.empty();
+            })
+            .block();
+    }
+    
+    /**
+     * Recalculates the snapshot (single-flight): callers arriving while a refresh is running share
+     * its result instead of starting their own calculation
+     */
+    public Mono<MetricsResponse> refreshSnapshot() {
+        return refresh().map(Snapshot::getResponse);
+    }
+    
+    private Mono<Snapshot> refresh() {
+        while (true) {
+            Mono<Snapshot> running = inFlightRefresh.get();
+            if (running != null) {
+                return running;
+            }
+            
+            Mono<Snapshot> refresh = calculateSnapshot()
+                .doOnNext(this::publish)
+                // Runs after the result reached the cache, so later callers start a new calculation
+                .doFinally(signal -> inFlightRefresh.set(null))
+                .cache();
+            if (inFlightRefresh.compareAndSet(null, refresh)) {
+                return refresh;
+            }
+        }
+    }
+    
+    private Mono<Snapshot> calculateSnapshot() {
+        return Mono.defer(() -> {
+            Set<String> names = requestedSinceLastRefresh();
+            Mono<MetricsResponse> calculation = names == null ? calculateMetrics()
+                : newContext(null).flatMap(context -> metricsCollector.calculateMetrics(context, names));
+            return calculation.map(response -> new Snapshot(freeze(response), names));
+        });
+    }
+    
+    /**
+     * Metrics for the next snapshot, or null for every metric: every metric when a full read or a stream
+     * client asked since the last refresh, the metrics read meanwhile otherwise, and the latest snapshot's
+     * metrics when nothing was read
+     */
+    private Set<String> requestedSinceLastRefresh() {
+        boolean all = allRequested.getAndSet(false) || snapshotUpdates.currentSubscriberCount() > 0;
+        Set<String> names = new HashSet<>(requestedMetrics);
+        requestedMetrics.removeAll(names);
+        Snapshot latest = snapshot.get();
+        if (all || latest == null) {
+            return null;
+        }
+        return names.isEmpty() ? latest.getMetrics() : names;
+    }
+    
+    private void publish(Snapshot refreshed) {
+        snapshot.set(refreshed);
+        // Stream clients get every metric; refreshes with only some are not streamed
+        if (refreshed.getMetrics() != null) {
+            return;
+        }
+        // Refreshes are single-flight, so emissions never race
+        Sinks.EmitResult result = snapshotUpdates.tryEmitNext(refreshed.getResponse());
+        if (result.isFailure()) {
+            log.warn("Could not publish metrics snapshot to stream: {}", result);
+        }
+    }
+    
+    private Mono<MetricsResponse> calculateMetrics() {
+        return newContext(null).flatMap(context -> metricsCollector.calculateAllMetrics(context));
+    }
+    
+    private Mono<MetricContext> newContext(MetricWindow window) {
+        return Mono.fromCallable(() -> {
+            long now = System.currentTimeMillis();
+            return MetricContext.builder()
                 .currentTimestamp(now)
                 .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
                 .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .window(window)
                 .storageService(storageService)
                 .build();
-            return context;
-        }))
-        .flatMap(context -> metricsCollector.calculateAllMetrics(context));
+        });
+    }
+    
+    /**
+     * Snapshots are shared by every reader, so their collections are copied into read-only ones
+     */
+    private static MetricsResponse freeze(MetricsResponse response) {
+        return MetricsResponse.builder()
+            .activeUsersCount(response.getActiveUsersCount())
+            .activeUsersMode(response.getActiveUsersMode())
+            .activeUsersErrorBound(response.getActiveUsersErrorBound())
+            .topPages(response.getTopPages() == null ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(response.getTopPages())))
+            .activeSessionsByUser(response.getActiveSessionsByUser() == null ? Collections.emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(response.getActiveSessionsByUser())))
+            .activeSessionsUserCount(response.getActiveSessionsUserCount())
+            .activeSessionsTotal(response.getActiveSessionsTotal())
+            .eventTypeCounts(response.getEventTypeCounts() == null ? null
+                : Collections.unmodifiableMap(new LinkedHashMap<>(response.getEventTypeCounts())))
+            .eventTypesByPage(response.getEventTypesByPage() == null ? null
+                : Collections.unmodifiableList(new ArrayList<>(response.getEventTypesByPage())))
+            .staleMetrics(response.getStaleMetrics() == null ? null
+                : Collections.unmodifiableList(new ArrayList<>(response.getStaleMetrics())))
+            .window(response.getWindow())
+            .timestamp(response.getTimestamp())
+            .build();
+    }
+    
+    @lombok.Value
+    private static class Snapshot {
+        MetricsResponse response;
+        // Metrics it was calculated with, or null for every metric
+        Set<String> metrics;
+        
+        boolean holds(Set<String> names) {
+            return metrics == null || metrics.containsAll(names);
+        }
     }
 }
 
@@ -0,0 +1,75 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.MetricsDelta;
+import com.liftlab.analytics.model.MetricsResponse;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+/**
+ * Pushes metrics to dashboards over Server-Sent Events.
+ * All clients share one pipeline fed by the snapshot refreshes, so each refresh is calculated and
+ * diffed once no matter how many clients are connected. A client gets the latest snapshot as a full
+ * frame when it connects, then only the fields that changed.
+ */
+@Service
+@Slf4j
+public class MetricsStreamService {
+    
+    public static final String FULL_EVENT = "metrics";
+    public static final String DELTA_EVENT = "delta";
+    
+    private final Flux<MetricsFrame> frames;
+    private final Duration heartbeatInterval;
+    
+    public MetricsStreamService(MetricsService metricsService,
+                                @Value("${analytics.metrics.stream.heartbeat-interval-ms:15000}") long heartbeatIntervalMs) {
+        this.frames = metricsService.snapshotUpdates()
+            .scan(MetricsFrame.EMPTY, MetricsFrame::next)
+            .skip(1)
+            // Connected while at least one client listens; late clients get the latest frame first
+            .replay(1)
+            .refCount();
+        this.heartbeatInterval = Duration.ofMillis(heartbeatIntervalMs);
+    }
+    
+    public Flux<ServerSentEvent<Object>> stream() {
+        Flux<ServerSentEvent<Object>> updates = frames.index()
+            .filter(frame -> frame.getT1() == 0 || frame.getT2().getDelta() != null)
+            .map(frame -> frame.getT1() == 0
+                ? ServerSentEvent.builder((Object) frame.getT2().getSnapshot()).event(FULL_EVENT).build()
+                : ServerSentEvent.builder((Object) frame.getT2().getDelta()).event(DELTA_EVENT).build());
+        
+        // Comments keep idle connections open through proxies; EventSource ignores them
+        Flux<ServerSentEvent<Object>> heartbeats = Flux.interval(heartbeatInterval)
+            .map(tick -> ServerSentEvent.builder().comment("keepalive").build());
+        
+        return Flux.merge(updates, heartbeats)
+            .doOnSubscribe(subscription -> log.debug("Metrics stream client connected"))
+            .doFinally(signal -> log.debug("Metrics stream client disconnected: {}", signal));
+    }
+    
+    /**
+     * A snapshot together with its changes since the previous one (null delta if nothing changed)
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class MetricsFrame {
+        
+        static final MetricsFrame EMPTY = new MetricsFrame(null, null);
+        
+        private final MetricsResponse snapshot;
+        private final MetricsDelta delta;
+        
+        MetricsFrame next(MetricsResponse current) {
+            return new MetricsFrame(current, MetricsDelta.between(snapshot, current));
+        }
+    }
+}
+
@@ -0,0 +1,232 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.util.SpaceSaving;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the number of distinct pages tracked per window (analytics.pages.max-tracked), so a crawler
+ * hitting random URLs cannot create unbounded page view keys for storage and cleanup to walk.
+ * Once the cap is reached, events of new URLs are counted as the {@link PageView#OTHER_URL} page and
+ * fed to a Space-Saving sketch; a URL whose guaranteed count in the window reaches
+ * analytics.pages.promote-after takes the slot of a quieter tracked page. At the end of each window,
+ * pages without events are dropped and the hottest overflow URLs fill the freed slots.
+ * The cap is per node; state and progress are published as analytics.pages.* meters.
+ */
+@Service
+@Slf4j
+public class PageCardinalityGuard {
+    
+    private final int maxTrackedPages;
+    private final long windowMillis;
+    private final long promoteAfter;
+    private final LongSupplier clock;
+    
+    // Tracked URL -> events in the current window. Reads are lock-free; entries are added and removed under lock
+    private final Map<String, LongAdder> tracked = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    // Guarded by lock
+    private final SpaceSaving overflowSketch;
+    // Guarded by lock: tracked pages that promoted URLs may displace, quietest in the last window first
+    private final Deque<String> displaceable = new ArrayDeque<>();
+    
+    private volatile long windowEnd;
+    private final LongAdder windowEvents = new LongAdder();
+    private final LongAdder windowOverflowEvents = new LongAdder();
+    private volatile double lastOverflowRate;
+    private final Counter overflowEvents;
+    private final Counter promotions;
+    
+    /**
+     * @param maxTrackedPages Distinct pages tracked per window, 0 to track every page
+     * @param windowMillis    Window after which pages without events are dropped
+     * @param promoteAfter    Events in a window after which an overflow URL may be promoted
+     * @param sketchSize      Overflow URLs the heavy hitters sketch keeps counters for
+     */
+    @Autowired
+    public PageCardinalityGuard(MeterRegistry meterRegistry,
+                                @Value("${analytics.pages.max-tracked:10000}") int maxTrackedPages,
+                                @Value("${analytics.pages.window-ms:900000}") long windowMillis,
+                                @Value("${analytics.pages.promote-after:50}") long promoteAfter,
+                                @Value("${analytics.pages.sketch-size:256}") int sketchSize) {
+        this(meterRegistry, maxTrackedPages, windowMillis, promoteAfter, sketchSize, System::currentTimeMillis);
+    }
+    
+    PageCardinalityGuard(MeterRegistry meterRegistry, int maxTrackedPages, long windowMillis,
+                         long promoteAfter, int sketchSize, LongSupplier clock) {
+        this.maxTrackedPages = maxTrackedPages;
+        this.windowMillis = windowMillis;
+        this.promoteAfter = Math.max(1, promoteAfter);
+        this.clock = clock;
+        this.overflowSketch = new SpaceSaving(sketchSize);
+        this.windowEnd = nextWindowEnd(clock.getAsLong());
+        
+        this.overflowEvents = Counter.builder("analytics.pages.overflow.events")
+            .description("Events counted as the overflow page because their URL was over the cap")
+            .register(meterRegistry);
+        this.promotions = Counter.builder("analytics.pages.promotions")
+            .description("Overflow URLs promoted to tracked pages")
+            .register(meterRegistry);
+        Gauge.builder("analytics.pages.tracked", tracked, Map::size)
+            .description("Distinct pages currently tracked")
+            .register(meterRegistry);
+        Gauge.builder("analytics.pages.overflow.rate", this, PageCardinalityGuard::getOverflowRate)
+            .description("Share of events counted as the overflow page in the last complete window")
+            .register(meterRegistry);
+        if (maxTrackedPages > 0) {
+            log.info("Page cardinality guard: at most {} pages per {} ms window", maxTrackedPages, windowMillis);
+        }
+    }
+    
+    /**
+     * @param pageUrl Normalized URL
+     * @return The URL if it is tracked or could be admitted, otherwise {@link PageView#OTHER_URL}
+     */
+    public String admit(String pageUrl) {
+        if (maxTrackedPages <= 0 || pageUrl == null) {
+            return pageUrl;
+        }
+        long now = clock.getAsLong();
+        if (now >= windowEnd) {
+            roll(now);
+        }
+        windowEvents.increment();
+        
+        LongAdder hits = tracked.get(pageUrl);
+        if (hits != null) {
+            hits.increment();
+            return pageUrl;
+        }
+        synchronized (lock) {
+            hits = tracked.get(pageUrl);
+            if (hits == null && tracked.size() < maxTrackedPages) {
+                hits = new LongAdder();
+                tracked.put(pageUrl, hits);
+            }
+            if (hits != null) {
+                hits.increment();
+                return pageUrl;
+            }
+            long guaranteed = overflowSketch.offer(pageUrl, 1);
+            if (isPromotionCheck(guaranteed) && promote(pageUrl, guaranteed)) {
+                return pageUrl;
+            }
+        }
+        windowOverflowEvents.increment();
+        overflowEvents.increment();
+        return PageView.OTHER_URL;
+    }
+    
+    /**
+     * Distinct pages currently tracked
+     */
+    public int getTrackedPages() {
+        return tracked.size();
+    }
+    
+    /**
+     * Share of events counted as the overflow page in the last complete window
+     */
+    public double getOverflowRate() {
+        return lastOverflowRate;
+    }
+    
+    private boolean isPromotionCheck(long guaranteed) {
+        // Checked when the count reaches promoteAfter, then at each doubling: a URL that cannot displace
+        // any tracked page does not scan for one on every event
+        return guaranteed >= promoteAfter && guaranteed % promoteAfter == 0
+            && Long.bitCount(guaranteed / promoteAfter) == 1;
+    }
+    
+    // Called under lock
+    private boolean promote(String pageUrl, long guaranteed) {
+        while (!displaceable.isEmpty()) {
+            String candidate = displaceable.peekFirst();
+            LongAdder candidateHits = tracked.get(candidate);
+            if (candidateHits == null) {
+                // Already dropped
+                displaceable.pollFirst();
+                continue;
+            }
+            if (candidateHits.sum() >= guaranteed) {
+                return false;
+            }
+            displaceable.pollFirst();
+            tracked.remove(candidate);
+            LongAdder hits = new LongAdder();
+            hits.add(guaranteed);
+            tracked.put(pageUrl, hits);
+            promotions.increment();
+            log.debug("Promoted page {} ({} events) over {}", pageUrl, guaranteed, candidate);
+            return true;
+        }
+        return false;
+    }
+    
+    private void roll(long now) {
+        synchronized (lock) {
+            if (now < windowEnd) {
+                return;
+            }
+            long events = windowEvents.sumThenReset();
+            long overflow = windowOverflowEvents.sumThenReset();
+            lastOverflowRate = events == 0 ? 0 : (double) overflow / events;
+            
+            // Pages without events in the window are dropped, the others become displaceable, quietest first
+            List<Map.Entry<String, Long>> active = new ArrayList<>(tracked.size());
+            Iterator<Map.Entry<String, LongAdder>> it = tracked.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, LongAdder> entry = it.next();
+                long hits = entry.getValue().sumThenReset();
+                if (hits == 0) {
+                    it.remove();
+                } else {
+                    active.add(Map.entry(entry.getKey(), hits));
+                }
+            }
+            active.sort(Map.Entry.comparingByValue());
+            displaceable.clear();
+            for (Map.Entry<String, Long> entry : active) {
+                displaceable.addLast(entry.getKey());
+            }
+            
+            // The hottest overflow URLs fill the freed slots
+            int promoted = 0;
+            for (SpaceSaving.Counter counter : overflowSketch.top(maxTrackedPages - tracked.size())) {
+                if (counter.getGuaranteed() < promoteAfter) {
+                    break;
+                }
+                tracked.put(counter.getItem(), new LongAdder());
+                promoted++;
+            }
+            promotions.increment(promoted);
+            overflowSketch.clear();
+            
+            if (overflow > 0) {
+                log.info("Page window closed: {} pages tracked, {} of {} events over the cap, {} URLs promoted",
+                    tracked.size(), overflow, events, promoted);
+            }
+            windowEnd = nextWindowEnd(now);
+        }
+    }
+    
+    private long nextWindowEnd(long now) {
+        return (now / windowMillis + 1) * windowMillis;
+    }
+}
@@ -0,0 +1,169 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesPoint;
+import com.liftlab.analytics.model.SeriesResolution;
+import com.liftlab.analytics.model.SeriesResponse;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import com.liftlab.analytics.validation.ValidationException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Time series of active users and page views for charts.
+ * Ingestion adds every event to per-minute and per-hour counters (see SeriesResolution), so a chart
+ * reads at most a few thousand counters instead of recomputing from raw events. Minutes are kept
+ * 48 hours and hours 90 days; a query is served from the coarsest resolution that fits its step
+ * and still covers its start.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class TimeSeriesService {
+    
+    private final MetricsStorageService storageService;
+    
+    @Value("${analytics.series.max-points:1500}")
+    private int maxPoints = 1500;
+    
+    /**
+     * Adds the events to the series at every resolution, one storage write per resolution
+     */
+    public Mono<Void> record(List<EventRecord> records) {
+        if (records.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Mono<Void>> writes = new ArrayList<>();
+        for (SeriesResolution resolution : SeriesResolution.values()) {
+            Map<Long, Long> pageViews = new HashMap<>();
+            Map<Long, Set<String>> users = new HashMap<>();
+            for (EventRecord record : records) {
+                long bucket = resolution.bucketOf(record.getTimestamp());
+                pageViews.merge(bucket, 1L, Long::sum);
+                users.computeIfAbsent(bucket, key -> new HashSet<>()).add(record.getUserId());
+            }
+            writes.add(storageService.recordSeries(resolution, pageViews, users));
+        }
+        return Mono.when(writes);
+    }
+    
+    /**
+     * Adds the events of a pre-aggregated tick to the series at every resolution, one storage write per
+     * resolution: page views are summed from the per-second counts and users from the per-minute sets
+     */
+    public Mono<Void> record(EventAggregate aggregate) {
+        if (aggregate.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Mono<Void>> writes = new ArrayList<>();
+        for (SeriesResolution resolution : SeriesResolution.values()) {
+            Map<Long, Long> pageViews = new HashMap<>();
+            aggregate.getPageViews().forEach((second, views) -> {
+                long bucket = resolution.bucketOf(second);
+                views.values().forEach(count -> pageViews.merge(bucket, count, Long::sum));
+            });
+            Map<Long, Set<String>> users = new HashMap<>();
+            aggregate.getMinuteUsers().forEach((minute, userIds) ->
+                users.computeIfAbsent(resolution.bucketOf(minute), key -> new HashSet<>()).addAll(userIds));
+            writes.add(storageService.recordSeries(resolution, pageViews, users));
+        }
+        return Mono.when(writes);
+    }
+    
+    /**
+     * One point per step from `from` (rounded down to the step) to `to`
+     *
+     * @param step Multiple of a resolution's step; exactly one for active users, as distinct counts
+     *             of smaller steps do not add up
+     */
+    public Mono<SeriesResponse> getSeries(SeriesMetric metric, Instant from, Instant to, Duration step) {
+        return Mono.defer(() -> {
+            if (!from.isBefore(to)) {
+                return Mono.error(new ValidationException("from must be before to"));
+            }
+            long stepMillis = step.toMillis();
+            long firstStep = Math.floorDiv(from.toEpochMilli(), stepMillis);
+            long lastStep = Math.floorDiv(to.toEpochMilli(), stepMillis);
+            if (lastStep - firstStep + 1 > maxPoints) {
+                return Mono.error(new ValidationException(String.format(
+                    "Too many points: %d (at most %d), use a larger step", lastStep - firstStep + 1, maxPoints)));
+            }
+            SeriesResolution resolution = resolutionFor(metric, firstStep * stepMillis, stepMillis);
+            if (resolution == null) {
+                return Mono.error(new ValidationException(String.format(
+                    "No series resolution serves step %s from %s: steps must be multiples of 1m (kept 48h) "
+                        + "or 1h (kept 90d), and exactly 1m or 1h for %s",
+                    label(step), from, SeriesMetric.ACTIVE_USERS.getName())));
+            }
+            
+            long bucketsPerStep = stepMillis / resolution.getStep().toMillis();
+            long fromBucket = firstStep * bucketsPerStep;
+            long toBucket = (lastStep + 1) * bucketsPerStep - 1;
+            return storageService.getSeries(metric, resolution, fromBucket, toBucket)
+                .map(values -> {
+                    List<SeriesPoint> points = new ArrayList<>((int) (lastStep - firstStep + 1));
+                    for (long point = firstStep; point <= lastStep; point++) {
+                        long sum = 0;
+                        for (long bucket = point * bucketsPerStep; bucket < (point + 1) * bucketsPerStep; bucket++) {
+                            sum += values.getOrDefault(bucket, 0L);
+                        }
+                        points.add(new SeriesPoint(Instant.ofEpochMilli(point * stepMillis), sum));
+                    }
+                    return SeriesResponse.builder()
+                        .metric(metric.getName())
+                        .from(Instant.ofEpochMilli(firstStep * stepMillis))
+                        .to(to)
+                        .step(label(step))
+                        .resolution(resolution.getLabel())
+                        .points(points)
+                        .build();
+                });
+        });
+    }
+    
+    /**
+     * Coarsest resolution whose step divides the requested one and that still keeps the start
+     */
+    private static SeriesResolution resolutionFor(SeriesMetric metric, long start, long stepMillis) {
+        long now = System.currentTimeMillis();
+        SeriesResolution[] resolutions = SeriesResolution.values();
+        for (int i = resolutions.length - 1; i >= 0; i--) {
+            SeriesResolution resolution = resolutions[i];
+            long resolutionMillis = resolution.getStep().toMillis();
+            boolean fits = metric == SeriesMetric.ACTIVE_USERS
+                ? stepMillis == resolutionMillis
+                : stepMillis % resolutionMillis == 0;
+            if (fits && start >= now - resolution.getRetention().toMillis()) {
+                return resolution;
+            }
+        }
+        return null;
+    }
+    
+    private static String label(Duration step) {
+        if (step.toDays() > 0 && step.equals(Duration.ofDays(step.toDays()))) {
+            return step.toDays() + "d";
+        }
+        if (step.toHours() > 0 && step.equals(Duration.ofHours(step.toHours()))) {
+            return step.toHours() + "h";
+        }
+        if (step.toMinutes() > 0 && step.equals(Duration.ofMinutes(step.toMinutes()))) {
+            return step.toMinutes() + "m";
+        }
+        return step.getSeconds() + "s";
+    }
+}
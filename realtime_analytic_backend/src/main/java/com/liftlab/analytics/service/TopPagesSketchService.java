@@ -0,0 +1,197 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import com.liftlab.analytics.util.TopKSketch;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * Approximate top pages engine (analytics.top-pages.engine=sketch).
+ * Each node counts page views in per-minute TopKSketches (Count-Min Sketch frequencies and
+ * Space-Saving candidates) and saves the minutes that changed to storage every
+ * analytics.top-pages.sketch.flush-interval-ms, one sketch per node and minute. A window's top pages
+ * merge the sketches of every node for its minutes, so memory and read cost depend on the sketch size
+ * and the window length, not on the number of pages. Windows are read from the start of their first
+ * minute, and views of the last flush interval are not counted yet.
+ * The sketches are written in addition to the storage's exact per-page counters, not instead of them,
+ * as windows longer than the retention fall back to the exact counters: the engine bounds the cost of
+ * reading top pages, not storage memory.
+ */
+@Service
+@Slf4j
+public class TopPagesSketchService {
+    
+    /**
+     * Where top pages are read from: the exact per-page counters of the storage, or merged sketches
+     */
+    public enum Engine {
+        EXACT,
+        SKETCH
+    }
+    
+    private static final long MINUTE = Duration.ofMinutes(1).toMillis();
+    
+    private final MetricsStorageService storageService;
+    private final LongSupplier clock;
+    private final String generatedNodeId = UUID.randomUUID().toString();
+    
+    @Value("${analytics.top-pages.engine:exact}")
+    private Engine engine = Engine.EXACT;
+    
+    @Value("${analytics.top-pages.sketch.depth:4}")
+    private int depth = 4;
+    
+    @Value("${analytics.top-pages.sketch.width:2048}")
+    private int width = 2048;
+    
+    @Value("${analytics.top-pages.sketch.candidates:100}")
+    private int candidates = 100;
+    
+    @Value("${analytics.top-pages.sketch.retention-minutes:15}")
+    private int retentionMinutes = 15;
+    
+    // Tells this node's sketches apart from those of other nodes; a random id per process when blank
+    @Value("${analytics.node-id:}")
+    private String nodeId = "";
+    
+    private final Object lock = new Object();
+    // Guarded by lock: minute -> views counted on this node, and the minutes changed since the last flush
+    private final Map<Long, TopKSketch> minutes = new HashMap<>();
+    private final Set<Long> dirty = new HashSet<>();
+    
+    @Autowired
+    public TopPagesSketchService(MetricsStorageService storageService) {
+        this(storageService, System::currentTimeMillis);
+    }
+    
+    TopPagesSketchService(MetricsStorageService storageService, LongSupplier clock) {
+        this.storageService = storageService;
+        this.clock = clock;
+    }
+    
+    public boolean isEnabled() {
+        return engine == Engine.SKETCH;
+    }
+    
+    /**
+     * Whether the engine is enabled and keeps the sketches of the window from windowStart to now
+     *
+     * @param now End of the window, the time its start was calculated from (not the current time, which
+     *            is already later and would leave a window of the whole retention uncovered)
+     */
+    public boolean covers(long windowStart, long now) {
+        return isEnabled() && windowStart >= now - retentionMinutes * MINUTE;
+    }
+    
+    /**
+     * Counts the page views of the events in this node's sketches
+     */
+    public void record(List<EventRecord> records) {
+        if (!isEnabled() || records.isEmpty()) {
+            return;
+        }
+        long currentMinute = clock.getAsLong() / MINUTE;
+        synchronized (lock) {
+            for (EventRecord record : records) {
+                // Future timestamps count as now; minutes past the retention are no longer read
+                long minute = Math.min(record.getTimestamp() / MINUTE, currentMinute);
+                if (minute < currentMinute - retentionMinutes) {
+                    continue;
+                }
+                minutes.computeIfAbsent(minute, key -> new TopKSketch(depth, width, candidates))
+                    .add(record.getPageUrl(), 1);
+                dirty.add(minute);
+            }
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${analytics.top-pages.sketch.flush-interval-ms:5000}",
+        initialDelayString = "${analytics.top-pages.sketch.flush-interval-ms:5000}")
+    public void scheduledFlush() {
+        if (isEnabled()) {
+            // Runs on the scheduler thread, not an event loop
+            flush().block();
+        }
+    }
+    
+    /**
+     * Saves the sketches of the minutes that changed since the last flush. A minute whose save fails
+     * is saved again by the next flush.
+     */
+    public Mono<Void> flush() {
+        Map<Long, String> serialized = new HashMap<>();
+        synchronized (lock) {
+            for (Long minute : dirty) {
+                serialized.put(minute, minutes.get(minute).serialize());
+            }
+            dirty.clear();
+            long oldest = clock.getAsLong() / MINUTE - retentionMinutes;
+            minutes.keySet().removeIf(minute -> minute < oldest);
+        }
+        // Kept long enough for the first, partial minute of a window of the whole retention
+        Duration ttl = Duration.ofMinutes(retentionMinutes + 2);
+        return Flux.fromIterable(serialized.entrySet())
+            .flatMap(entry -> storageService.saveTopPagesSketch(entry.getKey(), nodeId(), entry.getValue(), ttl)
+                .onErrorResume(error -> {
+                    log.warn("Could not save the top pages sketch of minute {}, retrying on the next flush",
+                        entry.getKey(), error);
+                    synchronized (lock) {
+                        if (minutes.containsKey(entry.getKey())) {
+                            dirty.add(entry.getKey());
+                        }
+                    }
+                    return Mono.empty();
+                }))
+            .then();
+    }
+    
+    /**
+     * Top pages of the window from the sketches of every node
+     *
+     * @param windowStart Start of the window, see covers()
+     * @param now         End of the window
+     */
+    public Mono<List<PageView>> getTopPages(int limit, long windowStart, long now) {
+        return storageService.getTopPagesSketches(windowStart / MINUTE, now / MINUTE)
+            .map(sketches -> {
+                TopKSketch merged = new TopKSketch(depth, width, candidates);
+                for (String sketch : sketches) {
+                    try {
+                        merged.merge(TopKSketch.deserialize(sketch));
+                    } catch (IllegalArgumentException | UncheckedIOException e) {
+                        // A node with other sketch settings, or a corrupt value
+                        log.warn("Skipping unreadable top pages sketch: {}", e.getMessage());
+                    }
+                }
+                List<PageView> topPages = new ArrayList<>(limit);
+                merged.top(limit).forEach((url, views) -> topPages.add(PageView.builder()
+                    .url(PageView.displayUrl(url))
+                    .viewCount(views)
+                    .build()));
+                log.debug("Merged {} top pages sketches", sketches.size());
+                return topPages;
+            });
+    }
+    
+    private String nodeId() {
+        return nodeId == null || nodeId.isEmpty() ? generatedNodeId : nodeId;
+    }
+}
@@ -0,0 +1,109 @@
+package com.liftlab.analytics.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Count-Min Sketch: `depth` rows of `width` counters, an item adds to one counter per row and its
+ * estimate is the smallest of them. Estimates never undercount, and overcount by at most
+ * e / width of the total count with probability 1 - e^-depth. Memory is fixed whatever the number
+ * of distinct items, and sketches of the same size merge by adding counters.
+ * Items hash the same way in every process, so sketches built on different nodes can be merged.
+ * Not thread-safe.
+ */
+public final class CountMinSketch {
+    
+    private final int depth;
+    private final int width;
+    private final long[] counts;
+    
+    /**
+     * @param width Counters per row, rounded up to a power of two
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("depth and width must be positive: " + depth + "x" + width);
+        }
+        this.depth = depth;
+        this.width = Integer.highestOneBit(width) == width ? width : Integer.highestOneBit(width) << 1;
+        this.counts = new long[depth * this.width];
+    }
+    
+    public void add(String item, long count) {
+        long hash = hash(item);
+        for (int row = 0; row < depth; row++) {
+            counts[index(hash, row)] += count;
+        }
+    }
+    
+    /**
+     * @return Upper bound of the item's count
+     */
+    public long estimate(String item) {
+        long hash = hash(item);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts[index(hash, row)]);
+        }
+        return estimate;
+    }
+    
+    /**
+     * Adds the other sketch's counts to this one
+     */
+    public void merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException(String.format(
+                "Cannot merge a %dx%d sketch into a %dx%d one", other.depth, other.width, depth, width));
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(width);
+        for (long count : counts) {
+            out.writeLong(count);
+        }
+    }
+    
+    public static CountMinSketch readFrom(DataInput in) throws IOException {
+        CountMinSketch sketch = new CountMinSketch(in.readInt(), in.readInt());
+        for (int i = 0; i < sketch.counts.length; i++) {
+            sketch.counts[i] = in.readLong();
+        }
+        return sketch;
+    }
+    
+    private int index(long hash, int row) {
+        // Row hashes derived from two halves of one hash (Kirsch-Mitzenmacher)
+        long rowHash = (hash & 0xffffffffL) + (long) row * ((hash >>> 32) | 1);
+        return row * width + (int) (rowHash & (width - 1));
+    }
+    
+    private static long hash(String item) {
+        // FNV-1a over the chars, then the MurmurHash3 finalizer to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < item.length(); i++) {
+            hash ^= item.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,100 @@
+package com.liftlab.analytics.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps strings (user, session and URL ids) to dense int ids, so they can be stored in primitive
+ * maps and each distinct string is kept once. Ids are kept in an open-addressing table of ints
+ * that indexes the array of strings, like LongIntHashMap, so neither assigning an id nor looking
+ * one up boxes or allocates an entry.
+ * Not thread-safe.
+ */
+public final class IdInterner {
+    
+    public static final int UNKNOWN = -1;
+    
+    private static final int MIN_CAPACITY = 16;
+    
+    // Ids by hash slot, UNKNOWN where empty
+    private int[] table;
+    private int mask;
+    // Strings by id
+    private String[] values;
+    private int size;
+    
+    public IdInterner() {
+        allocate(MIN_CAPACITY);
+        values = new String[MIN_CAPACITY / 2];
+    }
+    
+    /**
+     * @return Id of the string, assigning the next id if it is new
+     */
+    public int intern(String value) {
+        int index = indexOf(value);
+        if (table[index] != UNKNOWN) {
+            return table[index];
+        }
+        int newId = size;
+        if (newId == values.length) {
+            values = Arrays.copyOf(values, newId * 2);
+        }
+        values[newId] = value;
+        table[index] = newId;
+        size++;
+        // Load factor 1/2 keeps probe sequences short
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return newId;
+    }
+    
+    /**
+     * @return Id of the string, or {@link #UNKNOWN} if it was never interned
+     */
+    public int find(String value) {
+        return table[indexOf(value)];
+    }
+    
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown id: " + id);
+        }
+        return values[id];
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    private int indexOf(String value) {
+        int index = hash(value) & mask;
+        while (table[index] != UNKNOWN && !values[table[index]].equals(value)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+    
+    private void rehash(int capacity) {
+        allocate(capacity);
+        for (int id = 0; id < size; id++) {
+            int index = hash(values[id]) & mask;
+            while (table[index] != UNKNOWN) {
+                index = (index + 1) & mask;
+            }
+            table[index] = id;
+        }
+    }
+    
+    private void allocate(int capacity) {
+        table = new int[capacity];
+        Arrays.fill(table, UNKNOWN);
+        mask = capacity - 1;
+    }
+    
+    private static int hash(String value) {
+        // Spreads String.hashCode, whose low bits alone cluster for similar ids
+        int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,233 @@
+package com.liftlab.analytics.util;
+
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Open-addressing hash map from non-negative long keys to int values, with no boxing on any
+ * operation. Used by the in-memory metrics store for id-keyed counters and timestamps.
+ * Not thread-safe.
+ */
+public final class LongIntHashMap {
+    
+    private static final long EMPTY = -1L;
+    private static final int MIN_CAPACITY = 16;
+    
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    
+    /**
+     * Visitor for {@link #forEach}
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+    
+    /**
+     * Condition for {@link #removeIf}
+     */
+    @FunctionalInterface
+    public interface EntryPredicate {
+        boolean test(long key, int value);
+    }
+    
+    public LongIntHashMap() {
+        this(MIN_CAPACITY / 2);
+    }
+    
+    public LongIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public boolean containsKey(long key) {
+        return keys[indexOf(key)] != EMPTY;
+    }
+    
+    /**
+     * @return Value for the key, or defaultValue if the key is absent
+     */
+    public int get(long key, int defaultValue) {
+        int index = indexOf(key);
+        return keys[index] == EMPTY ? defaultValue : values[index];
+    }
+    
+    public void put(long key, int value) {
+        checkKey(key);
+        int index = indexOf(key);
+        if (keys[index] == EMPTY) {
+            keys[index] = key;
+            values[index] = value;
+            grow();
+        } else {
+            values[index] = value;
+        }
+    }
+    
+    /**
+     * Adds delta to the key's value (absent keys count as 0). Entries that reach 0 are removed,
+     * so counters never leave dead entries behind.
+     *
+     * @return The new value
+     */
+    public int addTo(long key, int delta) {
+        checkKey(key);
+        int index = indexOf(key);
+        if (keys[index] == EMPTY) {
+            if (delta != 0) {
+                keys[index] = key;
+                values[index] = delta;
+                grow();
+            }
+            return delta;
+        }
+        int value = values[index] + delta;
+        if (value == 0) {
+            removeAt(index);
+        } else {
+            values[index] = value;
+        }
+        return value;
+    }
+    
+    public void remove(long key) {
+        int index = indexOf(key);
+        if (keys[index] != EMPTY) {
+            removeAt(index);
+        }
+    }
+    
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+    
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+    
+    /**
+     * Removes every entry matching the predicate; the table shrinks if it became mostly empty
+     *
+     * @return Number of entries removed
+     */
+    public int removeIf(EntryPredicate predicate) {
+        int before = size;
+        rebuild(keys, values, key -> key, predicate);
+        return before - size;
+    }
+    
+    /**
+     * Rewrites every key with the given mapping (which must stay injective and non-negative)
+     */
+    public void replaceKeys(LongUnaryOperator mapping) {
+        rebuild(keys, values, mapping, (key, value) -> false);
+    }
+    
+    private void rebuild(long[] oldKeys, int[] oldValues, LongUnaryOperator mapping, EntryPredicate drop) {
+        int kept = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && !drop.test(oldKeys[i], oldValues[i])) {
+                kept++;
+            }
+        }
+        allocate(capacityFor(kept));
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && !drop.test(oldKeys[i], oldValues[i])) {
+                long key = mapping.applyAsLong(oldKeys[i]);
+                checkKey(key);
+                int index = indexOf(key);
+                keys[index] = key;
+                values[index] = oldValues[i];
+                size++;
+            }
+        }
+    }
+    
+    private int indexOf(long key) {
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+    
+    private void removeAt(int index) {
+        // Backward-shift deletion keeps linear probe chains intact without tombstones
+        size--;
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = hash(keys[next]) & mask;
+            // Move the entry into the gap unless its home slot lies cyclically in (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+    }
+    
+    private void grow() {
+        // Load factor 1/2 keeps probe sequences short
+        if (++size * 2 > keys.length) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate(keys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int index = indexOf(oldKeys[i]);
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                    size++;
+                }
+            }
+        }
+    }
+    
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        size = 0;
+    }
+    
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+    
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+    
+    private static void checkKey(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Keys must be non-negative: " + key);
+        }
+    }
+}
+
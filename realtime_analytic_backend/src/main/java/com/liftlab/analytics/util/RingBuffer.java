@@ -0,0 +1,119 @@
+package com.liftlab.analytics.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounded multi-producer ring buffer of pre-allocated entries, handed through a chain of consumer
+ * stages (Disruptor style). Producers claim a sequence, fill the entry at it and publish it; the
+ * first stage sees published entries in sequence order, and every other stage sees the entries its
+ * predecessor has released. A sequence is only claimed once the last stage has released the entry it
+ * reuses, so memory stays fixed whatever the burst, and claiming and handing over take no lock.
+ * Any number of threads may claim and publish; each stage must be driven by a single thread.
+ */
+public final class RingBuffer<E> {
+    
+    private final Object[] entries;
+    private final int mask;
+    private final int lastStage;
+    
+    // Highest claimed sequence
+    private final AtomicLong claimed = new AtomicLong(-1);
+    // Sequence last published into each slot; a slot is readable once it holds the expected sequence
+    private final AtomicLongArray published;
+    // Highest sequence released by each stage
+    private final AtomicLong[] cursors;
+    
+    /**
+     * @param capacity Entries, rounded up to a power of two
+     * @param stages   Consumer stages, each entry goes through all of them in order
+     * @param factory  Creates the entries, which are reused for the life of the buffer
+     */
+    public RingBuffer(int capacity, int stages, Supplier<E> factory) {
+        if (capacity <= 0 || stages <= 0) {
+            throw new IllegalArgumentException("capacity and stages must be positive: " + capacity + ", " + stages);
+        }
+        int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        this.lastStage = stages - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = factory.get();
+            published.set(i, -1);
+        }
+        this.cursors = new AtomicLong[stages];
+        for (int stage = 0; stage < stages; stage++) {
+            cursors[stage] = new AtomicLong(-1);
+        }
+    }
+    
+    public int getCapacity() {
+        return entries.length;
+    }
+    
+    /**
+     * Claims the next sequence, to be filled and then published
+     *
+     * @return The sequence, or -1 when every entry is still held by a stage
+     */
+    public long tryClaim() {
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            if (next - entries.length > cursors[lastStage].get()) {
+                return -1;
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+    
+    /**
+     * Hands a claimed and filled entry to the first stage
+     */
+    public void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+    }
+    
+    /**
+     * Highest sequence the stage may process: the end of the unbroken run of published sequences for
+     * the first stage, the predecessor's cursor for the others
+     */
+    public long available(int stage) {
+        if (stage > 0) {
+            return cursors[stage - 1].get();
+        }
+        long sequence = cursors[0].get();
+        long limit = sequence + entries.length;
+        while (sequence < limit && published.get((int) (sequence + 1) & mask) == sequence + 1) {
+            sequence++;
+        }
+        return sequence;
+    }
+    
+    /**
+     * Marks every entry up to the sequence as done by the stage
+     */
+    public void release(int stage, long sequence) {
+        cursors[stage].set(sequence);
+    }
+    
+    public long getCursor(int stage) {
+        return cursors[stage].get();
+    }
+    
+    /**
+     * Entries claimed and not yet released by the last stage
+     */
+    public long depth() {
+        return Math.max(0, claimed.get() - cursors[lastStage].get());
+    }
+}
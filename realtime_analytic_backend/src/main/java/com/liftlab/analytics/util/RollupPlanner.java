@@ -0,0 +1,92 @@
+package com.liftlab.analytics.util;
+
+/**
+ * Covers a time window with buckets kept at several resolutions (e.g. seconds, minutes and hours),
+ * so long windows read a few coarse buckets instead of many fine ones.
+ *
+ * The window start is rounded up to the finest resolution still kept at that time, then each step
+ * takes the coarsest bucket that starts exactly there. A bucket reaching past the window end is fine,
+ * as nothing newer than the end has been recorded - a day is about 24 hour buckets plus the minutes
+ * up to the first full hour. Time is in any unit (millis, or ticks of seconds), as long as it is the
+ * same for bucket sizes, retentions and the window.
+ *
+ * Storages keep each resolution one bucket past its retention. A window's start is usually taken a
+ * moment before it is read, so a resolution still serves windows starting up to one bucket before
+ * end - retention; a window exactly as long as a retention is served at that resolution.
+ */
+public final class RollupPlanner {
+
+    /**
+     * Visitor for {@link #cover}
+     */
+    @FunctionalInterface
+    public interface BucketConsumer {
+        /**
+         * @param resolution Index of the resolution, finest first
+         * @param bucket     Bucket number at that resolution (time / bucket size, rounded down)
+         */
+        void accept(int resolution, long bucket);
+    }
+
+    private final long[] bucketSizes;
+    private final long[] retentions;
+
+    /**
+     * @param bucketSizes Bucket size of each resolution, finest first; each a multiple of the previous one
+     * @param retentions  How far back each resolution is kept, growing with the bucket size; the storage
+     *                    keeps one more bucket than that
+     */
+    public RollupPlanner(long[] bucketSizes, long[] retentions) {
+        if (bucketSizes.length == 0 || bucketSizes.length != retentions.length) {
+            throw new IllegalArgumentException("Every resolution needs a bucket size and a retention");
+        }
+        for (int i = 1; i < bucketSizes.length; i++) {
+            if (bucketSizes[i] % bucketSizes[i - 1] != 0 || retentions[i] < retentions[i - 1]) {
+                throw new IllegalArgumentException("Resolutions must be ordered finest first");
+            }
+        }
+        this.bucketSizes = bucketSizes.clone();
+        this.retentions = retentions.clone();
+    }
+
+    public int resolutions() {
+        return bucketSizes.length;
+    }
+
+    public long bucketSize(int resolution) {
+        return bucketSizes[resolution];
+    }
+
+    /**
+     * Bucket holding the given time at a resolution
+     */
+    public long bucketOf(int resolution, long time) {
+        return Math.floorDiv(time, bucketSizes[resolution]);
+    }
+
+    /**
+     * Visits the buckets covering [windowStart, end], oldest first
+     */
+    public void cover(long windowStart, long end, BucketConsumer consumer) {
+        int finest = bucketSizes.length - 1;
+        for (int i = 0; i < bucketSizes.length; i++) {
+            if (windowStart >= end - retentions[i] - bucketSizes[i]) {
+                finest = i;
+                break;
+            }
+        }
+
+        long time = -Math.floorDiv(-windowStart, bucketSizes[finest]) * bucketSizes[finest];
+        while (time <= end) {
+            int resolution = finest;
+            for (int i = bucketSizes.length - 1; i > finest; i--) {
+                if (Math.floorMod(time, bucketSizes[i]) == 0) {
+                    resolution = i;
+                    break;
+                }
+            }
+            consumer.accept(resolution, Math.floorDiv(time, bucketSizes[resolution]));
+            time += bucketSizes[resolution];
+        }
+    }
+}
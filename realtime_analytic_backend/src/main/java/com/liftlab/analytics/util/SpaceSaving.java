@@ -0,0 +1,115 @@
+package com.liftlab.analytics.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy hitters sketch: keeps at most `capacity` counters. An item without a counter
+ * takes over the smallest one and inherits its count as possible overestimate (its error), so every
+ * item seen more than total / capacity times holds a counter, and count - error never overestimates.
+ * Not thread-safe.
+ */
+public final class SpaceSaving {
+    
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+    
+    /**
+     * Counts `count` occurrences of the item
+     *
+     * @return Guaranteed count of the item (count - error)
+     */
+    public long offer(String item, long count) {
+        Counter counter = counters.get(item);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter(item, 0);
+            } else {
+                Counter smallest = smallest();
+                counters.remove(smallest.item);
+                counter = new Counter(item, smallest.count);
+            }
+            counters.put(item, counter);
+        }
+        counter.count += count;
+        return counter.count - counter.error;
+    }
+    
+    /**
+     * @return Guaranteed count of the item, 0 if it holds no counter
+     */
+    public long guaranteed(String item) {
+        Counter counter = counters.get(item);
+        return counter != null ? counter.count - counter.error : 0;
+    }
+    
+    /**
+     * The `limit` counters with the highest guaranteed counts, highest first
+     */
+    public List<Counter> top(int limit) {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        sorted.sort(Comparator.comparingLong(Counter::getGuaranteed).reversed());
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+    
+    public int size() {
+        return counters.size();
+    }
+    
+    public void clear() {
+        counters.clear();
+    }
+    
+    private Counter smallest() {
+        // A linear scan: sketches are small, and this only runs when an untracked item arrives while full
+        Counter smallest = null;
+        for (Counter counter : counters.values()) {
+            if (smallest == null || counter.count < smallest.count) {
+                smallest = counter;
+            }
+        }
+        return smallest;
+    }
+    
+    public static final class Counter {
+        
+        private final String item;
+        private final long error;
+        private long count;
+        
+        private Counter(String item, long error) {
+            this.item = item;
+            this.error = error;
+            this.count = error;
+        }
+        
+        public String getItem() {
+            return item;
+        }
+        
+        /**
+         * Upper bound of the item's count
+         */
+        public long getCount() {
+            return count;
+        }
+        
+        /**
+         * Lower bound of the item's count
+         */
+        public long getGuaranteed() {
+            return count - error;
+        }
+    }
+}
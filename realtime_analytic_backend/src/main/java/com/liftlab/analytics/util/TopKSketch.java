@@ -0,0 +1,116 @@
+package com.liftlab.analytics.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Approximate top-K: a Count-Min Sketch estimates every item's count, and a Space-Saving summary
+ * keeps the items that may be among the most frequent. Sketches of the same size merge (counts add
+ * up, candidates are pooled), so per-node and per-minute sketches combine into one for a window.
+ * Memory and top-K cost depend on the sketch size, not on the number of distinct items.
+ * Not thread-safe.
+ */
+public final class TopKSketch {
+    
+    private final CountMinSketch frequencies;
+    private final SpaceSaving candidates;
+    private final int candidateCapacity;
+    
+    /**
+     * @param depth      Count-Min rows
+     * @param width      Count-Min counters per row
+     * @param candidates Items kept as top-K candidates, a few times K
+     */
+    public TopKSketch(int depth, int width, int candidates) {
+        this(new CountMinSketch(depth, width), candidates);
+    }
+    
+    private TopKSketch(CountMinSketch frequencies, int candidates) {
+        this.frequencies = frequencies;
+        this.candidates = new SpaceSaving(candidates);
+        this.candidateCapacity = candidates;
+    }
+    
+    public void add(String item, long count) {
+        frequencies.add(item, count);
+        candidates.offer(item, count);
+    }
+    
+    /**
+     * Adds the other sketch's counts and candidates to this one
+     */
+    public void merge(TopKSketch other) {
+        frequencies.merge(other.frequencies);
+        for (SpaceSaving.Counter counter : other.candidates.top(other.candidates.size())) {
+            candidates.offer(counter.getItem(), counter.getCount());
+        }
+    }
+    
+    /**
+     * The `limit` candidates with the highest estimated counts, highest first
+     */
+    public Map<String, Long> top(int limit) {
+        List<Map.Entry<String, Long>> estimates = new ArrayList<>(candidates.size());
+        for (SpaceSaving.Counter counter : candidates.top(candidates.size())) {
+            estimates.add(Map.entry(counter.getItem(), frequencies.estimate(counter.getItem())));
+        }
+        estimates.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(limit, estimates.size()); i++) {
+            top.put(estimates.get(i).getKey(), estimates.get(i).getValue());
+        }
+        return top;
+    }
+    
+    /**
+     * @return Estimated count of the item (an upper bound)
+     */
+    public long estimate(String item) {
+        return frequencies.estimate(item);
+    }
+    
+    /**
+     * Compressed, Base64-encoded form, read back by {@link #deserialize(String)}
+     */
+    public String serialize() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            frequencies.writeTo(out);
+            out.writeInt(candidateCapacity);
+            List<SpaceSaving.Counter> counters = candidates.top(candidates.size());
+            out.writeInt(counters.size());
+            for (SpaceSaving.Counter counter : counters) {
+                out.writeUTF(counter.getItem());
+                out.writeLong(counter.getCount());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+    
+    public static TopKSketch deserialize(String serialized) {
+        byte[] bytes = Base64.getDecoder().decode(serialized);
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            TopKSketch sketch = new TopKSketch(CountMinSketch.readFrom(in), in.readInt());
+            int counters = in.readInt();
+            for (int i = 0; i < counters; i++) {
+                sketch.candidates.offer(in.readUTF(), in.readLong());
+            }
+            return sketch;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,22 +1,70 @@
 package com.liftlab.analytics.util;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Utility class for URL normalization
+ * Paths are collapsed to route templates, so per-entity URLs (/products/detail/123) count as one page
+ * (products/detail/{id}) and the number of tracked pages stays bounded. Results are cached by raw URL.
  */
 @Component
 @Slf4j
 public class UrlNormalizer {
     
+    public static final String ID_PLACEHOLDER = "{id}";
+    
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    // Shortest segment of hex digits taken for an id (object ids, hashes), so short words like "cafe" are kept
+    private static final int MIN_HEX_ID_LENGTH = 16;
+    
+    private final List<String[]> templates;
+    private final boolean detectIds;
+    private final int cacheSize;
+    // Raw URL -> normalized URL; cleared when full, so it never holds more than cacheSize entries
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+    
+    public UrlNormalizer() {
+        this(Collections.emptyList(), true, DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * @param templates Route templates such as /products/{category}/{slug}: a path with the same number of
+     *                  segments and the same literal segments is counted as the template (first match wins)
+     * @param detectIds Replace numeric, UUID and long hex segments of other paths with {id}
+     * @param cacheSize Raw URLs whose result is kept, 0 to disable the cache
+     */
+    @Autowired
+    public UrlNormalizer(@Value("${analytics.urls.templates:}") List<String> templates,
+                         @Value("${analytics.urls.detect-ids:true}") boolean detectIds,
+                         @Value("${analytics.urls.cache-size:10000}") int cacheSize) {
+        this.templates = new ArrayList<>();
+        for (String template : templates) {
+            if (template != null && !template.trim().isEmpty()) {
+                this.templates.add(storedPath(template.trim()).split("/", -1));
+            }
+        }
+        this.detectIds = detectIds;
+        this.cacheSize = cacheSize;
+        log.info("URL normalizer: {} route templates, id detection {}", this.templates.size(), detectIds ? "on" : "off");
+    }
+    
     /**
      * Normalizes a URL by:
      * - Removing query parameters
      * - Removing hash fragments
      * - Removing trailing slashes (except root)
      * - Converting to lowercase
-     * 
+     * - Collapsing it to the first matching route template, or replacing id segments with {id}
+     *
      * @param url The URL to normalize
      * @return Normalized URL
      */
@@ -24,7 +72,24 @@ public class UrlNormalizer {
         if (url == null || url.isEmpty()) {
             return url;
         }
+        if (cacheSize <= 0) {
+            return normalizeUncached(url);
+        }
         
+        String cached = cache.get(url);
+        if (cached != null) {
+            return cached;
+        }
+        String normalized = normalizeUncached(url);
+        if (cache.size() >= cacheSize) {
+            // Crude but lock-free eviction: start over rather than track recency on every hit
+            cache.clear();
+        }
+        cache.put(url, normalized);
+        return normalized;
+    }
+    
+    private String normalizeUncached(String url) {
         String normalized = url;
         
         // Remove query parameters
@@ -52,9 +117,99 @@ public class UrlNormalizer {
             normalized = normalized.substring(1);
         }
         
+        normalized = applyTemplates(normalized);
+        
         log.debug("Normalized URL: {} -> {}", url, normalized);
         
         return normalized;
     }
+    
+    private String applyTemplates(String path) {
+        if (path.isEmpty() || (templates.isEmpty() && !detectIds)) {
+            return path;
+        }
+        String[] segments = path.split("/", -1);
+        for (String[] template : templates) {
+            if (matches(template, segments)) {
+                return String.join("/", template);
+            }
+        }
+        if (!detectIds) {
+            return path;
+        }
+        
+        boolean replaced = false;
+        for (int i = 0; i < segments.length; i++) {
+            if (isId(segments[i])) {
+                segments[i] = ID_PLACEHOLDER;
+                replaced = true;
+            }
+        }
+        return replaced ? String.join("/", segments) : path;
+    }
+    
+    private static boolean matches(String[] template, String[] segments) {
+        if (template.length != segments.length) {
+            return false;
+        }
+        for (int i = 0; i < template.length; i++) {
+            if (!isPlaceholder(template[i]) && !template[i].equals(segments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isPlaceholder(String segment) {
+        return segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+    }
+    
+    /**
+     * Numeric, UUID (8-4-4-4-12 hex digits) or at least MIN_HEX_ID_LENGTH hex digits
+     */
+    static boolean isId(String segment) {
+        int length = segment.length();
+        if (length == 0) {
+            return false;
+        }
+        boolean digits = true;
+        boolean hex = true;
+        for (int i = 0; i < length; i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                digits = false;
+                if (c < 'a' || c > 'f') {
+                    hex = false;
+                    break;
+                }
+            }
+        }
+        if (digits || (hex && length >= MIN_HEX_ID_LENGTH)) {
+            return true;
+        }
+        return length == 36 && isUuid(segment);
+    }
+    
+    private static boolean isUuid(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? c != '-' : !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static String storedPath(String template) {
+        // Templates are matched against stored paths: lowercase, without leading or trailing slash
+        String stripped = template.toLowerCase();
+        if (stripped.startsWith("/")) {
+            stripped = stripped.substring(1);
+        }
+        if (stripped.endsWith("/")) {
+            stripped = stripped.substring(0, stripped.length() - 1);
+        }
+        return stripped;
+    }
 }
-
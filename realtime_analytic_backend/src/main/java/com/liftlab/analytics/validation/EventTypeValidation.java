@@ -0,0 +1,33 @@
+package com.liftlab.analytics.validation;
+
+import com.liftlab.analytics.model.AnalyticsEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Validates event type (counted per type by the eventTypes metric)
+ */
+@Component
+@Slf4j
+public class EventTypeValidation implements IValidation {
+    
+    // Event types are counter names, not free text
+    private static final int MAX_LENGTH = 64;
+    
+    @Override
+    public ValidationResult validate(AnalyticsEvent event) {
+        String eventType = event.getEventType();
+        
+        if (eventType == null || eventType.trim().isEmpty()) {
+            return ValidationResult.failure("Event type cannot be null or empty");
+        }
+        
+        if (eventType.length() > MAX_LENGTH) {
+            return ValidationResult.failure(
+                String.format("Event type must be at most %d characters: %s", MAX_LENGTH, eventType)
+            );
+        }
+        
+        return ValidationResult.success();
+    }
+}
@@ -0,0 +1,64 @@
+-- Active sessions per user in a single round trip: counts each tracked user's sessions inside the window
+-- and removes users without any from the tracking SET in the same atomic step, so a user who starts a
+-- new session concurrently is never pruned by mistake.
+-- Per-user session keys are derived from SET members, so this is for a single Redis node (not cluster).
+--
+-- KEYS[1] users with sessions SET    (users_with_sessions:5m)
+--
+-- ARGV[1] user sessions key prefix   (user_sessions:)
+-- ARGV[2] user sessions key suffix   (:5m)
+-- ARGV[3] window start (epoch millis, inclusive)
+-- ARGV[4] retention cutoff (epoch millis): users without a session after it are removed from the SET
+-- ARGV[5] number of users to return, highest session count first (0 returns every active user, unordered)
+--
+-- Returns { users with active sessions, total active sessions, userId, count, userId, count... }.
+
+local prefix, suffix, windowStart, cutoff = ARGV[1], ARGV[2], ARGV[3], '(' .. ARGV[4]
+local limit = tonumber(ARGV[5])
+local users, counts = {}, {}
+local totalUsers, totalSessions = 0, 0
+local stale = {}
+
+-- Keeps users/counts sorted by count descending, then user id, and at most `limit` long
+local function offer(userId, count)
+    local n = #users
+    if n == limit and (count < counts[n] or (count == counts[n] and userId > users[n])) then
+        return
+    end
+    local position = n < limit and n + 1 or n
+    while position > 1 and (counts[position - 1] < count
+            or (counts[position - 1] == count and users[position - 1] > userId)) do
+        users[position], counts[position] = users[position - 1], counts[position - 1]
+        position = position - 1
+    end
+    users[position], counts[position] = userId, count
+end
+
+for _, userId in ipairs(redis.call('SMEMBERS', KEYS[1])) do
+    -- ZCOUNT on a missing (expired) key is 0
+    local sessionKey = prefix .. userId .. suffix
+    local count = redis.call('ZCOUNT', sessionKey, windowStart, '+inf')
+    if count > 0 then
+        totalUsers = totalUsers + 1
+        totalSessions = totalSessions + count
+        if limit == 0 then
+            users[#users + 1], counts[#counts + 1] = userId, count
+        else
+            offer(userId, count)
+        end
+    elseif redis.call('ZCOUNT', sessionKey, cutoff, '+inf') == 0 then
+        stale[#stale + 1] = userId
+    end
+end
+
+-- SREM in chunks to stay within Lua's unpack limit
+for i = 1, #stale, 1000 do
+    redis.call('SREM', KEYS[1], unpack(stale, i, math.min(i + 999, #stale)))
+end
+
+local result = { totalUsers, totalSessions }
+for i = 1, #users do
+    result[#result + 1] = users[i]
+    result[#result + 1] = counts[i]
+end
+return result
@@ -0,0 +1,27 @@
+-- One page of active sessions per user: resumes an SSCAN of the tracking SET from a cursor and counts the
+-- sessions inside the window for the users it returns, so no call ever walks the whole SET.
+-- Like SSCAN, a page may be shorter than requested, and users added or removed meanwhile may be missed.
+-- Per-user session keys are derived from SET members, so this is for a single Redis node (not cluster).
+--
+-- KEYS[1] users with sessions SET    (users_with_sessions:5m)
+--
+-- ARGV[1] SSCAN cursor to resume from ("0" starts from the beginning)
+-- ARGV[2] users to examine (SSCAN COUNT hint)
+-- ARGV[3] user sessions key prefix   (user_sessions:)
+-- ARGV[4] user sessions key suffix   (:5m)
+-- ARGV[5] window start (epoch millis, inclusive)
+--
+-- Returns { next cursor ("0" after the last page), userId, count, userId, count... }.
+
+local reply = redis.call('SSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[2])
+local result = { reply[1] }
+
+for _, userId in ipairs(reply[2]) do
+    local count = redis.call('ZCOUNT', ARGV[3] .. userId .. ARGV[4], ARGV[5], '+inf')
+    if count > 0 then
+        result[#result + 1] = userId
+        result[#result + 1] = count
+    end
+end
+
+return result
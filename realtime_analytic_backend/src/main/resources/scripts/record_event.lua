@@ -0,0 +1,82 @@
+-- Records the active user, page view, user session and event type of one event atomically, in a single
+-- round trip.
+--
+-- KEYS[1] active users ZSET          (active_users:5m, EXACT mode only)
+-- KEYS[2] page views ZSET for the URL (page_views:<url>, MEMBERS layout only)
+-- KEYS[3] page views master ranking  (page_views:counts)
+-- KEYS[4] sessions ZSET for the user (user_sessions:<userId>:5m)
+-- KEYS[5] users with sessions SET    (users_with_sessions:5m)
+-- KEYS[6..] one bucket per rollup resolution, finest first: the page view buckets
+--          (page_view_buckets:<resolution>:<bucket>, BUCKETS layout only), then the active users
+--          HyperLogLogs (active_users_hll:<resolution>:<bucket>, APPROXIMATE mode only), then the event
+--          type buckets (event_type_buckets:<resolution>:<bucket>), then the page and event type buckets
+--          (page_event_type_buckets:<resolution>:<bucket>, only with a page and event type member)
+--
+-- ARGV[1] userId
+-- ARGV[2] sessionId
+-- ARGV[3] normalized page URL
+-- ARGV[4] event timestamp (epoch millis)
+-- ARGV[5] unique page view member (MEMBERS layout only)
+-- ARGV[6] active users TTL (seconds)
+-- ARGV[7] page views TTL (seconds)
+-- ARGV[8] user sessions TTL (seconds)
+-- ARGV[9] page view layout: MEMBERS (one member per view) or BUCKETS (rollup counters per URL)
+-- ARGV[10] active users mode: EXACT (ZSET of last seen times) or APPROXIMATE (rollup HyperLogLogs)
+-- ARGV[11] event type
+-- ARGV[12] page and event type member, or empty to skip the page and event type buckets
+-- ARGV[13..] TTL of each rollup resolution (seconds), finest first
+--
+-- Returns the number of views stored for the URL (in the finest bucket for BUCKETS).
+
+local timestamp = ARGV[4]
+local resolutions = #ARGV - 12
+local nextKey = 6
+
+local views
+if ARGV[9] == 'BUCKETS' then
+    for i = 1, resolutions do
+        local count = tonumber(redis.call('ZINCRBY', KEYS[nextKey], 1, ARGV[3]))
+        redis.call('EXPIRE', KEYS[nextKey], ARGV[12 + i])
+        if i == 1 then
+            views = count
+        end
+        nextKey = nextKey + 1
+    end
+else
+    redis.call('ZADD', KEYS[2], timestamp, ARGV[5])
+    redis.call('EXPIRE', KEYS[2], ARGV[7])
+    views = redis.call('ZCARD', KEYS[2])
+    redis.call('ZADD', KEYS[3], views, ARGV[3])
+    redis.call('EXPIRE', KEYS[3], ARGV[7])
+end
+
+if ARGV[10] == 'APPROXIMATE' then
+    for i = 1, resolutions do
+        redis.call('PFADD', KEYS[nextKey], ARGV[1])
+        redis.call('EXPIRE', KEYS[nextKey], ARGV[12 + i])
+        nextKey = nextKey + 1
+    end
+else
+    redis.call('ZADD', KEYS[1], timestamp, ARGV[1])
+    redis.call('EXPIRE', KEYS[1], ARGV[6])
+end
+
+for i = 1, resolutions do
+    redis.call('ZINCRBY', KEYS[nextKey], 1, ARGV[11])
+    redis.call('EXPIRE', KEYS[nextKey], ARGV[12 + i])
+    nextKey = nextKey + 1
+end
+if ARGV[12] ~= '' then
+    for i = 1, resolutions do
+        redis.call('ZINCRBY', KEYS[nextKey], 1, ARGV[12])
+        redis.call('EXPIRE', KEYS[nextKey], ARGV[12 + i])
+        nextKey = nextKey + 1
+    end
+end
+
+redis.call('ZADD', KEYS[4], timestamp, ARGV[2])
+redis.call('EXPIRE', KEYS[4], ARGV[8])
+redis.call('SADD', KEYS[5], ARGV[1])
+redis.call('EXPIRE', KEYS[5], ARGV[8])
+
+return views
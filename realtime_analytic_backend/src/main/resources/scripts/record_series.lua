@@ -0,0 +1,45 @@
+-- Adds one bucket of a time series batch - the users seen in the bucket and its page views - in a
+-- single round trip.
+--
+-- KEYS[1] HyperLogLog of the users seen in the bucket (series_users:<resolution>:<bucket>)
+-- KEYS[2] active users counters hash               (series:activeUsers:<resolution>:<period>)
+-- KEYS[3] page views counters hash                 (series:pageViews:<resolution>:<period>)
+--
+-- ARGV[1] bucket, the field of both counters hashes
+-- ARGV[2] HyperLogLog TTL (seconds): how long late events are still told apart from counted users
+-- ARGV[3] counters TTL (seconds)
+-- ARGV[4] page views to add
+-- ARGV[5..] user ids seen in the bucket
+--
+-- The active users counter holds the HyperLogLog's estimate and is only ever raised: once the
+-- HyperLogLog has expired, a late event recreates it with fewer users than were already counted.
+--
+-- Returns the active users counted for the bucket.
+
+local bucket = ARGV[1]
+local counted = tonumber(redis.call('HGET', KEYS[2], bucket) or '0')
+
+-- PFADD in chunks to stay within Lua's unpack limit
+local changed = false
+for i = 5, #ARGV, 1000 do
+    if redis.call('PFADD', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV))) == 1 then
+        changed = true
+    end
+end
+
+if changed then
+    local users = redis.call('PFCOUNT', KEYS[1])
+    if users > counted then
+        counted = users
+        redis.call('HSET', KEYS[2], bucket, users)
+        redis.call('EXPIRE', KEYS[2], ARGV[3])
+    end
+end
+redis.call('EXPIRE', KEYS[1], ARGV[2])
+
+if tonumber(ARGV[4]) > 0 then
+    redis.call('HINCRBY', KEYS[3], bucket, ARGV[4])
+    redis.call('EXPIRE', KEYS[3], ARGV[3])
+end
+
+return counted
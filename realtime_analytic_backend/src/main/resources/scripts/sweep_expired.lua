@@ -0,0 +1,53 @@
+-- Budgeted cleanup step: resumes a keyspace SCAN from a cursor, trims expired entries from the page view
+-- and user session ZSETs it meets, and stops after about ARGV[2] keys so Redis is never blocked for long.
+-- Keys found by SCAN cannot be declared up front, so this is for a single Redis node (not cluster).
+--
+-- KEYS[1] page views master ranking  (page_views:counts)
+-- KEYS[2] users with sessions SET    (users_with_sessions:5m)
+--
+-- ARGV[1] SCAN cursor to resume from ("0" starts a new pass)
+-- ARGV[2] max keys to examine
+-- ARGV[3] page views key prefix      (page_views:)
+-- ARGV[4] user sessions key prefix   (user_sessions:)
+-- ARGV[5] user sessions key suffix   (:5m)
+-- ARGV[6] page views cutoff (epoch millis, entries at or before it are removed)
+-- ARGV[7] user sessions cutoff (epoch millis)
+--
+-- Returns { next cursor ("0" when the pass is complete), keys scanned, entries removed }.
+
+local cursor = ARGV[1]
+local budget = tonumber(ARGV[2])
+local pagePrefix, sessionPrefix, sessionSuffix = ARGV[3], ARGV[4], ARGV[5]
+local scanned, removed = 0, 0
+
+local function isZSet(key)
+    return redis.call('TYPE', key).ok == 'zset'
+end
+
+repeat
+    local reply = redis.call('SCAN', cursor, 'COUNT', math.min(100, budget - scanned))
+    cursor = reply[1]
+    for _, key in ipairs(reply[2]) do
+        scanned = scanned + 1
+        if key ~= KEYS[1] and string.sub(key, 1, #pagePrefix) == pagePrefix and isZSet(key) then
+            removed = removed + redis.call('ZREMRANGEBYSCORE', key, '-inf', ARGV[6])
+            -- Keep the master ranking in line with what is left
+            local url = string.sub(key, #pagePrefix + 1)
+            local views = redis.call('ZCARD', key)
+            if views == 0 then
+                redis.call('ZREM', KEYS[1], url)
+            else
+                redis.call('ZADD', KEYS[1], views, url)
+            end
+        elseif string.sub(key, 1, #sessionPrefix) == sessionPrefix
+                and string.sub(key, -#sessionSuffix) == sessionSuffix and isZSet(key) then
+            removed = removed + redis.call('ZREMRANGEBYSCORE', key, '-inf', ARGV[7])
+            if redis.call('ZCARD', key) == 0 then
+                local userId = string.sub(key, #sessionPrefix + 1, #key - #sessionSuffix)
+                redis.call('SREM', KEYS[2], userId)
+            end
+        end
+    end
+until cursor == '0' or scanned >= budget
+
+return { cursor, scanned, removed }
@@ -0,0 +1,20 @@
+-- Windowed top pages in a single round trip: merges the rollup buckets of the window server-side
+-- and returns only the top entries, however many pages are tracked.
+--
+-- KEYS[1]    scratch ZSET for the merged window, deleted before returning
+-- KEYS[2..n] buckets covering the window (page_view_buckets:<resolution>:<bucket>), missing ones are skipped
+--
+-- ARGV[1] number of pages to return
+--
+-- Returns a flat list of url, views pairs, highest views first.
+
+local limit = tonumber(ARGV[1])
+if #KEYS < 2 or limit < 1 then
+    return {}
+end
+
+redis.call('ZUNIONSTORE', KEYS[1], #KEYS - 1, unpack(KEYS, 2))
+local top = redis.call('ZREVRANGE', KEYS[1], 0, limit - 1, 'WITHSCORES')
+redis.call('DEL', KEYS[1])
+
+return top
@@ -0,0 +1,107 @@
+package com.liftlab.analytics.controller;
+
+import com.liftlab.analytics.kafka.KafkaEventProducer;
+import com.liftlab.analytics.model.AckMode;
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.BatchProcessingResult;
+import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.service.EventProcessingService;
+import com.liftlab.analytics.service.IngestPipeline;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for EventController with analytics.ingestion.mode=kafka
+ */
+@WebFluxTest(EventController.class)
+@TestPropertySource(properties = "analytics.ingestion.mode=kafka")
+class EventControllerKafkaModeTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private EventProcessingService eventProcessingService;
+
+    @MockBean
+    private IngestPipeline ingestPipeline;
+
+    @MockBean
+    private KafkaEventProducer kafkaEventProducer;
+
+    private final AnalyticsEvent event = AnalyticsEvent.builder()
+            .timestamp(Instant.now())
+            .userId("user123")
+            .sessionId("sess456")
+            .pageUrl("/home")
+            .eventType("page_view")
+            .build();
+
+    @Test
+    void testIngestEventPublishesToKafka() {
+        // Given
+        when(kafkaEventProducer.publish(any(AnalyticsEvent.class), eq(AckMode.ACCEPTED)))
+                .thenReturn(Mono.just(EventProcessingResult.success()));
+
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(event)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.success").isEqualTo(true);
+
+        verify(ingestPipeline, never()).publish(any(AnalyticsEvent.class), any(AckMode.class));
+    }
+
+    @Test
+    void testIngestEventRejectsDurableAck() {
+        // When/Then - nothing waits for the consumers' writes
+        webTestClient.post()
+                .uri("/api/events?ack=durable")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(event)
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(kafkaEventProducer, never()).publish(any(AnalyticsEvent.class), any(AckMode.class));
+    }
+
+    @Test
+    void testIngestBatchPublishesToKafka() {
+        // Given
+        when(kafkaEventProducer.publishBatch(anyList()))
+                .thenReturn(Mono.just(BatchProcessingResult.of(List.of(
+                        EventProcessingResult.success(), EventProcessingResult.success()))));
+
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(event, event))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.accepted").isEqualTo(2);
+
+        verify(eventProcessingService, never()).processBatch(anyList());
+    }
+}
@@ -1,8 +1,13 @@
 package com.liftlab.analytics.controller;
 
+import com.liftlab.analytics.exception.IngestQueueFullException;
+import com.liftlab.analytics.kafka.KafkaEventProducer;
+import com.liftlab.analytics.model.AckMode;
 import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.BatchProcessingResult;
 import com.liftlab.analytics.model.EventProcessingResult;
 import com.liftlab.analytics.service.EventProcessingService;
+import com.liftlab.analytics.service.IngestPipeline;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,18 +15,27 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Mono;
 
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for EventController
  */
 @WebFluxTest(EventController.class)
+@TestPropertySource(properties = "analytics.ingestion.batch.max-size=3")
 class EventControllerTest {
 
     @Autowired
@@ -30,6 +44,12 @@ class EventControllerTest {
     @MockBean
     private EventProcessingService eventProcessingService;
 
+    @MockBean
+    private IngestPipeline ingestPipeline;
+
+    @MockBean
+    private KafkaEventProducer kafkaEventProducer;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -50,7 +70,7 @@ class EventControllerTest {
     void testIngestEventSuccess() {
         // Given
         EventProcessingResult successResult = EventProcessingResult.success();
-        when(eventProcessingService.processEvent(any(AnalyticsEvent.class)))
+        when(ingestPipeline.publish(any(AnalyticsEvent.class), any(AckMode.class)))
                 .thenReturn(Mono.just(successResult));
 
         // When/Then
@@ -72,7 +92,7 @@ class EventControllerTest {
     void testIngestEventWithValidationFailure() {
         // Given
         EventProcessingResult failureResult = EventProcessingResult.failure("Validation failed");
-        when(eventProcessingService.processEvent(any(AnalyticsEvent.class)))
+        when(ingestPipeline.publish(any(AnalyticsEvent.class), any(AckMode.class)))
                 .thenReturn(Mono.just(failureResult));
 
         // When/Then
@@ -107,7 +127,7 @@ class EventControllerTest {
     @Test
     void testIngestEventHandlesServiceErrors() {
         // Given
-        when(eventProcessingService.processEvent(any(AnalyticsEvent.class)))
+        when(ingestPipeline.publish(any(AnalyticsEvent.class), any(AckMode.class)))
                 .thenReturn(Mono.error(new RuntimeException("Service error")));
 
         // When/Then - Controller handles errors gracefully and returns 200 OK with failure result
@@ -121,6 +141,90 @@ class EventControllerTest {
                 .jsonPath("$.success").isEqualTo(false);
     }
 
+    @Test
+    void testIngestEventRejectsWhenIngestQueueIsFull() {
+        // Given
+        when(ingestPipeline.publish(any(AnalyticsEvent.class), any(AckMode.class)))
+                .thenReturn(Mono.error(new IngestQueueFullException("Ingest queue full (8192 events)")));
+
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(validEvent)
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectBody()
+                .jsonPath("$.error").isEqualTo("Too Many Requests");
+    }
+
+    @Test
+    void testIngestEventUsesAcceptedAckByDefault() {
+        // Given
+        when(ingestPipeline.publish(any(AnalyticsEvent.class), any(AckMode.class)))
+                .thenReturn(Mono.just(EventProcessingResult.success()));
+
+        // When
+        webTestClient.post()
+                .uri("/api/events")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(validEvent)
+                .exchange()
+                .expectStatus().isOk();
+
+        // Then
+        verify(ingestPipeline).publish(any(AnalyticsEvent.class), eq(AckMode.ACCEPTED));
+        verify(kafkaEventProducer, never()).publish(any(AnalyticsEvent.class), any(AckMode.class));
+    }
+
+    @Test
+    void testIngestEventWithAckNoneRespondsAccepted() {
+        // Given
+        when(ingestPipeline.publish(any(AnalyticsEvent.class), eq(AckMode.NONE)))
+                .thenReturn(Mono.just(EventProcessingResult.queued()));
+
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events?ack=none")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(validEvent)
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectBody()
+                .jsonPath("$.success").isEqualTo(true);
+    }
+
+    @Test
+    void testIngestEventWithAckDurable() {
+        // Given
+        when(ingestPipeline.publish(any(AnalyticsEvent.class), eq(AckMode.DURABLE)))
+                .thenReturn(Mono.just(EventProcessingResult.failure("Storage write failed: timeout")));
+
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events?ack=durable")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(validEvent)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.success").isEqualTo(false)
+                .jsonPath("$.message").isEqualTo("Storage write failed: timeout");
+    }
+
+    @Test
+    void testIngestEventRejectsUnknownAckMode() {
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events?ack=eventually")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(validEvent)
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(ingestPipeline, never()).publish(any(AnalyticsEvent.class), any(AckMode.class));
+    }
+
     @Test
     void testIngestEventWithNullBody() {
         // When/Then - WebFlux validates missing body and returns 400
@@ -130,5 +234,64 @@ class EventControllerTest {
                 .exchange()
                 .expectStatus().isBadRequest(); // Missing body returns 400
     }
-}
 
+    @Test
+    void testIngestBatchJsonArray() {
+        // Given
+        when(eventProcessingService.processBatch(anyList()))
+                .thenReturn(Mono.just(BatchProcessingResult.of(Arrays.asList(
+                        EventProcessingResult.success(),
+                        EventProcessingResult.failure("Validation failed")))));
+
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(validEvent, validEvent))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.received").isEqualTo(2)
+                .jsonPath("$.accepted").isEqualTo(1)
+                .jsonPath("$.rejected").isEqualTo(1)
+                .jsonPath("$.results[1].message").isEqualTo("Validation failed");
+
+        verify(eventProcessingService).processBatch(argThat(events -> events.size() == 2));
+    }
+
+    @Test
+    void testIngestBatchNdjson() throws Exception {
+        // Given
+        when(eventProcessingService.processBatch(anyList()))
+                .thenReturn(Mono.just(BatchProcessingResult.of(Arrays.asList(
+                        EventProcessingResult.success(),
+                        EventProcessingResult.success()))));
+        String line = objectMapper.writeValueAsString(validEvent);
+
+        // When/Then
+        webTestClient.post()
+                .uri("/api/events/batch")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(line + "\n" + line + "\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.success").isEqualTo(true)
+                .jsonPath("$.accepted").isEqualTo(2);
+
+        verify(eventProcessingService).processBatch(argThat(events -> events.size() == 2));
+    }
+
+    @Test
+    void testIngestBatchRejectsOversizedBatch() {
+        // When/Then - limit is 3 events in this test
+        webTestClient.post()
+                .uri("/api/events/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(validEvent, validEvent, validEvent, validEvent))
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(eventProcessingService, never()).processBatch(anyList());
+    }
+}
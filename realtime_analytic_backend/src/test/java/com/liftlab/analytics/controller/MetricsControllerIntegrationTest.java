@@ -1,15 +1,26 @@
 package com.liftlab.analytics.controller;
 
+import com.liftlab.analytics.metrics.model.MetricWindow;
+import com.liftlab.analytics.model.ActiveSessionsPage;
 import com.liftlab.analytics.model.MetricsResponse;
 import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesPoint;
+import com.liftlab.analytics.model.SeriesResponse;
+import com.liftlab.analytics.model.UserSessionCount;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import com.liftlab.analytics.service.MetricsService;
+import com.liftlab.analytics.service.MetricsStreamService;
+import com.liftlab.analytics.service.TimeSeriesService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
@@ -18,8 +29,15 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 /**
@@ -37,6 +55,12 @@ class MetricsControllerIntegrationTest {
     @MockBean
     private MetricsStorageService storageService;
 
+    @MockBean
+    private MetricsStreamService metricsStreamService;
+
+    @MockBean
+    private TimeSeriesService timeSeriesService;
+
     @BeforeEach
     void setUp() {
         // Setup cleanup mocks
@@ -146,5 +170,239 @@ class MetricsControllerIntegrationTest {
                     assert response.getTimestamp() != null;
                 });
     }
-}
 
+    @Test
+    void testStreamMetricsSendsServerSentEvents() {
+        // Given
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(3)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(Instant.now())
+                .build();
+        when(metricsStreamService.stream()).thenReturn(Flux.just(
+                ServerSentEvent.builder((Object) mockResponse).event(MetricsStreamService.FULL_EVENT).build()));
+
+        // When/Then
+        List<String> body = webTestClient.get()
+                .uri("/api/metrics/stream")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+                .returnResult(String.class)
+                .getResponseBody()
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(body).hasSize(1);
+        assertThat(body.get(0)).contains("\"activeUsersCount\":3");
+    }
+
+    @Test
+    void testGetActiveSessionsPage() {
+        // Given
+        ActiveSessionsPage page = ActiveSessionsPage.builder()
+                .users(List.of(new UserSessionCount("user1", 2)))
+                .nextCursor("42")
+                .timestamp(Instant.now())
+                .build();
+        when(metricsService.getActiveSessionsPage("0", 50)).thenReturn(Mono.just(page));
+
+        // When/Then
+        webTestClient.get()
+                .uri("/api/metrics/sessions?limit=50")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.users[0].userId").isEqualTo("user1")
+                .jsonPath("$.users[0].sessionCount").isEqualTo(2)
+                .jsonPath("$.nextCursor").isEqualTo("42");
+    }
+
+    @Test
+    void testGetActiveSessionsPageRejectsInvalidParameters() {
+        // When/Then
+        webTestClient.get()
+                .uri("/api/metrics/sessions?cursor=abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/api/metrics/sessions?limit=0")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/api/metrics/sessions?limit=100000")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(metricsService, never()).getActiveSessionsPage(anyString(), anyInt());
+    }
+
+    @Test
+    void testGetSelectedMetrics() {
+        // Given
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(4)
+                .timestamp(Instant.now())
+                .build();
+        when(metricsService.getMetricNames()).thenReturn(Set.of("activeUsers", "topPages", "activeSessions"));
+        when(metricsService.getMetrics(Set.of("activeUsers"), null)).thenReturn(Mono.just(mockResponse));
+
+        // When/Then - unrequested fields are left out of the JSON
+        webTestClient.get()
+                .uri("/api/metrics?metrics=activeUsers")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.activeUsersCount").isEqualTo(4)
+                .jsonPath("$.topPages").doesNotExist();
+        webTestClient.get()
+                .uri("/api/metrics/activeUsers")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.activeUsersCount").isEqualTo(4);
+
+        verify(metricsService, never()).getCurrentMetrics();
+    }
+
+    @Test
+    void testGetSelectedMetricsRejectsUnknownNames() {
+        // Given
+        when(metricsService.getMetricNames()).thenReturn(Set.of("activeUsers", "topPages", "activeSessions"));
+
+        // When/Then
+        webTestClient.get()
+                .uri("/api/metrics?metrics=activeUsers,bogus")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/api/metrics/bogus")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(metricsService, never()).getMetrics(anySet(), any());
+    }
+
+    @Test
+    void testGetMetricsForWindow() {
+        // Given
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(40)
+                .window("1h")
+                .timestamp(Instant.now())
+                .build();
+        Set<String> names = Set.of("activeUsers", "topPages", "activeSessions");
+        when(metricsService.getMetricNames()).thenReturn(names);
+        when(metricsService.getMetrics(names, MetricWindow.ONE_HOUR)).thenReturn(Mono.just(mockResponse));
+        when(metricsService.getMetrics(Set.of("activeUsers"), MetricWindow.ONE_HOUR)).thenReturn(Mono.just(mockResponse));
+
+        // When/Then
+        webTestClient.get()
+                .uri("/api/metrics?window=1h")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.activeUsersCount").isEqualTo(40)
+                .jsonPath("$.window").isEqualTo("1h");
+        webTestClient.get()
+                .uri("/api/metrics/activeUsers?window=1h")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.window").isEqualTo("1h");
+
+        verify(metricsService, never()).getCurrentMetrics();
+    }
+
+    @Test
+    void testGetMetricsRejectsUnknownWindow() {
+        // Given
+        when(metricsService.getMetricNames()).thenReturn(Set.of("activeUsers", "topPages", "activeSessions"));
+
+        // When/Then
+        webTestClient.get()
+                .uri("/api/metrics?window=2h")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(metricsService, never()).getMetrics(anySet(), any());
+    }
+
+    @Test
+    void testGetSeries() {
+        // Given
+        Instant from = Instant.parse("2026-01-01T10:00:00Z");
+        Instant to = Instant.parse("2026-01-01T10:10:00Z");
+        SeriesResponse response = SeriesResponse.builder()
+                .metric("pageViews")
+                .from(from)
+                .to(to)
+                .step("5m")
+                .resolution("1m")
+                .points(List.of(
+                        new SeriesPoint(from, 12L),
+                        new SeriesPoint(from.plus(Duration.ofMinutes(5)), 7L),
+                        new SeriesPoint(to, 0L)))
+                .build();
+        when(timeSeriesService.getSeries(SeriesMetric.PAGE_VIEWS, from, to, Duration.ofMinutes(5)))
+                .thenReturn(Mono.just(response));
+
+        // When/Then - from as ISO-8601, to as epoch millis
+        webTestClient.get()
+                .uri("/api/metrics/series?metric=pageViews&from=2026-01-01T10:00:00Z&to=" + to.toEpochMilli() + "&step=5m")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.metric").isEqualTo("pageViews")
+                .jsonPath("$.step").isEqualTo("5m")
+                .jsonPath("$.resolution").isEqualTo("1m")
+                .jsonPath("$.points.length()").isEqualTo(3)
+                .jsonPath("$.points[0].value").isEqualTo(12);
+    }
+
+    @Test
+    void testGetSeriesDefaultsToLastHourByMinute() {
+        // Given
+        when(timeSeriesService.getSeries(eq(SeriesMetric.ACTIVE_USERS), any(), any(), eq(Duration.ofMinutes(1))))
+                .thenReturn(Mono.just(SeriesResponse.builder().metric("activeUsers").points(List.of()).build()));
+
+        // When/Then
+        webTestClient.get()
+                .uri("/api/metrics/series?metric=activeUsers")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.metric").isEqualTo("activeUsers");
+
+        verify(timeSeriesService).getSeries(eq(SeriesMetric.ACTIVE_USERS),
+                argThat(from -> from != null), argThat(to -> to != null), eq(Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void testGetSeriesRejectsInvalidParameters() {
+        webTestClient.get()
+                .uri("/api/metrics/series?metric=bounceRate")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/api/metrics/series?metric=pageViews&step=90x")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/api/metrics/series?metric=pageViews&from=yesterday")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/api/metrics/series?metric=pageViews&from=+1000000000-01-01T00:00:00Z")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get()
+                .uri("/api/metrics/series?metric=pageViews&to=-1000000000-01-01T00:00:00Z")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(timeSeriesService, never()).getSeries(any(), any(), any(), any());
+    }
+}
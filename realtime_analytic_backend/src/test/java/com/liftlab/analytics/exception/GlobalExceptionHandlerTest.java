@@ -88,6 +88,24 @@ class GlobalExceptionHandlerTest {
                 .verifyComplete();
     }
 
+    @Test
+    void testHandleIngestQueueFullException() {
+        // Given
+        IngestQueueFullException ex = new IngestQueueFullException("Ingest queue full (8192 events)");
+
+        // When
+        Mono<ResponseEntity<ErrorResponse>> result = exceptionHandler.handleIngestQueueFullException(ex, mockExchange);
+
+        // Then
+        StepVerifier.create(result)
+                .assertNext(response -> {
+                    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+                    assertThat(response.getBody()).isNotNull();
+                    assertThat(response.getBody().getError()).isEqualTo("Too Many Requests");
+                })
+                .verifyComplete();
+    }
+
     @Test
     void testHandleGenericException() {
         // Given
@@ -0,0 +1,151 @@
+package com.liftlab.analytics.kafka;
+
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.BatchProcessingResult;
+import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.service.EventProcessingService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for KafkaBatchEventConsumer
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class KafkaBatchEventConsumerTest {
+
+    private static final String TOPIC = "analytics-events";
+
+    @Mock
+    private EventProcessingService eventProcessingService;
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+
+    @Mock
+    private MessageListenerContainer container;
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private KafkaBatchEventConsumer batchConsumer;
+
+    @BeforeEach
+    void setUp() {
+        when(registry.getListenerContainer(KafkaBatchEventConsumer.LISTENER_ID)).thenReturn(container);
+        batchConsumer = new KafkaBatchEventConsumer(eventProcessingService, registry, 3);
+    }
+
+    @Test
+    void testAcknowledgesOnlyAfterBatchIsWritten() {
+        // Given
+        Sinks.One<BatchProcessingResult> write = Sinks.one();
+        when(eventProcessingService.processBatchOrFail(anyList())).thenReturn(write.asMono());
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+        // When
+        batchConsumer.consume(List.of(record(0, 10)), acknowledgment, consumer);
+
+        // Then
+        verify(acknowledgment, never()).acknowledge();
+        write.tryEmitValue(successfulBatch());
+        verify(acknowledgment, times(1)).acknowledge();
+        assertThat(batchConsumer.getInFlightEvents()).isZero();
+    }
+
+    @Test
+    void testAcknowledgesBatchesInPollOrder() {
+        // Given
+        Sinks.One<BatchProcessingResult> firstWrite = Sinks.one();
+        Sinks.One<BatchProcessingResult> secondWrite = Sinks.one();
+        when(eventProcessingService.processBatchOrFail(anyList()))
+                .thenReturn(firstWrite.asMono())
+                .thenReturn(secondWrite.asMono());
+        Acknowledgment firstAck = mock(Acknowledgment.class);
+        Acknowledgment secondAck = mock(Acknowledgment.class);
+
+        batchConsumer.consume(List.of(record(0, 10)), firstAck, consumer);
+        batchConsumer.consume(List.of(record(0, 11)), secondAck, consumer);
+
+        // When - the later batch finishes first
+        secondWrite.tryEmitValue(successfulBatch());
+
+        // Then - it waits for the earlier batch
+        verify(secondAck, never()).acknowledge();
+        firstWrite.tryEmitValue(successfulBatch());
+        verify(firstAck, times(1)).acknowledge();
+        verify(secondAck, times(1)).acknowledge();
+    }
+
+    @Test
+    void testFailedWriteRewindsToFirstUnacknowledgedOffset() {
+        // Given
+        Sinks.One<BatchProcessingResult> failedWrite = Sinks.one();
+        when(eventProcessingService.processBatchOrFail(anyList())).thenReturn(failedWrite.asMono());
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+        batchConsumer.consume(List.of(record(0, 10), record(1, 20)), acknowledgment, consumer);
+        failedWrite.tryEmitError(new RuntimeException("Redis down"));
+
+        // When - next poll arrives
+        batchConsumer.consume(List.of(record(0, 11), record(2, 5)), mock(Acknowledgment.class), consumer);
+
+        // Then - nothing is committed and every partition is sent back to the first unwritten offset
+        verify(acknowledgment, never()).acknowledge();
+        verify(consumer).seek(new TopicPartition(TOPIC, 0), 10L);
+        verify(consumer).seek(new TopicPartition(TOPIC, 1), 20L);
+        verify(consumer).seek(new TopicPartition(TOPIC, 2), 5L);
+        verify(eventProcessingService, times(1)).processBatchOrFail(anyList());
+    }
+
+    @Test
+    void testPausesWhenTooManyEventsInFlightAndResumesWhenDrained() {
+        // Given - bound is 3 events
+        Sinks.One<BatchProcessingResult> write = Sinks.one();
+        when(eventProcessingService.processBatchOrFail(anyList())).thenReturn(write.asMono());
+
+        // When
+        batchConsumer.consume(List.of(record(0, 1), record(0, 2), record(0, 3), record(0, 4)),
+                mock(Acknowledgment.class), consumer);
+
+        // Then
+        verify(container, times(1)).pause();
+        when(container.isPauseRequested()).thenReturn(true);
+        write.tryEmitValue(successfulBatch());
+        verify(container, times(1)).resume();
+    }
+
+    private static ConsumerRecord<String, AnalyticsEvent> record(int partition, long offset) {
+        AnalyticsEvent event = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("usr_" + offset)
+                .sessionId("sess_" + offset)
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+        return new ConsumerRecord<>(TOPIC, partition, offset, event.getUserId(), event);
+    }
+
+    private static BatchProcessingResult successfulBatch() {
+        return BatchProcessingResult.of(List.of(EventProcessingResult.success()));
+    }
+}
@@ -0,0 +1,139 @@
+package com.liftlab.analytics.kafka;
+
+import com.liftlab.analytics.model.AckMode;
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.validation.ValidationException;
+import com.liftlab.analytics.validation.ValidationManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for KafkaEventProducer
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class KafkaEventProducerTest {
+
+    @Mock
+    private KafkaTemplate<String, AnalyticsEvent> kafkaTemplate;
+
+    @Mock
+    private ValidationManager validationManager;
+
+    private SimpleMeterRegistry meterRegistry;
+    private KafkaEventProducer producer;
+    private SettableListenableFuture<SendResult<String, AnalyticsEvent>> sendResult;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        sendResult = new SettableListenableFuture<>();
+        when(kafkaTemplate.send(anyString(), anyString(), any(AnalyticsEvent.class))).thenReturn(sendResult);
+        when(validationManager.validate(argThat(event -> event != null && event.getUserId() == null)))
+                .thenThrow(new ValidationException("User ID is required"));
+        producer = new KafkaEventProducer(kafkaTemplate, validationManager, meterRegistry);
+    }
+
+    @Test
+    void testPublishesValidEventKeyedByUser() {
+        // Given
+        AnalyticsEvent event = event("user1");
+        sendResult.set(null);
+
+        // When/Then
+        StepVerifier.create(producer.publish(event, AckMode.ACCEPTED))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .verifyComplete();
+        verify(kafkaTemplate).send(KafkaEventProducer.TOPIC, "user1", event);
+        assertThat(meterRegistry.get("analytics.ingest.kafka.published").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void testAcceptedWaitsForTheBrokers() {
+        // When/Then
+        StepVerifier.create(producer.publish(event("user1"), AckMode.ACCEPTED))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(50))
+                .then(() -> sendResult.setException(new TimeoutException("Expiring 1 record(s)")))
+                .expectNextMatches(result -> !result.isSuccess() && result.getMessage().contains("Expiring"))
+                .verifyComplete();
+        assertThat(meterRegistry.get("analytics.ingest.kafka.failures").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void testAckNoneAnswersBeforeTheBrokers() {
+        // When/Then - the send is still pending
+        StepVerifier.create(producer.publish(event("user1"), AckMode.NONE))
+                .expectNextMatches(result -> result.isSuccess() && result.getMessage().contains("queued"))
+                .verifyComplete();
+        verify(kafkaTemplate).send(eq(KafkaEventProducer.TOPIC), eq("user1"), any(AnalyticsEvent.class));
+    }
+
+    @Test
+    void testInvalidEventIsNotPublished() {
+        // When/Then
+        StepVerifier.create(producer.publish(event(null), AckMode.ACCEPTED))
+                .expectNextMatches(result -> !result.isSuccess() && result.getMessage().contains("User ID"))
+                .verifyComplete();
+        verify(kafkaTemplate, never()).send(anyString(), any(), any());
+    }
+
+    @Test
+    void testSendFailingImmediatelyIsReportedPerEvent() {
+        // Given - no metadata within max-block-ms
+        when(kafkaTemplate.send(anyString(), anyString(), any(AnalyticsEvent.class)))
+                .thenThrow(new TimeoutException("Topic analytics-events not present in metadata"));
+
+        // When/Then
+        StepVerifier.create(producer.publish(event("user1"), AckMode.ACCEPTED))
+                .expectNextMatches(result -> !result.isSuccess() && result.getMessage().startsWith("Could not publish"))
+                .verifyComplete();
+    }
+
+    @Test
+    void testPublishBatchReportsEachEvent() {
+        // Given
+        sendResult.set(null);
+
+        // When/Then
+        StepVerifier.create(producer.publishBatch(List.of(event("user1"), event(null), event("user2"))))
+                .expectNextMatches(result -> result.getReceived() == 3
+                        && result.getAccepted() == 2
+                        && !result.getResults().get(1).isSuccess())
+                .verifyComplete();
+        verify(kafkaTemplate, times(2)).send(anyString(), anyString(), any(AnalyticsEvent.class));
+    }
+
+    private static AnalyticsEvent event(String userId) {
+        return AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId(userId)
+                .sessionId("sess1")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+    }
+}
@@ -0,0 +1,181 @@
+package com.liftlab.analytics.kafka;
+
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.BatchProcessingResult;
+import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.service.EventProcessingService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for KafkaParallelEventConsumer
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class KafkaParallelEventConsumerTest {
+
+    private static final String TOPIC = "analytics-events";
+    private static final TopicPartition PARTITION_0 = new TopicPartition(TOPIC, 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition(TOPIC, 1);
+
+    @Mock
+    private EventProcessingService eventProcessingService;
+
+    @Mock
+    private KafkaListenerEndpointRegistry registry;
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private KafkaParallelEventConsumer parallelConsumer;
+
+    @BeforeEach
+    void setUp() {
+        when(consumer.assignment()).thenReturn(Set.of(PARTITION_0, PARTITION_1));
+        // Two lanes: user "a" goes to lane 1 and user "b" to lane 0
+        parallelConsumer = new KafkaParallelEventConsumer(eventProcessingService, registry, 2, 100);
+    }
+
+    @Test
+    void testUsersOfOnePartitionAreWrittenConcurrently() {
+        // Given
+        when(eventProcessingService.processBatchOrFail(anyList()))
+                .thenReturn(Sinks.<BatchProcessingResult>one().asMono());
+
+        // When
+        parallelConsumer.consume(List.of(record(0, 10, "a"), record(0, 11, "b"), record(0, 12, "a")), consumer);
+
+        // Then - one batch per lane, in partition order within the lane
+        verify(eventProcessingService).processBatchOrFail(argThat(events -> users(events).equals(List.of("a", "a"))));
+        verify(eventProcessingService).processBatchOrFail(argThat(events -> users(events).equals(List.of("b"))));
+        assertThat(parallelConsumer.getInFlightEvents()).isEqualTo(3);
+    }
+
+    @Test
+    void testNextWriteOfAUserWaitsForThePreviousOne() {
+        // Given
+        Sinks.One<BatchProcessingResult> firstWrite = Sinks.one();
+        when(eventProcessingService.processBatchOrFail(anyList()))
+                .thenReturn(firstWrite.asMono())
+                .thenReturn(Sinks.<BatchProcessingResult>one().asMono());
+
+        parallelConsumer.consume(List.of(record(0, 10, "a")), consumer);
+        parallelConsumer.consume(List.of(record(0, 11, "a")), consumer);
+
+        // When/Then
+        verify(eventProcessingService, times(1)).processBatchOrFail(anyList());
+        firstWrite.tryEmitValue(successfulBatch());
+        verify(eventProcessingService, times(2)).processBatchOrFail(anyList());
+    }
+
+    @Test
+    void testCommitsOnlyContiguousWrittenOffsets() {
+        // Given
+        Sinks.One<BatchProcessingResult> writeA = Sinks.one();
+        Sinks.One<BatchProcessingResult> writeB = Sinks.one();
+        when(eventProcessingService.processBatchOrFail(anyList()))
+                .thenAnswer(invocation -> {
+                    List<AnalyticsEvent> events = invocation.getArgument(0);
+                    return events.get(0).getUserId().equals("a") ? writeA.asMono() : writeB.asMono();
+                });
+        parallelConsumer.consume(List.of(record(0, 10, "a"), record(0, 11, "b"), record(1, 5, "b")), consumer);
+
+        // When - the later offset is written first
+        writeB.tryEmitValue(successfulBatch());
+        parallelConsumer.consume(List.of(), consumer);
+
+        // Then - partition 0 waits for offset 10, partition 1 is committed
+        verify(consumer).commitAsync(eq(Map.of(PARTITION_1, new OffsetAndMetadata(6))), any());
+        verify(consumer, never()).commitAsync(argThat(offsets -> offsets.containsKey(PARTITION_0)), any());
+
+        writeA.tryEmitValue(successfulBatch());
+        parallelConsumer.consume(List.of(), consumer);
+        verify(consumer).commitAsync(eq(Map.of(PARTITION_0, new OffsetAndMetadata(12))), any());
+    }
+
+    @Test
+    void testFailedWriteRewindsToFirstUnwrittenOffset() {
+        // Given
+        Sinks.One<BatchProcessingResult> writeA = Sinks.one();
+        Sinks.One<BatchProcessingResult> writeB = Sinks.one();
+        when(eventProcessingService.processBatchOrFail(anyList()))
+                .thenAnswer(invocation -> {
+                    List<AnalyticsEvent> events = invocation.getArgument(0);
+                    return events.get(0).getUserId().equals("a") ? writeA.asMono() : writeB.asMono();
+                });
+        parallelConsumer.consume(List.of(record(0, 10, "b"), record(0, 11, "a"), record(1, 7, "b")), consumer);
+        writeB.tryEmitValue(successfulBatch());
+        writeA.tryEmitError(new RuntimeException("Redis down"));
+
+        // When - next poll arrives
+        parallelConsumer.consume(List.of(record(0, 12, "a")), consumer);
+
+        // Then - offset 10 is committed, and the consumer goes back to the failed offset 11
+        verify(consumer).commitAsync(eq(Map.of(PARTITION_0, new OffsetAndMetadata(11), PARTITION_1, new OffsetAndMetadata(8))), any());
+        verify(consumer).seek(PARTITION_0, 11L);
+        verify(consumer, never()).seek(eq(PARTITION_1), anyLong());
+        verify(eventProcessingService, times(2)).processBatchOrFail(anyList());
+        assertThat(parallelConsumer.getInFlightEvents()).isZero();
+    }
+
+    @Test
+    void testOffsetTrackerMovesOnlyOverCompletedRuns() {
+        KafkaParallelEventConsumer.OffsetTracker tracker = new KafkaParallelEventConsumer.OffsetTracker();
+        tracker.received(3);
+        tracker.received(4);
+        // Offsets may skip numbers (compaction, transaction markers)
+        tracker.received(7);
+
+        tracker.completed(4);
+        tracker.completed(7);
+        assertThat(tracker.committable()).isEqualTo(-1);
+        assertThat(tracker.firstPending()).isEqualTo(3);
+
+        tracker.completed(3);
+        assertThat(tracker.committable()).isEqualTo(8);
+        assertThat(tracker.committable()).isEqualTo(-1);
+        assertThat(tracker.firstPending()).isEqualTo(-1);
+    }
+
+    private static ConsumerRecord<String, AnalyticsEvent> record(int partition, long offset, String userId) {
+        AnalyticsEvent event = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId(userId)
+                .sessionId("sess_" + userId)
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+        return new ConsumerRecord<>(TOPIC, partition, offset, userId, event);
+    }
+
+    private static List<String> users(List<AnalyticsEvent> events) {
+        return events.stream().map(AnalyticsEvent::getUserId).collect(Collectors.toList());
+    }
+
+    private static BatchProcessingResult successfulBatch() {
+        return BatchProcessingResult.of(List.of(EventProcessingResult.success()));
+    }
+}
@@ -1,6 +1,8 @@
 package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.UserSessionCount;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,11 +13,12 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -56,11 +59,13 @@ class ActiveSessionsMetricTest {
                 .storageService(storageService)
                 .build();
 
-        Map<String, Integer> mockSessions = new HashMap<>();
-        mockSessions.put("user1", 2);
-        mockSessions.put("user2", 1);
+        ActiveSessionsSummary summary = ActiveSessionsSummary.builder()
+                .topUsers(Arrays.asList(new UserSessionCount("user1", 2), new UserSessionCount("user2", 1)))
+                .totalUsers(2)
+                .totalSessions(3)
+                .build();
 
-        when(storageService.getActiveSessionsByUser(anyLong())).thenReturn(Mono.just(mockSessions));
+        when(storageService.getTopActiveSessions(anyInt(), anyLong())).thenReturn(Mono.just(summary));
 
         // When
         StepVerifier.create(activeSessionsMetric.calculate(context))
@@ -71,12 +76,15 @@ class ActiveSessionsMetricTest {
                     assertThat(sessions).hasSize(2);
                     assertThat(sessions.get("user1")).isEqualTo(2);
                     assertThat(sessions.get("user2")).isEqualTo(1);
+                    assertThat(result.getDetails())
+                            .containsEntry("activeSessionsUserCount", 2)
+                            .containsEntry("activeSessionsTotal", 3L);
                     return true;
                 })
                 .verifyComplete();
 
         // Then
-        verify(storageService, times(1)).getActiveSessionsByUser(context.getFiveMinutesAgo());
+        verify(storageService, times(1)).getTopActiveSessions(10, context.getFiveMinutesAgo());
     }
 
     @Test
@@ -90,7 +98,8 @@ class ActiveSessionsMetricTest {
                 .storageService(storageService)
                 .build();
 
-        when(storageService.getActiveSessionsByUser(anyLong())).thenReturn(Mono.just(Collections.emptyMap()));
+        when(storageService.getTopActiveSessions(anyInt(), anyLong())).thenReturn(Mono.just(
+                ActiveSessionsSummary.builder().topUsers(Collections.emptyList()).build()));
 
         // When
         StepVerifier.create(activeSessionsMetric.calculate(context))
@@ -115,10 +124,13 @@ class ActiveSessionsMetricTest {
                 .storageService(storageService)
                 .build();
 
-        Map<String, Integer> mockSessions = new HashMap<>();
-        mockSessions.put("user1", 1);
+        ActiveSessionsSummary summary = ActiveSessionsSummary.builder()
+                .topUsers(Collections.singletonList(new UserSessionCount("user1", 1)))
+                .totalUsers(1)
+                .totalSessions(1)
+                .build();
 
-        when(storageService.getActiveSessionsByUser(eq(fiveMinAgo))).thenReturn(Mono.just(mockSessions));
+        when(storageService.getTopActiveSessions(anyInt(), eq(fiveMinAgo))).thenReturn(Mono.just(summary));
 
         // When
         StepVerifier.create(activeSessionsMetric.calculate(context))
@@ -131,7 +143,38 @@ class ActiveSessionsMetricTest {
                 .verifyComplete();
 
         // Then
-        verify(storageService, times(1)).getActiveSessionsByUser(fiveMinAgo);
+        verify(storageService, times(1)).getTopActiveSessions(anyInt(), eq(fiveMinAgo));
+    }
+
+    @Test
+    void testCalculateKeepsTopUsersInOrder() {
+        // Given
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .storageService(storageService)
+                .build();
+
+        ActiveSessionsSummary summary = ActiveSessionsSummary.builder()
+                .topUsers(Arrays.asList(new UserSessionCount("zed", 5), new UserSessionCount("amy", 3)))
+                .totalUsers(500)
+                .totalSessions(900)
+                .build();
+
+        when(storageService.getTopActiveSessions(anyInt(), anyLong())).thenReturn(Mono.just(summary));
+
+        // When
+        StepVerifier.create(activeSessionsMetric.calculate(context))
+                .expectNextMatches(result -> {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Integer> sessions = (Map<String, Integer>) result.getValue();
+                    assertThat(sessions.keySet()).containsExactly("zed", "amy");
+                    assertThat(result.getDetails()).containsEntry("activeSessionsUserCount", 500);
+                    return true;
+                })
+                .verifyComplete();
     }
 }
 
@@ -2,6 +2,8 @@ package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.metrics.model.MetricResult;
+import com.liftlab.analytics.metrics.model.MetricWindow;
+import com.liftlab.analytics.model.CountAccuracy;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,6 +14,7 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -115,5 +118,77 @@ class ActiveUsersMetricTest {
         // Then
         verify(storageService, times(1)).getActiveUserCount(fiveMinAgo);
     }
-}
 
+    @Test
+    void testCalculateReportsCountAccuracy() {
+        // Given
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .storageService(storageService)
+                .build();
+
+        when(storageService.getActiveUserCountAccuracy()).thenReturn(CountAccuracy.approximate(0.0081));
+        when(storageService.getActiveUserCount(anyLong())).thenReturn(Mono.just(1000));
+
+        // When
+        StepVerifier.create(activeUsersMetric.calculate(context))
+                .expectNextMatches(result -> {
+                    assertThat(result.getValue()).isEqualTo(1000);
+                    assertThat(result.getDetails())
+                            .containsEntry("activeUsersMode", "approximate")
+                            .containsEntry("activeUsersErrorBound", 0.0081);
+                    return true;
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testCalculateCapsWindowsLongerThanTheStorageKeepsUsers() {
+        // Given - a 24 hour window, with users kept 5 minutes
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .window(MetricWindow.ONE_DAY)
+                .storageService(storageService)
+                .build();
+
+        when(storageService.getActiveUserCountMaxWindow()).thenReturn(Optional.of(Duration.ofMinutes(5)));
+        when(storageService.getActiveUserCount(anyLong())).thenReturn(Mono.just(3));
+
+        // When
+        StepVerifier.create(activeUsersMetric.calculate(context))
+                .expectNextMatches(result -> result.getValue().equals(3))
+                .verifyComplete();
+
+        // Then
+        verify(storageService).getActiveUserCount(context.getFiveMinutesAgo());
+    }
+
+    @Test
+    void testCalculateServesLongWindowsWhenTheStorageKeepsThem() {
+        // Given
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .window(MetricWindow.ONE_DAY)
+                .storageService(storageService)
+                .build();
+
+        when(storageService.getActiveUserCount(anyLong())).thenReturn(Mono.just(30));
+
+        // When
+        StepVerifier.create(activeUsersMetric.calculate(context))
+                .expectNextMatches(result -> result.getValue().equals(30))
+                .verifyComplete();
+
+        // Then
+        verify(storageService).getActiveUserCount(now - Duration.ofHours(24).toMillis());
+    }
+}
@@ -0,0 +1,103 @@
+package com.liftlab.analytics.metrics;
+
+import com.liftlab.analytics.metrics.model.MetricContext;
+import com.liftlab.analytics.metrics.model.MetricWindow;
+import com.liftlab.analytics.model.PageEventTypeCount;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for EventTypesMetric
+ */
+@ExtendWith(MockitoExtension.class)
+class EventTypesMetricTest {
+
+    @Mock
+    private MetricsStorageService storageService;
+
+    private EventTypesMetric eventTypesMetric;
+
+    @BeforeEach
+    void setUp() {
+        eventTypesMetric = new EventTypesMetric();
+    }
+
+    @Test
+    void testGetName() {
+        assertThat(eventTypesMetric.getName()).isEqualTo("eventTypes");
+    }
+
+    @Test
+    void testCalculateReadsCountsOverFifteenMinutes() {
+        // Given
+        MetricContext context = context(null);
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("page_view", 120L);
+        counts.put("click", 40L);
+        when(storageService.getEventTypeCounts(eq(20), eq(context.getFifteenMinutesAgo())))
+                .thenReturn(Mono.just(counts));
+
+        // When/Then
+        StepVerifier.create(eventTypesMetric.calculate(context))
+                .expectNextMatches(result -> {
+                    assertThat(result.getMetricName()).isEqualTo("eventTypes");
+                    assertThat(result.getValue()).isEqualTo(counts);
+                    assertThat(result.getDetails()).isEmpty();
+                    return true;
+                })
+                .verifyComplete();
+
+        // Page and event type pairs are not read unless enabled
+        verify(storageService, never()).getTopPageEventTypes(anyInt(), anyLong());
+    }
+
+    @Test
+    void testCalculateWithPagesUsesRequestedWindow() {
+        // Given
+        ReflectionTestUtils.setField(eventTypesMetric, "byPage", true);
+        MetricContext context = context(MetricWindow.ONE_HOUR);
+        long windowStart = context.getCurrentTimestamp() - Duration.ofHours(1).toMillis();
+        List<PageEventTypeCount> byPage = List.of(
+                PageEventTypeCount.builder().url("/home").eventType("click").count(7L).build());
+        when(storageService.getEventTypeCounts(eq(20), eq(windowStart))).thenReturn(Mono.just(Map.of("click", 7L)));
+        when(storageService.getTopPageEventTypes(eq(10), eq(windowStart))).thenReturn(Mono.just(byPage));
+
+        // When/Then
+        StepVerifier.create(eventTypesMetric.calculate(context))
+                .expectNextMatches(result -> {
+                    assertThat(result.getValue()).isEqualTo(Map.of("click", 7L));
+                    assertThat(result.getDetails()).containsEntry("eventTypesByPage", byPage);
+                    return true;
+                })
+                .verifyComplete();
+    }
+
+    private MetricContext context(MetricWindow window) {
+        long now = System.currentTimeMillis();
+        return MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .window(window)
+                .storageService(storageService)
+                .build();
+    }
+}
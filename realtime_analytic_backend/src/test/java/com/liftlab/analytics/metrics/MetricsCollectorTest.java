@@ -2,6 +2,9 @@ package com.liftlab.analytics.metrics;
 
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.metrics.model.MetricResult;
+import com.liftlab.analytics.metrics.model.MetricWindow;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.CountAccuracy;
 import com.liftlab.analytics.model.MetricsResponse;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,6 +14,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.mock.env.MockEnvironment;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
@@ -19,6 +23,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -120,15 +125,95 @@ class MetricsCollectorTest {
             }
         };
 
+        when(mockMetric1.getName()).thenReturn("metric1");
         when(mockMetric1.calculate(context))
                 .thenReturn(Mono.error(new RuntimeException("Metric calculation failed")));
         when(mockMetric2.calculate(context)).thenReturn(Mono.just(result2));
-        // Note: When using Mono.zip, all monos are evaluated, but if one fails, the zip fails
 
-        // When/Then - Mono.zip will fail if any of the monos fail
+        // When/Then - the failed metric is reported as stale, the others still return
         StepVerifier.create(metricsCollector.calculateAllMetrics(context))
-                .expectError(RuntimeException.class)
-                .verify();
+                .expectNextMatches(response -> {
+                    assertThat(response.getStaleMetrics()).containsExactly("metric1");
+                    return true;
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testSlowMetricReportsLastValueAsStale() {
+        // Given
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .storageService(storageService)
+                .build();
+
+        when(storageService.getActiveUserCount(anyLong()))
+                .thenReturn(Mono.just(5))
+                .thenReturn(Mono.just(6));
+        when(storageService.getTopPages(anyInt(), anyLong())).thenReturn(Mono.just(Collections.emptyList()));
+        when(storageService.getTopActiveSessions(anyInt(), anyLong()))
+                .thenReturn(Mono.just(ActiveSessionsSummary.builder()
+                        .topUsers(Collections.emptyList()).totalUsers(3).totalSessions(4).build()))
+                .thenReturn(Mono.never());
+
+        MetricsCollector collector = new MetricsCollector(
+                Arrays.asList(new ActiveUsersMetric(), new TopPagesMetric(), new ActiveSessionsMetric()));
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("analytics.metrics.timeouts.activeSessions", "50");
+        collector.setEnvironment(environment);
+        collector.calculateAllMetrics(context).block();
+
+        // When - the sessions query hangs on the second calculation
+        StepVerifier.create(collector.calculateAllMetrics(context))
+                .expectNextMatches(response -> {
+                    assertThat(response.getActiveUsersCount()).isEqualTo(6);
+                    assertThat(response.getActiveSessionsUserCount()).isEqualTo(3);
+                    assertThat(response.getActiveSessionsTotal()).isEqualTo(4L);
+                    assertThat(response.getStaleMetrics()).containsExactly("activeSessions");
+                    return true;
+                })
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void testStaleValueIsNotServedForAnotherWindow() {
+        // Given - a result for the default window
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .storageService(storageService)
+                .build();
+        MetricContext hourContext = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(context.getFiveMinutesAgo())
+                .fifteenMinutesAgo(context.getFifteenMinutesAgo())
+                .window(MetricWindow.ONE_HOUR)
+                .storageService(storageService)
+                .build();
+
+        when(storageService.getActiveUserCount(anyLong()))
+                .thenReturn(Mono.just(5))
+                .thenReturn(Mono.never());
+
+        MetricsCollector collector = new MetricsCollector(Collections.singletonList(new ActiveUsersMetric()));
+        collector.setEnvironment(new MockEnvironment().withProperty("analytics.metrics.timeouts.activeUsers", "50"));
+        collector.calculateAllMetrics(context).block();
+
+        // When - the query for the last hour hangs
+        StepVerifier.create(collector.calculateAllMetrics(hourContext))
+                .expectNextMatches(response -> {
+                    assertThat(response.getActiveUsersCount()).isZero();
+                    assertThat(response.getStaleMetrics()).containsExactly("activeUsers");
+                    return true;
+                })
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
     }
 
     @Test
@@ -149,7 +234,8 @@ class MetricsCollectorTest {
 
         when(storageService.getActiveUserCount(anyLong())).thenReturn(Mono.just(5));
         when(storageService.getTopPages(anyInt(), anyLong())).thenReturn(Mono.just(Collections.emptyList()));
-        when(storageService.getActiveSessionsByUser(anyLong())).thenReturn(Mono.just(Collections.emptyMap()));
+        when(storageService.getTopActiveSessions(anyInt(), anyLong())).thenReturn(Mono.just(
+                ActiveSessionsSummary.builder().topUsers(Collections.emptyList()).build()));
 
         MetricsCollector collector = new MetricsCollector(
                 Arrays.asList(activeUsersMetric, topPagesMetric, activeSessionsMetric)
@@ -162,10 +248,71 @@ class MetricsCollectorTest {
                     assertThat(response.getActiveUsersCount()).isEqualTo(5);
                     assertThat(response.getTopPages()).isEmpty();
                     assertThat(response.getActiveSessionsByUser()).isEmpty();
+                    assertThat(response.getActiveSessionsUserCount()).isZero();
                     assertThat(response.getTimestamp()).isNotNull();
                     return true;
                 })
                 .verifyComplete();
     }
-}
 
+    @Test
+    void testCalculateAllMetricsReportsActiveUsersAccuracy() {
+        // Given
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .storageService(storageService)
+                .build();
+
+        when(storageService.getActiveUserCountAccuracy()).thenReturn(CountAccuracy.approximate(0.0081));
+        when(storageService.getActiveUserCount(anyLong())).thenReturn(Mono.just(1200));
+
+        MetricsCollector collector = new MetricsCollector(Collections.singletonList(new ActiveUsersMetric()));
+
+        // When
+        StepVerifier.create(collector.calculateAllMetrics(context))
+                .expectNextMatches(response -> {
+                    assertThat(response.getActiveUsersCount()).isEqualTo(1200);
+                    assertThat(response.getActiveUsersMode()).isEqualTo("approximate");
+                    assertThat(response.getActiveUsersErrorBound()).isEqualTo(0.0081);
+                    return true;
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testCalculateMetricsRunsOnlySelectedMetrics() {
+        // Given
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .storageService(storageService)
+                .build();
+
+        when(storageService.getActiveUserCount(anyLong())).thenReturn(Mono.just(5));
+
+        MetricsCollector collector = new MetricsCollector(
+                Arrays.asList(new ActiveUsersMetric(), new TopPagesMetric(), new ActiveSessionsMetric()));
+
+        // When
+        StepVerifier.create(collector.calculateMetrics(context, Set.of("activeUsers")))
+                .expectNextMatches(response -> {
+                    assertThat(response.getActiveUsersCount()).isEqualTo(5);
+                    assertThat(response.getActiveUsersMode()).isEqualTo("exact");
+                    assertThat(response.getTopPages()).isNull();
+                    assertThat(response.getActiveSessionsByUser()).isNull();
+                    assertThat(response.getTimestamp()).isNotNull();
+                    return true;
+                })
+                .verifyComplete();
+
+        // Then - the other metrics' queries never ran
+        verify(storageService, never()).getTopPages(anyInt(), anyLong());
+        verify(storageService, never()).getTopActiveSessions(anyInt(), anyLong());
+        assertThat(collector.getMetricNames()).containsExactly("activeUsers", "topPages", "activeSessions");
+    }
+}
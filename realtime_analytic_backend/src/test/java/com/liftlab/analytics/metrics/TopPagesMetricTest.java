@@ -3,6 +3,7 @@ package com.liftlab.analytics.metrics;
 import com.liftlab.analytics.metrics.model.MetricContext;
 import com.liftlab.analytics.model.PageView;
 import com.liftlab.analytics.repository.MetricsStorageService;
+import com.liftlab.analytics.service.TopPagesSketchService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -137,5 +138,33 @@ class TopPagesMetricTest {
         // Then
         verify(storageService, times(1)).getTopPages(eq(5), eq(fifteenMinAgo));
     }
-}
 
+    @Test
+    void testCalculateReadsSketchesWhenTheEngineCoversTheWindow() {
+        // Given
+        TopPagesSketchService sketchService = mock(TopPagesSketchService.class);
+        topPagesMetric = new TopPagesMetric(sketchService);
+        long now = System.currentTimeMillis();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(now)
+                .fiveMinutesAgo(now - Duration.ofMinutes(5).toMillis())
+                .fifteenMinutesAgo(now - Duration.ofMinutes(15).toMillis())
+                .storageService(storageService)
+                .build();
+
+        when(sketchService.covers(context.getFifteenMinutesAgo(), now)).thenReturn(true);
+        when(sketchService.getTopPages(5, context.getFifteenMinutesAgo(), now))
+                .thenReturn(Mono.just(List.of(PageView.builder().url("/home").viewCount(42L).build())));
+
+        // When/Then
+        StepVerifier.create(topPagesMetric.calculate(context))
+                .expectNextMatches(result -> {
+                    @SuppressWarnings("unchecked")
+                    List<PageView> pages = (List<PageView>) result.getValue();
+                    assertThat(pages).extracting(PageView::getViewCount).containsExactly(42L);
+                    return true;
+                })
+                .verifyComplete();
+        verify(storageService, never()).getTopPages(anyInt(), anyLong());
+    }
+}
@@ -0,0 +1,371 @@
+package com.liftlab.analytics.repository;
+
+import com.liftlab.analytics.model.ActiveSessionsPage;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageEventTypeCount;
+import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesResolution;
+import com.liftlab.analytics.model.SweepResult;
+import com.liftlab.analytics.model.UserSessionCount;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Unit tests for InMemoryMetricsStorageService, driven by a manual clock
+ */
+class InMemoryMetricsStorageServiceTest {
+
+    private static final long FIVE_MINUTES = Duration.ofMinutes(5).toMillis();
+    private static final long FIFTEEN_MINUTES = Duration.ofMinutes(15).toMillis();
+    private static final long ONE_HOUR = Duration.ofHours(1).toMillis();
+    private static final long ONE_DAY = Duration.ofHours(24).toMillis();
+
+    private AtomicLong clock;
+    private InMemoryMetricsStorageService storageService;
+
+    @BeforeEach
+    void setUp() {
+        clock = new AtomicLong(1_710_000_000_000L);
+        storageService = new InMemoryMetricsStorageService(clock::get);
+    }
+
+    @Test
+    void testActiveUsersCountsDistinctUsersInWindow() {
+        // Given
+        long now = clock.get();
+        storageService.recordActiveUser("user1", now - Duration.ofMinutes(6).toMillis());
+        storageService.recordActiveUser("user2", now - Duration.ofMinutes(2).toMillis());
+        storageService.recordActiveUser("user2", now - Duration.ofMinutes(1).toMillis());
+        storageService.recordActiveUser("user3", now);
+
+        // When/Then
+        StepVerifier.create(storageService.getActiveUserCount(now - FIVE_MINUTES))
+                .expectNext(2)
+                .verifyComplete();
+        StepVerifier.create(storageService.getActiveUserCount(now - FIFTEEN_MINUTES))
+                .expectNext(3)
+                .verifyComplete();
+    }
+
+    @Test
+    void testUserSeenAgainMovesIntoWindow() {
+        // Given
+        long now = clock.get();
+        storageService.recordActiveUser("user1", now - Duration.ofMinutes(10).toMillis());
+
+        // When
+        storageService.recordActiveUser("user1", now);
+
+        // Then - counted once, in its latest second
+        assertThat(storageService.getActiveUserCount(now - FIVE_MINUTES).block()).isEqualTo(1);
+        assertThat(storageService.getActiveUserCount(now - FIFTEEN_MINUTES).block()).isEqualTo(1);
+    }
+
+    @Test
+    void testPageViewsAndTopPages() {
+        // Given
+        long now = clock.get();
+        for (int i = 0; i < 3; i++) {
+            storageService.recordPageView("home", now - i * 1000L);
+        }
+        storageService.recordPageView("about", now - Duration.ofMinutes(10).toMillis());
+        storageService.recordPageView("about", now);
+        storageService.recordPageView("contact", now - Duration.ofMinutes(20).toMillis()); // Outside window
+
+        // When/Then
+        assertThat(storageService.getPageViewCount("home", now - FIFTEEN_MINUTES).block()).isEqualTo(3);
+        assertThat(storageService.getPageViewCount("about", now - FIVE_MINUTES).block()).isEqualTo(1);
+        assertThat(storageService.getPageViewCount("contact", now - FIFTEEN_MINUTES).block()).isZero();
+        assertThat(storageService.getTopPages(5, now - FIFTEEN_MINUTES).block())
+                .extracting(PageView::getUrl, PageView::getViewCount)
+                .containsExactly(tuple("/home", 3L), tuple("/about", 2L));
+        assertThat(storageService.getTopPages(1, now - FIVE_MINUTES).block())
+                .extracting(PageView::getUrl)
+                .containsExactly("/home");
+    }
+
+    @Test
+    void testLongWindowsReadMinuteAndHourRollups() {
+        // Given - events recorded as they happen over a few hours
+        long start = clock.get();
+        storageService.recordEvent(EventRecord.builder().userId("user1").sessionId("sess1")
+                .pageUrl("home").eventType("page_view").timestamp(start).build());
+        clock.addAndGet(Duration.ofHours(2).toMillis());
+        storageService.recordEvent(EventRecord.builder().userId("user2").sessionId("sess2")
+                .pageUrl("about").eventType("page_view").timestamp(clock.get()).build());
+        clock.addAndGet(Duration.ofMinutes(61).toMillis());
+        long now = clock.get();
+        storageService.recordEvent(EventRecord.builder().userId("user1").sessionId("sess1")
+                .pageUrl("home").eventType("page_view").timestamp(now).build());
+
+        // When/Then - user1 is counted once, in its latest bucket
+        assertThat(storageService.getActiveUserCount(now - ONE_HOUR).block()).isEqualTo(1);
+        assertThat(storageService.getActiveUserCount(now - ONE_DAY).block()).isEqualTo(2);
+        assertThat(storageService.getPageViewCount("home", now - ONE_DAY).block()).isEqualTo(2);
+        assertThat(storageService.getPageViewCount("home", now - ONE_HOUR).block()).isEqualTo(1);
+        assertThat(storageService.getTopPages(5, now - ONE_DAY).block())
+                .extracting(PageView::getUrl, PageView::getViewCount)
+                .containsExactly(tuple("/home", 2L), tuple("/about", 1L));
+        // Sessions are only kept for 15 minutes
+        assertThat(storageService.getActiveSessionsByUser(now - ONE_DAY).block())
+                .containsExactly(Map.entry("user1", 1));
+    }
+
+    @Test
+    void testPageViewsExpireAsTimeAdvances() {
+        // Given
+        long start = clock.get();
+        storageService.recordPageView("home", start);
+
+        // When
+        clock.addAndGet(FIFTEEN_MINUTES + 1000);
+
+        // Then
+        assertThat(storageService.getPageViewCount("home", clock.get() - FIFTEEN_MINUTES).block()).isZero();
+        assertThat(storageService.getTopPages(5, clock.get() - FIFTEEN_MINUTES).block()).isEmpty();
+    }
+
+    @Test
+    void testActiveSessionsByUser() {
+        // Given
+        long now = clock.get();
+        storageService.recordUserSession("user1", "sess1", now);
+        storageService.recordUserSession("user1", "sess2", now - 1000);
+        storageService.recordUserSession("user1", "sess1", now - 2000); // Same session, older
+        storageService.recordUserSession("user2", "sess3", now - Duration.ofMinutes(7).toMillis());
+
+        // When/Then
+        assertThat(storageService.getActiveSessionsByUser(now - FIVE_MINUTES).block())
+                .containsExactly(Map.entry("user1", 2));
+        assertThat(storageService.getActiveSessionCount("user1", now - FIVE_MINUTES).block()).isEqualTo(2);
+        assertThat(storageService.getActiveSessionCount("user2", now - FIVE_MINUTES).block()).isZero();
+        assertThat(storageService.getActiveSessionCount("unknown", now - FIVE_MINUTES).block()).isZero();
+    }
+
+    @Test
+    void testTopActiveSessionsReportsTotalsOverAllUsers() {
+        // Given
+        long now = clock.get();
+        storageService.recordUserSession("user1", "sess1", now);
+        storageService.recordUserSession("user2", "sess2", now);
+        storageService.recordUserSession("user2", "sess3", now);
+        storageService.recordUserSession("user3", "sess4", now);
+        storageService.recordUserSession("user3", "sess5", now);
+        storageService.recordUserSession("user3", "sess6", now);
+
+        // When
+        ActiveSessionsSummary summary = storageService.getTopActiveSessions(2, now - FIVE_MINUTES).block();
+
+        // Then
+        assertThat(summary.getTopUsers())
+                .extracting(UserSessionCount::getUserId, UserSessionCount::getSessionCount)
+                .containsExactly(tuple("user3", 3), tuple("user2", 2));
+        assertThat(summary.getTotalUsers()).isEqualTo(3);
+        assertThat(summary.getTotalSessions()).isEqualTo(6);
+    }
+
+    @Test
+    void testActiveSessionsPagesCoverEveryUserOnce() {
+        // Given
+        long now = clock.get();
+        for (int i = 0; i < 25; i++) {
+            storageService.recordUserSession("user" + i, "sess" + i, now);
+        }
+        storageService.recordUserSession("expired", "old", now - Duration.ofMinutes(7).toMillis());
+
+        // When
+        Map<String, Integer> seen = new HashMap<>();
+        String cursor = ActiveSessionsPage.START_CURSOR;
+        int pages = 0;
+        do {
+            ActiveSessionsPage page = storageService.getActiveSessionsPage(cursor, 10, now - FIVE_MINUTES).block();
+            assertThat(page.getUsers()).hasSizeLessThanOrEqualTo(10);
+            page.getUsers().forEach(user -> assertThat(seen.put(user.getUserId(), user.getSessionCount())).isNull());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        // Then
+        assertThat(pages).isGreaterThan(1);
+        assertThat(seen).hasSize(25).doesNotContainKey("expired");
+    }
+
+    @Test
+    void testRecordEventsUpdatesAllMetrics() {
+        // Given
+        long now = clock.get();
+        List<EventRecord> records = List.of(
+                EventRecord.builder().userId("user1").sessionId("sess1").pageUrl("home")
+                        .eventType("page_view").timestamp(now).build(),
+                EventRecord.builder().userId("user2").sessionId("sess2").pageUrl("home")
+                        .eventType("page_view").timestamp(now + 60_000).build()); // Future counts as now
+
+        // When
+        StepVerifier.create(storageService.recordEvents(records))
+                .verifyComplete();
+
+        // Then
+        assertThat(storageService.getActiveUserCount(now - FIVE_MINUTES).block()).isEqualTo(2);
+        assertThat(storageService.getPageViewCount("home", now - FIFTEEN_MINUTES).block()).isEqualTo(2);
+        assertThat(storageService.getActiveSessionsByUser(now - FIVE_MINUTES).block())
+                .containsEntry("user1", 1)
+                .containsEntry("user2", 1);
+    }
+
+    @Test
+    void testRecordAggregateCountsLikeTheEventsItCoalesces() {
+        // Given - three events of one user and page in the same second
+        long now = clock.get();
+        ReflectionTestUtils.setField(storageService, "eventTypesByPage", true);
+        EventAggregate aggregate = EventAggregate.of(List.of(
+                event("user1", "home", "click", now - 2_000),
+                event("user1", "home", "click", now - 2_000),
+                event("user1", "home", "page_view", now - 2_000)), true);
+
+        // When
+        StepVerifier.create(storageService.recordAggregate(aggregate))
+                .verifyComplete();
+
+        // Then
+        assertThat(storageService.getActiveUserCount(now - FIVE_MINUTES).block()).isEqualTo(1);
+        assertThat(storageService.getPageViewCount("home", now - FIFTEEN_MINUTES).block()).isEqualTo(3);
+        assertThat(storageService.getEventTypeCounts(10, now - FIFTEEN_MINUTES).block())
+                .containsExactly(Map.entry("click", 2L), Map.entry("page_view", 1L));
+        assertThat(storageService.getTopPageEventTypes(1, now - FIFTEEN_MINUTES).block())
+                .extracting(PageEventTypeCount::getUrl, PageEventTypeCount::getEventType, PageEventTypeCount::getCount)
+                .containsExactly(tuple("/home", "click", 2L));
+    }
+
+    @Test
+    void testEventTypeCountsOverWindows() {
+        // Given
+        ReflectionTestUtils.setField(storageService, "eventTypesByPage", true);
+        long start = clock.get();
+        storageService.recordEvent(event("user1", "home", "page_view", start));
+        clock.addAndGet(Duration.ofMinutes(20).toMillis());
+        long now = clock.get();
+        StepVerifier.create(storageService.recordEvents(List.of(
+                        event("user1", "home", "click", now),
+                        event("user2", "home", "click", now),
+                        event("user2", "cart", "page_view", now))))
+                .verifyComplete();
+
+        // When/Then - most frequent first; the first event is only in the hour window
+        assertThat(storageService.getEventTypeCounts(10, now - FIFTEEN_MINUTES).block())
+                .containsExactly(Map.entry("click", 2L), Map.entry("page_view", 1L));
+        assertThat(storageService.getEventTypeCounts(10, now - ONE_HOUR).block())
+                .containsExactlyInAnyOrderEntriesOf(Map.of("click", 2L, "page_view", 2L));
+        assertThat(storageService.getEventTypeCounts(1, now - FIFTEEN_MINUTES).block())
+                .containsOnlyKeys("click");
+        assertThat(storageService.getTopPageEventTypes(2, now - FIFTEEN_MINUTES).block())
+                .extracting(PageEventTypeCount::getUrl, PageEventTypeCount::getEventType, PageEventTypeCount::getCount)
+                .containsExactly(tuple("/home", "click", 2L), tuple("/cart", "page_view", 1L));
+    }
+
+    @Test
+    void testPageViewsExpireAfterIdleGapLongerThanTheRing() {
+        // Given
+        long start = clock.get();
+        storageService.recordEvent(EventRecord.builder().userId("user1").sessionId("sess1")
+                .pageUrl("old").eventType("page_view").timestamp(start).build());
+
+        // When - idle for several ring lengths
+        clock.addAndGet(ONE_HOUR);
+        long now = clock.get();
+        storageService.recordEvent(EventRecord.builder().userId("user1").sessionId("sess1")
+                .pageUrl("home").eventType("page_view").timestamp(now).build());
+
+        // Then
+        assertThat(storageService.getTopPages(5, now - FIFTEEN_MINUTES).block())
+                .extracting(PageView::getUrl, PageView::getViewCount)
+                .containsExactly(tuple("/home", 1L));
+    }
+
+    @Test
+    void testSweepRemovesExpiredEntriesAndKeepsCounts() {
+        // Given - many short-lived users, then one live user
+        long start = clock.get();
+        for (int i = 0; i < 3000; i++) {
+            storageService.recordEvent(EventRecord.builder().userId("old" + i).sessionId("s" + i)
+                    .pageUrl("page" + i).eventType("page_view").timestamp(start).build());
+        }
+        clock.addAndGet(ONE_DAY + Duration.ofHours(2).toMillis()); // Past the hour rollups too
+        long now = clock.get();
+        storageService.recordEvent(EventRecord.builder().userId("live").sessionId("liveSess")
+                .pageUrl("home").eventType("page_view").timestamp(now).build());
+
+        // When - the sweep also rebuilds the interned ids
+        SweepResult result = storageService.sweepExpiredEntries(now, SweepResult.START_CURSOR, 100).block();
+
+        // Then
+        assertThat(result.isPassComplete()).isTrue();
+        assertThat(result.getEntriesRemoved()).isEqualTo(9000); // Users, sessions and URLs
+        assertThat(storageService.getActiveUserCount(now - ONE_DAY).block()).isEqualTo(1);
+        assertThat(storageService.getActiveUserCount(now - FIVE_MINUTES).block()).isEqualTo(1);
+        assertThat(storageService.getActiveSessionsByUser(now - FIVE_MINUTES).block())
+                .containsExactly(Map.entry("live", 1));
+        assertThat(storageService.getTopPages(5, now - FIFTEEN_MINUTES).block())
+                .extracting(PageView::getUrl, PageView::getViewCount)
+                .containsExactly(tuple("/home", 1L));
+
+        // Ids recorded after compaction still resolve
+        storageService.recordUserSession("live", "otherSess", now);
+        assertThat(storageService.getActiveSessionCount("live", now - FIVE_MINUTES).block()).isEqualTo(2);
+    }
+
+    @Test
+    void testSeriesCountsPageViewsAndUsersOncePerBucket() {
+        // Given
+        SeriesResolution minute = SeriesResolution.MINUTE;
+        long current = minute.bucketOf(clock.get());
+        storageService.recordSeries(minute,
+                Map.of(current - 1, 3L, current, 2L),
+                Map.of(current - 1, Set.of("user1", "user2"), current, Set.of("user1"))).block();
+        // A later batch: user1 again in the current minute, one event a minute in the future
+        storageService.recordSeries(minute,
+                Map.of(current, 1L, current + 1, 1L),
+                Map.of(current, Set.of("user1", "user3"), current + 1, Set.of("user4"))).block();
+
+        // When/Then - future events count in the current minute
+        assertThat(storageService.getSeries(SeriesMetric.PAGE_VIEWS, minute, current - 2, current + 1).block())
+                .containsExactlyInAnyOrderEntriesOf(Map.of(current - 1, 3L, current, 4L));
+        assertThat(storageService.getSeries(SeriesMetric.ACTIVE_USERS, minute, current - 2, current + 1).block())
+                .containsExactlyInAnyOrderEntriesOf(Map.of(current - 1, 2L, current, 3L));
+    }
+
+    @Test
+    void testSeriesDropsBucketsPastRetention() {
+        // Given
+        SeriesResolution minute = SeriesResolution.MINUTE;
+        long expired = minute.bucketOf(clock.get() - minute.getRetention().toMillis()) - 1;
+        storageService.recordSeries(minute, Map.of(expired, 5L), Map.of(expired, Set.of("user1"))).block();
+        storageService.recordSeries(SeriesResolution.HOUR,
+                Map.of(SeriesResolution.HOUR.bucketOf(clock.get()), 5L), Map.of()).block();
+
+        // When/Then - still kept by the hour
+        assertThat(storageService.getSeries(SeriesMetric.PAGE_VIEWS, minute, expired, expired).block()).isEmpty();
+        assertThat(storageService.getSeries(SeriesMetric.PAGE_VIEWS, SeriesResolution.HOUR,
+                SeriesResolution.HOUR.bucketOf(clock.get()), SeriesResolution.HOUR.bucketOf(clock.get())).block())
+                .containsValue(5L);
+    }
+
+    private static EventRecord event(String userId, String pageUrl, String eventType, long timestamp) {
+        return EventRecord.builder().userId(userId).sessionId(userId + "-sess").pageUrl(pageUrl)
+                .eventType(eventType).timestamp(timestamp).build();
+    }
+}
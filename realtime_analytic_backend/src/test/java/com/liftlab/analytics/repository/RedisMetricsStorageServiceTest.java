@@ -1,14 +1,20 @@
 package com.liftlab.analytics.repository;
 
+import com.liftlab.analytics.model.ActiveSessionsPage;
+import com.liftlab.analytics.model.ActiveSessionsSummary;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageEventTypeCount;
 import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.model.SweepResult;
+import com.liftlab.analytics.model.UserSessionCount;
 import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -22,15 +28,18 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
- * Integration tests for RedisMetricsStorageService using Testcontainers
- * TODO: Re-enable once Testcontainers Redis dependency issue is resolved
+ * Integration tests for RedisMetricsStorageService (and its Lua scripts) against a Redis container.
+ * Run by mvn test wherever Docker is available; skipped otherwise.
  */
-@SpringBootTest
-@Testcontainers
-@Disabled("Temporarily disabled - requires Testcontainers Redis module")
+@SpringBootTest(properties = {
+        "spring.kafka.listener.auto-startup=false",
+        "analytics.ingestion.journal.enabled=false"
+})
+@Testcontainers(disabledWithoutDocker = true)
 class RedisMetricsStorageServiceTest {
 
     @Container
@@ -53,6 +62,11 @@ class RedisMetricsStorageServiceTest {
     void setUp() {
         // Clear Redis before each test
         redisTemplate.getConnectionFactory().getReactiveConnection().serverCommands().flushAll().block();
+        // Tests switch modes on the shared service; start each one from the defaults
+        ReflectionTestUtils.setField(storageService, "writeMode", RedisMetricsStorageService.WriteMode.SCRIPT);
+        ReflectionTestUtils.setField(storageService, "pageViewLayout", RedisMetricsStorageService.PageViewLayout.BUCKETS);
+        ReflectionTestUtils.setField(storageService, "activeUsersMode", RedisMetricsStorageService.ActiveUsersMode.EXACT);
+        ReflectionTestUtils.setField(storageService, "eventTypesByPage", false);
     }
 
     @Test
@@ -297,5 +311,261 @@ class RedisMetricsStorageServiceTest {
             assertThat(topPage.getViewCount()).isGreaterThanOrEqualTo(3);
         }
     }
-}
 
+    @Test
+    void testRecordEventWithScriptUpdatesAllMetrics() throws InterruptedException {
+        // Given
+        ReflectionTestUtils.setField(storageService, "writeMode", RedisMetricsStorageService.WriteMode.SCRIPT);
+        long timestamp = System.currentTimeMillis();
+        EventRecord record = EventRecord.builder()
+                .userId("user1")
+                .sessionId("sess1")
+                .pageUrl("home")
+                .eventType("page_view")
+                .timestamp(timestamp)
+                .build();
+
+        // When
+        storageService.recordEvent(record);
+        storageService.recordEvent(record);
+
+        Thread.sleep(200);
+
+        // Then
+        long fiveMinAgo = timestamp - Duration.ofMinutes(5).toMillis();
+        assertThat(storageService.getActiveUserCount(fiveMinAgo).block()).isEqualTo(1);
+        assertThat(storageService.getPageViewCount("home", timestamp - Duration.ofMinutes(15).toMillis()).block())
+                .isEqualTo(2);
+        assertThat(storageService.getActiveSessionsByUser(fiveMinAgo).block()).containsEntry("user1", 1);
+    }
+
+    @Test
+    void testRecordEventWithCommandsMode() throws InterruptedException {
+        // Given
+        ReflectionTestUtils.setField(storageService, "writeMode", RedisMetricsStorageService.WriteMode.COMMANDS);
+        long timestamp = System.currentTimeMillis();
+
+        // When
+        storageService.recordEvent(EventRecord.builder()
+                .userId("user1")
+                .sessionId("sess1")
+                .pageUrl("home")
+                .eventType("page_view")
+                .timestamp(timestamp)
+                .build());
+
+        Thread.sleep(200);
+
+        // Then
+        assertThat(storageService.getPageViewCount("home", timestamp - Duration.ofMinutes(15).toMillis()).block())
+                .isEqualTo(1);
+        assertThat(storageService.getActiveSessionCount("user1", timestamp - Duration.ofMinutes(5).toMillis()).block())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void testBucketLayoutCountsViewsPerMinute() throws InterruptedException {
+        // Given
+        ReflectionTestUtils.setField(storageService, "pageViewLayout", RedisMetricsStorageService.PageViewLayout.BUCKETS);
+        long currentTime = System.currentTimeMillis();
+        long fifteenMinAgo = currentTime - Duration.ofMinutes(15).toMillis();
+
+        // When
+        storageService.recordPageView("home", currentTime);
+        storageService.recordPageView("home", currentTime - Duration.ofMinutes(3).toMillis());
+        storageService.recordPageView("about", currentTime);
+        storageService.recordPageView("home", currentTime - Duration.ofMinutes(20).toMillis()); // Outside window
+
+        Thread.sleep(200);
+
+        // Then
+        assertThat(storageService.getPageViewCount("home", fifteenMinAgo).block()).isEqualTo(2);
+        assertThat(storageService.getTopPages(10, fifteenMinAgo).block())
+                .extracting(PageView::getUrl, PageView::getViewCount)
+                .containsExactly(tuple("/home", 2L), tuple("/about", 1L));
+        assertThat(redisTemplate.keys("page_views:*").collectList().block()).isEmpty();
+    }
+
+    @Test
+    void testBucketLayoutBatchWrite() {
+        // Given
+        ReflectionTestUtils.setField(storageService, "pageViewLayout", RedisMetricsStorageService.PageViewLayout.BUCKETS);
+        long currentTime = System.currentTimeMillis();
+        List<EventRecord> records = List.of(
+                EventRecord.builder().userId("user1").sessionId("sess1").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build(),
+                EventRecord.builder().userId("user2").sessionId("sess2").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build());
+
+        // When
+        StepVerifier.create(storageService.recordEvents(records))
+                .verifyComplete();
+
+        // Then
+        assertThat(storageService.getPageViewCount("home", currentTime - Duration.ofMinutes(15).toMillis()).block())
+                .isEqualTo(2);
+        assertThat(storageService.getActiveUserCount(currentTime - Duration.ofMinutes(5).toMillis()).block())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void testEventTypeCountsFromScriptAndBatchWrites() throws InterruptedException {
+        // Given
+        ReflectionTestUtils.setField(storageService, "writeMode", RedisMetricsStorageService.WriteMode.SCRIPT);
+        ReflectionTestUtils.setField(storageService, "eventTypesByPage", true);
+        long currentTime = System.currentTimeMillis();
+        long fifteenMinAgo = currentTime - Duration.ofMinutes(15).toMillis();
+
+        // When
+        storageService.recordEvent(EventRecord.builder().userId("user1").sessionId("sess1").pageUrl("home")
+                .eventType("click").timestamp(currentTime).build());
+        StepVerifier.create(storageService.recordEvents(List.of(
+                        EventRecord.builder().userId("user2").sessionId("sess2").pageUrl("home")
+                                .eventType("click").timestamp(currentTime).build(),
+                        EventRecord.builder().userId("user2").sessionId("sess2").pageUrl("cart")
+                                .eventType("page_view").timestamp(currentTime).build())))
+                .verifyComplete();
+
+        Thread.sleep(200);
+
+        // Then
+        assertThat(storageService.getEventTypeCounts(10, fifteenMinAgo).block())
+                .containsExactly(Map.entry("click", 2L), Map.entry("page_view", 1L));
+        assertThat(storageService.getTopPageEventTypes(10, fifteenMinAgo).block())
+                .extracting(PageEventTypeCount::getUrl, PageEventTypeCount::getEventType, PageEventTypeCount::getCount)
+                .containsExactly(tuple("/home", "click", 2L), tuple("/cart", "page_view", 1L));
+    }
+
+    @Test
+    void testBucketLayoutTopPagesUsesWindowCountsOnly() throws InterruptedException {
+        // Given - a page that was hot 20 minutes ago and pages viewed inside the window
+        ReflectionTestUtils.setField(storageService, "pageViewLayout", RedisMetricsStorageService.PageViewLayout.BUCKETS);
+        long currentTime = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            storageService.recordPageView("formerlyHot", currentTime - Duration.ofMinutes(20).toMillis());
+        }
+        for (int page = 1; page <= 6; page++) {
+            for (int view = 0; view < page; view++) {
+                storageService.recordPageView("page" + page, currentTime - Duration.ofMinutes(view).toMillis());
+            }
+        }
+
+        Thread.sleep(200);
+
+        // When
+        List<PageView> topPages = storageService.getTopPages(5, currentTime - Duration.ofMinutes(15).toMillis()).block();
+
+        // Then
+        assertThat(topPages)
+                .extracting(PageView::getUrl)
+                .containsExactly("/page6", "/page5", "/page4", "/page3", "/page2");
+        assertThat(topPages.get(0).getViewCount()).isEqualTo(6L);
+    }
+
+    @Test
+    void testSweepExpiredEntriesResumesFromCursorUntilPassCompletes() throws InterruptedException {
+        // Given - 100 users whose sessions expired and one live user
+        long currentTime = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            storageService.recordUserSession("user" + i, "sess" + i, currentTime - Duration.ofMinutes(10).toMillis());
+        }
+        storageService.recordUserSession("liveUser", "liveSess", currentTime);
+
+        Thread.sleep(300);
+
+        // When - sweep in small steps until the scan wraps around
+        String cursor = SweepResult.START_CURSOR;
+        long removed = 0;
+        int steps = 0;
+        do {
+            SweepResult result = storageService.sweepExpiredEntries(currentTime, cursor, 10).block();
+            cursor = result.getCursor();
+            removed += result.getEntriesRemoved();
+            steps++;
+        } while (!SweepResult.START_CURSOR.equals(cursor));
+
+        // Then
+        assertThat(steps).isGreaterThan(1);
+        assertThat(removed).isEqualTo(100);
+        assertThat(redisTemplate.opsForSet().members("users_with_sessions:5m").collectList().block())
+                .containsExactly("liveUser");
+    }
+
+    @Test
+    void testApproximateActiveUsersUsesMinuteHyperLogLogs() {
+        // Given
+        ReflectionTestUtils.setField(storageService, "activeUsersMode", RedisMetricsStorageService.ActiveUsersMode.APPROXIMATE);
+        long currentTime = System.currentTimeMillis();
+        List<EventRecord> records = new java.util.ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            records.add(EventRecord.builder().userId("user" + i).sessionId("sess" + i).pageUrl("home")
+                    .eventType("page_view").timestamp(currentTime - (i % 3) * 60_000L).build());
+        }
+
+        // When
+        StepVerifier.create(storageService.recordEvents(records))
+                .verifyComplete();
+
+        // Then - within a few standard errors of the exact count, and no per-user ZSET
+        int count = storageService.getActiveUserCount(currentTime - Duration.ofMinutes(5).toMillis()).block();
+        assertThat(count).isBetween(970, 1030);
+        assertThat(storageService.getActiveUserCountAccuracy().getMode()).isEqualTo("approximate");
+        assertThat(redisTemplate.hasKey("active_users:5m").block()).isFalse();
+    }
+
+    @Test
+    void testGetActiveSessionsByUserPrunesExpiredUsers() {
+        // Given - two live users, and users whose sessions expired or whose key is gone
+        long currentTime = System.currentTimeMillis();
+        storageService.recordEvents(List.of(
+                EventRecord.builder().userId("user1").sessionId("sess1").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build(),
+                EventRecord.builder().userId("user1").sessionId("sess2").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build(),
+                EventRecord.builder().userId("user2").sessionId("sess3").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build(),
+                EventRecord.builder().userId("expiredUser").sessionId("sess4").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime - Duration.ofMinutes(7).toMillis()).build()))
+                .block();
+        redisTemplate.opsForSet().add("users_with_sessions:5m", "userWithoutKey").block();
+
+        // When
+        Map<String, Integer> sessionsByUser = storageService.getActiveSessionsByUser(
+                currentTime - Duration.ofMinutes(5).toMillis()).block();
+
+        // Then
+        assertThat(sessionsByUser).containsOnly(Map.entry("user1", 2), Map.entry("user2", 1));
+        assertThat(redisTemplate.opsForSet().members("users_with_sessions:5m").collectList().block())
+                .containsExactlyInAnyOrder("user1", "user2");
+    }
+
+    @Test
+    void testTopActiveSessionsAndPages() {
+        // Given
+        long currentTime = System.currentTimeMillis();
+        storageService.recordEvents(List.of(
+                EventRecord.builder().userId("user1").sessionId("sess1").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build(),
+                EventRecord.builder().userId("user1").sessionId("sess2").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build(),
+                EventRecord.builder().userId("user2").sessionId("sess3").pageUrl("home")
+                        .eventType("page_view").timestamp(currentTime).build()))
+                .block();
+        long fiveMinAgo = currentTime - Duration.ofMinutes(5).toMillis();
+
+        // When
+        ActiveSessionsSummary summary = storageService.getTopActiveSessions(1, fiveMinAgo).block();
+        ActiveSessionsPage page = storageService.getActiveSessionsPage(ActiveSessionsPage.START_CURSOR, 100, fiveMinAgo).block();
+
+        // Then
+        assertThat(summary.getTopUsers())
+                .extracting(UserSessionCount::getUserId, UserSessionCount::getSessionCount)
+                .containsExactly(tuple("user1", 2));
+        assertThat(summary.getTotalUsers()).isEqualTo(2);
+        assertThat(summary.getTotalSessions()).isEqualTo(3);
+        assertThat(page.getUsers())
+                .extracting(UserSessionCount::getUserId, UserSessionCount::getSessionCount)
+                .containsExactlyInAnyOrder(tuple("user1", 2), tuple("user2", 1));
+        assertThat(page.getNextCursor()).isNull();
+    }
+}
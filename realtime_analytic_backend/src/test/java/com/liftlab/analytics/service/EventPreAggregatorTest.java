@@ -0,0 +1,190 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for EventPreAggregator
+ */
+@ExtendWith(MockitoExtension.class)
+class EventPreAggregatorTest {
+
+    private static final long SECOND = 1_710_000_000_000L;
+
+    @Mock
+    private MetricsStorageService storageService;
+
+    @Mock
+    private TimeSeriesService timeSeriesService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private EventPreAggregator preAggregator;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        preAggregator = new EventPreAggregator(storageService, timeSeriesService, meterRegistry, true, false, true);
+        lenient().when(storageService.recordAggregate(any())).thenReturn(Mono.empty());
+        lenient().when(timeSeriesService.record(any(EventAggregate.class))).thenReturn(Mono.empty());
+    }
+
+    @Test
+    void testFlushWritesEachTickOneFlushLater() {
+        // Given
+        preAggregator.add(event("user1", "home", "page_view", SECOND));
+
+        // When/Then - the first flush only swaps the tick out
+        StepVerifier.create(preAggregator.flush()).verifyComplete();
+        verify(storageService, never()).recordAggregate(any());
+
+        StepVerifier.create(preAggregator.flush()).verifyComplete();
+        verify(storageService).recordAggregate(any());
+
+        StepVerifier.create(preAggregator.flush()).verifyComplete();
+        verifyNoMoreInteractions(storageService);
+    }
+
+    @Test
+    void testEventsAreCoalescedPerKey() {
+        // Given - one user with two sessions, three events in one second and one in the next
+        preAggregator.add(event("user1", "sess1", "home", "page_view", SECOND + 100));
+        preAggregator.add(event("user1", "sess1", "home", "click", SECOND + 900));
+        preAggregator.add(event("user1", "sess2", "home", "click", SECOND + 500));
+        preAggregator.add(event("user2", "sess3", "cart", "page_view", SECOND + 1_200));
+
+        // When
+        preAggregator.flush().then(preAggregator.flush()).block();
+
+        // Then
+        ArgumentCaptor<EventAggregate> captor = ArgumentCaptor.forClass(EventAggregate.class);
+        verify(storageService).recordAggregate(captor.capture());
+        EventAggregate aggregate = captor.getValue();
+        assertThat(aggregate.getUserLastSeen())
+                .containsExactlyInAnyOrderEntriesOf(Map.of("user1", SECOND + 900, "user2", SECOND + 1_200));
+        assertThat(aggregate.getSessionLastSeen().get("user1"))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("sess1", SECOND + 900, "sess2", SECOND + 500));
+        assertThat(aggregate.getPageViews())
+                .containsExactlyInAnyOrderEntriesOf(Map.of(
+                        SECOND, Map.of("home", 3L),
+                        SECOND + 1_000, Map.of("cart", 1L)));
+        assertThat(aggregate.getEventTypes().get(SECOND))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("page_view", 1L, "click", 2L));
+        assertThat(aggregate.getPageEventTypes().get(SECOND))
+                .containsEntry(new EventAggregate.PageEventType("home", "click"), 2L);
+        assertThat(meterRegistry.get("analytics.preaggregation.events").counter().count()).isEqualTo(4);
+        // 2 users, 3 sessions, 2 page counters, 3 event type counters, 3 pair counters
+        assertThat(meterRegistry.get("analytics.preaggregation.keys.written").counter().count()).isEqualTo(13);
+    }
+
+    @Test
+    void testFailedWriteIsCountedAsDropped() {
+        // Given
+        when(storageService.recordAggregate(any())).thenReturn(Mono.error(new RuntimeException("Redis down")));
+        preAggregator.add(event("user1", "home", "page_view", SECOND));
+        preAggregator.add(event("user2", "home", "page_view", SECOND));
+
+        // When
+        StepVerifier.create(preAggregator.flush().then(preAggregator.flush()))
+                .verifyComplete();
+
+        // Then
+        assertThat(meterRegistry.get("analytics.preaggregation.events.dropped").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("analytics.preaggregation.keys.written").counter().count()).isZero();
+    }
+
+    @Test
+    void testTimeSeriesIsWrittenOncePerTick() {
+        // Given - many events of two users over two minutes
+        for (int i = 0; i < 100; i++) {
+            preAggregator.add(event("user" + (i % 2), "home", "page_view", SECOND + i * 1_000L));
+        }
+
+        // When
+        preAggregator.flush().then(preAggregator.flush()).block();
+
+        // Then - the series is written from the same aggregate as the metrics, once for the tick
+        ArgumentCaptor<EventAggregate> captor = ArgumentCaptor.forClass(EventAggregate.class);
+        verify(storageService).recordAggregate(captor.capture());
+        verify(timeSeriesService).record(captor.getValue());
+        verify(timeSeriesService, never()).record(anyList());
+        long minute = EventAggregate.minuteOf(SECOND);
+        assertThat(captor.getValue().getMinuteUsers()).containsKeys(minute, minute + 60_000L);
+        assertThat(captor.getValue().getMinuteUsers().get(minute)).containsExactlyInAnyOrder("user0", "user1");
+    }
+
+    @Test
+    void testFailedSeriesWriteDoesNotDropTheTick() {
+        // Given
+        when(timeSeriesService.record(any(EventAggregate.class))).thenReturn(Mono.error(new RuntimeException("Redis down")));
+        preAggregator.add(event("user1", "home", "page_view", SECOND));
+
+        // When
+        StepVerifier.create(preAggregator.flush().then(preAggregator.flush()))
+                .verifyComplete();
+
+        // Then
+        verify(storageService).recordAggregate(any());
+        assertThat(meterRegistry.get("analytics.preaggregation.events.dropped").counter().count()).isZero();
+    }
+
+    @Test
+    void testCloseWritesEverythingHeld() {
+        // Given
+        preAggregator.add(event("user1", "home", "page_view", SECOND));
+
+        // When
+        preAggregator.close();
+
+        // Then
+        verify(storageService).recordAggregate(any());
+    }
+
+    @Test
+    void testDisabledStageDoesNotFlush() {
+        // Given
+        EventPreAggregator disabled = new EventPreAggregator(storageService, timeSeriesService, meterRegistry, false, true, false);
+
+        // When
+        disabled.scheduledFlush();
+        disabled.close();
+
+        // Then
+        assertThat(disabled.isEnabled()).isFalse();
+        verifyNoInteractions(storageService, timeSeriesService);
+    }
+
+    @Test
+    void testCannotBeEnabledWithTheIngestPipeline() {
+        assertThatThrownBy(() -> new EventPreAggregator(storageService, timeSeriesService, meterRegistry, true, true, false))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("analytics.ingestion.pipeline.enabled=false");
+    }
+
+    private static EventRecord event(String userId, String pageUrl, String eventType, long timestamp) {
+        return event(userId, userId + "-sess", pageUrl, eventType, timestamp);
+    }
+
+    private static EventRecord event(String userId, String sessionId, String pageUrl, String eventType,
+                                     long timestamp) {
+        return EventRecord.builder().userId(userId).sessionId(sessionId).pageUrl(pageUrl)
+                .eventType(eventType).timestamp(timestamp).build();
+    }
+}
@@ -2,6 +2,8 @@ package com.liftlab.analytics.service;
 
 import com.liftlab.analytics.model.AnalyticsEvent;
 import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageView;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import com.liftlab.analytics.util.UrlNormalizer;
 import com.liftlab.analytics.validation.ValidationManager;
@@ -9,14 +11,19 @@ import com.liftlab.analytics.validation.ValidationResult;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
@@ -37,6 +44,18 @@ class EventProcessingServiceTest {
     @Mock
     private UrlNormalizer urlNormalizer;
 
+    @Mock
+    private TimeSeriesService timeSeriesService;
+
+    @Mock
+    private PageCardinalityGuard pageCardinalityGuard;
+
+    @Mock
+    private TopPagesSketchService topPagesSketchService;
+
+    @Mock
+    private EventPreAggregator preAggregator;
+
     private EventProcessingService eventProcessingService;
 
     @BeforeEach
@@ -44,8 +63,14 @@ class EventProcessingServiceTest {
         eventProcessingService = new EventProcessingService(
             validationManager, 
             storageService, 
-            urlNormalizer
+            urlNormalizer,
+            timeSeriesService,
+            pageCardinalityGuard,
+            topPagesSketchService,
+            preAggregator
         );
+        lenient().when(timeSeriesService.record(anyList())).thenReturn(Mono.empty());
+        lenient().when(pageCardinalityGuard.admit(any())).thenAnswer(invocation -> invocation.getArgument(0));
     }
 
     @Test
@@ -61,9 +86,7 @@ class EventProcessingServiceTest {
 
         when(validationManager.validate(event)).thenReturn(ValidationResult.success());
         when(urlNormalizer.normalize("/home")).thenReturn("home");
-        doNothing().when(storageService).recordActiveUser(anyString(), anyLong());
-        doNothing().when(storageService).recordPageView(anyString(), anyLong());
-        doNothing().when(storageService).recordUserSession(anyString(), anyString(), anyLong());
+        doNothing().when(storageService).recordEvent(any(EventRecord.class));
 
         // When
         StepVerifier.create(eventProcessingService.processEvent(event))
@@ -74,12 +97,17 @@ class EventProcessingServiceTest {
                 })
                 .verifyComplete();
 
-        // Then
+        // Then - all three metrics are recorded through a single storage call
         verify(validationManager, times(1)).validate(event);
         verify(urlNormalizer, times(1)).normalize("/home");
-        verify(storageService, times(1)).recordActiveUser(eq("user123"), anyLong());
-        verify(storageService, times(1)).recordPageView(eq("home"), anyLong());
-        verify(storageService, times(1)).recordUserSession(eq("user123"), eq("sess456"), anyLong());
+        verify(storageService, times(1)).recordEvent(argThat(record ->
+                record.getUserId().equals("user123")
+                        && record.getPageUrl().equals("home")
+                        && record.getSessionId().equals("sess456")
+                        && record.getTimestamp() == event.getTimestamp().toEpochMilli()));
+        verify(storageService, never()).recordActiveUser(anyString(), anyLong());
+        verify(storageService, never()).recordPageView(anyString(), anyLong());
+        verify(storageService, never()).recordUserSession(anyString(), anyString(), anyLong());
     }
 
     @Test
@@ -107,9 +135,7 @@ class EventProcessingServiceTest {
 
         // Then
         verify(validationManager, times(1)).validate(event);
-        verify(storageService, never()).recordActiveUser(anyString(), anyLong());
-        verify(storageService, never()).recordPageView(anyString(), anyLong());
-        verify(storageService, never()).recordUserSession(anyString(), anyString(), anyLong());
+        verify(storageService, never()).recordEvent(any(EventRecord.class));
     }
 
     @Test
@@ -137,7 +163,7 @@ class EventProcessingServiceTest {
 
         // Then
         verify(validationManager, times(1)).validate(event);
-        verify(storageService, never()).recordActiveUser(anyString(), anyLong());
+        verify(storageService, never()).recordEvent(any(EventRecord.class));
     }
 
     @Test
@@ -153,9 +179,7 @@ class EventProcessingServiceTest {
 
         when(validationManager.validate(event)).thenReturn(ValidationResult.success());
         when(urlNormalizer.normalize("/home?param=value#section")).thenReturn("home");
-        doNothing().when(storageService).recordActiveUser(anyString(), anyLong());
-        doNothing().when(storageService).recordPageView(anyString(), anyLong());
-        doNothing().when(storageService).recordUserSession(anyString(), anyString(), anyLong());
+        doNothing().when(storageService).recordEvent(any(EventRecord.class));
 
         // When
         StepVerifier.create(eventProcessingService.processEvent(event))
@@ -164,7 +188,220 @@ class EventProcessingServiceTest {
 
         // Then
         verify(urlNormalizer, times(1)).normalize(eq("/home?param=value#section"));
-        verify(storageService, times(1)).recordPageView(eq("home"), anyLong());
+        verify(storageService, times(1)).recordEvent(argThat(record -> record.getPageUrl().equals("home")));
+    }
+
+    @Test
+    void testProcessBatchWritesAllValidEventsInOneCall() {
+        // Given
+        AnalyticsEvent first = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user123")
+                .sessionId("sess456")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+        AnalyticsEvent second = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user789")
+                .sessionId("sess012")
+                .pageUrl("/about")
+                .eventType("click")
+                .build();
+
+        when(validationManager.validate(any(AnalyticsEvent.class))).thenReturn(ValidationResult.success());
+        when(urlNormalizer.normalize("/home")).thenReturn("home");
+        when(urlNormalizer.normalize("/about")).thenReturn("about");
+        when(storageService.recordEvents(any())).thenReturn(Mono.empty());
+
+        // When
+        StepVerifier.create(eventProcessingService.processBatch(Arrays.asList(first, second)))
+                .expectNextMatches(result -> {
+                    assertThat(result.isSuccess()).isTrue();
+                    assertThat(result.getReceived()).isEqualTo(2);
+                    assertThat(result.getAccepted()).isEqualTo(2);
+                    assertThat(result.getRejected()).isZero();
+                    assertThat(result.getResults()).allMatch(EventProcessingResult::isSuccess);
+                    return true;
+                })
+                .verifyComplete();
+
+        // Then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EventRecord>> captor = ArgumentCaptor.forClass(List.class);
+        verify(storageService, times(1)).recordEvents(captor.capture());
+        assertThat(captor.getValue()).extracting(EventRecord::getPageUrl).containsExactly("home", "about");
+        assertThat(captor.getValue()).extracting(EventRecord::getEventType).containsExactly("page_view", "click");
+        verify(storageService, never()).recordActiveUser(anyString(), anyLong());
+        verify(storageService, never()).recordPageView(anyString(), anyLong());
+    }
+
+    @Test
+    void testProcessBatchReportsPerEventValidationFailures() {
+        // Given
+        AnalyticsEvent valid = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user123")
+                .sessionId("sess456")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+        AnalyticsEvent invalid = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("bad")
+                .sessionId("sess456")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+
+        when(validationManager.validate(valid)).thenReturn(ValidationResult.success());
+        when(validationManager.validate(invalid))
+                .thenThrow(new com.liftlab.analytics.validation.ValidationException("Invalid user"));
+        when(urlNormalizer.normalize("/home")).thenReturn("home");
+        when(storageService.recordEvents(any())).thenReturn(Mono.empty());
+
+        // When
+        StepVerifier.create(eventProcessingService.processBatch(Arrays.asList(invalid, valid)))
+                .expectNextMatches(result -> {
+                    assertThat(result.isSuccess()).isFalse();
+                    assertThat(result.getAccepted()).isEqualTo(1);
+                    assertThat(result.getRejected()).isEqualTo(1);
+                    assertThat(result.getResults().get(0).isSuccess()).isFalse();
+                    assertThat(result.getResults().get(0).getMessage()).isEqualTo("Invalid user");
+                    assertThat(result.getResults().get(1).isSuccess()).isTrue();
+                    return true;
+                })
+                .verifyComplete();
+
+        // Then - only the valid event reaches storage
+        verify(storageService, times(1)).recordEvents(argThat(records -> records.size() == 1));
+    }
+
+    @Test
+    void testProcessBatchMarksAcceptedEventsFailedWhenStorageFails() {
+        // Given
+        AnalyticsEvent event = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user123")
+                .sessionId("sess456")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+
+        when(validationManager.validate(event)).thenReturn(ValidationResult.success());
+        when(urlNormalizer.normalize("/home")).thenReturn("home");
+        when(storageService.recordEvents(any())).thenReturn(Mono.error(new RuntimeException("Redis down")));
+
+        // When/Then
+        StepVerifier.create(eventProcessingService.processBatch(List.of(event)))
+                .expectNextMatches(result -> {
+                    assertThat(result.isSuccess()).isFalse();
+                    assertThat(result.getRejected()).isEqualTo(1);
+                    assertThat(result.getResults().get(0).getMessage()).contains("Redis down");
+                    return true;
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testProcessBatchOrFailPropagatesStorageErrors() {
+        // Given
+        AnalyticsEvent event = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user123")
+                .sessionId("sess456")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+
+        when(validationManager.validate(event)).thenReturn(ValidationResult.success());
+        when(urlNormalizer.normalize("/home")).thenReturn("home");
+        when(storageService.recordEvents(any())).thenReturn(Mono.error(new RuntimeException("Redis down")));
+
+        // When/Then - callers that retry need to see the failure
+        StepVerifier.create(eventProcessingService.processBatchOrFail(List.of(event)))
+                .expectErrorMessage("Redis down")
+                .verify();
+    }
+
+    @Test
+    void testProcessBatchIgnoresTimeSeriesFailures() {
+        // Given
+        AnalyticsEvent event = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user123")
+                .sessionId("sess456")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+
+        when(validationManager.validate(event)).thenReturn(ValidationResult.success());
+        when(urlNormalizer.normalize("/home")).thenReturn("home");
+        when(storageService.recordEvents(any())).thenReturn(Mono.empty());
+        when(timeSeriesService.record(anyList())).thenReturn(Mono.error(new RuntimeException("Redis down")));
+
+        // When/Then - the event is still accepted
+        StepVerifier.create(eventProcessingService.processBatch(List.of(event)))
+                .expectNextMatches(result -> {
+                    assertThat(result.isSuccess()).isTrue();
+                    assertThat(result.getRejected()).isZero();
+                    return true;
+                })
+                .verifyComplete();
     }
-}
 
+    @Test
+    void testProcessEventCountsPagesOverTheCapAsOther() {
+        // Given
+        AnalyticsEvent event = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user123")
+                .sessionId("sess456")
+                .pageUrl("/random-123abc")
+                .eventType("page_view")
+                .build();
+
+        when(validationManager.validate(event)).thenReturn(ValidationResult.success());
+        when(urlNormalizer.normalize("/random-123abc")).thenReturn("random-123abc");
+        when(pageCardinalityGuard.admit("random-123abc")).thenReturn(PageView.OTHER_URL);
+
+        // When
+        StepVerifier.create(eventProcessingService.processEvent(event))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .verifyComplete();
+
+        // Then
+        ArgumentCaptor<EventRecord> captor = ArgumentCaptor.forClass(EventRecord.class);
+        verify(storageService).recordEvent(captor.capture());
+        assertThat(captor.getValue().getPageUrl()).isEqualTo(PageView.OTHER_URL);
+    }
+
+    @Test
+    void testProcessEventHandsEventToPreAggregatorWhenEnabled() {
+        // Given
+        AnalyticsEvent event = AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("user123")
+                .sessionId("sess456")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+
+        when(validationManager.validate(event)).thenReturn(ValidationResult.success());
+        when(urlNormalizer.normalize("/home")).thenReturn("home");
+        when(preAggregator.isEnabled()).thenReturn(true);
+
+        // When
+        StepVerifier.create(eventProcessingService.processEvent(event))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .verifyComplete();
+
+        // Then
+        ArgumentCaptor<EventRecord> captor = ArgumentCaptor.forClass(EventRecord.class);
+        verify(preAggregator).add(captor.capture());
+        assertThat(captor.getValue().getPageUrl()).isEqualTo("home");
+        verify(storageService, never()).recordEvent(any());
+        // The series is written with the pre-aggregated tick
+        verify(timeSeriesService, never()).record(anyList());
+    }
+}
@@ -0,0 +1,197 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.EventRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for IngestJournal
+ */
+class IngestJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testReleasedEntriesAreNotReplayed() throws IOException {
+        // Given
+        IngestJournal journal = journal(meterRegistry, 1 << 20);
+        journal.open(records -> { }, 10);
+        List<IngestJournal.Entry> entries = List.of(journal.append(record("user1")), journal.append(record("user2")));
+        journal.sync();
+        assertThat(journalBytes()).isPositive();
+
+        // When
+        journal.release(entries);
+        journal.close();
+
+        // Then
+        assertThat(journalBytes()).isZero();
+        assertThat(segments()).isEmpty();
+        assertThat(replay()).isEmpty();
+    }
+
+    @Test
+    void testUnreleasedEntriesAreReplayedOnOpen() throws IOException {
+        // Given - small segments, so the entries span several files
+        IngestJournal journal = journal(meterRegistry, 64);
+        journal.open(records -> { }, 10);
+        for (int i = 0; i < 5; i++) {
+            journal.append(record("user" + i));
+            journal.sync();
+        }
+        journal.close();
+        assertThat(segments()).hasSizeGreaterThan(1);
+
+        // When
+        List<EventRecord> replayed = replay();
+
+        // Then - in order, and the replayed segments are gone
+        assertThat(replayed).extracting(EventRecord::getUserId)
+                .containsExactly("user0", "user1", "user2", "user3", "user4");
+        assertThat(replayed.get(0).getTimestamp()).isEqualTo(1_000L);
+        assertThat(segments()).isEmpty();
+    }
+
+    @Test
+    void testOnlyUnreleasedEntriesAreReplayed() throws IOException {
+        // Given - the second of three entries failed to be written
+        IngestJournal journal = journal(meterRegistry, 1 << 20);
+        journal.open(records -> { }, 10);
+        IngestJournal.Entry first = journal.append(record("user1"));
+        journal.append(record("user2"));
+        IngestJournal.Entry third = journal.append(record("user3"));
+        journal.sync();
+
+        // When
+        journal.release(List.of(first, third));
+        journal.close();
+
+        // Then
+        assertThat(replay()).extracting(EventRecord::getUserId).containsExactly("user2");
+        assertThat(segments()).isEmpty();
+    }
+
+    @Test
+    void testBatchesReplayedBeforeAFailureAreNotReplayedAgain() throws IOException {
+        // Given
+        IngestJournal journal = journal(meterRegistry, 1 << 20);
+        journal.open(records -> { }, 10);
+        for (int i = 0; i < 4; i++) {
+            journal.append(record("user" + i));
+        }
+        journal.sync();
+        journal.close();
+
+        // When - the second batch of two fails
+        List<EventRecord> written = new ArrayList<>();
+        IngestJournal failing = journal(new SimpleMeterRegistry(), 1 << 20);
+        failing.open(records -> {
+            if (!written.isEmpty()) {
+                throw new IllegalStateException("Redis down");
+            }
+            written.addAll(records);
+        }, 2);
+        failing.close();
+
+        // Then
+        assertThat(written).extracting(EventRecord::getUserId).containsExactly("user0", "user1");
+        assertThat(replay()).extracting(EventRecord::getUserId).containsExactly("user2", "user3");
+    }
+
+    @Test
+    void testSegmentIsKeptWhenReplayFails() throws IOException {
+        // Given
+        IngestJournal journal = journal(meterRegistry, 1 << 20);
+        journal.open(records -> { }, 10);
+        journal.append(record("user1"));
+        journal.sync();
+        journal.close();
+
+        // When
+        IngestJournal failing = journal(new SimpleMeterRegistry(), 1 << 20);
+        failing.open(records -> {
+            throw new IllegalStateException("Redis down");
+        }, 10);
+        failing.close();
+
+        // Then
+        assertThat(replay()).extracting(EventRecord::getUserId).containsExactly("user1");
+    }
+
+    @Test
+    void testTornTailIsIgnoredOnReplay() throws IOException {
+        // Given
+        IngestJournal journal = journal(meterRegistry, 1 << 20);
+        journal.open(records -> { }, 10);
+        journal.append(record("user1"));
+        journal.sync();
+        journal.close();
+        // A crash in the middle of the next entry
+        Files.write(segments().get(0), new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        // When/Then
+        assertThat(replay()).extracting(EventRecord::getUserId).containsExactly("user1");
+    }
+
+    @Test
+    void testDisabledJournalKeepsNothing() throws IOException {
+        // Given
+        IngestJournal journal = new IngestJournal(meterRegistry, false, directory.resolve("journal").toString(), true, 1 << 20);
+
+        // When
+        journal.open(records -> { }, 10);
+
+        // Then
+        assertThat(journal.append(record("user1"))).isNull();
+        journal.sync();
+        journal.close();
+        assertThat(Files.exists(directory.resolve("journal"))).isFalse();
+    }
+
+    private IngestJournal journal(SimpleMeterRegistry registry, long segmentBytes) {
+        return new IngestJournal(registry, true, directory.toString(), false, segmentBytes);
+    }
+
+    private List<EventRecord> replay() throws IOException {
+        List<EventRecord> replayed = new ArrayList<>();
+        IngestJournal journal = journal(new SimpleMeterRegistry(), 1 << 20);
+        journal.open(replayed::addAll, 2);
+        journal.close();
+        return replayed;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private double journalBytes() {
+        return meterRegistry.get("analytics.ingest.journal.bytes").gauge().value();
+    }
+
+    private static EventRecord record(String userId) {
+        return EventRecord.builder()
+                .userId(userId)
+                .sessionId("sess1")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .timestamp(1_000L)
+                .build();
+    }
+}
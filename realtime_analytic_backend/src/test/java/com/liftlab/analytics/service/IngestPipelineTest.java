@@ -0,0 +1,418 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.exception.IngestQueueFullException;
+import com.liftlab.analytics.model.AckMode;
+import com.liftlab.analytics.model.AnalyticsEvent;
+import com.liftlab.analytics.model.EventProcessingResult;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.validation.ValidationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.util.retry.Retry;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for IngestPipeline
+ */
+@ExtendWith(MockitoExtension.class)
+class IngestPipelineTest {
+
+    private static final Duration WAIT = Duration.ofSeconds(5);
+
+    @Mock
+    private EventProcessingService eventProcessingService;
+
+    @TempDir
+    Path journalDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private IngestJournal journal;
+    private IngestPipeline pipeline;
+    // Holds the writes of tests that fill the queue
+    private final CompletableFuture<Void> writeGate = new CompletableFuture<>();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        journal = new IngestJournal(meterRegistry, true, journalDir.toString(), false, 1 << 20);
+        lenient().when(eventProcessingService.toEventRecord(any())).thenAnswer(invocation -> {
+            AnalyticsEvent event = invocation.getArgument(0);
+            if (event.getUserId() == null) {
+                throw new ValidationException("User ID is required");
+            }
+            return EventRecord.builder().userId(event.getUserId()).sessionId(event.getSessionId())
+                    .pageUrl("home").eventType(event.getEventType()).timestamp(event.getTimestamp().toEpochMilli())
+                    .build();
+        });
+        lenient().when(eventProcessingService.write(anyList())).thenReturn(Mono.empty());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        writeGate.complete(null);
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void testPublishedEventsAreValidatedAndWritten() {
+        // Given
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // When
+        StepVerifier.create(pipeline.publish(event("user1")))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .expectComplete()
+                .verify(WAIT);
+
+        // Then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EventRecord>> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventProcessingService, timeout(WAIT.toMillis())).write(captor.capture());
+        assertThat(captor.getValue()).extracting(EventRecord::getUserId).containsExactly("user1");
+        assertThat(meterRegistry.get("analytics.ingest.stage.latency").tag("stage", "validate").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void testInvalidEventIsReportedAndNotWritten() {
+        // Given
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // When/Then
+        StepVerifier.create(pipeline.publish(event(null)))
+                .expectNextMatches(result -> !result.isSuccess() && result.getMessage().contains("User ID"))
+                .expectComplete()
+                .verify(WAIT);
+        StepVerifier.create(pipeline.publish(event("user1")))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .expectComplete()
+                .verify(WAIT);
+
+        verify(eventProcessingService, timeout(WAIT.toMillis()).atLeastOnce()).write(anyList());
+        verify(eventProcessingService, never()).write(argThat(records ->
+                records.stream().anyMatch(record -> record.getUserId() == null)));
+    }
+
+    @Test
+    void testFullQueueRejectsWithRejectPolicy() {
+        // Given - the writer holds the only two slots until the gate opens
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.fromFuture(writeGate));
+        pipeline = start(IngestPipeline.OverflowPolicy.REJECT, 1000);
+        pipeline.publish(event("user1")).block(WAIT);
+        pipeline.publish(event("user2")).block(WAIT);
+
+        // When/Then
+        StepVerifier.create(pipeline.publish(event("user3")))
+                .expectError(IngestQueueFullException.class)
+                .verify(WAIT);
+        assertThat(meterRegistry.get("analytics.ingest.events.rejected").counter().count()).isEqualTo(1);
+        assertThat(pipeline.getDepth()).isEqualTo(2);
+
+        writeGate.complete(null);
+        StepVerifier.create(pipeline.publish(event("user3")).retryWhen(Retry.fixedDelay(50, Duration.ofMillis(10))))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .expectComplete()
+                .verify(WAIT);
+    }
+
+    @Test
+    void testFullQueueDropsWithDropPolicy() {
+        // Given
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.fromFuture(writeGate));
+        pipeline = start(IngestPipeline.OverflowPolicy.DROP, 1000);
+        pipeline.publish(event("user1")).block(WAIT);
+        pipeline.publish(event("user2")).block(WAIT);
+
+        // When/Then
+        StepVerifier.create(pipeline.publish(event("user3")))
+                .expectNextMatches(result -> !result.isSuccess() && result.getMessage().contains("dropped"))
+                .expectComplete()
+                .verify(WAIT);
+        assertThat(meterRegistry.get("analytics.ingest.events.dropped").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void testFullQueueBlocksUntilTimeoutWithBlockPolicy() {
+        // Given
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.fromFuture(writeGate));
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 50);
+        pipeline.publish(event("user1")).block(WAIT);
+        pipeline.publish(event("user2")).block(WAIT);
+
+        // When/Then
+        long start = System.nanoTime();
+        StepVerifier.create(pipeline.publish(event("user3")))
+                .expectError(IngestQueueFullException.class)
+                .verify(WAIT);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+    }
+
+    @Test
+    void testAckNoneAnswersWithoutWaitingForValidation() {
+        // Given
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // When/Then - the invalid event is only rejected by the validate stage, after the answer
+        StepVerifier.create(pipeline.publish(event(null), AckMode.NONE))
+                .expectNextMatches(result -> result.isSuccess() && result.getMessage().contains("queued"))
+                .expectComplete()
+                .verify(WAIT);
+        verify(eventProcessingService, timeout(WAIT.toMillis())).toEventRecord(any());
+        verify(eventProcessingService, never()).write(anyList());
+    }
+
+    @Test
+    void testAcceptedEventsStayJournaledUntilWritten() {
+        // Given
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.fromFuture(writeGate));
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // When - answered while its write is still held
+        StepVerifier.create(pipeline.publish(event("user1"), AckMode.ACCEPTED))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .expectComplete()
+                .verify(WAIT);
+        verify(eventProcessingService, timeout(WAIT.toMillis())).write(anyList());
+
+        // Then
+        assertThat(journalBytes()).isPositive();
+
+        // The next batch is written after the first one is released from the journal
+        writeGate.complete(null);
+        pipeline.publish(event("user2"), AckMode.DURABLE).block(WAIT);
+        assertThat(journalBytes()).isZero();
+    }
+
+    @Test
+    void testAckDurableAnswersOnceTheBatchIsWritten() throws Exception {
+        // Given
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.fromFuture(writeGate));
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // When
+        CompletableFuture<EventProcessingResult> result = pipeline.publish(event("user1"), AckMode.DURABLE).toFuture();
+        verify(eventProcessingService, timeout(WAIT.toMillis())).write(anyList());
+
+        // Then
+        assertThat(result).isNotDone();
+        writeGate.complete(null);
+        assertThat(result.get(WAIT.toMillis(), TimeUnit.MILLISECONDS).isSuccess()).isTrue();
+        // Never journaled
+        assertThat(journalBytes()).isZero();
+    }
+
+    @Test
+    void testAckDurableReportsTheWriteFailure() {
+        // Given
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.error(new IllegalStateException("Redis down")));
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // When/Then
+        StepVerifier.create(pipeline.publish(event("user1"), AckMode.DURABLE))
+                .expectNextMatches(result -> !result.isSuccess() && result.getMessage().contains("Redis down"))
+                .expectComplete()
+                .verify(WAIT);
+        assertThat(meterRegistry.get("analytics.ingest.write.failures").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void testJournaledEventsOfAFailedWriteAreWrittenAgain() throws InterruptedException {
+        // Given - storage fails the first write
+        when(eventProcessingService.write(anyList()))
+                .thenReturn(Mono.error(new IllegalStateException("Redis down")))
+                .thenReturn(Mono.empty());
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // When
+        StepVerifier.create(pipeline.publish(event("user1"), AckMode.ACCEPTED))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .expectComplete()
+                .verify(WAIT);
+
+        // Then - written again without a restart, and released from the journal
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EventRecord>> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventProcessingService, timeout(WAIT.toMillis()).times(2)).write(captor.capture());
+        assertThat(captor.getAllValues()).allSatisfy(records ->
+                assertThat(records).extracting(EventRecord::getUserId).containsExactly("user1"));
+        await(() -> journalBytes() == 0);
+        assertThat(meterRegistry.get("analytics.ingest.write.failures").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void testJournaledEventsAreReplayedOnStart() throws Exception {
+        // Given - an accepted event whose write never completed
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.fromFuture(writeGate));
+        IngestPipeline crashed = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+        crashed.publish(event("user1"), AckMode.ACCEPTED).block(WAIT);
+        verify(eventProcessingService, timeout(WAIT.toMillis())).write(anyList());
+        journal.close();
+        reset(eventProcessingService);
+        when(eventProcessingService.write(anyList())).thenReturn(Mono.empty());
+
+        // When
+        journal = new IngestJournal(new SimpleMeterRegistry(), true, journalDir.toString(), false, 1 << 20);
+        pipeline = start(IngestPipeline.OverflowPolicy.BLOCK, 1000);
+
+        // Then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EventRecord>> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventProcessingService).write(captor.capture());
+        assertThat(captor.getValue()).extracting(EventRecord::getUserId).containsExactly("user1");
+        writeGate.complete(null);
+        crashed.close();
+    }
+
+    @Test
+    void testCloseWritesEverythingPublished() throws InterruptedException {
+        // Given
+        pipeline = new IngestPipeline(eventProcessingService, journal, meterRegistry, true, 64,
+                IngestPipeline.OverflowPolicy.BLOCK, 1000, 500, 5000, 10);
+        pipeline.start();
+        List<Mono<EventProcessingResult>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(pipeline.publish(event("user" + i)));
+        }
+        Mono.when(results).block(WAIT);
+
+        // When
+        pipeline.close();
+
+        // Then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EventRecord>> captor = ArgumentCaptor.forClass(List.class);
+        verify(eventProcessingService, atLeastOnce()).write(captor.capture());
+        assertThat(captor.getAllValues().stream().mapToInt(List::size).sum()).isEqualTo(20);
+        assertThat(pipeline.getDepth()).isZero();
+    }
+
+    @Test
+    void testCloseAnswersEventsPublishedWhileClosing() throws Exception {
+        // Given - the race needs a publisher between claiming and publishing its slot as close() runs
+        AtomicLong written = new AtomicLong();
+        when(eventProcessingService.write(anyList())).thenAnswer(invocation -> {
+            written.addAndGet(invocation.<List<EventRecord>>getArgument(0).size());
+            return Mono.empty();
+        });
+        for (int round = 0; round < 5; round++) {
+            written.set(0);
+            IngestJournal roundJournal = new IngestJournal(meterRegistry, true,
+                    journalDir.resolve("round" + round).toString(), false, 1 << 20);
+            pipeline = new IngestPipeline(eventProcessingService, roundJournal, meterRegistry, true, 256,
+                    IngestPipeline.OverflowPolicy.BLOCK, 1000, 500, 5000, 10);
+            pipeline.start();
+            // More publishers than cores, so some are preempted between claiming and publishing
+            int threads = 2 * Runtime.getRuntime().availableProcessors() + 2;
+            List<CompletableFuture<EventProcessingResult>> results = new ArrayList<>();
+            CountDownLatch publishing = new CountDownLatch(threads);
+            List<Thread> publishers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread publisher = new Thread(() -> {
+                    List<CompletableFuture<EventProcessingResult>> published = new ArrayList<>();
+                    publishing.countDown();
+                    // Until the pipeline rejects events after close; a full queue blocks them until then
+                    CompletableFuture<EventProcessingResult> result;
+                    do {
+                        result = pipeline.publish(event("user1")).toFuture();
+                        published.add(result);
+                    } while (!result.isCompletedExceptionally());
+                    synchronized (results) {
+                        results.addAll(published);
+                    }
+                });
+                publisher.start();
+                publishers.add(publisher);
+            }
+            publishing.await();
+
+            // When
+            pipeline.close();
+            for (Thread publisher : publishers) {
+                publisher.join(WAIT.toMillis());
+            }
+
+            // Then - every accepted event is answered and written
+            long accepted = 0;
+            for (CompletableFuture<EventProcessingResult> result : results) {
+                if (!result.isCompletedExceptionally()) {
+                    assertThat(result.get(WAIT.toMillis(), TimeUnit.MILLISECONDS).isSuccess()).isTrue();
+                    accepted++;
+                }
+            }
+            assertThat(written.get()).isEqualTo(accepted);
+            assertThat(pipeline.getDepth()).isZero();
+        }
+    }
+
+    @Test
+    void testDisabledPipelineProcessesEventsDirectly() {
+        // Given
+        AnalyticsEvent event = event("user1");
+        when(eventProcessingService.processEvent(event)).thenReturn(Mono.just(EventProcessingResult.success()));
+        pipeline = new IngestPipeline(eventProcessingService, journal, meterRegistry, false, 64,
+                IngestPipeline.OverflowPolicy.BLOCK, 1000, 500, 5000, 10);
+        pipeline.start();
+
+        // When/Then
+        StepVerifier.create(pipeline.publish(event))
+                .expectNextMatches(EventProcessingResult::isSuccess)
+                .verifyComplete();
+        verify(eventProcessingService, never()).toEventRecord(any());
+    }
+
+    private IngestPipeline start(IngestPipeline.OverflowPolicy overflowPolicy, long blockTimeoutMillis) {
+        // Two slots, so the queue fills up after two events
+        IngestPipeline started = new IngestPipeline(eventProcessingService, journal, meterRegistry, true, 2,
+                overflowPolicy, blockTimeoutMillis, 500, 5000, 10);
+        started.start();
+        return started;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + WAIT.toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    private double journalBytes() {
+        return meterRegistry.get("analytics.ingest.journal.bytes").gauge().value();
+    }
+
+    private static AnalyticsEvent event(String userId) {
+        return AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId(userId)
+                .sessionId("sess1")
+                .pageUrl("/home")
+                .eventType("page_view")
+                .build();
+    }
+}
@@ -0,0 +1,106 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.SweepResult;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for MetricsCleanupSweeper
+ */
+@ExtendWith(MockitoExtension.class)
+class MetricsCleanupSweeperTest {
+
+    @Mock
+    private MetricsStorageService storageService;
+
+    private MeterRegistry meterRegistry;
+    private MetricsCleanupSweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        sweeper = new MetricsCleanupSweeper(storageService, meterRegistry);
+        ReflectionTestUtils.setField(sweeper, "maxKeysPerTick", 50);
+        when(storageService.cleanupActiveUsers(anyLong())).thenReturn(Mono.empty());
+    }
+
+    @Test
+    void testSweepResumesFromPreviousCursorWithKeyBudget() {
+        // Given
+        when(storageService.sweepExpiredEntries(anyLong(), eq("0"), eq(50)))
+                .thenReturn(Mono.just(result("17", 50, 3)));
+        when(storageService.sweepExpiredEntries(anyLong(), eq("17"), eq(50)))
+                .thenReturn(Mono.just(result("42", 50, 0)));
+
+        // When
+        StepVerifier.create(sweeper.sweep()).expectNextCount(1).verifyComplete();
+        StepVerifier.create(sweeper.sweep()).expectNextCount(1).verifyComplete();
+
+        // Then
+        verify(storageService).sweepExpiredEntries(anyLong(), eq("0"), eq(50));
+        verify(storageService).sweepExpiredEntries(anyLong(), eq("17"), eq(50));
+        verify(storageService, times(2)).cleanupActiveUsers(anyLong());
+        assertThat(sweeper.getCursor()).isEqualTo("42");
+        assertThat(meterRegistry.counter("analytics.cleanup.keys.scanned").count()).isEqualTo(100);
+        assertThat(meterRegistry.counter("analytics.cleanup.entries.removed").count()).isEqualTo(3);
+        assertThat(meterRegistry.get("analytics.cleanup.pass.keys.scanned").gauge().value()).isEqualTo(100);
+    }
+
+    @Test
+    void testCompletedPassIsCountedAndProgressReset() {
+        // Given
+        when(storageService.sweepExpiredEntries(anyLong(), eq("0"), eq(50)))
+                .thenReturn(Mono.just(result("9", 50, 0)));
+        when(storageService.sweepExpiredEntries(anyLong(), eq("9"), eq(50)))
+                .thenReturn(Mono.just(result("0", 20, 1)));
+
+        // When
+        sweeper.sweep().block();
+        sweeper.sweep().block();
+
+        // Then - the scan wrapped around, so the next tick starts a new pass
+        assertThat(sweeper.getCursor()).isEqualTo(SweepResult.START_CURSOR);
+        assertThat(meterRegistry.counter("analytics.cleanup.passes").count()).isEqualTo(1);
+        assertThat(meterRegistry.get("analytics.cleanup.pass.keys.scanned").gauge().value()).isZero();
+        assertThat(meterRegistry.counter("analytics.cleanup.keys.scanned").count()).isEqualTo(70);
+    }
+
+    @Test
+    void testFailedTickKeepsCursor() {
+        // Given
+        when(storageService.sweepExpiredEntries(anyLong(), eq("0"), eq(50)))
+                .thenReturn(Mono.just(result("17", 50, 0)));
+        when(storageService.sweepExpiredEntries(anyLong(), eq("17"), eq(50)))
+                .thenReturn(Mono.error(new RuntimeException("Redis down")));
+
+        // When
+        sweeper.sweep().block();
+        StepVerifier.create(sweeper.sweep()).verifyComplete();
+
+        // Then
+        assertThat(sweeper.getCursor()).isEqualTo("17");
+        assertThat(meterRegistry.counter("analytics.cleanup.failures").count()).isEqualTo(1);
+    }
+
+    private static SweepResult result(String cursor, long keysScanned, long entriesRemoved) {
+        return SweepResult.builder()
+                .cursor(cursor)
+                .keysScanned(keysScanned)
+                .entriesRemoved(entriesRemoved)
+                .build();
+    }
+}
@@ -1,7 +1,11 @@
 package com.liftlab.analytics.service;
 
+import com.liftlab.analytics.metrics.ActiveSessionsMetric;
+import com.liftlab.analytics.metrics.ActiveUsersMetric;
 import com.liftlab.analytics.metrics.MetricsCollector;
+import com.liftlab.analytics.metrics.TopPagesMetric;
 import com.liftlab.analytics.metrics.model.MetricContext;
+import com.liftlab.analytics.metrics.model.MetricWindow;
 import com.liftlab.analytics.model.MetricsResponse;
 import com.liftlab.analytics.repository.MetricsStorageService;
 import org.junit.jupiter.api.BeforeEach;
@@ -9,15 +13,21 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 /**
@@ -40,7 +50,7 @@ class MetricsServiceTest {
     }
 
     @Test
-    void testGetCurrentMetricsCallsCleanupFirst() {
+    void testGetCurrentMetricsDoesNotRunCleanup() {
         // Given
         MetricsResponse mockResponse = MetricsResponse.builder()
                 .activeUsersCount(5)
@@ -49,9 +59,6 @@ class MetricsServiceTest {
                 .timestamp(java.time.Instant.now())
                 .build();
 
-        when(storageService.cleanupActiveUsers(anyLong())).thenReturn(Mono.empty());
-        when(storageService.cleanupPageViews(anyLong())).thenReturn(Mono.empty());
-        when(storageService.cleanupUserSessions(anyLong())).thenReturn(Mono.empty());
         when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
                 .thenReturn(Mono.just(mockResponse));
 
@@ -63,31 +70,33 @@ class MetricsServiceTest {
                 })
                 .verifyComplete();
 
-        // Then - verify cleanup was called before metrics calculation
-        verify(storageService, times(1)).cleanupActiveUsers(anyLong());
-        verify(storageService, times(1)).cleanupPageViews(anyLong());
-        verify(storageService, times(1)).cleanupUserSessions(anyLong());
-        // Verify metrics collector was called after cleanup
+        // Then - reads are pure queries, cleanup is left to the background sweeper
         verify(metricsCollector, times(1)).calculateAllMetrics(any(MetricContext.class));
+        verifyNoInteractions(storageService);
     }
 
     @Test
-    void testGetCurrentMetricsWaitsForCleanupBeforeCalculating() {
+    void testGetCurrentMetricsHandlesMetricsCalculationErrors() {
+        // Given
+        when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
+                .thenReturn(Mono.error(new RuntimeException("Calculation failed")));
+
+        // When/Then
+        StepVerifier.create(metricsService.getCurrentMetrics())
+                .expectError(RuntimeException.class)
+                .verify();
+    }
+
+    @Test
+    void testGetCurrentMetricsUsesCorrectTimeWindows() {
         // Given
         MetricsResponse mockResponse = MetricsResponse.builder()
-                .activeUsersCount(10)
+                .activeUsersCount(0)
                 .topPages(Collections.emptyList())
                 .activeSessionsByUser(Collections.emptyMap())
                 .timestamp(java.time.Instant.now())
                 .build();
 
-        // Simulate slow cleanup - using then() to ensure sequential execution
-        when(storageService.cleanupActiveUsers(anyLong()))
-                .thenReturn(Mono.delay(Duration.ofMillis(50)).then());
-        when(storageService.cleanupPageViews(anyLong()))
-                .thenReturn(Mono.delay(Duration.ofMillis(50)).then());
-        when(storageService.cleanupUserSessions(anyLong()))
-                .thenReturn(Mono.delay(Duration.ofMillis(50)).then());
         when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
                 .thenReturn(Mono.just(mockResponse));
 
@@ -96,81 +105,274 @@ class MetricsServiceTest {
                 .expectNext(mockResponse)
                 .verifyComplete();
 
-        // Then - verify cleanup was called and metrics calculation happened
-        verify(storageService, times(1)).cleanupActiveUsers(anyLong());
-        verify(storageService, times(1)).cleanupPageViews(anyLong());
-        verify(storageService, times(1)).cleanupUserSessions(anyLong());
+        // Then - verify context is built with correct time windows
+        verify(metricsCollector, times(1)).calculateAllMetrics(argThat(context -> {
+            long now = System.currentTimeMillis();
+            long fiveMinAgo = now - Duration.ofMinutes(5).toMillis();
+            long fifteenMinAgo = now - Duration.ofMinutes(15).toMillis();
+
+            // Allow some tolerance for time differences
+            long tolerance = 1000; // 1 second tolerance
+            return Math.abs(context.getCurrentTimestamp() - now) < tolerance &&
+                   Math.abs(context.getFiveMinutesAgo() - fiveMinAgo) < tolerance &&
+                   Math.abs(context.getFifteenMinutesAgo() - fifteenMinAgo) < tolerance &&
+                   context.getStorageService() == storageService;
+        }));
+    }
+
+    @Test
+    void testSnapshotModeServesLatestSnapshotWithoutRecalculating() {
+        // Given
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(3)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(java.time.Instant.now())
+                .build();
+        when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
+                .thenReturn(Mono.just(mockResponse));
+
+        // When
+        metricsService.scheduledRefresh();
+
+        // Then - every read is served from the snapshot
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(metricsService.getCurrentMetrics())
+                    .expectNextMatches(response -> response.getActiveUsersCount() == 3)
+                    .verifyComplete();
+        }
         verify(metricsCollector, times(1)).calculateAllMetrics(any(MetricContext.class));
     }
 
     @Test
-    void testGetCurrentMetricsHandlesCleanupErrors() {
+    void testConcurrentRefreshesShareOneCalculation() {
         // Given
-        when(storageService.cleanupActiveUsers(anyLong()))
-                .thenReturn(Mono.error(new RuntimeException("Cleanup failed")));
-        when(storageService.cleanupPageViews(anyLong())).thenReturn(Mono.empty());
-        when(storageService.cleanupUserSessions(anyLong())).thenReturn(Mono.empty());
+        Sinks.One<MetricsResponse> calculation = Sinks.one();
+        when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
+                .thenReturn(calculation.asMono());
 
-        // When/Then
-        StepVerifier.create(metricsService.getCurrentMetrics())
-                .expectError(RuntimeException.class)
-                .verify();
+        // When - two reads arrive before the first snapshot exists
+        StepVerifier first = StepVerifier.create(metricsService.getCurrentMetrics())
+                .expectNextMatches(response -> response.getActiveUsersCount() == 7)
+                .expectComplete()
+                .verifyLater();
+        StepVerifier second = StepVerifier.create(metricsService.refreshSnapshot())
+                .expectNextMatches(response -> response.getActiveUsersCount() == 7)
+                .expectComplete()
+                .verifyLater();
+        calculation.tryEmitValue(MetricsResponse.builder()
+                .activeUsersCount(7)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(java.time.Instant.now())
+                .build());
+
+        // Then
+        first.verify(Duration.ofSeconds(1));
+        second.verify(Duration.ofSeconds(1));
+        verify(metricsCollector, times(1)).calculateAllMetrics(any(MetricContext.class));
     }
 
     @Test
-    void testGetCurrentMetricsHandlesMetricsCalculationErrors() {
+    void testScheduledRefreshKeepsPreviousSnapshotOnError() {
         // Given
-        when(storageService.cleanupActiveUsers(anyLong())).thenReturn(Mono.empty());
-        when(storageService.cleanupPageViews(anyLong())).thenReturn(Mono.empty());
-        when(storageService.cleanupUserSessions(anyLong())).thenReturn(Mono.empty());
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(4)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(java.time.Instant.now())
+                .build();
         when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
-                .thenReturn(Mono.error(new RuntimeException("Calculation failed")));
+                .thenReturn(Mono.just(mockResponse))
+                .thenReturn(Mono.error(new RuntimeException("Redis unavailable")));
 
-        // When/Then
-        StepVerifier.create(metricsService.getCurrentMetrics())
-                .expectError(RuntimeException.class)
-                .verify();
+        // When
+        metricsService.scheduledRefresh();
+        metricsService.scheduledRefresh();
 
-        // Verify cleanup was called even if metrics calculation fails
-        verify(storageService, times(1)).cleanupActiveUsers(anyLong());
-        verify(storageService, times(1)).cleanupPageViews(anyLong());
-        verify(storageService, times(1)).cleanupUserSessions(anyLong());
+        // Then
+        StepVerifier.create(metricsService.getCurrentMetrics())
+                .expectNextMatches(response -> response.getActiveUsersCount() == 4)
+                .verifyComplete();
+        verify(metricsCollector, times(2)).calculateAllMetrics(any(MetricContext.class));
     }
 
     @Test
-    void testGetCurrentMetricsUsesCorrectTimeWindows() {
+    void testLiveModeCalculatesOnEveryRead() {
         // Given
+        ReflectionTestUtils.setField(metricsService, "readMode", MetricsService.ReadMode.LIVE);
         MetricsResponse mockResponse = MetricsResponse.builder()
-                .activeUsersCount(0)
+                .activeUsersCount(1)
                 .topPages(Collections.emptyList())
                 .activeSessionsByUser(Collections.emptyMap())
                 .timestamp(java.time.Instant.now())
                 .build();
+        when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
+                .thenReturn(Mono.just(mockResponse));
+
+        // When
+        metricsService.getCurrentMetrics().block();
+        metricsService.getCurrentMetrics().block();
+
+        // Then
+        verify(metricsCollector, times(2)).calculateAllMetrics(any(MetricContext.class));
+    }
 
-        when(storageService.cleanupActiveUsers(anyLong())).thenReturn(Mono.empty());
-        when(storageService.cleanupPageViews(anyLong())).thenReturn(Mono.empty());
-        when(storageService.cleanupUserSessions(anyLong())).thenReturn(Mono.empty());
+    @Test
+    void testRefreshedSnapshotsArePublishedToStream() {
+        // Given
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(8)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(java.time.Instant.now())
+                .build();
         when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
                 .thenReturn(Mono.just(mockResponse));
 
         // When
-        StepVerifier.create(metricsService.getCurrentMetrics())
+        metricsService.scheduledRefresh();
+
+        // Then - the latest snapshot is replayed to new stream subscribers
+        StepVerifier.create(metricsService.snapshotUpdates())
+                .expectNextMatches(response -> response.getActiveUsersCount() == 8)
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void testGetMetricsInLiveModeCalculatesOnlySelectedMetrics() {
+        // Given
+        ReflectionTestUtils.setField(metricsService, "readMode", MetricsService.ReadMode.LIVE);
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(2)
+                .timestamp(java.time.Instant.now())
+                .build();
+        when(metricsCollector.calculateMetrics(any(MetricContext.class), eq(Set.of("activeUsers"))))
+                .thenReturn(Mono.just(mockResponse));
+
+        // When/Then
+        StepVerifier.create(metricsService.getMetrics(Set.of("activeUsers"), null))
                 .expectNext(mockResponse)
                 .verifyComplete();
+        verify(metricsCollector, never()).calculateAllMetrics(any(MetricContext.class));
+    }
 
-        // Then - verify context is built with correct time windows
-        verify(metricsCollector, times(1)).calculateAllMetrics(argThat(context -> {
-            long now = System.currentTimeMillis();
-            long fiveMinAgo = now - Duration.ofMinutes(5).toMillis();
-            long fifteenMinAgo = now - Duration.ofMinutes(15).toMillis();
+    @Test
+    void testGetMetricsInSnapshotModeSelectsSnapshotFields() {
+        // Given
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(6)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(java.time.Instant.now())
+                .build();
+        when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
+                .thenReturn(Mono.just(mockResponse));
+        MetricsCollector selecting = new MetricsCollector(
+                Arrays.asList(new ActiveUsersMetric(), new TopPagesMetric(), new ActiveSessionsMetric()));
+        when(metricsCollector.select(any(MetricsResponse.class), anySet()))
+                .thenAnswer(invocation -> selecting.select(invocation.getArgument(0), invocation.getArgument(1)));
+        metricsService.scheduledRefresh();
 
-            // Allow some tolerance for time differences
-            long tolerance = 1000; // 1 second tolerance
-            return Math.abs(context.getCurrentTimestamp() - now) < tolerance &&
-                   Math.abs(context.getFiveMinutesAgo() - fiveMinAgo) < tolerance &&
-                   Math.abs(context.getFifteenMinutesAgo() - fifteenMinAgo) < tolerance &&
-                   context.getStorageService() == storageService;
-        }));
+        // When/Then
+        StepVerifier.create(metricsService.getMetrics(Set.of("topPages"), null))
+                .expectNextMatches(response -> response.getActiveUsersCount() == null
+                        && response.getTopPages() != null
+                        && response.getActiveSessionsByUser() == null)
+                .verifyComplete();
+        verify(metricsCollector, times(1)).calculateAllMetrics(any(MetricContext.class));
     }
-}
 
+    @Test
+    void testSnapshotRefreshCalculatesOnlyTheMetricsReadSinceThePreviousOne() {
+        // Given - the first snapshot holds every metric
+        MetricsResponse fullResponse = MetricsResponse.builder()
+                .activeUsersCount(6)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(java.time.Instant.now())
+                .build();
+        MetricsResponse activeUsersResponse = MetricsResponse.builder()
+                .activeUsersCount(7)
+                .timestamp(java.time.Instant.now())
+                .build();
+        when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
+                .thenReturn(Mono.just(fullResponse));
+        when(metricsCollector.calculateMetrics(any(MetricContext.class), eq(Set.of("activeUsers"))))
+                .thenReturn(Mono.just(activeUsersResponse));
+        when(metricsCollector.select(any(MetricsResponse.class), anySet()))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        metricsService.scheduledRefresh();
+
+        // When - only active users are read before the next refreshes
+        metricsService.getMetrics(Set.of("activeUsers"), null).block();
+        metricsService.scheduledRefresh();
+        metricsService.scheduledRefresh();
+
+        // Then
+        StepVerifier.create(metricsService.getMetrics(Set.of("activeUsers"), null))
+                .expectNextMatches(response -> response.getActiveUsersCount() == 7)
+                .verifyComplete();
+        verify(metricsCollector, times(1)).calculateAllMetrics(any(MetricContext.class));
+        verify(metricsCollector, times(2)).calculateMetrics(any(MetricContext.class), eq(Set.of("activeUsers")));
+    }
+
+    @Test
+    void testReadsOfMetricsTheSnapshotDoesNotHoldCalculateThem() {
+        // Given - a snapshot with active users only
+        MetricsResponse activeUsersResponse = MetricsResponse.builder()
+                .activeUsersCount(7)
+                .timestamp(java.time.Instant.now())
+                .build();
+        MetricsResponse topPagesResponse = MetricsResponse.builder()
+                .topPages(Collections.emptyList())
+                .timestamp(java.time.Instant.now())
+                .build();
+        MetricsResponse fullResponse = MetricsResponse.builder()
+                .activeUsersCount(8)
+                .topPages(Collections.emptyList())
+                .activeSessionsByUser(Collections.emptyMap())
+                .timestamp(java.time.Instant.now())
+                .build();
+        when(metricsCollector.calculateAllMetrics(any(MetricContext.class)))
+                .thenReturn(Mono.just(fullResponse));
+        when(metricsCollector.calculateMetrics(any(MetricContext.class), eq(Set.of("activeUsers"))))
+                .thenReturn(Mono.just(activeUsersResponse));
+        when(metricsCollector.calculateMetrics(any(MetricContext.class), eq(Set.of("topPages"))))
+                .thenReturn(Mono.just(topPagesResponse));
+        when(metricsCollector.select(any(MetricsResponse.class), anySet()))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        metricsService.scheduledRefresh();
+        metricsService.getMetrics(Set.of("activeUsers"), null).block();
+        metricsService.scheduledRefresh();
+
+        // When/Then - other metrics are calculated for the read, and a full read refreshes every metric
+        StepVerifier.create(metricsService.getMetrics(Set.of("topPages"), null))
+                .expectNext(topPagesResponse)
+                .verifyComplete();
+        StepVerifier.create(metricsService.getCurrentMetrics())
+                .expectNextMatches(response -> response.getActiveUsersCount() == 8)
+                .verifyComplete();
+        verify(metricsCollector, times(2)).calculateAllMetrics(any(MetricContext.class));
+    }
+
+    @Test
+    void testGetMetricsForWindowCalculatesWithThatWindow() {
+        // Given - snapshot mode, but snapshots only hold the default windows
+        MetricsResponse mockResponse = MetricsResponse.builder()
+                .activeUsersCount(40)
+                .timestamp(java.time.Instant.now())
+                .build();
+        when(metricsCollector.calculateMetrics(
+                argThat(context -> context.getWindow() == MetricWindow.ONE_HOUR), eq(Set.of("activeUsers"))))
+                .thenReturn(Mono.just(mockResponse));
+
+        // When/Then
+        StepVerifier.create(metricsService.getMetrics(Set.of("activeUsers"), MetricWindow.ONE_HOUR))
+                .expectNextMatches(response -> response.getActiveUsersCount() == 40
+                        && "1h".equals(response.getWindow()))
+                .verifyComplete();
+        verify(metricsCollector, never()).calculateAllMetrics(any(MetricContext.class));
+    }
+}
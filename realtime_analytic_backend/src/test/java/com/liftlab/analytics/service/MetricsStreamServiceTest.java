@@ -0,0 +1,106 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.MetricsDelta;
+import com.liftlab.analytics.model.MetricsResponse;
+import com.liftlab.analytics.model.PageView;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for MetricsStreamService
+ */
+@ExtendWith(MockitoExtension.class)
+class MetricsStreamServiceTest {
+
+    @Mock
+    private MetricsService metricsService;
+
+    private Sinks.Many<MetricsResponse> snapshots;
+    private MetricsStreamService streamService;
+
+    @BeforeEach
+    void setUp() {
+        snapshots = Sinks.many().replay().latest();
+        when(metricsService.snapshotUpdates()).thenReturn(snapshots.asFlux());
+        streamService = new MetricsStreamService(metricsService, 60_000);
+    }
+
+    @Test
+    void testFullFrameThenOnlyChangedFields() {
+        // Given
+        snapshots.tryEmitNext(snapshot(5, List.of(page("/home", 10L)), Map.of("user1", 1)));
+
+        // When/Then
+        StepVerifier.create(streamService.stream())
+                .assertNext(event -> {
+                    assertThat(event.event()).isEqualTo(MetricsStreamService.FULL_EVENT);
+                    assertThat(((MetricsResponse) event.data()).getActiveUsersCount()).isEqualTo(5);
+                })
+                .then(() -> snapshots.tryEmitNext(snapshot(5, List.of(page("/home", 10L)), Map.of("user1", 1))))
+                .then(() -> snapshots.tryEmitNext(snapshot(6, List.of(page("/home", 10L)), Map.of("user1", 1))))
+                .assertNext(event -> {
+                    // The unchanged refresh was skipped; this delta only carries the user count
+                    assertThat(event.event()).isEqualTo(MetricsStreamService.DELTA_EVENT);
+                    MetricsDelta delta = (MetricsDelta) event.data();
+                    assertThat(delta.getActiveUsersCount()).isEqualTo(6);
+                    assertThat(delta.getTopPages()).isNull();
+                    assertThat(delta.getActiveSessionsByUser()).isNull();
+                    assertThat(delta.getTimestamp()).isNotNull();
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void testLateSubscriberStartsWithLatestFullFrame() {
+        // Given - one client already connected while metrics changed
+        snapshots.tryEmitNext(snapshot(1, List.of(), Map.of()));
+        List<ServerSentEvent<Object>> firstClient = new ArrayList<>();
+        Disposable subscription = streamService.stream().subscribe(firstClient::add);
+        snapshots.tryEmitNext(snapshot(2, List.of(page("/about", 3L)), Map.of()));
+
+        // When/Then
+        StepVerifier.create(streamService.stream())
+                .assertNext(event -> {
+                    assertThat(event.event()).isEqualTo(MetricsStreamService.FULL_EVENT);
+                    MetricsResponse full = (MetricsResponse) event.data();
+                    assertThat(full.getActiveUsersCount()).isEqualTo(2);
+                    assertThat(full.getTopPages()).containsExactly(page("/about", 3L));
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+        assertThat(firstClient).extracting(ServerSentEvent::event)
+                .containsExactly(MetricsStreamService.FULL_EVENT, MetricsStreamService.DELTA_EVENT);
+        subscription.dispose();
+    }
+
+    private static MetricsResponse snapshot(int activeUsers, List<PageView> topPages, Map<String, Integer> sessions) {
+        return MetricsResponse.builder()
+                .activeUsersCount(activeUsers)
+                .topPages(topPages)
+                .activeSessionsByUser(sessions)
+                .timestamp(Instant.now())
+                .build();
+    }
+
+    private static PageView page(String url, long views) {
+        return PageView.builder().url(url).viewCount(views).build();
+    }
+}
+
@@ -0,0 +1,109 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.PageView;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for PageCardinalityGuard
+ */
+class PageCardinalityGuardTest {
+
+    private static final long WINDOW = 60_000;
+
+    private final AtomicLong now = new AtomicLong(10 * WINDOW);
+    private MeterRegistry meterRegistry;
+    private PageCardinalityGuard guard;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        // At most two pages; an overflow URL may be promoted after 3 events in a window
+        guard = new PageCardinalityGuard(meterRegistry, 2, WINDOW, 3, 8, now::get);
+    }
+
+    @Test
+    void testUrlsOverTheCapAreCountedAsOther() {
+        assertThat(guard.admit("home")).isEqualTo("home");
+        assertThat(guard.admit("cart")).isEqualTo("cart");
+        assertThat(guard.admit("random-1")).isEqualTo(PageView.OTHER_URL);
+        assertThat(guard.admit("random-2")).isEqualTo(PageView.OTHER_URL);
+        assertThat(guard.admit("home")).isEqualTo("home");
+
+        assertThat(guard.getTrackedPages()).isEqualTo(2);
+        assertThat(meterRegistry.counter("analytics.pages.overflow.events").count()).isEqualTo(2);
+        assertThat(meterRegistry.get("analytics.pages.tracked").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void testHotOverflowUrlDisplacesQuietPage() {
+        // Given - two pages tracked in the previous window, cart the quieter one
+        guard.admit("home");
+        guard.admit("home");
+        guard.admit("cart");
+        now.addAndGet(WINDOW);
+        guard.admit("home");
+
+        // When/Then - the URL is promoted once it has 3 events, taking the slot of the page without events
+        assertThat(guard.admit("sale")).isEqualTo(PageView.OTHER_URL);
+        assertThat(guard.admit("sale")).isEqualTo(PageView.OTHER_URL);
+        assertThat(guard.admit("sale")).isEqualTo("sale");
+        assertThat(guard.admit("sale")).isEqualTo("sale");
+        assertThat(guard.admit("cart")).isEqualTo(PageView.OTHER_URL);
+        assertThat(guard.admit("home")).isEqualTo("home");
+        assertThat(meterRegistry.counter("analytics.pages.promotions").count()).isEqualTo(1);
+    }
+
+    @Test
+    void testBusierPagesAreNotDisplaced() {
+        // Given
+        guard.admit("home");
+        guard.admit("cart");
+        now.addAndGet(WINDOW);
+        for (int i = 0; i < 5; i++) {
+            guard.admit("home");
+            guard.admit("cart");
+        }
+
+        // When/Then - both tracked pages had more events than the overflow URL
+        for (int i = 0; i < 4; i++) {
+            assertThat(guard.admit("sale")).isEqualTo(PageView.OTHER_URL);
+        }
+        assertThat(meterRegistry.counter("analytics.pages.promotions").count()).isZero();
+    }
+
+    @Test
+    void testIdlePagesAreDroppedAndOverflowRateIsReported() {
+        // Given - 2 of 4 events over the cap
+        guard.admit("home");
+        guard.admit("cart");
+        guard.admit("random-1");
+        guard.admit("random-2");
+
+        // When - cart gets no events in the next window
+        now.addAndGet(WINDOW);
+        guard.admit("home");
+        assertThat(guard.getOverflowRate()).isEqualTo(0.5);
+        now.addAndGet(WINDOW);
+
+        // Then - its slot is free again
+        assertThat(guard.admit("checkout")).isEqualTo("checkout");
+        assertThat(guard.getTrackedPages()).isEqualTo(2);
+        assertThat(meterRegistry.get("analytics.pages.overflow.rate").gauge().value()).isZero();
+    }
+
+    @Test
+    void testZeroCapTracksEveryPage() {
+        guard = new PageCardinalityGuard(new SimpleMeterRegistry(), 0, WINDOW, 3, 8, now::get);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(guard.admit("page-" + i)).isEqualTo("page-" + i);
+        }
+    }
+}
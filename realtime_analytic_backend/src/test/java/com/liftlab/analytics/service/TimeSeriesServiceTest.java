@@ -0,0 +1,170 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.model.EventAggregate;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.SeriesMetric;
+import com.liftlab.analytics.model.SeriesPoint;
+import com.liftlab.analytics.model.SeriesResolution;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import com.liftlab.analytics.validation.ValidationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for TimeSeriesService
+ */
+@ExtendWith(MockitoExtension.class)
+class TimeSeriesServiceTest {
+
+    private static final long ONE_MINUTE = Duration.ofMinutes(1).toMillis();
+
+    @Mock
+    private MetricsStorageService storageService;
+
+    private TimeSeriesService timeSeriesService;
+
+    @BeforeEach
+    void setUp() {
+        timeSeriesService = new TimeSeriesService(storageService);
+    }
+
+    @Test
+    void testRecordGroupsEventsByBucketAtEveryResolution() {
+        // Given
+        long minute = SeriesResolution.MINUTE.bucketOf(System.currentTimeMillis()) * ONE_MINUTE;
+        List<EventRecord> records = List.of(
+                record("user1", minute),
+                record("user1", minute + 1_000),
+                record("user2", minute + ONE_MINUTE));
+        when(storageService.recordSeries(any(), any(), any())).thenReturn(Mono.empty());
+
+        // When
+        StepVerifier.create(timeSeriesService.record(records)).verifyComplete();
+
+        // Then
+        long bucket = SeriesResolution.MINUTE.bucketOf(minute);
+        verify(storageService).recordSeries(SeriesResolution.MINUTE,
+                Map.of(bucket, 2L, bucket + 1, 1L),
+                Map.of(bucket, Set.of("user1"), bucket + 1, Set.of("user2")));
+        verify(storageService).recordSeries(eq(SeriesResolution.HOUR), any(), any());
+    }
+
+    @Test
+    void testRecordAggregateMatchesRecordingTheEvents() {
+        // Given - the same events as a list and as a pre-aggregated tick
+        long minute = SeriesResolution.MINUTE.bucketOf(System.currentTimeMillis()) * ONE_MINUTE;
+        List<EventRecord> records = List.of(
+                record("user1", minute),
+                record("user1", minute + 1_000),
+                record("user2", minute + ONE_MINUTE));
+        when(storageService.recordSeries(any(), any(), any())).thenReturn(Mono.empty());
+
+        // When
+        StepVerifier.create(timeSeriesService.record(EventAggregate.of(records, false))).verifyComplete();
+
+        // Then
+        long bucket = SeriesResolution.MINUTE.bucketOf(minute);
+        verify(storageService).recordSeries(SeriesResolution.MINUTE,
+                Map.of(bucket, 2L, bucket + 1, 1L),
+                Map.of(bucket, Set.of("user1"), bucket + 1, Set.of("user2")));
+        long hour = SeriesResolution.HOUR.bucketOf(minute);
+        long nextHour = SeriesResolution.HOUR.bucketOf(minute + ONE_MINUTE);
+        Map<Long, Set<String>> hourUsers = hour == nextHour
+                ? Map.of(hour, Set.of("user1", "user2"))
+                : Map.of(hour, Set.of("user1"), nextHour, Set.of("user2"));
+        verify(storageService).recordSeries(eq(SeriesResolution.HOUR), any(), eq(hourUsers));
+    }
+
+    @Test
+    void testGetSeriesSumsBucketsPerStep() {
+        // Given - ten minutes, two hours ago, in 5 minute steps
+        long from = (System.currentTimeMillis() / Duration.ofHours(1).toMillis() - 2) * Duration.ofHours(1).toMillis();
+        long first = SeriesResolution.MINUTE.bucketOf(from);
+        when(storageService.getSeries(SeriesMetric.PAGE_VIEWS, SeriesResolution.MINUTE, first, first + 14))
+                .thenReturn(Mono.just(Map.of(first, 2L, first + 4, 3L, first + 5, 7L)));
+
+        // When/Then
+        StepVerifier.create(timeSeriesService.getSeries(SeriesMetric.PAGE_VIEWS,
+                        Instant.ofEpochMilli(from), Instant.ofEpochMilli(from + 10 * ONE_MINUTE), Duration.ofMinutes(5)))
+                .assertNext(response -> {
+                    assertThat(response.getMetric()).isEqualTo("pageViews");
+                    assertThat(response.getStep()).isEqualTo("5m");
+                    assertThat(response.getResolution()).isEqualTo("1m");
+                    assertThat(response.getPoints().stream().map(SeriesPoint::getValue).collect(Collectors.toList()))
+                            .containsExactly(5L, 7L, 0L);
+                    assertThat(response.getPoints().get(1).getTimestamp())
+                            .isEqualTo(Instant.ofEpochMilli(from + 5 * ONE_MINUTE));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testGetSeriesReadsHoursForHourlySteps() {
+        // Given
+        Instant to = Instant.now();
+        when(storageService.getSeries(eq(SeriesMetric.ACTIVE_USERS), eq(SeriesResolution.HOUR), anyLong(), anyLong()))
+                .thenReturn(Mono.just(Map.of()));
+
+        // When/Then
+        StepVerifier.create(timeSeriesService.getSeries(SeriesMetric.ACTIVE_USERS,
+                        to.minus(Duration.ofDays(7)), to, Duration.ofHours(1)))
+                .assertNext(response -> {
+                    assertThat(response.getResolution()).isEqualTo("1h");
+                    assertThat(response.getPoints()).hasSize(7 * 24 + 1);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testGetSeriesRejectsUnservableQueries() {
+        Instant to = Instant.now();
+
+        // Distinct users of several minutes do not add up
+        StepVerifier.create(timeSeriesService.getSeries(SeriesMetric.ACTIVE_USERS,
+                        to.minus(Duration.ofHours(1)), to, Duration.ofMinutes(5)))
+                .expectError(ValidationException.class)
+                .verify();
+        // Minutes are not kept that long
+        StepVerifier.create(timeSeriesService.getSeries(SeriesMetric.PAGE_VIEWS,
+                        to.minus(Duration.ofDays(3)), to, Duration.ofMinutes(5)))
+                .expectError(ValidationException.class)
+                .verify();
+        // Too many points
+        StepVerifier.create(timeSeriesService.getSeries(SeriesMetric.PAGE_VIEWS,
+                        to.minus(Duration.ofHours(48)), to, Duration.ofMinutes(1)))
+                .expectError(ValidationException.class)
+                .verify();
+        StepVerifier.create(timeSeriesService.getSeries(SeriesMetric.PAGE_VIEWS, to, to, Duration.ofMinutes(1)))
+                .expectError(ValidationException.class)
+                .verify();
+
+        verifyNoInteractions(storageService);
+    }
+
+    private static EventRecord record(String userId, long timestamp) {
+        return EventRecord.builder()
+                .userId(userId)
+                .sessionId("sess1")
+                .pageUrl("home")
+                .eventType("page_view")
+                .timestamp(timestamp)
+                .build();
+    }
+}
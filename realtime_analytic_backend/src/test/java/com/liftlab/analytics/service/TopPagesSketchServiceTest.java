@@ -0,0 +1,184 @@
+package com.liftlab.analytics.service;
+
+import com.liftlab.analytics.metrics.TopPagesMetric;
+import com.liftlab.analytics.metrics.model.MetricContext;
+import com.liftlab.analytics.model.EventRecord;
+import com.liftlab.analytics.model.PageView;
+import com.liftlab.analytics.repository.MetricsStorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for TopPagesSketchService
+ */
+@ExtendWith(MockitoExtension.class)
+class TopPagesSketchServiceTest {
+
+    private static final long MINUTE = Duration.ofMinutes(1).toMillis();
+
+    @Mock
+    private MetricsStorageService storageService;
+
+    private final AtomicLong now = new AtomicLong(1_000 * MINUTE);
+    // minute -> node id -> sketch, as saved through the storage
+    private final Map<Long, Map<String, String>> saved = new TreeMap<>();
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(storageService.saveTopPagesSketch(anyLong(), anyString(), anyString(), any()))
+                .thenAnswer(invocation -> {
+                    saved.computeIfAbsent(invocation.getArgument(0), key -> new TreeMap<>())
+                            .put(invocation.getArgument(1), invocation.getArgument(2));
+                    return Mono.empty();
+                });
+        lenient().when(storageService.getTopPagesSketches(anyLong(), anyLong()))
+                .thenAnswer(invocation -> {
+                    List<String> sketches = new ArrayList<>();
+                    saved.forEach((minute, byNode) -> {
+                        if (minute >= (long) invocation.getArgument(0) && minute <= (long) invocation.getArgument(1)) {
+                            sketches.addAll(byNode.values());
+                        }
+                    });
+                    return Mono.just(sketches);
+                });
+    }
+
+    @Test
+    void testTopPagesMergeMinutesAndNodes() {
+        // Given - two nodes, and views over two minutes
+        TopPagesSketchService node1 = sketchService("node-1");
+        TopPagesSketchService node2 = sketchService("node-2");
+        node1.record(views("home", 5, now.get() - MINUTE));
+        node1.record(views("cart", 3, now.get()));
+        node2.record(views("cart", 4, now.get()));
+        node2.record(views("about", 1, now.get()));
+
+        // When
+        StepVerifier.create(node1.flush().then(node2.flush())).verifyComplete();
+
+        // Then
+        StepVerifier.create(node1.getTopPages(2, now.get() - 15 * MINUTE, now.get()))
+                .assertNext(pages -> {
+                    assertThat(pages).extracting(PageView::getUrl).containsExactly("/cart", "/home");
+                    assertThat(pages).extracting(PageView::getViewCount).containsExactly(7L, 5L);
+                })
+                .verifyComplete();
+        assertThat(saved.get(now.get() / MINUTE)).containsOnlyKeys("node-1", "node-2");
+    }
+
+    @Test
+    void testFlushSavesOnlyChangedMinutes() {
+        // Given
+        TopPagesSketchService service = sketchService("node-1");
+        service.record(views("home", 2, now.get()));
+        StepVerifier.create(service.flush()).verifyComplete();
+
+        // When - nothing recorded since
+        StepVerifier.create(service.flush()).verifyComplete();
+
+        // Then
+        verify(storageService, times(1)).saveTopPagesSketch(anyLong(), anyString(), anyString(), any());
+    }
+
+    @Test
+    void testFailedSaveIsRetriedOnNextFlush() {
+        // Given
+        TopPagesSketchService service = sketchService("node-1");
+        service.record(views("home", 2, now.get()));
+        doReturn(Mono.error(new RuntimeException("Redis down"))).doReturn(Mono.empty())
+                .when(storageService).saveTopPagesSketch(anyLong(), anyString(), anyString(), any());
+
+        // When
+        StepVerifier.create(service.flush()).verifyComplete();
+        StepVerifier.create(service.flush()).verifyComplete();
+
+        // Then
+        verify(storageService, times(2)).saveTopPagesSketch(eq(now.get() / MINUTE), eq("node-1"), anyString(), any());
+    }
+
+    @Test
+    void testDisabledEngineRecordsNothing() {
+        TopPagesSketchService service = new TopPagesSketchService(storageService, now::get);
+
+        service.record(views("home", 2, now.get()));
+        StepVerifier.create(service.flush()).verifyComplete();
+
+        assertThat(service.covers(now.get() - MINUTE, now.get())).isFalse();
+        verifyNoInteractions(storageService);
+    }
+
+    @Test
+    void testCoversWindowsWithinRetention() {
+        TopPagesSketchService service = sketchService("node-1");
+
+        assertThat(service.covers(now.get() - 15 * MINUTE, now.get())).isTrue();
+        assertThat(service.covers(now.get() - 60 * MINUTE, now.get())).isFalse();
+    }
+
+    @Test
+    void testTopPagesMetricReadsSketchesForTheDefaultWindowAfterTheClockMoved() {
+        // Given - the context is taken before the clock moves on, as on a real request
+        TopPagesSketchService service = sketchService("node-1");
+        service.record(views("home", 3, now.get()));
+        StepVerifier.create(service.flush()).verifyComplete();
+        long contextTime = now.get();
+        MetricContext context = MetricContext.builder()
+                .currentTimestamp(contextTime)
+                .fiveMinutesAgo(contextTime - 5 * MINUTE)
+                .fifteenMinutesAgo(contextTime - 15 * MINUTE)
+                .storageService(storageService)
+                .build();
+        now.addAndGet(250);
+
+        // When/Then
+        StepVerifier.create(new TopPagesMetric(service).calculate(context))
+                .assertNext(result -> {
+                    @SuppressWarnings("unchecked")
+                    List<PageView> pages = (List<PageView>) result.getValue();
+                    assertThat(pages).extracting(PageView::getViewCount).containsExactly(3L);
+                })
+                .verifyComplete();
+        verify(storageService, never()).getTopPages(anyInt(), anyLong());
+    }
+
+    private TopPagesSketchService sketchService(String nodeId) {
+        TopPagesSketchService service = new TopPagesSketchService(storageService, now::get);
+        ReflectionTestUtils.setField(service, "engine", TopPagesSketchService.Engine.SKETCH);
+        ReflectionTestUtils.setField(service, "nodeId", nodeId);
+        return service;
+    }
+
+    private static List<EventRecord> views(String pageUrl, int count, long timestamp) {
+        List<EventRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(EventRecord.builder()
+                    .userId("user" + i)
+                    .sessionId("sess" + i)
+                    .pageUrl(pageUrl)
+                    .eventType("page_view")
+                    .timestamp(timestamp)
+                    .build());
+        }
+        return records;
+    }
+}
@@ -0,0 +1,65 @@
+package com.liftlab.analytics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for CountMinSketch
+ */
+class CountMinSketchTest {
+
+    @Test
+    void testEstimatesNeverUndercount() {
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+        for (int i = 0; i < 2_000; i++) {
+            sketch.add("page-" + (i % 500), 1);
+        }
+        sketch.add("home", 1_000);
+
+        assertThat(sketch.estimate("home")).isBetween(1_000L, 1_100L);
+        for (int i = 0; i < 500; i++) {
+            assertThat(sketch.estimate("page-" + i)).isGreaterThanOrEqualTo(4);
+        }
+    }
+
+    @Test
+    void testWidthIsRoundedUpToAPowerOfTwo() {
+        assertThat(new CountMinSketch(2, 1000).getWidth()).isEqualTo(1024);
+        assertThat(new CountMinSketch(2, 1024).getWidth()).isEqualTo(1024);
+    }
+
+    @Test
+    void testMergeAddsCounts() {
+        CountMinSketch first = new CountMinSketch(4, 64);
+        CountMinSketch second = new CountMinSketch(4, 64);
+        first.add("home", 3);
+        second.add("home", 4);
+
+        first.merge(second);
+
+        assertThat(first.estimate("home")).isEqualTo(7);
+        assertThatThrownBy(() -> first.merge(new CountMinSketch(2, 64)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testSerializationRoundTrip() throws IOException {
+        CountMinSketch sketch = new CountMinSketch(3, 32);
+        sketch.add("home", 12);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.writeTo(new DataOutputStream(bytes));
+        CountMinSketch read = CountMinSketch.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(read.getDepth()).isEqualTo(3);
+        assertThat(read.estimate("home")).isEqualTo(12);
+    }
+}
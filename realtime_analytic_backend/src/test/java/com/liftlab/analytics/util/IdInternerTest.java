@@ -0,0 +1,66 @@
+package com.liftlab.analytics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for IdInterner
+ */
+class IdInternerTest {
+
+    @Test
+    void testInternAssignsDenseIdsOncePerString() {
+        // Given
+        IdInterner interner = new IdInterner();
+
+        // When
+        int first = interner.intern("user1");
+        int second = interner.intern("user2");
+        int again = interner.intern(new String("user1"));
+
+        // Then
+        assertThat(first).isZero();
+        assertThat(second).isEqualTo(1);
+        assertThat(again).isEqualTo(first);
+        assertThat(interner.size()).isEqualTo(2);
+        assertThat(interner.get(second)).isEqualTo("user2");
+    }
+
+    @Test
+    void testFindDoesNotAssignIds() {
+        // Given
+        IdInterner interner = new IdInterner();
+        interner.intern("/home");
+
+        // When/Then
+        assertThat(interner.find("/home")).isZero();
+        assertThat(interner.find("/about")).isEqualTo(IdInterner.UNKNOWN);
+        assertThat(interner.size()).isEqualTo(1);
+        assertThatThrownBy(() -> interner.get(1)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void testKeepsEveryIdAcrossGrowth() {
+        // Given
+        IdInterner interner = new IdInterner();
+        Map<String, Integer> expected = new HashMap<>();
+
+        // When - enough strings to grow the table several times
+        for (int i = 0; i < 10_000; i++) {
+            String value = "session-" + i;
+            expected.put(value, interner.intern(value));
+        }
+
+        // Then
+        assertThat(interner.size()).isEqualTo(10_000);
+        expected.forEach((value, id) -> {
+            assertThat(interner.find(value)).isEqualTo(id);
+            assertThat(interner.get(id)).isEqualTo(value);
+        });
+    }
+}
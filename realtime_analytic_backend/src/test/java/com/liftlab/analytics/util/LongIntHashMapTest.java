@@ -0,0 +1,114 @@
+package com.liftlab.analytics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for LongIntHashMap
+ */
+class LongIntHashMapTest {
+
+    @Test
+    void testPutGetAndAddTo() {
+        // Given
+        LongIntHashMap map = new LongIntHashMap();
+
+        // When
+        map.put(1L, 10);
+        map.addTo(2L, 5);
+        map.addTo(2L, 3);
+
+        // Then
+        assertThat(map.get(1L, -1)).isEqualTo(10);
+        assertThat(map.get(2L, -1)).isEqualTo(8);
+        assertThat(map.get(3L, -1)).isEqualTo(-1);
+        assertThat(map.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testCounterReachingZeroIsRemoved() {
+        // Given
+        LongIntHashMap map = new LongIntHashMap();
+        map.addTo(7L, 2);
+
+        // When
+        map.addTo(7L, -2);
+
+        // Then
+        assertThat(map.containsKey(7L)).isFalse();
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    void testMatchesHashMapUnderRandomOperations() {
+        // Given
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        // When - keys from a small range force collisions, growth and removals
+        for (int i = 0; i < 50_000; i++) {
+            long key = random.nextInt(2_000);
+            switch (random.nextInt(3)) {
+                case 0:
+                    map.put(key, i);
+                    expected.put(key, i);
+                    break;
+                case 1:
+                    int delta = random.nextInt(5) - 2;
+                    map.addTo(key, delta);
+                    int value = expected.getOrDefault(key, 0) + delta;
+                    if (value == 0) {
+                        expected.remove(key);
+                    } else {
+                        expected.put(key, value);
+                    }
+                    break;
+                default:
+                    map.remove(key);
+                    expected.remove(key);
+            }
+        }
+
+        // Then
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key, Integer.MIN_VALUE)).isEqualTo(value));
+        Map<Long, Integer> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void testRemoveIfAndReplaceKeys() {
+        // Given
+        LongIntHashMap map = new LongIntHashMap();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, (int) key);
+        }
+
+        // When
+        int removed = map.removeIf((key, value) -> value < 90);
+        map.replaceKeys(key -> key - 90);
+
+        // Then
+        assertThat(removed).isEqualTo(90);
+        assertThat(map.size()).isEqualTo(10);
+        assertThat(map.get(0L, -1)).isEqualTo(90);
+        assertThat(map.get(9L, -1)).isEqualTo(99);
+    }
+
+    @Test
+    void testNegativeKeysAreRejected() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        assertThatThrownBy(() -> map.put(-1L, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
+
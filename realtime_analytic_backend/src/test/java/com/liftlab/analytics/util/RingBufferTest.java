@@ -0,0 +1,105 @@
+package com.liftlab.analytics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for RingBuffer
+ */
+class RingBufferTest {
+
+    @Test
+    void testCapacityIsRoundedUpToAPowerOfTwo() {
+        assertThat(new RingBuffer<>(5, 1, AtomicLong::new).getCapacity()).isEqualTo(8);
+        assertThat(new RingBuffer<>(8, 1, AtomicLong::new).getCapacity()).isEqualTo(8);
+    }
+
+    @Test
+    void testEntriesPassThroughStagesInOrder() {
+        RingBuffer<AtomicLong> ring = new RingBuffer<>(4, 2, AtomicLong::new);
+
+        long first = ring.tryClaim();
+        long second = ring.tryClaim();
+        ring.get(second).set(20);
+        ring.publish(second);
+
+        // The first stage waits for the unpublished first sequence
+        assertThat(ring.available(0)).isEqualTo(-1);
+
+        ring.get(first).set(10);
+        ring.publish(first);
+        assertThat(ring.available(0)).isEqualTo(second);
+        assertThat(ring.available(1)).isEqualTo(-1);
+
+        ring.release(0, second);
+        assertThat(ring.available(1)).isEqualTo(second);
+        assertThat(ring.get(first).get()).isEqualTo(10);
+        assertThat(ring.get(second).get()).isEqualTo(20);
+        assertThat(ring.depth()).isEqualTo(2);
+    }
+
+    @Test
+    void testClaimFailsUntilTheLastStageReleasesAnEntry() {
+        RingBuffer<AtomicLong> ring = new RingBuffer<>(2, 2, AtomicLong::new);
+        ring.publish(ring.tryClaim());
+        ring.publish(ring.tryClaim());
+
+        assertThat(ring.tryClaim()).isEqualTo(-1);
+
+        // Released by the first stage only: still in use
+        ring.release(0, 0);
+        assertThat(ring.tryClaim()).isEqualTo(-1);
+
+        ring.release(1, 0);
+        long reused = ring.tryClaim();
+        assertThat(reused).isEqualTo(2);
+        assertThat(ring.get(reused)).isSameAs(ring.get(0));
+        // The reused slot is not readable until its new sequence is published
+        assertThat(ring.available(0)).isEqualTo(1);
+    }
+
+    @Test
+    void testConcurrentProducersPublishEverySequenceOnce() throws InterruptedException {
+        RingBuffer<AtomicLong> ring = new RingBuffer<>(64, 1, AtomicLong::new);
+        int producers = 4;
+        int perProducer = 10_000;
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    long sequence;
+                    while ((sequence = ring.tryClaim()) < 0) {
+                        Thread.yield();
+                    }
+                    ring.get(sequence).set(1);
+                    ring.publish(sequence);
+                }
+                done.countDown();
+            }).start();
+        }
+
+        // Single consumer stage sums the entries and hands them back
+        long total = 0;
+        long next = 0;
+        while (next < (long) producers * perProducer) {
+            long available = ring.available(0);
+            if (available < next) {
+                Thread.yield();
+                continue;
+            }
+            for (long sequence = next; sequence <= available; sequence++) {
+                total += ring.get(sequence).getAndSet(0);
+            }
+            ring.release(0, available);
+            next = available + 1;
+        }
+        done.await();
+
+        assertThat(total).isEqualTo((long) producers * perProducer);
+        assertThat(ring.depth()).isZero();
+    }
+}
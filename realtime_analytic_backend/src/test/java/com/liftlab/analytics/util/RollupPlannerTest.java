@@ -0,0 +1,102 @@
+package com.liftlab.analytics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for RollupPlanner (seconds kept 5 minutes, minutes a day, hours a month)
+ */
+class RollupPlannerTest {
+
+    private static final long SECOND = 1;
+    private static final long MINUTE = 60;
+    private static final long HOUR = 3600;
+
+    private final RollupPlanner planner = new RollupPlanner(
+            new long[] {SECOND, MINUTE, HOUR},
+            new long[] {5 * MINUTE, 24 * HOUR, 31 * 24 * HOUR});
+
+    @Test
+    void testShortWindowUsesSecondsThenCoarserAlignedBuckets() {
+        // Given - 10:02:30, window starting at 09:57:30
+        long end = 10 * HOUR + 2 * MINUTE + 30;
+        long start = end - 5 * MINUTE;
+
+        // When
+        List<long[]> buckets = cover(start, end);
+
+        // Then - 30 seconds up to 09:58, two minutes, then the hour from 10:00
+        assertThat(buckets).hasSize(33);
+        assertThat(buckets.get(0)).containsExactly(0, start);
+        assertThat(buckets.get(30)).containsExactly(1, 9 * 60 + 58);
+        assertThat(buckets.get(31)).containsExactly(1, 9 * 60 + 59);
+        assertThat(buckets.get(32)).containsExactly(2, 10);
+    }
+
+    @Test
+    void testDayWindowStartsAtMinutesAndUsesHours() {
+        // Given
+        long end = 100 * HOUR + 20 * MINUTE + 5;
+        long start = end - 24 * HOUR;
+
+        // When
+        List<long[]> buckets = cover(start, end);
+
+        // Then - seconds are not kept that far back, so the start is rounded up to the next minute
+        assertThat(buckets.get(0)).containsExactly(1, 76 * 60 + 21);
+        assertThat(buckets.stream().filter(bucket -> bucket[0] == 0)).isEmpty();
+        assertThat(buckets.stream().filter(bucket -> bucket[0] == 2)).hasSize(24);
+        assertThat(buckets).hasSize(39 + 24);
+    }
+
+    @Test
+    void testWindowOfTheRetentionReadAMomentLaterStillUsesSeconds() {
+        // Given - a 5 minute window from 10:02:30, read one second after its start was taken
+        long start = 10 * HOUR + 2 * MINUTE + 30;
+        long end = start + 5 * MINUTE + SECOND;
+
+        // When
+        List<long[]> buckets = cover(start, end);
+
+        // Then - the start is not rounded up to 10:03
+        assertThat(buckets.get(0)).containsExactly(0, start);
+        assertThat(buckets.get(30)).containsExactly(1, 10 * 60 + 3);
+    }
+
+    @Test
+    void testBucketsCoverWindowWithoutGapsOrOverlap() {
+        // Given
+        long end = 12345 * MINUTE + 17;
+
+        for (long length : new long[] {MINUTE, 5 * MINUTE, 15 * MINUTE, HOUR, 24 * HOUR}) {
+            // When
+            List<long[]> buckets = cover(end - length, end);
+
+            // Then - each bucket starts where the previous one ended
+            long expectedStart = buckets.get(0)[1] * planner.bucketSize((int) buckets.get(0)[0]);
+            for (long[] bucket : buckets) {
+                long bucketStart = bucket[1] * planner.bucketSize((int) bucket[0]);
+                assertThat(bucketStart).isEqualTo(expectedStart);
+                expectedStart = bucketStart + planner.bucketSize((int) bucket[0]);
+            }
+            assertThat(expectedStart).isGreaterThan(end);
+        }
+    }
+
+    @Test
+    void testRejectsResolutionsOutOfOrder() {
+        assertThatThrownBy(() -> new RollupPlanner(new long[] {MINUTE, SECOND}, new long[] {HOUR, HOUR}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<long[]> cover(long start, long end) {
+        List<long[]> buckets = new ArrayList<>();
+        planner.cover(start, end, (resolution, bucket) -> buckets.add(new long[] {resolution, bucket}));
+        return buckets;
+    }
+}
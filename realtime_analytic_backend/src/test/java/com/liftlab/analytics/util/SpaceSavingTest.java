@@ -0,0 +1,56 @@
+package com.liftlab.analytics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for SpaceSaving
+ */
+class SpaceSavingTest {
+
+    @Test
+    void testCountsAreExactWhileUnderCapacity() {
+        SpaceSaving sketch = new SpaceSaving(4);
+
+        sketch.offer("a", 3);
+        sketch.offer("b", 1);
+        assertThat(sketch.offer("a", 2)).isEqualTo(5);
+
+        assertThat(sketch.guaranteed("a")).isEqualTo(5);
+        assertThat(sketch.guaranteed("b")).isEqualTo(1);
+        assertThat(sketch.guaranteed("c")).isZero();
+    }
+
+    @Test
+    void testHeavyHittersSurviveAStreamOfDistinctItems() {
+        SpaceSaving sketch = new SpaceSaving(8);
+
+        for (int i = 0; i < 1_000; i++) {
+            sketch.offer("hot", 1);
+            sketch.offer("cold-" + i, 1);
+        }
+
+        assertThat(sketch.size()).isEqualTo(8);
+        List<SpaceSaving.Counter> top = sketch.top(1);
+        assertThat(top.get(0).getItem()).isEqualTo("hot");
+        assertThat(top.get(0).getGuaranteed()).isEqualTo(1_000);
+    }
+
+    @Test
+    void testNewItemInheritsSmallestCountAsError() {
+        SpaceSaving sketch = new SpaceSaving(2);
+        sketch.offer("a", 5);
+        sketch.offer("b", 2);
+
+        // Takes b's counter: at most 3 occurrences, at least 1
+        assertThat(sketch.offer("c", 1)).isEqualTo(1);
+
+        assertThat(sketch.guaranteed("b")).isZero();
+        assertThat(sketch.top(2).stream().map(SpaceSaving.Counter::getCount).collect(Collectors.toList()))
+                .containsExactly(5L, 3L);
+    }
+}
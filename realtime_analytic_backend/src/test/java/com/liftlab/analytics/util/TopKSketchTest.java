@@ -0,0 +1,43 @@
+package com.liftlab.analytics.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for TopKSketch
+ */
+class TopKSketchTest {
+
+    @Test
+    void testTopItemsAmongManyDistinctOnes() {
+        TopKSketch sketch = new TopKSketch(4, 1024, 20);
+        for (int i = 0; i < 10_000; i++) {
+            sketch.add("random-" + i, 1);
+        }
+        sketch.add("home", 500);
+        sketch.add("cart", 300);
+
+        assertThat(sketch.top(2)).containsOnlyKeys("home", "cart");
+        assertThat(sketch.top(2).keySet()).containsExactly("home", "cart");
+    }
+
+    @Test
+    void testMergedSketchesSurviveSerialization() {
+        TopKSketch node1 = new TopKSketch(4, 256, 10);
+        TopKSketch node2 = new TopKSketch(4, 256, 10);
+        node1.add("home", 5);
+        node1.add("about", 2);
+        node2.add("cart", 3);
+        node2.add("about", 2);
+
+        TopKSketch merged = new TopKSketch(4, 256, 10);
+        merged.merge(TopKSketch.deserialize(node1.serialize()));
+        merged.merge(TopKSketch.deserialize(node2.serialize()));
+
+        assertThat(merged.top(3)).containsExactly(
+                Map.entry("home", 5L), Map.entry("about", 4L), Map.entry("cart", 3L));
+    }
+}
@@ -3,6 +3,8 @@ package com.liftlab.analytics.util;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
@@ -139,9 +141,64 @@ class UrlNormalizerTest {
         // When
         String result = urlNormalizer.normalize(url);
 
-        // Then
-        assertThat(result).isEqualTo("products/item/123");
+        // Then - the numeric id is collapsed as well
+        assertThat(result).isEqualTo("products/item/{id}");
         assertThat(result).doesNotStartWith("/");
     }
+
+    @Test
+    void testNormalizeCollapsesIdSegments() {
+        assertThat(urlNormalizer.normalize("/products/detail/123")).isEqualTo("products/detail/{id}");
+        assertThat(urlNormalizer.normalize("/orders/3F2504E0-4F89-11D3-9A0C-0305E82C3301/items/7?ref=mail"))
+                .isEqualTo("orders/{id}/items/{id}");
+        assertThat(urlNormalizer.normalize("/users/507f1f77bcf86cd799439011/profile"))
+                .isEqualTo("users/{id}/profile");
+    }
+
+    @Test
+    void testNormalizeKeepsWordSegments() {
+        assertThat(urlNormalizer.normalize("/cafe/beef")).isEqualTo("cafe/beef");
+        assertThat(urlNormalizer.normalize("/products/item-123")).isEqualTo("products/item-123");
+        assertThat(urlNormalizer.normalize("/v2/checkout")).isEqualTo("v2/checkout");
+    }
+
+    @Test
+    void testNormalizeAppliesRouteTemplatesFirst() {
+        // Given
+        UrlNormalizer normalizer = new UrlNormalizer(
+                List.of("/products/{category}/{slug}", "/blog/{slug}/"), true, 100);
+
+        // When/Then
+        assertThat(normalizer.normalize("/Products/Shoes/Red-Sneaker")).isEqualTo("products/{category}/{slug}");
+        assertThat(normalizer.normalize("/blog/hello-world?utm=x")).isEqualTo("blog/{slug}");
+        // Literal segments must match, and so must the number of segments
+        assertThat(normalizer.normalize("/blog/hello-world/comments")).isEqualTo("blog/hello-world/comments");
+        assertThat(normalizer.normalize("/cart/42")).isEqualTo("cart/{id}");
+    }
+
+    @Test
+    void testNormalizeWithoutIdDetection() {
+        // Given
+        UrlNormalizer normalizer = new UrlNormalizer(List.of(), false, 100);
+
+        // When/Then
+        assertThat(normalizer.normalize("/products/detail/123")).isEqualTo("products/detail/123");
+    }
+
+    @Test
+    void testNormalizeCacheStaysBounded() {
+        // Given
+        UrlNormalizer normalizer = new UrlNormalizer(List.of(), true, 10);
+
+        // When - more distinct URLs than the cache holds, then repeats
+        for (int i = 0; i < 25; i++) {
+            assertThat(normalizer.normalize("/page/" + i + "?q=" + i)).isEqualTo("page/{id}");
+        }
+
+        // Then
+        assertThat(normalizer.normalize("/page/3?q=3")).isEqualTo("page/{id}");
+        assertThat(normalizer.normalize("/HOME/")).isEqualTo("home");
+        assertThat(normalizer.normalize("/HOME/")).isEqualTo("home");
+    }
 }
 
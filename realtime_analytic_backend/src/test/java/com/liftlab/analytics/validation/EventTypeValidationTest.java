@@ -0,0 +1,59 @@
+package com.liftlab.analytics.validation;
+
+import com.liftlab.analytics.model.AnalyticsEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for EventTypeValidation
+ */
+class EventTypeValidationTest {
+
+    private EventTypeValidation eventTypeValidation;
+
+    @BeforeEach
+    void setUp() {
+        eventTypeValidation = new EventTypeValidation();
+    }
+
+    @Test
+    void testValidateWithValidEventType() {
+        // When
+        ValidationResult result = eventTypeValidation.validate(event("page_view"));
+
+        // Then
+        assertThat(result.isValid()).isTrue();
+    }
+
+    @Test
+    void testValidateWithMissingEventType() {
+        // When/Then
+        assertThat(eventTypeValidation.validate(event(null)).isValid()).isFalse();
+        assertThat(eventTypeValidation.validate(event("")).isValid()).isFalse();
+        assertThat(eventTypeValidation.validate(event("   ")).isValid()).isFalse();
+    }
+
+    @Test
+    void testValidateWithTooLongEventType() {
+        // When
+        ValidationResult result = eventTypeValidation.validate(event("x".repeat(65)));
+
+        // Then
+        assertThat(result.isValid()).isFalse();
+        assertThat(result.getErrorMessage()).contains("64");
+    }
+
+    private static AnalyticsEvent event(String eventType) {
+        return AnalyticsEvent.builder()
+                .timestamp(Instant.now())
+                .userId("usr_123")
+                .sessionId("sess_456")
+                .pageUrl("/home")
+                .eventType(eventType)
+                .build();
+    }
+}
@@ -35,7 +35,7 @@ function App() {
                   </span>
                 </div>
               )}
-              <p className="text-xs text-gray-500 mt-1">Auto-refreshes every 30 seconds</p>
+              <p className="text-xs text-gray-500 mt-1">Live updates</p>
             </div>
           </div>
         </div>
@@ -60,6 +60,8 @@ function App() {
           <div className="lg:col-span-1">
             <ActiveUsers 
               count={metrics?.activeUsersCount} 
+              mode={metrics?.activeUsersMode}
+              errorBound={metrics?.activeUsersErrorBound}
               loading={loading}
             />
           </div>
@@ -77,13 +79,15 @@ function App() {
         <div className="grid grid-cols-1">
           <ActiveSessions 
             sessionsByUser={metrics?.activeSessionsByUser} 
+            totalUsers={metrics?.activeSessionsUserCount}
+            totalSessions={metrics?.activeSessionsTotal}
             loading={loading}
           />
         </div>
 
         {/* Footer Info */}
         <div className="mt-8 text-center text-sm text-gray-500">
-          <p>Metrics are automatically refreshed every 30 seconds</p>
+          <p>Metrics are pushed live as soon as they change</p>
           {metrics?.timestamp && (
             <p className="mt-1">
               Data timestamp: {new Date(metrics.timestamp).toLocaleString()}
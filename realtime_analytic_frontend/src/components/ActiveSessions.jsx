@@ -2,12 +2,14 @@ import React from 'react';
 
 /**
  * Component to display active sessions by user (last 5 minutes)
+ * The backend sends only the users with the most sessions, plus totals over all active users
  */
-const ActiveSessions = ({ sessionsByUser, loading }) => {
-  const totalSessions = sessionsByUser 
+const ActiveSessions = ({ sessionsByUser, totalUsers, totalSessions: reportedSessions, loading }) => {
+  const shownUsers = sessionsByUser ? Object.keys(sessionsByUser).length : 0;
+  const totalSessions = reportedSessions ?? (sessionsByUser
     ? Object.values(sessionsByUser).reduce((sum, count) => sum + count, 0)
-    : 0;
-  const userCount = sessionsByUser ? Object.keys(sessionsByUser).length : 0;
+    : 0);
+  const userCount = totalUsers ?? shownUsers;
 
   return (
     <div className="bg-white rounded-lg shadow-md p-6 border border-gray-200">
@@ -22,7 +24,10 @@ const ActiveSessions = ({ sessionsByUser, loading }) => {
             <div className="text-2xl font-bold text-green-600">{totalSessions}</div>
           )}
         </div>
-        <p className="text-sm text-gray-500 mb-4">Last 5 minutes • {userCount} active user{userCount !== 1 ? 's' : ''}</p>
+        <p className="text-sm text-gray-500 mb-4">
+          Last 5 minutes • {userCount} active user{userCount !== 1 ? 's' : ''}
+          {shownUsers < userCount && ` • top ${shownUsers} shown`}
+        </p>
       </div>
 
       {loading ? (
@@ -2,8 +2,10 @@ import React from 'react';
 
 /**
  * Component to display active users count (last 5 minutes)
+ * In approximate mode the backend estimates the count and reports its relative standard error
  */
-const ActiveUsers = ({ count, loading }) => {
+const ActiveUsers = ({ count, mode, errorBound, loading }) => {
+  const approximate = mode === 'approximate';
   return (
     <div className="bg-white rounded-lg shadow-md p-6 border border-gray-200">
       <div className="flex items-center justify-between">
@@ -17,7 +19,7 @@ const ActiveUsers = ({ count, loading }) => {
               <div className="h-8 w-16 bg-gray-200 rounded"></div>
             </div>
           ) : (
-            <div className="text-3xl font-bold text-blue-600">{count ?? 0}</div>
+            <div className="text-3xl font-bold text-blue-600">{approximate ? '~' : ''}{count ?? 0}</div>
           )}
         </div>
       </div>
@@ -27,6 +29,9 @@ const ActiveUsers = ({ count, loading }) => {
             <path strokeLinecap="round" strokeLinejoin="round" strokeWidth={2} d="M12 4.354a4 4 0 110 5.292M15 21H3v-1a6 6 0 0112 0v1zm0 0h6v-1a6 6 0 00-9-5.197M13 7a4 4 0 11-8 0 4 4 0 018 0z" />
           </svg>
           Unique users with events in the last 5 minutes
+          {approximate && errorBound != null && (
+            <span className="ml-1 text-gray-400">(estimate, ±{(errorBound * 100).toFixed(2)}%)</span>
+          )}
         </div>
       </div>
     </div>
@@ -1,10 +1,12 @@
-import { useState, useEffect } from 'react';
+import { useState, useEffect, useCallback } from 'react';
 import { metricsApi } from '../services/api';
 
-const REFRESH_INTERVAL = 30000; // 30 seconds
+const REFRESH_INTERVAL = 30000; // 30 seconds, only used when the browser has no EventSource
 
 /**
- * Custom hook to fetch and auto-refresh metrics
+ * Custom hook to receive live metrics.
+ * Subscribes to the backend's metrics stream (one shared server-side computation for all
+ * dashboards) and falls back to polling when Server-Sent Events are not available.
  * @returns {Object} { metrics, loading, error, lastUpdated }
  */
 export const useMetrics = () => {
@@ -13,7 +15,7 @@ export const useMetrics = () => {
   const [error, setError] = useState(null);
   const [lastUpdated, setLastUpdated] = useState(null);
 
-  const fetchMetrics = async () => {
+  const fetchMetrics = useCallback(async () => {
     try {
       setError(null);
       const data = await metricsApi.getMetrics();
@@ -24,21 +26,48 @@ export const useMetrics = () => {
       setError(err.message || 'Failed to fetch metrics');
       setLoading(false);
     }
-  };
+  }, []);
 
   useEffect(() => {
-    // Initial fetch
-    fetchMetrics();
-
-    // Set up auto-refresh interval
-    const intervalId = setInterval(() => {
+    if (typeof EventSource === 'undefined') {
+      // Initial fetch
       fetchMetrics();
-    }, REFRESH_INTERVAL);
 
-    // Cleanup interval on unmount
-    return () => clearInterval(intervalId);
-  }, []);
+      // Set up auto-refresh interval
+      const intervalId = setInterval(() => {
+        fetchMetrics();
+      }, REFRESH_INTERVAL);
+
+      // Cleanup interval on unmount
+      return () => clearInterval(intervalId);
+    }
+
+    const source = metricsApi.streamMetrics();
+
+    // Full snapshot: sent on every (re)connect
+    source.addEventListener('metrics', (event) => {
+      setMetrics(JSON.parse(event.data));
+      setError(null);
+      setLastUpdated(new Date());
+      setLoading(false);
+    });
+
+    // Only the fields that changed since the previous frame
+    source.addEventListener('delta', (event) => {
+      const delta = JSON.parse(event.data);
+      setMetrics((previous) => ({ ...previous, ...delta }));
+      setLastUpdated(new Date());
+    });
+
+    // EventSource reconnects by itself; the next full frame clears the error
+    source.onerror = () => {
+      setError('Lost connection to metrics stream, reconnecting...');
+      setLoading(false);
+    };
+
+    // Close the stream on unmount
+    return () => source.close();
+  }, [fetchMetrics]);
 
   return { metrics, loading, error, lastUpdated, refresh: fetchMetrics };
 };
-
@@ -24,6 +24,24 @@ export const metricsApi = {
       throw error;
     }
   },
+
+  /**
+   * Fetch one page of active sessions per user (the metrics response only has the top users)
+   * @param {string} cursor - `nextCursor` of the previous page, or '0' for the first page
+   * @param {number} limit - Users to examine for this page
+   * @returns {Promise} Promise resolving to { users, nextCursor, timestamp }; nextCursor is null on the last page
+   */
+  getActiveSessions: async (cursor = '0', limit = 100) => {
+    const response = await apiClient.get('/metrics/sessions', { params: { cursor, limit } });
+    return response.data;
+  },
+
+  /**
+   * Open the metrics Server-Sent Events stream: a full `metrics` event on connect,
+   * then `delta` events carrying only the fields that changed
+   * @returns {EventSource} Event source (reconnects on its own after errors)
+   */
+  streamMetrics: () => new EventSource(`${API_BASE_URL}/metrics/stream`),
 };
 
 export default apiClient;